@@ -0,0 +1,146 @@
+package photo_renamer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the photos of the library in a directory, or in a directory and
+ * every directory below it, without looking at the photos anywhere else.
+ * Directories are kept as a tree of their names, split at \ and /, and
+ * each directory in the tree keeps its own photos by their keys in the
+ * photo library. Photos in different directories can be added and removed
+ * at the same time.
+ *
+ * @author Ben,Sara
+ *
+ */
+class DirectoryIndex {
+
+	private final Node root = new Node();
+
+	/**
+	 * Add a photo, or replace the photo with the same name in its directory
+	 *
+	 * @param <String> dir : the directory of the photo, with a trailing separator
+	 * @param <String> name : the name of the photo
+	 * @param <Photo> photo : the photo
+	 */
+	void add(String dir, String name, Photo photo) {
+		find(dir, true).photos.put(dir + name, photo);
+	}
+
+	/**
+	 * Remove a photo
+	 *
+	 * @param <String> dir : the directory of the photo, with a trailing separator
+	 * @param <String> name : the name of the photo
+	 */
+	void remove(String dir, String name) {
+		Node node = find(dir, false);
+		if (node != null) {
+			node.photos.remove(dir + name);
+		}
+	}
+
+	/**
+	 * Remove every photo
+	 */
+	void clear() {
+		root.children.clear();
+		root.photos.clear();
+	}
+
+	/**
+	 * Get the photos in a directory, not counting the directories below it
+	 *
+	 * @param <String> dir : the directory, with a trailing separator
+	 * @return <List> of <Photo> the photos, as they are now
+	 */
+	List<Photo> photosIn(String dir) {
+		List<Photo> photos = new ArrayList<Photo>();
+		Node node = find(dir, false);
+		if (node != null) {
+			addPhotos(node, dir, photos);
+		}
+		return photos;
+	}
+
+	/**
+	 * Get the photos in a directory and every directory below it
+	 *
+	 * @param <String> dir : the directory, with a trailing separator
+	 * @return <List> of <Photo> the photos, as they are now
+	 */
+	List<Photo> photosUnder(String dir) {
+		List<Photo> photos = new ArrayList<Photo>();
+		Node node = find(dir, false);
+		if (node != null) {
+			addSubtree(node, dir, photos);
+		}
+		return photos;
+	}
+
+	private static void addSubtree(Node node, String dir, List<Photo> photos) {
+		addPhotos(node, dir, photos);
+		for (Node child : node.children.values()) {
+			addSubtree(child, dir, photos);
+		}
+	}
+
+	/**
+	 * Add the photos of a node whose keys start with the directory, since
+	 * directories written with other separators share the node
+	 */
+	private static void addPhotos(Node node, String dir, List<Photo> photos) {
+		for (Map.Entry<String, Photo> entry : node.photos.entrySet()) {
+			if (entry.getKey().startsWith(dir)) {
+				photos.add(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Find the node of a directory, going down the tree one name at a time
+	 *
+	 * @param <String> dir : the directory
+	 * @param <boolean> create : true to add the nodes that are missing
+	 * @return <Node> the node, null if it is missing and not created
+	 */
+	private Node find(String dir, boolean create) {
+		Node node = root;
+		int start = 0;
+		//a trailing separator does not start another directory
+		while (start < dir.length()) {
+			int end = start;
+			while (end < dir.length() && dir.charAt(end) != '\\' && dir.charAt(end) != '/') {
+				end++;
+			}
+			String segment = dir.substring(start, end);
+			Node child = node.children.get(segment);
+			if (child == null) {
+				if (!create) {
+					return null;
+				}
+				Node added = new Node();
+				child = node.children.putIfAbsent(segment, added);
+				if (child == null) {
+					child = added;
+				}
+			}
+			node = child;
+			start = end + 1;
+		}
+		return node;
+	}
+
+	/**
+	 * A directory, with the directories directly below it by name and its
+	 * photos by their keys in the photo library
+	 */
+	private static class Node {
+		final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<String, Node>();
+		final ConcurrentHashMap<String, Photo> photos = new ConcurrentHashMap<String, Photo>();
+	}
+}
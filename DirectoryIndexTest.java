@@ -0,0 +1,59 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests DirectoryIndex
+ *
+ * @author Ben,Sara
+ */
+public class DirectoryIndexTest {
+
+	private static Photo photo(DirectoryIndex index, String dir, String name) {
+		Photo photo = new Photo(0, name, dir, name, new LinkedHashSet<String>());
+		index.add(dir, name, photo);
+		return photo;
+	}
+
+	/**
+	 * Tests that the photos of a directory and of everything below it are
+	 * found, and that removed photos are not
+	 */
+	@Test
+	public void testPhotosInAndUnder() {
+		DirectoryIndex index = new DirectoryIndex();
+		Photo top = photo(index, "C:\\shoots\\", "top.jpg");
+		Photo june = photo(index, "C:\\shoots\\2024\\", "june.jpg");
+		Photo july = photo(index, "C:\\shoots\\2024\\july\\", "july.jpg");
+		Photo other = photo(index, "C:\\shoots\\2024x\\", "other.jpg");
+		Photo slash = photo(index, "C:/shoots/2024/", "slash.jpg");
+
+		List<Photo> in = index.photosIn("C:\\shoots\\2024\\");
+		assertEquals(1, in.size());
+		assertSame(june, in.get(0));
+		assertEquals(new HashSet<Photo>(Arrays.asList(june, july)),
+				new HashSet<Photo>(index.photosUnder("C:\\shoots\\2024\\")));
+		//a directory written with / is not under one written with \
+		assertEquals(4, index.photosUnder("C:\\").size());
+		assertEquals(1, index.photosIn("C:/shoots/2024/").size());
+		assertTrue(index.photosIn("C:\\missing\\").isEmpty());
+		assertTrue(index.photosUnder("D:\\").isEmpty());
+
+		index.remove("C:\\shoots\\2024\\july\\", "july.jpg");
+		index.remove("C:\\shoots\\", "nothing.jpg");
+		assertEquals(1, index.photosUnder("C:\\shoots\\2024\\").size());
+		assertTrue(index.photosIn("C:\\shoots\\").contains(top));
+		assertTrue(index.photosIn("C:\\shoots\\2024x\\").contains(other));
+		assertTrue(index.photosUnder("C:/").contains(slash));
+
+		index.clear();
+		assertTrue(index.photosUnder("C:\\").isEmpty());
+	}
+}
@@ -0,0 +1,245 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds all the images in a directory and its sub directories. Each directory
+ * is listed by its own fork join task so sub directories are read in
+ * parallel, and the images found are handed to a listener in batches while
+ * the scan is still going, so they can be shown right away. A scan can be
+ * cancelled, and can be limited to a number of levels below the root.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class DirectoryScanner {
+	// the default number of images handed to the listener at a time
+	public static final int DEFAULT_BATCH_SIZE = 200;
+	// scan every level below the root
+	public static final int NO_DEPTH_LIMIT = Integer.MAX_VALUE;
+
+	private final Path root;
+	private final int maxDepth;
+	private final int batchSize;
+	private final ImageClassifier classifier;
+	private final ForkJoinPool pool;
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+	// images found that have not been handed to the listener yet
+	private List<File> batch = new ArrayList<File>();
+	private BatchListener listener;
+
+	/**
+	 * Create a scanner that reads every level below the root directory
+	 *
+	 * @param <File> rootDir : the directory to scan
+	 */
+	public DirectoryScanner(File rootDir) {
+		this(rootDir, NO_DEPTH_LIMIT, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a scanner
+	 *
+	 * @param <File> rootDir : the directory to scan
+	 * @param <int> maxDepth : how many levels of sub directories to read, 0 for
+	 *            only the root directory
+	 * @param <int> batchSize : how many images to hand to the listener at a time
+	 */
+	public DirectoryScanner(File rootDir, int maxDepth, int batchSize) {
+		this(rootDir, maxDepth, batchSize, ImageClassifier.BY_EXTENSION);
+	}
+
+	/**
+	 * Create a scanner that decides which files are images with a classifier,
+	 * so it can check the contents of files as well as their names
+	 *
+	 * @param <File> rootDir : the directory to scan
+	 * @param <int> maxDepth : how many levels of sub directories to read, 0 for
+	 *            only the root directory
+	 * @param <int> batchSize : how many images to hand to the listener at a time
+	 * @param <ImageClassifier> classifier : decides which files are images
+	 */
+	public DirectoryScanner(File rootDir, int maxDepth, int batchSize, ImageClassifier classifier) {
+		this.root = rootDir.toPath();
+		this.maxDepth = maxDepth;
+		this.batchSize = Math.max(1, batchSize);
+		this.classifier = classifier;
+		//listing directories mostly waits on the disk, so use more threads than cores
+		this.pool = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Start scanning in the background. The listener is called from the
+	 * scanning threads, one call at a time.
+	 *
+	 * @param <BatchListener> batchListener : told about the images as they are found
+	 */
+	public void start(BatchListener batchListener) {
+		this.listener = batchListener;
+		pool.execute(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				try {
+					new ScanTask(root, 0).invoke();
+					flush();
+				} finally {
+					listener.scanFinished(cancelled.get());
+					pool.shutdown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Scan the directory and wait for the scan to finish
+	 *
+	 * @return <ArrayList> of all the image files found
+	 */
+	public ArrayList<File> scan() {
+		final ArrayList<File> images = new ArrayList<File>();
+		this.listener = new BatchListener() {
+			@Override
+			public void imagesFound(List<File> found) {
+				images.addAll(found);
+			}
+
+			@Override
+			public void scanFinished(boolean wasCancelled) {
+			}
+		};
+		try {
+			pool.invoke(new ScanTask(root, 0));
+			flush();
+		} finally {
+			pool.shutdown();
+		}
+		return images;
+	}
+
+	/**
+	 * Stop the scan, directories not yet read are skipped
+	 */
+	public void cancel() {
+		cancelled.set(true);
+	}
+
+	/**
+	 * Get if the scan has been cancelled
+	 *
+	 * @return <boolean> true if cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled.get();
+	}
+
+	/**
+	 * Add the images found in one directory to the batch, handing full
+	 * batches to the listener
+	 *
+	 * @param <List> found : the images found
+	 */
+	private synchronized void addToBatch(List<File> found) {
+		batch.addAll(found);
+		while (batch.size() >= batchSize && !cancelled.get()) {
+			List<File> full = new ArrayList<File>(batch.subList(0, batchSize));
+			batch = new ArrayList<File>(batch.subList(batchSize, batch.size()));
+			listener.imagesFound(Collections.unmodifiableList(full));
+		}
+	}
+
+	/**
+	 * Hand whatever is in the batch to the listener
+	 */
+	private synchronized void flush() {
+		if (!batch.isEmpty() && !cancelled.get()) {
+			List<File> full = batch;
+			batch = new ArrayList<File>();
+			listener.imagesFound(Collections.unmodifiableList(full));
+		}
+	}
+
+	/**
+	 * Reads one directory, forking a task for each of its sub directories
+	 */
+	private class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Path dir;
+		private final int depth;
+
+		ScanTask(Path dir, int depth) {
+			this.dir = dir;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (cancelled.get()) {
+				return;
+			}
+			List<File> found = new ArrayList<File>();
+			List<ScanTask> subDirs = new ArrayList<ScanTask>();
+			try {
+				DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+				try {
+					for (Path entry : entries) {
+						if (cancelled.get()) {
+							return;
+						}
+						//links are not followed so a link to a parent can not loop forever
+						if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+							if (depth < maxDepth) {
+								subDirs.add(new ScanTask(entry, depth + 1));
+							}
+						} else {
+							File file = entry.toFile();
+							if (classifier.isImage(file)) {
+								found.add(file);
+							}
+						}
+					}
+				} finally {
+					entries.close();
+				}
+			} catch (IOException e) {
+				//a directory that can not be read is skipped
+				System.out.println("Cannot read directory " + dir);
+			}
+			if (!found.isEmpty()) {
+				addToBatch(found);
+			}
+			invokeAll(subDirs);
+		}
+	}
+
+	/**
+	 * Told about the images found by a scan
+	 */
+	public interface BatchListener {
+		/**
+		 * Called with a batch of images that have been found
+		 *
+		 * @param <List> images : the images found
+		 */
+		void imagesFound(List<File> images);
+
+		/**
+		 * Called once when the scan has finished or stopped after being cancelled
+		 *
+		 * @param <boolean> wasCancelled : true if the scan was cancelled
+		 */
+		void scanFinished(boolean wasCancelled);
+	}
+}
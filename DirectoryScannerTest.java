@@ -0,0 +1,145 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests DirectoryScanner
+ *
+ * @author Ben,Sara
+ */
+public class DirectoryScannerTest {
+
+	private File testDir;
+	private File[] imageFiles;
+	private File nonImageFile;
+
+	/**
+	 * Creates the following directory structure
+	 * ----scanner_test_dir
+	 * -------testImage1.jpg
+	 * -------testImage2.png
+	 * -------sub1
+	 * ----------testImage3.tif
+	 * ----------testFile.txt
+	 * ----------sub1_1
+	 * -------------testImage4.bmp
+	 * -------sub2
+	 * ----------testImage5.gif
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		testDir = new File("scanner_test_dir");
+		new File(testDir, "sub1/sub1_1").mkdirs();
+		new File(testDir, "sub2").mkdirs();
+		imageFiles = new File[] { new File(testDir, "testImage1.jpg"), new File(testDir, "testImage2.png"),
+				new File(testDir, "sub1/testImage3.tif"), new File(testDir, "sub1/sub1_1/testImage4.bmp"),
+				new File(testDir, "sub2/testImage5.gif") };
+		for (File f : imageFiles) {
+			f.createNewFile();
+		}
+		nonImageFile = new File(testDir, "sub1/testFile.txt");
+		nonImageFile.createNewFile();
+	}
+
+	/**
+	 * Deletes the directories after the tests
+	 */
+	@After
+	public void tearDown() {
+		delete(testDir);
+	}
+
+	private static void delete(File f) {
+		if (f.isDirectory()) {
+			for (File c : f.listFiles()) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	private static HashSet<String> absolutePaths(List<File> files) {
+		HashSet<String> paths = new HashSet<String>();
+		for (File f : files) {
+			paths.add(f.getAbsolutePath());
+		}
+		return paths;
+	}
+
+	/**
+	 * Tests that every image in every sub directory is found, and nothing else
+	 */
+	@Test
+	public void testScan() {
+		ArrayList<File> found = new DirectoryScanner(testDir).scan();
+		assertEquals(imageFiles.length, found.size());
+		HashSet<String> paths = absolutePaths(found);
+		for (File f : imageFiles) {
+			assertTrue(paths.contains(f.getAbsolutePath()));
+		}
+		assertFalse(paths.contains(nonImageFile.getAbsolutePath()));
+	}
+
+	/**
+	 * Tests that the depth limit stops the scan from going deeper
+	 */
+	@Test
+	public void testDepthLimit() {
+		assertEquals(2, new DirectoryScanner(testDir, 0, 10).scan().size());
+		assertEquals(4, new DirectoryScanner(testDir, 1, 10).scan().size());
+	}
+
+	/**
+	 * Tests that images are handed over in batches no bigger than the batch
+	 * size and that the listener hears when the scan is finished
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testBatches() throws InterruptedException {
+		final List<File> found = new ArrayList<File>();
+		final List<Integer> batchSizes = new ArrayList<Integer>();
+		final CountDownLatch finished = new CountDownLatch(1);
+		new DirectoryScanner(testDir, DirectoryScanner.NO_DEPTH_LIMIT, 2).start(new DirectoryScanner.BatchListener() {
+			@Override
+			public void imagesFound(List<File> images) {
+				found.addAll(images);
+				batchSizes.add(images.size());
+			}
+
+			@Override
+			public void scanFinished(boolean wasCancelled) {
+				assertFalse(wasCancelled);
+				finished.countDown();
+			}
+		});
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+		assertEquals(imageFiles.length, found.size());
+		for (int size : batchSizes) {
+			assertTrue(size <= 2);
+		}
+	}
+
+	/**
+	 * Tests that a cancelled scan finds nothing
+	 */
+	@Test
+	public void testCancel() {
+		DirectoryScanner scanner = new DirectoryScanner(testDir);
+		scanner.cancel();
+		assertTrue(scanner.isCancelled());
+		assertTrue(scanner.scan().isEmpty());
+	}
+}
@@ -0,0 +1,429 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory and all of its sub directories for images being added,
+ * deleted or renamed by other programs, so the program can update what it
+ * shows without scanning the whole directory again. Events that arrive
+ * together are collected for a short time, and a delete followed by a create
+ * is reported as a rename, since that is how the file system reports a move.
+ * The size and modified time of each image are kept, and a rename keeps
+ * both, so a delete is only paired with a create that has the same ones.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class DirectoryWatcher {
+	// how long to wait for more events before reporting a group of them
+	private static final long SETTLE_MILLIS = 50;
+
+	private final Path root;
+	private final WatchService watchService;
+	// the directory each watch key is watching
+	private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+	// every directory being watched, kept until its delete is seen so a
+	// deleted directory can be told apart from a deleted file
+	private final Set<Path> dirs = new HashSet<Path>();
+	// the size and modified time of each image, last time they were read
+	private final Map<Path, Stamp> stamps = new HashMap<Path, Stamp>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private Thread watchThread;
+	private volatile boolean running;
+
+	/**
+	 * Create a watcher and register the root directory and everything below it
+	 *
+	 * @param <File> rootDir : the directory to watch
+	 * @throws IOException if the directory can not be watched
+	 */
+	public DirectoryWatcher(File rootDir) throws IOException {
+		this.root = rootDir.toPath();
+		this.watchService = FileSystems.getDefault().newWatchService();
+		registerAll(root, null);
+	}
+
+	/**
+	 * Add a listener to be told about changes. Listeners are called on the
+	 * watching thread.
+	 *
+	 * @param <Listener> listener : the listener to add
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Start watching on a background thread
+	 */
+	public void start() {
+		running = true;
+		watchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "directory-watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * Stop watching and release the watch service
+	 */
+	public void stop() {
+		running = false;
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Get the directory being watched
+	 *
+	 * @return <File> the root directory
+	 */
+	public File getRoot() {
+		return root.toFile();
+	}
+
+	/**
+	 * Wait for events and report them until stopped
+	 */
+	private void watch() {
+		try {
+			while (running) {
+				WatchKey key = watchService.take();
+				List<Change> changes = new ArrayList<Change>();
+				collect(key, changes);
+				//collect anything else that happens at the same time, so both
+				//halves of a move between directories are seen together
+				while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					collect(key, changes);
+				}
+				report(changes);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			//stopped
+		}
+	}
+
+	/**
+	 * Read the events of a watch key into a list of changes
+	 *
+	 * @param <WatchKey> key : the key with events
+	 * @param <List> changes : where the changes are added
+	 */
+	private void collect(WatchKey key, List<Change> changes) {
+		Path dir = watchedDirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+				if (Files.isDirectory(path)) {
+					//watch a new directory and report the images already in it
+					List<Path> images = new ArrayList<Path>();
+					try {
+						registerAll(path, images);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					for (Path image : images) {
+						changes.add(new Change(image.toFile(), Change.CREATED, stamps.get(image)));
+					}
+				} else {
+					changes.add(new Change(path.toFile(), Change.CREATED, readStamp(path)));
+				}
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+				//a file being written keeps changing until it is done
+				if (stamps.containsKey(path)) {
+					readStamp(path);
+				}
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				if (dirs.contains(path)) {
+					forgetDirectory(path);
+					changes.add(new Change(path.toFile(), Change.DIRECTORY_DELETED, null));
+				} else {
+					changes.add(new Change(path.toFile(), Change.DELETED, stamps.remove(path)));
+				}
+			}
+		}
+		if (!key.reset()) {
+			watchedDirs.remove(key);
+		}
+	}
+
+	/**
+	 * Report a group of changes to the listeners, pairing deletes with creates
+	 * as renames. A delete is paired with a create of the same name in another
+	 * directory first, then with a create in the same directory, and only
+	 * with a create that has the same size and modified time.
+	 *
+	 * @param <List> changes : the changes to report
+	 */
+	private void report(List<Change> changes) {
+		List<Change> created = new ArrayList<Change>();
+		List<Change> deleted = new ArrayList<Change>();
+		List<File> deletedDirs = new ArrayList<File>();
+		for (Change change : changes) {
+			if (change.kind == Change.DIRECTORY_DELETED) {
+				deletedDirs.add(change.file);
+			} else if (change.kind == Change.CREATED) {
+				if (!removeFile(deleted, change.file)) {
+					created.add(change);
+				}
+			} else if (!removeFile(created, change.file)) {
+				deleted.add(change);
+			}
+		}
+
+		Iterator<Change> deletes = deleted.iterator();
+		while (deletes.hasNext()) {
+			Change from = deletes.next();
+			Change to = findRenameTarget(from, created);
+			if (to != null) {
+				created.remove(to);
+				deletes.remove();
+				for (Listener l : listeners) {
+					l.imageRenamed(from.file, to.file);
+				}
+			}
+		}
+		for (File dir : deletedDirs) {
+			for (Listener l : listeners) {
+				l.directoryDeleted(dir);
+			}
+		}
+		for (Change change : deleted) {
+			for (Listener l : listeners) {
+				l.imageDeleted(change.file);
+			}
+		}
+		for (Change change : created) {
+			if (ImageTypeChecker.isImage(change.file)) {
+				for (Listener l : listeners) {
+					l.imageCreated(change.file);
+				}
+			}
+		}
+	}
+
+	private static boolean removeFile(List<Change> changes, File file) {
+		Iterator<Change> i = changes.iterator();
+		while (i.hasNext()) {
+			if (i.next().file.equals(file)) {
+				i.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the created image a deleted image was most likely renamed to
+	 *
+	 * @param <Change> from : the delete
+	 * @param <List> created : the creates seen at the same time
+	 * @return <Change> the create, null if the delete was not a rename
+	 */
+	private static Change findRenameTarget(Change from, List<Change> created) {
+		if (from.stamp == null || !ImageTypeChecker.isImage(from.file)) {
+			return null;
+		}
+		for (Change to : created) {
+			if (to.file.getName().equals(from.file.getName()) && from.stamp.equals(to.stamp)) {
+				return to;
+			}
+		}
+		for (Change to : created) {
+			if (to.file.getParent().equals(from.file.getParent()) && from.stamp.equals(to.stamp)
+					&& ImageTypeChecker.isImage(to.file)) {
+				return to;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Register a directory and all the directories below it with the watch
+	 * service, and keep the size and modified time of the images in them
+	 *
+	 * @param <Path> start : the top directory
+	 * @param <List> images : the images found are added to it, may be null
+	 * @throws IOException
+	 */
+	private void registerAll(Path start, final List<Path> images) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				watchedDirs.put(key, dir);
+				dirs.add(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && ImageTypeChecker.isImage(file.toFile())) {
+					stamps.put(file, new Stamp(attrs.size(), attrs.lastModifiedTime().toMillis()));
+					if (images != null) {
+						images.add(file);
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Read and keep the size and modified time of a file
+	 *
+	 * @param <Path> file : the file
+	 * @return <Stamp> its size and modified time, null if it can not be read
+	 */
+	private Stamp readStamp(Path file) {
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+			Stamp stamp = new Stamp(attrs.size(), attrs.lastModifiedTime().toMillis());
+			stamps.put(file, stamp);
+			return stamp;
+		} catch (IOException e) {
+			//deleted again already
+			stamps.remove(file);
+			return null;
+		}
+	}
+
+	/**
+	 * Forget a deleted directory, the directories below it and their images
+	 */
+	private void forgetDirectory(Path dir) {
+		Iterator<Path> watched = dirs.iterator();
+		while (watched.hasNext()) {
+			if (watched.next().startsWith(dir)) {
+				watched.remove();
+			}
+		}
+		Iterator<Path> images = stamps.keySet().iterator();
+		while (images.hasNext()) {
+			if (images.next().startsWith(dir)) {
+				images.remove();
+			}
+		}
+	}
+
+	/**
+	 * A file that was created or deleted, or a directory that was deleted
+	 */
+	private static class Change {
+		static final int CREATED = 0;
+		static final int DELETED = 1;
+		static final int DIRECTORY_DELETED = 2;
+
+		final File file;
+		final int kind;
+		// the size and modified time of the file, null if they are not known
+		final Stamp stamp;
+
+		Change(File file, int kind, Stamp stamp) {
+			this.file = file;
+			this.kind = kind;
+			this.stamp = stamp;
+		}
+	}
+
+	/**
+	 * The size and modified time of a file
+	 */
+	private static class Stamp {
+		final long size;
+		final long modified;
+
+		Stamp(long size, long modified) {
+			this.size = size;
+			this.modified = modified;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Stamp)) {
+				return false;
+			}
+			Stamp other = (Stamp) o;
+			return size == other.size && modified == other.modified;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (size * 31 + modified);
+		}
+	}
+
+	/**
+	 * Told about images that change in the watched directory
+	 */
+	public interface Listener {
+		/**
+		 * Called when an image is added
+		 *
+		 * @param <File> image : the new image
+		 */
+		void imageCreated(File image);
+
+		/**
+		 * Called when a file is deleted
+		 *
+		 * @param <File> file : the deleted file
+		 */
+		void imageDeleted(File file);
+
+		/**
+		 * Called when a watched directory is deleted. Everything below it is
+		 * gone as well, and is not reported on its own.
+		 *
+		 * @param <File> dir : the deleted directory
+		 */
+		void directoryDeleted(File dir);
+
+		/**
+		 * Called when an image is renamed or moved
+		 *
+		 * @param <File> from : the old file
+		 * @param <File> to : the new file
+		 */
+		void imageRenamed(File from, File to);
+	}
+}
@@ -0,0 +1,169 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests DirectoryWatcher
+ *
+ * @author Ben,Sara
+ */
+public class DirectoryWatcherTest {
+
+	private File testDir;
+	private DirectoryWatcher watcher;
+	// each change seen by the watcher, written as "kind:file name"
+	private LinkedBlockingQueue<String> changes = new LinkedBlockingQueue<String>();
+
+	/**
+	 * Sets up the tests by creating a directory with a sub directory and
+	 * watching it
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		testDir = new File("watcher_test_dir");
+		new File(testDir, "sub").mkdirs();
+		watcher = new DirectoryWatcher(testDir);
+		watcher.addListener(new DirectoryWatcher.Listener() {
+			@Override
+			public void imageCreated(File image) {
+				changes.add("created:" + image.getName());
+			}
+
+			@Override
+			public void imageDeleted(File file) {
+				changes.add("deleted:" + file.getName());
+			}
+
+			@Override
+			public void directoryDeleted(File dir) {
+				changes.add("directoryDeleted:" + dir.getName());
+			}
+
+			@Override
+			public void imageRenamed(File from, File to) {
+				changes.add("renamed:" + from.getName() + ">" + to.getName());
+			}
+		});
+		watcher.start();
+	}
+
+	/**
+	 * Stops the watcher and deletes the directory
+	 */
+	@After
+	public void tearDown() {
+		watcher.stop();
+		delete(testDir);
+	}
+
+	private static void delete(File f) {
+		if (f.isDirectory()) {
+			for (File c : f.listFiles()) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	private String nextChange() throws InterruptedException {
+		return changes.poll(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Tests that images added to a sub directory are seen and other files are not
+	 * @throws Exception
+	 */
+	@Test
+	public void testCreate() throws Exception {
+		new File(testDir, "sub/notes.txt").createNewFile();
+		new File(testDir, "sub/new.jpg").createNewFile();
+		assertEquals("created:new.jpg", nextChange());
+	}
+
+	/**
+	 * Tests that renaming and then deleting an image are seen
+	 * @throws Exception
+	 */
+	@Test
+	public void testRenameAndDelete() throws Exception {
+		File image = new File(testDir, "photo.jpg");
+		image.createNewFile();
+		assertEquals("created:photo.jpg", nextChange());
+
+		File renamed = new File(testDir, "photo@Sun.jpg");
+		assertTrue(image.renameTo(renamed));
+		assertEquals("renamed:photo.jpg>photo@Sun.jpg", nextChange());
+
+		assertTrue(renamed.delete());
+		assertEquals("deleted:photo@Sun.jpg", nextChange());
+	}
+
+	/**
+	 * Tests that moving an image to another directory is seen as a rename
+	 * @throws Exception
+	 */
+	@Test
+	public void testMove() throws Exception {
+		File image = new File(testDir, "photo.png");
+		image.createNewFile();
+		assertEquals("created:photo.png", nextChange());
+
+		assertTrue(image.renameTo(new File(testDir, "sub/photo.png")));
+		assertEquals("renamed:photo.png>photo.png", nextChange());
+	}
+
+	/**
+	 * Tests that deleting an image and adding another one to the same
+	 * directory is not seen as a rename
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnrelatedNotPaired() throws Exception {
+		File image = new File(testDir, "old.jpg");
+		write(image, 10);
+		assertEquals("created:old.jpg", nextChange());
+
+		assertTrue(image.delete());
+		write(new File(testDir, "new.jpg"), 20);
+		HashSet<String> seen = new HashSet<String>();
+		seen.add(nextChange());
+		seen.add(nextChange());
+		assertEquals(new HashSet<String>(Arrays.asList("deleted:old.jpg", "created:new.jpg")), seen);
+	}
+
+	/**
+	 * Tests that deleting a directory is seen as one change
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeleteDirectory() throws Exception {
+		File image = new File(testDir, "sub/photo.jpg");
+		image.createNewFile();
+		assertEquals("created:photo.jpg", nextChange());
+
+		delete(new File(testDir, "sub"));
+		assertEquals("directoryDeleted:sub", nextChange());
+	}
+
+	private static void write(File file, int length) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[length]);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package photo_renamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Finds the images that are copies of the same photo, such as a photo that
+ * was exported again under another name or at another size. The
+ * <PerceptualHash> of each image is worked out on a pool of threads, and
+ * images whose hashes differ in at most a given number of bits are put in
+ * the same cluster. Close hashes are found with a <HashTree>, so each image
+ * is only compared with the few images whose hashes could be close to its
+ * own.
+ *
+ * Hashes are kept in a file under the directory, name without tags,
+ * modified time and <FileFingerprint> of each image, so an image that has
+ * not changed is not decoded again, and tagging a photo, which only renames
+ * it, keeps its hash. The fingerprint tells apart images that only share a
+ * name without tags, such as IMG_1@Sun.jpg and IMG_1@Sea.jpg, and reads far
+ * less of an image than decoding it.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class DuplicateFinder {
+	// the default file the hashes are kept in, next to the library file
+	public static final String HASHES_FILE_NAME = "photoHashes.dat";
+	// the default number of bits the hashes of copies of a photo may differ in
+	public static final int DEFAULT_RADIUS = 8;
+	// "PRPH", marks the file as photo renamer perceptual hashes
+	static final int MAGIC = 0x50525048;
+	// the number of images each task looks for close hashes of
+	private static final int SEARCH_CHUNK = 1024;
+	// the most hashes kept, hashes of images that changed are never used again
+	static final int MAX_KEPT = 1 << 20;
+
+	private final File hashesFile;
+	private final ExecutorService pool;
+	// key: directory, name without tags, modified time and fingerprint of an image, value: its hash
+	private final ConcurrentHashMap<String, Long> known = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Open a duplicate finder with a thread for each core, reading the
+	 * hashes kept by earlier searches
+	 *
+	 * @param <File> hashesFile : the file the hashes are kept in
+	 * @throws IOException if the hashes file can not be read
+	 */
+	public DuplicateFinder(File hashesFile) throws IOException {
+		this.hashesFile = hashesFile;
+		pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "duplicate finder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (hashesFile.exists()) {
+			readHashes();
+		}
+	}
+
+	/**
+	 * Find the clusters of images that look alike, then save the hashes.
+	 * Images that can not be decoded are left out.
+	 *
+	 * @param <List> images : the <File> of each image to look at
+	 * @param <int> radius : the most bits the hashes of two images in a
+	 *            cluster may differ in, images are also in a cluster with the
+	 *            images close to the images close to them
+	 * @return <List> of clusters, each a <List> of two or more images in the
+	 *         order they were given, ordered by their first image
+	 * @throws IOException if the hashes can not be saved
+	 */
+	public synchronized List<List<File>> findDuplicates(List<File> images, int radius) throws IOException {
+		final long[] hashes = new long[images.size()];
+		boolean[] hashed = hash(images, hashes);
+		final HashTree tree = new HashTree();
+		for (int i = 0; i < hashes.length; i++) {
+			if (hashed[i]) {
+				tree.add(hashes[i], i);
+			}
+		}
+
+		//look for the close hashes on the pool, nothing adds to the tree meanwhile
+		final int searchRadius = radius;
+		List<Future<int[][]>> searches = new ArrayList<Future<int[][]>>();
+		for (int start = 0; start < hashes.length; start += SEARCH_CHUNK) {
+			final int from = start;
+			final int to = Math.min(hashes.length, start + SEARCH_CHUNK);
+			final boolean[] searched = hashed;
+			searches.add(pool.submit(new Callable<int[][]>() {
+				@Override
+				public int[][] call() {
+					int[][] close = new int[to - from][];
+					for (int i = from; i < to; i++) {
+						close[i - from] = searched[i] ? tree.search(hashes[i], searchRadius) : new int[0];
+					}
+					return close;
+				}
+			}));
+		}
+		int[] parents = new int[hashes.length];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+		}
+		for (int s = 0; s < searches.size(); s++) {
+			int[][] close = get(searches.get(s));
+			if (close == null) {
+				continue;
+			}
+			for (int i = 0; i < close.length; i++) {
+				for (int j : close[i]) {
+					union(parents, s * SEARCH_CHUNK + i, j);
+				}
+			}
+		}
+
+		//the images of each cluster, by the first image in it
+		Map<Integer, List<File>> clusters = new LinkedHashMap<Integer, List<File>>();
+		for (int i = 0; i < parents.length; i++) {
+			int root = find(parents, i);
+			List<File> cluster = clusters.get(root);
+			if (cluster == null) {
+				cluster = new ArrayList<File>();
+				clusters.put(root, cluster);
+			}
+			cluster.add(images.get(i));
+		}
+		List<List<File>> duplicates = new ArrayList<List<File>>();
+		for (List<File> cluster : clusters.values()) {
+			if (cluster.size() > 1) {
+				duplicates.add(cluster);
+			}
+		}
+		saveHashes();
+		return duplicates;
+	}
+
+	/**
+	 * Work out the hashes of images on the pool, skipping an image whose
+	 * hash is kept. The keys are worked out on the pool too, as each reads
+	 * the ends of its image.
+	 *
+	 * @param <List> images : the images
+	 * @param <long[]> hashes : set to the hash of each image, in order
+	 * @return <boolean[]> true for each image that has a hash
+	 */
+	private boolean[] hash(List<File> images, long[] hashes) {
+		boolean[] hashed = new boolean[images.size()];
+		List<Future<Long>> pending = new ArrayList<Future<Long>>(images.size());
+		for (int i = 0; i < images.size(); i++) {
+			final File image = images.get(i);
+			pending.add(pool.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws IOException {
+					String key = keyOf(image);
+					Long hash = known.get(key);
+					if (hash == null) {
+						hash = PerceptualHash.of(image);
+						if (known.size() >= MAX_KEPT) {
+							known.clear();
+						}
+						known.put(key, hash);
+					}
+					return hash;
+				}
+			}));
+		}
+		for (int i = 0; i < images.size(); i++) {
+			Long hash = get(pending.get(i));
+			if (hash != null) {
+				hashes[i] = hash;
+				hashed[i] = true;
+			}
+		}
+		return hashed;
+	}
+
+	/**
+	 * Get the hash kept for an image
+	 *
+	 * @param <File> image : the image
+	 * @return <Long> its hash, null if none is kept for it as it is now
+	 * @throws IOException if the image can not be read
+	 */
+	Long keptHash(File image) throws IOException {
+		return known.get(keyOf(image));
+	}
+
+	/**
+	 * Get a result that was worked out on the pool
+	 *
+	 * @return the result, null if it failed
+	 */
+	private static <T> T get(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Find the first image of the cluster of an image, pointing the images
+	 * on the way straight at it
+	 */
+	private static int find(int[] parents, int i) {
+		int root = i;
+		while (parents[root] != root) {
+			root = parents[root];
+		}
+		while (parents[i] != root) {
+			int next = parents[i];
+			parents[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Put the clusters of two images together under the earlier first image
+	 */
+	private static void union(int[] parents, int a, int b) {
+		int rootA = find(parents, a);
+		int rootB = find(parents, b);
+		if (rootA < rootB) {
+			parents[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parents[rootA] = rootB;
+		}
+	}
+
+	/**
+	 * Get the key the hash of an image is kept under, which does not change
+	 * when the image is tagged
+	 *
+	 * @throws IOException if the image can not be read
+	 */
+	static String keyOf(File image) throws IOException {
+		String name = image.getName();
+		int dot = name.lastIndexOf('.');
+		String baseName = dot < 0 ? name : name.substring(0, dot);
+		String extension = dot < 0 ? "" : name.substring(dot);
+		FileFingerprint fingerprint = FileFingerprint.of(image);
+		return Manager.dirOf(image) + PhotoNames.originalName(baseName) + extension + "|" + image.lastModified() + "|"
+				+ fingerprint.size + "|" + Long.toHexString(fingerprint.hash);
+	}
+
+	/**
+	 * Sort clusters so the largest come first, keeping the order of clusters
+	 * of the same size
+	 *
+	 * @param <List> clusters : the clusters found by findDuplicates
+	 */
+	public static void sortBySize(List<List<File>> clusters) {
+		Collections.sort(clusters, new Comparator<List<File>>() {
+			@Override
+			public int compare(List<File> a, List<File> b) {
+				return b.size() - a.size();
+			}
+		});
+	}
+
+	/**
+	 * Stop the threads of the duplicate finder
+	 */
+	public void close() {
+		pool.shutdown();
+	}
+
+	private void readHashes() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hashesFile)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a photo hashes file");
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				known.put(key, in.readLong());
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the hashes to a temporary file and move it over the old one
+	 *
+	 * @throws IOException
+	 */
+	private void saveHashes() throws IOException {
+		File tmp = new File(hashesFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			Map<String, Long> snapshot = new HashMap<String, Long>(known);
+			out.writeInt(MAGIC);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), hashesFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,141 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests DuplicateFinder
+ *
+ * @author Ben,Sara
+ */
+public class DuplicateFinderTest {
+
+	private File testDir;
+	private File hashesFile;
+	private DuplicateFinder finder;
+
+	/**
+	 * Creates a directory for the images and a duplicate finder
+	 */
+	@Before
+	public void setUp() throws IOException {
+		testDir = new File("duplicate_test_dir");
+		testDir.mkdirs();
+		hashesFile = new File(testDir, "hashes.dat");
+		finder = new DuplicateFinder(hashesFile);
+	}
+
+	/**
+	 * Deletes the directory after the tests
+	 */
+	@After
+	public void tearDown() {
+		finder.close();
+		for (File f : testDir.listFiles()) {
+			f.delete();
+		}
+		testDir.delete();
+	}
+
+	private File write(String name, int width, int height, long seed) throws IOException {
+		File file = new File(testDir, name);
+		ImageIO.write(PerceptualHashTest.scene(width, height, seed), "png", file);
+		return file;
+	}
+
+	private static void writeBytes(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Tests that copies of a photo at other sizes and under other names are
+	 * clustered and other photos are not
+	 */
+	@Test
+	public void testFindDuplicates() throws IOException {
+		File a = write("a.png", 800, 600, 1);
+		File b = write("b.png", 400, 300, 2);
+		File aSmall = write("a@small.png", 400, 300, 1);
+		File c = write("c.png", 640, 480, 3);
+		File bLarge = write("copy of b.png", 1200, 900, 2);
+		File aTiny = write("a@tiny.png", 200, 150, 1);
+		File broken = new File(testDir, "broken.png");
+		List<File> images = Arrays.asList(a, b, aSmall, c, bLarge, broken, aTiny);
+
+		List<List<File>> clusters = finder.findDuplicates(images, DuplicateFinder.DEFAULT_RADIUS);
+		assertEquals(2, clusters.size());
+		assertEquals(Arrays.asList(a, aSmall, aTiny), clusters.get(0));
+		assertEquals(Arrays.asList(b, bLarge), clusters.get(1));
+
+		DuplicateFinder.sortBySize(clusters);
+		assertEquals(3, clusters.get(0).size());
+		assertTrue(finder.findDuplicates(images, 0).size() <= 2);
+		assertTrue(finder.findDuplicates(new ArrayList<File>(), 8).isEmpty());
+	}
+
+	/**
+	 * Tests that hashes are kept between finders, and that an image with the
+	 * same name, size and modified time but other contents does not get the
+	 * kept hash
+	 */
+	@Test
+	public void testHashesAreKept() throws IOException {
+		File a = write("a.png", 800, 600, 1);
+		File aCopy = write("a@copy.png", 400, 300, 1);
+		assertEquals(1, finder.findDuplicates(Arrays.asList(a, aCopy), 8).size());
+		assertTrue(hashesFile.exists());
+		Long hash = finder.keptHash(a);
+		assertNotNull(hash);
+		finder.close();
+
+		finder = new DuplicateFinder(hashesFile);
+		assertEquals(hash, finder.keptHash(a));
+		long modified = a.lastModified();
+		writeBytes(a, new byte[(int) a.length()]);
+		a.setLastModified(modified);
+		assertNull(finder.keptHash(a));
+		assertEquals(0, finder.findDuplicates(Arrays.asList(a, aCopy), 8).size());
+	}
+
+	/**
+	 * Tests that tagging an image keeps the key of its hash, and that images
+	 * which only share a name without tags, size and modified time do not
+	 * share a key
+	 */
+	@Test
+	public void testKeyIgnoresTags() throws IOException {
+		File image = write("IMG_1.png", 80, 60, 1);
+		String key = DuplicateFinder.keyOf(image);
+		File tagged = new File(testDir, "IMG_1@Sun@Sea.png");
+		assertTrue(image.renameTo(tagged));
+		assertEquals(key, DuplicateFinder.keyOf(tagged));
+
+		File sun = new File(testDir, "IMG_2@Sun.jpg");
+		File sea = new File(testDir, "IMG_2@Sea.jpg");
+		File png = new File(testDir, "IMG_2@Sun.png");
+		writeBytes(sun, new byte[] { 1, 2, 3 });
+		writeBytes(sea, new byte[] { 4, 5, 6 });
+		writeBytes(png, new byte[] { 1, 2, 3 });
+		sea.setLastModified(sun.lastModified());
+		png.setLastModified(sun.lastModified());
+		assertNotEquals(DuplicateFinder.keyOf(sun), DuplicateFinder.keyOf(sea));
+		assertNotEquals(DuplicateFinder.keyOf(sun), DuplicateFinder.keyOf(png));
+	}
+}
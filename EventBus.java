@@ -0,0 +1,204 @@
+package photo_renamer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Sends <LibraryEvent> changes to the listeners that want them. Changes made
+ * between begin and commit are one transaction: their events are merged and
+ * sent together once the outermost transaction is committed, so a listener
+ * hears about a batch of changes once instead of once for every change.
+ * A change made outside of a transaction is sent straight away. Each thread
+ * has its own transactions, so changes made at the same time on other
+ * threads are sent with their own transactions.
+ * 
+ * A listener is called on the thread that committed, or on its own
+ * <Executor> so it can be told about changes on another thread, such as the
+ * event dispatch thread. The executor must run its tasks in order.
+ * 
+ * @author Ben,Sara
+ *
+ */
+public class EventBus {
+
+	/**
+	 * Hears about the events of one type
+	 */
+	public interface Listener<E extends LibraryEvent> {
+		/**
+		 * Called with the events of a transaction, in the order they were made
+		 * 
+		 * @param <List> events : the events, never empty
+		 */
+		void onEvents(List<E> events);
+	}
+
+	private final CopyOnWriteArrayList<Subscription<?>> subscriptions = new CopyOnWriteArrayList<Subscription<?>>();
+	// the open transaction of each thread
+	private final ThreadLocal<Transaction> transactions = new ThreadLocal<Transaction>() {
+		@Override
+		protected Transaction initialValue() {
+			return new Transaction();
+		}
+	};
+
+	/**
+	 * Send the events of a type to a listener on the thread that makes the
+	 * changes
+	 * 
+	 * @param <Class> type : the type of event, LibraryEvent for every event
+	 * @param <Listener> listener : the listener
+	 */
+	public <E extends LibraryEvent> void subscribe(Class<E> type, Listener<E> listener) {
+		subscribe(type, listener, null);
+	}
+
+	/**
+	 * Send the events of a type to a listener through an executor
+	 * 
+	 * @param <Class> type : the type of event, LibraryEvent for every event
+	 * @param <Listener> listener : the listener
+	 * @param <Executor> executor : runs the calls to the listener in order,
+	 *        null to call it on the thread that makes the changes
+	 */
+	public <E extends LibraryEvent> void subscribe(Class<E> type, Listener<E> listener, Executor executor) {
+		subscriptions.add(new Subscription<E>(type, listener, executor));
+	}
+
+	/**
+	 * Stop sending events to a listener
+	 * 
+	 * @param <Listener> listener : the listener
+	 */
+	public void unsubscribe(Listener<?> listener) {
+		for (Subscription<?> subscription : subscriptions) {
+			if (subscription.listener == listener) {
+				subscriptions.remove(subscription);
+			}
+		}
+	}
+
+	/**
+	 * Start a transaction, which may be inside another one
+	 */
+	public void begin() {
+		transactions.get().depth++;
+	}
+
+	/**
+	 * End a transaction, sending its events if it is the outermost one
+	 */
+	public void commit() {
+		Transaction transaction = transactions.get();
+		if (transaction.depth == 0) {
+			throw new IllegalStateException("No transaction to commit");
+		}
+		transaction.depth--;
+		if (transaction.depth == 0) {
+			deliver(transaction.takePending());
+		}
+	}
+
+	/**
+	 * Send an event, or keep it until the open transaction is committed
+	 * 
+	 * @param <LibraryEvent> event : the event
+	 */
+	public void publish(LibraryEvent event) {
+		Transaction transaction = transactions.get();
+		transaction.merge(event);
+		if (transaction.depth == 0) {
+			deliver(transaction.takePending());
+		}
+	}
+
+	private void deliver(List<LibraryEvent> events) {
+		if (events.isEmpty()) {
+			return;
+		}
+		for (Subscription<?> subscription : subscriptions) {
+			subscription.deliver(events);
+		}
+	}
+
+	/**
+	 * The events of the transactions a thread has open
+	 */
+	private static class Transaction {
+		int depth;
+		// the events made, null where an event was merged away
+		final List<LibraryEvent> pending = new ArrayList<LibraryEvent>();
+		// the place in pending of the last event with each key
+		final HashMap<Object, Integer> pendingByKey = new HashMap<Object, Integer>();
+
+		void merge(LibraryEvent event) {
+			Object key = event.key();
+			Integer earlier = pendingByKey.get(key);
+			LibraryEvent merged = earlier == null ? null : pending.get(earlier).mergeWith(event);
+			if (merged == LibraryEvent.NOTHING) {
+				pending.set(earlier, null);
+				pendingByKey.remove(key);
+			} else if (merged != null) {
+				pending.set(earlier, merged);
+			} else {
+				pendingByKey.put(key, pending.size());
+				pending.add(event);
+			}
+		}
+
+		/**
+		 * Take the events that are left after merging
+		 */
+		List<LibraryEvent> takePending() {
+			List<LibraryEvent> events = new ArrayList<LibraryEvent>(pending.size());
+			for (LibraryEvent event : pending) {
+				if (event != null) {
+					events.add(event);
+				}
+			}
+			pending.clear();
+			pendingByKey.clear();
+			return events;
+		}
+	}
+
+	/**
+	 * A listener and the type of events it wants
+	 */
+	private static class Subscription<E extends LibraryEvent> {
+		final Class<E> type;
+		final Listener<E> listener;
+		final Executor executor;
+
+		Subscription(Class<E> type, Listener<E> listener, Executor executor) {
+			this.type = type;
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		void deliver(List<LibraryEvent> events) {
+			final List<E> wanted = new ArrayList<E>();
+			for (LibraryEvent event : events) {
+				if (type.isInstance(event)) {
+					wanted.add(type.cast(event));
+				}
+			}
+			if (wanted.isEmpty()) {
+				return;
+			}
+			if (executor == null) {
+				listener.onEvents(wanted);
+			} else {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						listener.onEvents(wanted);
+					}
+				});
+			}
+		}
+	}
+}
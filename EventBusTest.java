@@ -0,0 +1,134 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests EventBus
+ *
+ * @author Ben,Sara
+ */
+public class EventBusTest {
+
+	private EventBus bus;
+	private List<List<LibraryEvent>> batches;
+	private Photo photo;
+
+	/**
+	 * Sets up the tests with a bus and a listener that keeps every batch
+	 */
+	@Before
+	public void setUp() {
+		bus = new EventBus();
+		batches = new ArrayList<List<LibraryEvent>>();
+		bus.subscribe(LibraryEvent.class, new EventBus.Listener<LibraryEvent>() {
+			@Override
+			public void onEvents(List<LibraryEvent> events) {
+				batches.add(events);
+			}
+		});
+		photo = new Photo(1, "sun.jpg", ".\\", "sun", new LinkedHashSet<String>());
+	}
+
+	private static LinkedHashSet<String> names(String... names) {
+		return new LinkedHashSet<String>(Arrays.asList(names));
+	}
+
+	/**
+	 * Tests that an event outside of a transaction is sent straight away, and
+	 * that the events of a transaction are sent together once it is committed
+	 */
+	@Test
+	public void testTransaction() {
+		bus.publish(new LibraryEvent.TagAdded("Sun"));
+		assertEquals(1, batches.size());
+
+		bus.begin();
+		bus.begin();
+		bus.publish(new LibraryEvent.TagAdded("Sea"));
+		bus.commit();
+		bus.publish(new LibraryEvent.TagAdded("Sand"));
+		assertEquals(1, batches.size());
+		bus.commit();
+		assertEquals(2, batches.size());
+		assertEquals(2, batches.get(1).size());
+		assertEquals("Sand", ((LibraryEvent.TagAdded) batches.get(1).get(1)).tagName);
+	}
+
+	/**
+	 * Tests that the events about one photo or tag are merged, and that
+	 * events which cancel out are not sent at all
+	 */
+	@Test
+	public void testMerge() {
+		bus.begin();
+		bus.publish(new LibraryEvent.PhotoRenamed(photo, "sun.jpg", ".\\", "sun@A.jpg", ".\\"));
+		bus.publish(new LibraryEvent.PhotoTagsChanged(photo, names("A"), names()));
+		bus.publish(new LibraryEvent.PhotoRenamed(photo, "sun@A.jpg", ".\\", "sun@B.jpg", ".\\"));
+		bus.publish(new LibraryEvent.PhotoTagsChanged(photo, names("B"), names("A")));
+		bus.publish(new LibraryEvent.TagAdded("Gone"));
+		bus.publish(new LibraryEvent.TagRemoved("Gone"));
+		bus.commit();
+		assertEquals(1, batches.size());
+		List<LibraryEvent> events = batches.get(0);
+		assertEquals(2, events.size());
+		LibraryEvent.PhotoRenamed renamed = (LibraryEvent.PhotoRenamed) events.get(0);
+		assertEquals("sun.jpg", renamed.oldName);
+		assertEquals("sun@B.jpg", renamed.newName);
+		LibraryEvent.PhotoTagsChanged changed = (LibraryEvent.PhotoTagsChanged) events.get(1);
+		assertEquals(names("B"), changed.added);
+		assertTrue(changed.removed.isEmpty());
+
+		//a photo renamed and renamed back has not changed
+		bus.begin();
+		bus.publish(new LibraryEvent.PhotoRenamed(photo, "sun@B.jpg", ".\\", "sun.jpg", ".\\"));
+		bus.publish(new LibraryEvent.PhotoTagsChanged(photo, names(), names("B")));
+		bus.publish(new LibraryEvent.PhotoRenamed(photo, "sun.jpg", ".\\", "sun@B.jpg", ".\\"));
+		bus.publish(new LibraryEvent.PhotoTagsChanged(photo, names("B"), names()));
+		bus.commit();
+		assertEquals(1, batches.size());
+	}
+
+	/**
+	 * Tests that a listener only gets the events of its type, through its
+	 * executor
+	 */
+	@Test
+	public void testTypedListener() {
+		final List<Runnable> queued = new ArrayList<Runnable>();
+		final List<LibraryEvent.TagRemoved> removed = new ArrayList<LibraryEvent.TagRemoved>();
+		EventBus.Listener<LibraryEvent.TagRemoved> listener = new EventBus.Listener<LibraryEvent.TagRemoved>() {
+			@Override
+			public void onEvents(List<LibraryEvent.TagRemoved> events) {
+				removed.addAll(events);
+			}
+		};
+		bus.subscribe(LibraryEvent.TagRemoved.class, listener, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queued.add(command);
+			}
+		});
+		bus.publish(new LibraryEvent.TagAdded("Sun"));
+		bus.publish(new LibraryEvent.PhotoRemoved(photo));
+		assertTrue(queued.isEmpty());
+		bus.publish(new LibraryEvent.TagRemoved("Sun"));
+		assertEquals(1, queued.size());
+		assertTrue(removed.isEmpty());
+		queued.get(0).run();
+		assertEquals("Sun", removed.get(0).tagName);
+
+		bus.unsubscribe(listener);
+		bus.publish(new LibraryEvent.TagRemoved("Sea"));
+		assertEquals(1, queued.size());
+		assertEquals(4, batches.size());
+	}
+}
@@ -0,0 +1,221 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Tells files apart by their contents without reading all of them, so a
+ * photo can be found again after its file was renamed or moved outside of
+ * the program. A fingerprint is the size of the file, a hash of its first
+ * and last bytes, and the time the photo was taken if the file has one in
+ * its exif data. The exif data of a jpeg or tiff comes at the start of the
+ * file, so it is read from the same first bytes.
+ *
+ * @author Ben,Sara
+ *
+ */
+public final class FileFingerprint {
+	// the bytes read from each end of a file
+	static final int END_BYTES = 64 * 1024;
+	// exif tags: the exif data of IFD0, the time the photo was taken, and the
+	// time the file was changed, used when there is no time taken
+	private static final int EXIF_IFD = 0x8769;
+	private static final int DATE_TIME_ORIGINAL = 0x9003;
+	private static final int DATE_TIME = 0x0132;
+	// "YYYY:MM:DD HH:MM:SS"
+	private static final int DATE_LENGTH = 19;
+
+	public final long size;
+	public final long hash;
+	// the time the photo was taken as the number YYYYMMDDHHMMSS, 0 if unknown
+	public final long taken;
+
+	FileFingerprint(long size, long hash, long taken) {
+		this.size = size;
+		this.hash = hash;
+		this.taken = taken;
+	}
+
+	/**
+	 * Work out the fingerprint of a file, reading only its first and last
+	 * bytes
+	 *
+	 * @param <File> file : the file
+	 * @return <FileFingerprint> its fingerprint
+	 * @throws IOException if the file can not be read
+	 */
+	public static FileFingerprint of(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, END_BYTES));
+			readFully(channel, head, 0);
+			//the tail does not go back over the head of a small file
+			ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size - head.capacity(), END_BYTES));
+			readFully(channel, tail, size - tail.capacity());
+
+			CRC32 crc = new CRC32();
+			crc.update(head.array(), 0, head.capacity());
+			long hash = crc.getValue() << 32;
+			crc.reset();
+			crc.update(tail.array(), 0, tail.capacity());
+			hash |= crc.getValue();
+			return new FileFingerprint(size, hash, takenTime(head.array(), head.capacity()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("File ended while reading it");
+			}
+		}
+	}
+
+	/**
+	 * Get the time a photo was taken from the exif data at the start of a
+	 * jpeg or tiff file
+	 *
+	 * @param <byte[]> head : the first bytes of the file
+	 * @param <int> length : the number of bytes
+	 * @return <long> the time as the number YYYYMMDDHHMMSS, 0 if there is none
+	 */
+	static long takenTime(byte[] head, int length) {
+		int tiff = findTiff(head, length);
+		if (tiff < 0 || tiff + 8 > length) {
+			return 0;
+		}
+		boolean little = head[tiff] == 'I';
+		int ifd0 = tiff + (int) readInt(head, tiff + 4, little);
+		int exif = findEntry(head, length, ifd0, EXIF_IFD, little);
+		if (exif >= 0) {
+			int exifIfd = tiff + (int) readInt(head, exif + 8, little);
+			int original = findEntry(head, length, exifIfd, DATE_TIME_ORIGINAL, little);
+			if (original >= 0) {
+				long time = readDate(head, length, tiff + (int) readInt(head, original + 8, little));
+				if (time != 0) {
+					return time;
+				}
+			}
+		}
+		int changed = findEntry(head, length, ifd0, DATE_TIME, little);
+		return changed < 0 ? 0 : readDate(head, length, tiff + (int) readInt(head, changed + 8, little));
+	}
+
+	/**
+	 * Find where the tiff header of the exif data starts, which is the start
+	 * of a tiff file or inside the APP1 segment of a jpeg
+	 *
+	 * @return <int> the position of the header, -1 if there is none
+	 */
+	private static int findTiff(byte[] head, int length) {
+		if (length >= 4 && ((head[0] == 'I' && head[1] == 'I') || (head[0] == 'M' && head[1] == 'M'))) {
+			return 0;
+		}
+		if (length < 4 || (head[0] & 0xFF) != 0xFF || (head[1] & 0xFF) != 0xD8) {
+			return -1;
+		}
+		int position = 2;
+		while (position + 4 <= length && (head[position] & 0xFF) == 0xFF) {
+			int marker = head[position + 1] & 0xFF;
+			//the image data starts at the start of scan, so there is no exif after it
+			if (marker == 0xDA || marker == 0xD9) {
+				return -1;
+			}
+			if (marker == 0xE1 && position + 10 <= length && head[position + 4] == 'E' && head[position + 5] == 'x'
+					&& head[position + 6] == 'i' && head[position + 7] == 'f' && head[position + 8] == 0
+					&& head[position + 9] == 0) {
+				return position + 10;
+			}
+			position += 2 + (int) readShort(head, position + 2, false);
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the entry of a tag in an image file directory
+	 *
+	 * @return <int> the position of the entry, -1 if it is not there
+	 */
+	private static int findEntry(byte[] head, int length, int ifd, int tag, boolean little) {
+		if (ifd < 0 || ifd + 2 > length) {
+			return -1;
+		}
+		int count = (int) readShort(head, ifd, little);
+		for (int i = 0; i < count; i++) {
+			int entry = ifd + 2 + 12 * i;
+			if (entry + 12 > length) {
+				return -1;
+			}
+			if (readShort(head, entry, little) == tag) {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Read an exif date, "YYYY:MM:DD HH:MM:SS", as the number YYYYMMDDHHMMSS
+	 *
+	 * @return <long> the date, 0 if it is not a date
+	 */
+	private static long readDate(byte[] head, int length, int position) {
+		if (position < 0 || position + DATE_LENGTH > length) {
+			return 0;
+		}
+		long date = 0;
+		for (int i = 0; i < DATE_LENGTH; i++) {
+			char c = (char) head[position + i];
+			if (i == 4 || i == 7 || i == 13 || i == 16) {
+				if (c != ':') {
+					return 0;
+				}
+			} else if (i == 10) {
+				if (c != ' ') {
+					return 0;
+				}
+			} else if (c >= '0' && c <= '9') {
+				date = date * 10 + (c - '0');
+			} else {
+				return 0;
+			}
+		}
+		return date;
+	}
+
+	private static long readShort(byte[] bytes, int position, boolean little) {
+		int b0 = bytes[position] & 0xFF;
+		int b1 = bytes[position + 1] & 0xFF;
+		return little ? (b1 << 8) | b0 : (b0 << 8) | b1;
+	}
+
+	private static long readInt(byte[] bytes, int position, boolean little) {
+		long value = 0;
+		for (int i = 0; i < 4; i++) {
+			int b = bytes[position + (little ? 3 - i : i)] & 0xFF;
+			value = (value << 8) | b;
+		}
+		return value;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof FileFingerprint)) {
+			return false;
+		}
+		FileFingerprint other = (FileFingerprint) o;
+		return size == other.size && hash == other.hash && taken == other.taken;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32) ^ size * 31 ^ taken * 17);
+	}
+}
@@ -0,0 +1,128 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests FileFingerprint
+ *
+ * @author Ben,Sara
+ */
+public class FileFingerprintTest {
+
+	private final File first = new File("fingerprintTest1.jpg");
+	private final File second = new File("fingerprintTest2.jpg");
+
+	/**
+	 * Deletes the files after the tests
+	 */
+	@After
+	public void tearDown() {
+		first.delete();
+		second.delete();
+	}
+
+	/**
+	 * Make a jpeg whose exif data says when it was taken, big endian, with
+	 * the time in the exif IFD
+	 */
+	static byte[] jpeg(String taken, int bodyLength, int seed) {
+		ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+		int[] header = { 'M', 'M', 0, 42, 0, 0, 0, 8,
+				//IFD0 with the exif IFD at 26
+				0, 1, 0x87, 0x69, 0, 4, 0, 0, 0, 1, 0, 0, 0, 26, 0, 0, 0, 0,
+				//the exif IFD with the time taken at 44
+				0, 1, 0x90, 0x03, 0, 2, 0, 0, 0, 20, 0, 0, 0, 44, 0, 0, 0, 0 };
+		for (int b : header) {
+			tiff.write(b);
+		}
+		byte[] time = taken.getBytes();
+		tiff.write(time, 0, time.length);
+		tiff.write(0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int segmentLength = 2 + 6 + tiff.size();
+		int[] start = { 0xFF, 0xD8, 0xFF, 0xE1, segmentLength >> 8, segmentLength & 0xFF, 'E', 'x', 'i', 'f', 0, 0 };
+		for (int b : start) {
+			out.write(b);
+		}
+		out.write(tiff.toByteArray(), 0, tiff.size());
+		out.write(0xFF);
+		out.write(0xDA);
+		Random random = new Random(seed);
+		for (int i = 0; i < bodyLength; i++) {
+			out.write(random.nextInt(256));
+		}
+		out.write(0xFF);
+		out.write(0xD9);
+		return out.toByteArray();
+	}
+
+	static void write(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Tests that the time a photo was taken is read from its exif data, and
+	 * that a file without exif data has no time
+	 */
+	@Test
+	public void testTakenTime() {
+		byte[] photo = jpeg("2024:06:01 12:30:45", 100, 1);
+		assertEquals(20240601123045L, FileFingerprint.takenTime(photo, photo.length));
+		//the exif data was cut off
+		assertEquals(0, FileFingerprint.takenTime(photo, 40));
+		byte[] notDate = jpeg("2024-06-01 12:30:45", 100, 1);
+		assertEquals(0, FileFingerprint.takenTime(notDate, notDate.length));
+		byte[] plain = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 1, 2, 3 };
+		assertEquals(0, FileFingerprint.takenTime(plain, plain.length));
+		assertEquals(0, FileFingerprint.takenTime(new byte[0], 0));
+	}
+
+	/**
+	 * Tests that copies of a file have the same fingerprint, and that a
+	 * change to either end of a file or to the time taken changes it, but a
+	 * change in the middle of a big file that is not read does not
+	 * @throws IOException
+	 */
+	@Test
+	public void testFingerprint() throws IOException {
+		byte[] bytes = jpeg("2024:06:01 12:30:45", 3 * FileFingerprint.END_BYTES, 7);
+		write(first, bytes);
+		write(second, bytes);
+		FileFingerprint print = FileFingerprint.of(first);
+		assertEquals(bytes.length, print.size);
+		assertEquals(20240601123045L, print.taken);
+		assertEquals(print, FileFingerprint.of(second));
+
+		byte[] changed = Arrays.copyOf(bytes, bytes.length);
+		changed[bytes.length / 2]++;
+		write(second, changed);
+		assertEquals(print, FileFingerprint.of(second));
+
+		changed[bytes.length - 10]++;
+		write(second, changed);
+		assertNotEquals(print, FileFingerprint.of(second));
+
+		write(second, jpeg("2024:06:01 12:30:46", 3 * FileFingerprint.END_BYTES, 7));
+		assertNotEquals(print, FileFingerprint.of(second));
+
+		byte[] small = jpeg("2024:06:01 12:30:45", 10, 3);
+		write(second, small);
+		assertEquals(small.length, FileFingerprint.of(second).size);
+	}
+}
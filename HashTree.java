@@ -0,0 +1,144 @@
+package photo_renamer;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Finds the hashes within a number of bits of a hash without comparing it
+ * with every hash there is. Hashes are kept in a tree where each child of a
+ * node is the given number of bits away from it, so a search only goes
+ * down the children whose distance could hold a close enough hash, which
+ * is known as a BK-tree. Each hash is kept with the index of the item it is
+ * the hash of, and items with the same hash share a node.
+ *
+ * Adding to the tree is not safe while another thread is using it.
+ *
+ * @author Ben,Sara
+ *
+ */
+class HashTree {
+
+	private Node root;
+	private int size;
+
+	/**
+	 * Add the hash of an item
+	 *
+	 * @param <long> hash : the hash
+	 * @param <int> item : the index of the item
+	 */
+	void add(long hash, int item) {
+		size++;
+		if (root == null) {
+			root = new Node(hash, item);
+			return;
+		}
+		Node node = root;
+		while (true) {
+			int distance = PerceptualHash.distance(hash, node.hash);
+			if (distance == 0) {
+				node.addItem(item);
+				return;
+			}
+			Node child = node.child(distance);
+			if (child == null) {
+				node.addChild(distance, new Node(hash, item));
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Find the items whose hashes are within a number of bits of a hash
+	 *
+	 * @param <long> hash : the hash
+	 * @param <int> radius : the most bits a found hash may differ in
+	 * @return <int[]> the indexes of the items, in no order
+	 */
+	int[] search(long hash, int radius) {
+		if (root == null) {
+			return new int[0];
+		}
+		int[] found = new int[8];
+		int count = 0;
+		Deque<Node> toVisit = new ArrayDeque<Node>();
+		toVisit.push(root);
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.pop();
+			int distance = PerceptualHash.distance(hash, node.hash);
+			if (distance <= radius) {
+				if (count + node.itemCount > found.length) {
+					found = Arrays.copyOf(found, Math.max(found.length * 2, count + node.itemCount));
+				}
+				System.arraycopy(node.items, 0, found, count, node.itemCount);
+				count += node.itemCount;
+			}
+			//by the triangle inequality, only these children can be close enough
+			for (int i = 0; i < node.childCount; i++) {
+				if (Math.abs(node.childDistances[i] - distance) <= radius) {
+					toVisit.push(node.children[i]);
+				}
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Get the number of hashes added
+	 *
+	 * @return <int> the number of hashes
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * A hash, the items that have it, and the nodes below it with their
+	 * distances from it. Most nodes have few children, so they are kept in
+	 * short arrays rather than one slot for each of the 64 distances.
+	 */
+	private static class Node {
+		final long hash;
+		int[] items;
+		int itemCount;
+		byte[] childDistances;
+		Node[] children;
+		int childCount;
+
+		Node(long hash, int item) {
+			this.hash = hash;
+			items = new int[] { item };
+			itemCount = 1;
+		}
+
+		void addItem(int item) {
+			if (itemCount == items.length) {
+				items = Arrays.copyOf(items, itemCount * 2);
+			}
+			items[itemCount++] = item;
+		}
+
+		Node child(int distance) {
+			for (int i = 0; i < childCount; i++) {
+				if (childDistances[i] == distance) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		void addChild(int distance, Node child) {
+			if (children == null) {
+				childDistances = new byte[2];
+				children = new Node[2];
+			} else if (childCount == children.length) {
+				childDistances = Arrays.copyOf(childDistances, childCount * 2);
+				children = Arrays.copyOf(children, childCount * 2);
+			}
+			childDistances[childCount] = (byte) distance;
+			children[childCount++] = child;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests HashTree
+ *
+ * @author Ben,Sara
+ */
+public class HashTreeTest {
+
+	/**
+	 * Tests that a search finds exactly the hashes a scan of every hash finds
+	 */
+	@Test
+	public void testSearchMatchesScan() {
+		Random random = new Random(7);
+		long[] hashes = new long[2000];
+		HashTree tree = new HashTree();
+		for (int i = 0; i < hashes.length; i++) {
+			//some hashes are a few bits off an earlier one, some are repeated
+			hashes[i] = i > 0 && i % 3 == 0 ? hashes[i - 1] ^ (1L << random.nextInt(64)) : random.nextLong();
+			if (i % 10 == 0 && i > 0) {
+				hashes[i] = hashes[i - 1];
+			}
+			tree.add(hashes[i], i);
+		}
+		assertEquals(hashes.length, tree.size());
+
+		for (int radius = 0; radius <= 12; radius += 4) {
+			for (int i = 0; i < hashes.length; i += 37) {
+				int count = 0;
+				for (long hash : hashes) {
+					if (PerceptualHash.distance(hash, hashes[i]) <= radius) {
+						count++;
+					}
+				}
+				int[] found = tree.search(hashes[i], radius);
+				assertEquals(count, found.length);
+				for (int item : found) {
+					assertTrue(PerceptualHash.distance(hashes[item], hashes[i]) <= radius);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that items with the same hash are all found
+	 */
+	@Test
+	public void testSameHash() {
+		HashTree tree = new HashTree();
+		assertEquals(0, tree.search(5L, 64).length);
+		tree.add(5L, 0);
+		tree.add(5L, 1);
+		tree.add(4L, 2);
+		tree.add(-1L, 3);
+		int[] found = tree.search(5L, 0);
+		Arrays.sort(found);
+		assertArrayEquals(new int[] { 0, 1 }, found);
+		found = tree.search(5L, 1);
+		Arrays.sort(found);
+		assertArrayEquals(new int[] { 0, 1, 2 }, found);
+	}
+}
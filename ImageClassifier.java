@@ -0,0 +1,171 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides if a file is an image the program can show. A file is first
+ * judged by its extension, in any case, against a table that never
+ * changes, so this can be called from many scanning threads at once
+ * without locking or making any objects. A classifier can also read the
+ * first bytes of the file to check they start like an image, so a file
+ * that is only named like an image is left out. What it read is kept for
+ * each path along with the time the file was last modified, so a file is
+ * only read again once it changes.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class ImageClassifier {
+	// judges files by their extension only
+	public static final ImageClassifier BY_EXTENSION = new ImageClassifier(false);
+	// the extensions of images, in lower case
+	private static final String[] EXTENSIONS = { "png", "tif", "jpg", "jpeg", "bmp", "gif" };
+	// enough bytes to tell every image type apart
+	private static final int HEADER_LENGTH = 4;
+	// once this many files are remembered they are all forgotten, since
+	// remembering only saves reading a few bytes again
+	private static final int MAX_VERDICTS = 1 << 20;
+	private static final ThreadLocal<byte[]> headers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[HEADER_LENGTH];
+		}
+	};
+
+	private final boolean sniffContents;
+	// key: absolute path of a file with an image extension, value: what reading it found
+	private final ConcurrentHashMap<String, Verdict> verdicts = new ConcurrentHashMap<String, Verdict>();
+
+	/**
+	 * Create a classifier
+	 *
+	 * @param <boolean> sniffContents : true to also check the first bytes of
+	 *            files with an image extension
+	 */
+	public ImageClassifier(boolean sniffContents) {
+		this.sniffContents = sniffContents;
+	}
+
+	/**
+	 * Get if a file is an image
+	 *
+	 * @param <File> file : the file to check
+	 * @return <boolean> true if it has an image extension and, if contents
+	 *         are checked, starts like an image
+	 */
+	public boolean isImage(File file) {
+		if (!hasImageExtension(file.getName())) {
+			return false;
+		}
+		if (!sniffContents) {
+			return true;
+		}
+		long modified = file.lastModified();
+		String path = file.getAbsolutePath();
+		Verdict verdict = verdicts.get(path);
+		if (verdict != null && verdict.modified == modified) {
+			return verdict.image;
+		}
+		boolean image = startsLikeImage(file);
+		//a file that is gone has no modified time to check against later
+		if (modified != 0) {
+			if (verdicts.size() >= MAX_VERDICTS) {
+				verdicts.clear();
+			}
+			verdicts.put(path, new Verdict(modified, image));
+		}
+		return image;
+	}
+
+	/**
+	 * Get if a file name has the extension of an image, in any case
+	 *
+	 * @param <String> fileName : the file name
+	 * @return <boolean> true if it has an image extension
+	 */
+	public static boolean hasImageExtension(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		if (dot < 0) {
+			return false;
+		}
+		int length = fileName.length() - dot - 1;
+		for (String extension : EXTENSIONS) {
+			if (extension.length() == length && fileName.regionMatches(true, dot + 1, extension, 0, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Read the first bytes of a file and check they are those of a png,
+	 * jpeg, gif, bmp or tiff
+	 *
+	 * @param <File> file : the file to read
+	 * @return <boolean> true if the file starts like an image, false if it
+	 *         does not or can not be read
+	 */
+	static boolean startsLikeImage(File file) {
+		byte[] header = headers.get();
+		int read = 0;
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				while (read < HEADER_LENGTH) {
+					int count = in.read(header, read, HEADER_LENGTH - read);
+					if (count < 0) {
+						break;
+					}
+					read += count;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		return startsLikeImage(header, read);
+	}
+
+	/**
+	 * Check the first bytes of a file against the start of each image type
+	 *
+	 * @param <byte[]> header : the first bytes of the file
+	 * @param <int> length : how many bytes were read
+	 * @return <boolean> true if they are the start of an image
+	 */
+	static boolean startsLikeImage(byte[] header, int length) {
+		if (length >= 2 && header[0] == 'B' && header[1] == 'M') {
+			return true;
+		}
+		if (length < 3) {
+			return false;
+		}
+		if ((header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+			return true;
+		}
+		if (length < 4) {
+			return false;
+		}
+		return ((header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G')
+				|| (header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8')
+				|| (header[0] == 'I' && header[1] == 'I' && header[2] == '*' && header[3] == 0)
+				|| (header[0] == 'M' && header[1] == 'M' && header[2] == 0 && header[3] == '*');
+	}
+
+	/**
+	 * What reading a file found, and when the file was last modified then
+	 */
+	private static class Verdict {
+		final long modified;
+		final boolean image;
+
+		Verdict(long modified, boolean image) {
+			this.modified = modified;
+			this.image = image;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ImageClassifier
+ *
+ * @author Ben,Sara
+ */
+public class ImageClassifierTest {
+
+	private File testDir;
+
+	/**
+	 * Creates a directory for the files read by the tests
+	 */
+	@Before
+	public void setUp() {
+		testDir = new File("classifier_test_dir");
+		testDir.mkdirs();
+	}
+
+	/**
+	 * Deletes the directory after the tests
+	 */
+	@After
+	public void tearDown() {
+		for (File f : testDir.listFiles()) {
+			f.delete();
+		}
+		testDir.delete();
+	}
+
+	private File write(String name, int... bytes) throws IOException {
+		File file = new File(testDir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for (int b : bytes) {
+				out.write(b);
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Tests that image extensions are found in any case and nothing else is
+	 */
+	@Test
+	public void testHasImageExtension() {
+		assertTrue(ImageClassifier.hasImageExtension("img.jpg"));
+		assertTrue(ImageClassifier.hasImageExtension("img.JPG"));
+		assertTrue(ImageClassifier.hasImageExtension("img@Sun.Png"));
+		assertTrue(ImageClassifier.hasImageExtension("a.b.jpeg"));
+		assertFalse(ImageClassifier.hasImageExtension("img.jpgx"));
+		assertFalse(ImageClassifier.hasImageExtension("img.jp"));
+		assertFalse(ImageClassifier.hasImageExtension("png"));
+		assertFalse(ImageClassifier.hasImageExtension("img.png.txt"));
+		assertFalse(ImageClassifier.hasImageExtension("img."));
+		assertTrue(ImageClassifier.BY_EXTENSION.isImage(new File("missing.gif")));
+	}
+
+	/**
+	 * Tests that checking contents keeps files that start like an image and
+	 * leaves out files only named like one
+	 */
+	@Test
+	public void testSniffContents() throws IOException {
+		ImageClassifier classifier = new ImageClassifier(true);
+		assertTrue(classifier.isImage(write("a.png", 0x89, 'P', 'N', 'G', 0x0D)));
+		assertTrue(classifier.isImage(write("b.jpg", 0xFF, 0xD8, 0xFF, 0xE0)));
+		assertTrue(classifier.isImage(write("c.gif", 'G', 'I', 'F', '8', '9')));
+		assertTrue(classifier.isImage(write("d.bmp", 'B', 'M')));
+		assertTrue(classifier.isImage(write("e.tif", 'I', 'I', '*', 0)));
+		assertTrue(classifier.isImage(write("f.tif", 'M', 'M', 0, '*')));
+		assertFalse(classifier.isImage(write("g.jpg", 'h', 'e', 'l', 'l', 'o')));
+		assertFalse(classifier.isImage(write("h.png")));
+		assertFalse(classifier.isImage(write("i.txt", 0x89, 'P', 'N', 'G')));
+		assertFalse(classifier.isImage(new File(testDir, "missing.png")));
+	}
+
+	/**
+	 * Tests that a file is read again once it has been modified
+	 */
+	@Test
+	public void testVerdictsFollowChanges() throws IOException {
+		ImageClassifier classifier = new ImageClassifier(true);
+		File file = write("later.jpg");
+		assertFalse(classifier.isImage(file));
+		long modified = file.lastModified();
+
+		write("later.jpg", 0xFF, 0xD8, 0xFF, 0xDB);
+		file.setLastModified(modified);
+		//the file looks unchanged, so what was read before is used
+		assertFalse(classifier.isImage(file));
+		file.setLastModified(modified + 2000);
+		assertTrue(classifier.isImage(file));
+	}
+}
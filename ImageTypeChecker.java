@@ -1,6 +1,5 @@
 package photo_renamer;
 
-import javax.activation.MimetypesFileTypeMap;
 import java.io.File;
 
 /**
@@ -12,19 +11,16 @@ import java.io.File;
  *
  */
 public class ImageTypeChecker {
-	private static MimetypesFileTypeMap typeChecker = new MimetypesFileTypeMap();
 	
 	/**
-	 * Determines if a <File> is an image file or not based on the extension
+	 * Determines if a <File> is an image file or not based on the extension,
+	 * in any case, see <ImageClassifier>
 	 * 
 	 * @param <File> f : the file you are checking
 	 * @return <boolean> : true if it possesses an image extension
 	 */
 	public static boolean isImage(File f){
-		typeChecker.addMimeTypes("image png tif jpg jpeg bmp gif JPG");
-		String type = typeChecker.getContentType(f);
-		return type.equals("image");
-		
+		return ImageClassifier.hasImageExtension(f.getName());
 	}
 	/**
 	 * Gets the <String> extension of a file name
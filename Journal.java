@@ -0,0 +1,517 @@
+package photo_renamer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append only log of every change made to the libraries, so that a change
+ * reaches the disk as soon as it is made instead of when the program closes.
+ * Changes are buffered and written by a background thread, which writes and
+ * syncs everything that has built up since its last write together. The
+ * thread that made a change waits with syncAppended until its own records are
+ * on the disk, so changes made at once on many threads share one sync.
+ *
+ * The journal belongs to one saved library file. Each time the libraries are
+ * saved the journal is started again with a new generation number, which is
+ * also saved in the library file, so after a crash only the changes made
+ * since the last save are replayed.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class Journal {
+	// the default journal file, kept next to the library file
+	public static final String JOURNAL_FILE_NAME = "photoLibrary.journal";
+	// "PRJL", marks the file as a photo renamer journal
+	static final int MAGIC = 0x50524A4C;
+	// the length of the header: magic and generation
+	private static final int HEADER_BYTES = 12;
+
+	// the kinds of record in the journal
+	static final int SET_PHOTO_STATE = 1;
+	static final int ADD_TAG = 2;
+	static final int DELETE_TAG = 3;
+	static final int RELOCATE_PHOTO = 4;
+	static final int REMOVE_PHOTO = 5;
+
+	private final FileChannel channel;
+	private long generation;
+	private int recordCount;
+	// records waiting to be written, guarded by this
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	// records are numbered as they are appended, this is the last number
+	// appended and the last number that is on the disk
+	private long appendedSeq;
+	private long durableSeq;
+	private boolean flushing;
+	private boolean closed;
+	private IOException writeError;
+	private final Thread flusher;
+	// the last record number appended by each thread
+	private final ThreadLocal<long[]> appendedByThread = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * Open a journal file, creating it with generation 0 if it does not exist
+	 *
+	 * @param <File> file : the journal file
+	 * @throws IOException if the journal can not be opened
+	 */
+	public Journal(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		if (!readHeader()) {
+			writeHeader(0);
+		}
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Get the generation of the journal, matching the library file it belongs to
+	 *
+	 * @return <long> the generation
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Get the number of records in the journal since it was last started again
+	 *
+	 * @return <int> the number of records
+	 */
+	public synchronized int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Record that a photo was given a new set of tags
+	 *
+	 * @param <String> photoName : the name the photo had
+	 * @param <String> dir : the directory of the photo
+	 * @param <String[]> tags : the tags it was given
+	 */
+	public void logSetPhotoState(String photoName, String dir, String[] tags) {
+		append(setPhotoStateRecord(photoName, dir, tags));
+	}
+
+	/**
+	 * Record that many photos were given new sets of tags. The records are
+	 * added together, so they are written in one batch.
+	 *
+	 * @param <List> states : the <Manager.PhotoState> of each photo, in order
+	 */
+	public void logSetPhotoStates(List<Manager.PhotoState> states) {
+		byte[][] bodies = new byte[states.size()][];
+		for (int i = 0; i < bodies.length; i++) {
+			Manager.PhotoState state = states.get(i);
+			bodies[i] = setPhotoStateRecord(state.photoName, state.dir, state.tags);
+		}
+		append(bodies);
+	}
+
+	/**
+	 * Record that a tag was added to the library
+	 *
+	 * @param <String> tagName : the tag
+	 */
+	public void logAddTag(String tagName) {
+		append(record(ADD_TAG, tagName));
+	}
+
+	/**
+	 * Record that a tag was deleted from the library
+	 *
+	 * @param <String> tagName : the tag
+	 */
+	public void logDeleteTag(String tagName) {
+		append(record(DELETE_TAG, tagName));
+	}
+
+	/**
+	 * Record that a photo was renamed or moved outside of the program
+	 *
+	 * @param <String> oldName : the name the photo had
+	 * @param <String> oldDir : the directory the photo was in
+	 * @param <String> newName : the new name
+	 * @param <String> newDir : the new directory
+	 */
+	public void logRelocatePhoto(String oldName, String oldDir, String newName, String newDir) {
+		append(record(RELOCATE_PHOTO, oldName, oldDir, newName, newDir));
+	}
+
+	/**
+	 * Record that a photo was removed from the library
+	 *
+	 * @param <String> photoName : the name of the photo
+	 * @param <String> dir : the directory of the photo
+	 */
+	public void logRemovePhoto(String photoName, String dir) {
+		append(record(REMOVE_PHOTO, photoName, dir));
+	}
+
+	/**
+	 * Wait until every record appended so far is on the disk
+	 *
+	 * @throws IOException if a record could not be written
+	 */
+	public synchronized void sync() throws IOException {
+		awaitDurable(appendedSeq);
+	}
+
+	/**
+	 * Wait until every record appended so far by this thread is on the disk.
+	 * Records appended by other threads are not waited for, but are written
+	 * in the same batch if they are waiting too.
+	 *
+	 * @throws IOException if a record could not be written
+	 */
+	public void syncAppended() throws IOException {
+		awaitDurable(appendedByThread.get()[0]);
+	}
+
+	/**
+	 * Wait until the records up to a number are on the disk
+	 *
+	 * @param <long> target : the number of the last record to wait for
+	 * @throws IOException if a record could not be written
+	 */
+	private synchronized void awaitDurable(long target) throws IOException {
+		while (durableSeq < target && writeError == null && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for the journal", e);
+			}
+		}
+		if (writeError != null) {
+			throw writeError;
+		}
+	}
+
+	/**
+	 * Replay the records in the journal, if it belongs to the library file
+	 * that was loaded. A journal from another generation is left over from a
+	 * save that finished just before a crash, and is thrown away.
+	 *
+	 * @param <long> libraryGeneration : the generation of the loaded library
+	 * @param <Replayer> replayer : applies each record
+	 * @return <int> the number of records replayed
+	 * @throws IOException
+	 */
+	public synchronized int replay(long libraryGeneration, Replayer replayer) throws IOException {
+		if (generation != libraryGeneration) {
+			reset(libraryGeneration);
+			return 0;
+		}
+		long size = channel.size();
+		ByteBuffer contents = ByteBuffer.allocate((int) (size - HEADER_BYTES));
+		channel.read(contents, HEADER_BYTES);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents.array()));
+
+		int replayed = 0;
+		long goodEnd = HEADER_BYTES;
+		while (true) {
+			byte[] body;
+			try {
+				int length = LibraryStore.readVarint(in);
+				body = new byte[length];
+				in.readFully(body);
+				int crc = in.readInt();
+				if (crc != checksum(body)) {
+					break;
+				}
+				goodEnd = size - in.available();
+			} catch (EOFException e) {
+				break;
+			} catch (IOException e) {
+				break;
+			} catch (NegativeArraySizeException e) {
+				break;
+			}
+			apply(body, replayer);
+			replayed++;
+		}
+		//drop a record that was half written when the program stopped
+		channel.truncate(goodEnd);
+		channel.position(goodEnd);
+		recordCount = replayed;
+		return replayed;
+	}
+
+	/**
+	 * Start the journal again with a new generation, after the libraries have
+	 * been saved. Records not yet written are written first.
+	 *
+	 * @param <long> newGeneration : the generation of the saved library
+	 * @throws IOException
+	 */
+	public synchronized void reset(long newGeneration) throws IOException {
+		while (flushing) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for the journal", e);
+			}
+		}
+		pending.reset();
+		durableSeq = appendedSeq;
+		channel.truncate(0);
+		writeHeader(newGeneration);
+		recordCount = 0;
+		notifyAll();
+	}
+
+	/**
+	 * Write any waiting records and close the journal
+	 */
+	public void close() {
+		try {
+			sync();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			flusher.join(1000);
+			channel.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Add records to the waiting records and wake the flusher
+	 *
+	 * @param <byte[]...> bodies : the kind of each record and its contents
+	 */
+	private synchronized void append(byte[]... bodies) {
+		if (closed) {
+			return;
+		}
+		DataOutputStream out = new DataOutputStream(pending);
+		try {
+			for (byte[] body : bodies) {
+				LibraryStore.writeVarint(out, body.length);
+				out.write(body);
+				out.writeInt(checksum(body));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		appendedSeq += bodies.length;
+		recordCount += bodies.length;
+		appendedByThread.get()[0] = appendedSeq;
+		notifyAll();
+	}
+
+	/**
+	 * Write and sync the waiting records each time there are some
+	 */
+	private void flushLoop() {
+		while (true) {
+			byte[] batch;
+			long batchSeq;
+			synchronized (this) {
+				while (pending.size() == 0 && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pending.size() == 0) {
+					return;
+				}
+				batch = pending.toByteArray();
+				batchSeq = appendedSeq;
+				pending = new ByteArrayOutputStream();
+				flushing = true;
+			}
+			IOException error = null;
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(batch);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer, channel.size());
+				}
+				channel.force(false);
+			} catch (IOException e) {
+				error = e;
+			}
+			synchronized (this) {
+				flushing = false;
+				if (error != null) {
+					writeError = error;
+					error.printStackTrace();
+				}
+				durableSeq = Math.max(durableSeq, batchSeq);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Read the header of the journal
+	 *
+	 * @return <boolean> true if the file has a valid header
+	 * @throws IOException
+	 */
+	private boolean readHeader() throws IOException {
+		if (channel.size() < HEADER_BYTES) {
+			return false;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		channel.read(header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC) {
+			return false;
+		}
+		generation = header.getLong();
+		return true;
+	}
+
+	/**
+	 * Write a new header to an empty journal and sync it
+	 *
+	 * @param <long> newGeneration : the generation of the journal
+	 * @throws IOException
+	 */
+	private void writeHeader(long newGeneration) throws IOException {
+		channel.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putLong(newGeneration).flip();
+		channel.write(header, 0);
+		channel.force(true);
+		generation = newGeneration;
+	}
+
+	/**
+	 * Read a record and apply it
+	 *
+	 * @param <byte[]> body : the kind of record and its contents
+	 * @param <Replayer> replayer : applies the record
+	 * @throws IOException
+	 */
+	private static void apply(byte[] body, Replayer replayer) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		int kind = in.readUnsignedByte();
+		switch (kind) {
+		case SET_PHOTO_STATE:
+			String photoName = readString(in);
+			String dir = readString(in);
+			String[] tags = new String[LibraryStore.readVarint(in)];
+			for (int i = 0; i < tags.length; i++) {
+				tags[i] = readString(in);
+			}
+			replayer.setPhotoState(photoName, dir, tags);
+			break;
+		case ADD_TAG:
+			replayer.addTag(readString(in));
+			break;
+		case DELETE_TAG:
+			replayer.deleteTag(readString(in));
+			break;
+		case RELOCATE_PHOTO:
+			replayer.relocatePhoto(readString(in), readString(in), readString(in), readString(in));
+			break;
+		case REMOVE_PHOTO:
+			replayer.removePhoto(readString(in), readString(in));
+			break;
+		default:
+			throw new IOException("Unknown journal record " + kind);
+		}
+	}
+
+	private static byte[] setPhotoStateRecord(String photoName, String dir, String[] tags) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(SET_PHOTO_STATE);
+			writeString(out, photoName);
+			writeString(out, dir);
+			LibraryStore.writeVarint(out, tags.length);
+			for (String tag : tags) {
+				writeString(out, tag);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] record(int kind, String... fields) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(kind);
+			for (String field : fields) {
+				writeString(out, field);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static int checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return (int) crc.getValue();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		LibraryStore.writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[LibraryStore.readVarint(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Applies the records of a journal being replayed
+	 */
+	public interface Replayer {
+		void setPhotoState(String photoName, String dir, String[] tags);
+
+		void addTag(String tagName);
+
+		void deleteTag(String tagName);
+
+		void relocatePhoto(String oldName, String oldDir, String newName, String newDir);
+
+		void removePhoto(String photoName, String dir);
+	}
+}
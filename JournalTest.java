@@ -0,0 +1,165 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests Journal
+ *
+ * @author Ben,Sara
+ */
+public class JournalTest {
+
+	File journalFile;
+	Journal journal;
+	// each record replayed, written as "kind:fields"
+	List<String> replayed;
+
+	/**
+	 * Sets up the tests by opening an empty journal
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		journalFile = new File("testPhotoLibrary.journal");
+		journalFile.delete();
+		journal = new Journal(journalFile);
+		replayed = new ArrayList<String>();
+	}
+
+	/**
+	 * Closes and deletes the journal after the tests
+	 */
+	@After
+	public void tearDown() {
+		journal.close();
+		journalFile.delete();
+	}
+
+	private Journal.Replayer recorder() {
+		return new Journal.Replayer() {
+			@Override
+			public void setPhotoState(String photoName, String dir, String[] tags) {
+				replayed.add("set:" + dir + photoName + Arrays.toString(tags));
+			}
+
+			@Override
+			public void addTag(String tagName) {
+				replayed.add("add:" + tagName);
+			}
+
+			@Override
+			public void deleteTag(String tagName) {
+				replayed.add("delete:" + tagName);
+			}
+
+			@Override
+			public void relocatePhoto(String oldName, String oldDir, String newName, String newDir) {
+				replayed.add("relocate:" + oldDir + oldName + ">" + newDir + newName);
+			}
+
+			@Override
+			public void removePhoto(String photoName, String dir) {
+				replayed.add("remove:" + dir + photoName);
+			}
+		};
+	}
+
+	private void reopen() throws IOException {
+		journal.close();
+		journal = new Journal(journalFile);
+	}
+
+	/**
+	 * Tests that every kind of record is replayed in order after reopening
+	 * @throws IOException
+	 */
+	@Test
+	public void testReplay() throws IOException {
+		journal.logAddTag("Sun");
+		journal.logSetPhotoState("img.jpg", ".\\", new String[] { "Sun", "Sea" });
+		journal.logRelocatePhoto("a.jpg", ".\\", "b.jpg", ".\\x\\");
+		journal.logRemovePhoto("c.jpg", ".\\");
+		journal.logDeleteTag("Sea");
+		journal.sync();
+		reopen();
+
+		assertEquals(5, journal.replay(0, recorder()));
+		assertEquals(Arrays.asList("add:Sun", "set:.\\img.jpg[Sun, Sea]", "relocate:.\\a.jpg>.\\x\\b.jpg",
+				"remove:.\\c.jpg", "delete:Sea"), replayed);
+	}
+
+	/**
+	 * Tests that a record cut off part way is ignored and removed, and that
+	 * records after it can still be added
+	 * @throws IOException
+	 */
+	@Test
+	public void testTornRecord() throws IOException {
+		journal.logAddTag("Sun");
+		journal.logAddTag("Rain");
+		journal.close();
+		RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+		file.setLength(file.length() - 2);
+		file.close();
+		journal = new Journal(journalFile);
+
+		assertEquals(1, journal.replay(0, recorder()));
+		journal.logAddTag("Snow");
+		reopen();
+		replayed.clear();
+		journal.replay(0, recorder());
+		assertEquals(Arrays.asList("add:Sun", "add:Snow"), replayed);
+	}
+
+	/**
+	 * Tests that starting a new generation empties the journal, and that a
+	 * journal from another generation is not replayed
+	 * @throws IOException
+	 */
+	@Test
+	public void testGenerations() throws IOException {
+		journal.logAddTag("Sun");
+		journal.reset(1);
+		assertEquals(1, journal.getGeneration());
+		assertEquals(0, journal.getRecordCount());
+		journal.logAddTag("Rain");
+		reopen();
+
+		assertEquals(0, journal.replay(0, recorder()));
+		assertTrue(replayed.isEmpty());
+		assertEquals(0, journal.getGeneration());
+	}
+
+	/**
+	 * Tests that once syncAppended returns the records this thread added are
+	 * in the file, without closing the journal
+	 * @throws IOException
+	 */
+	@Test
+	public void testSyncAppended() throws IOException {
+		long length = journalFile.length();
+		for (int i = 0; i < 20; i++) {
+			journal.logAddTag("Tag" + i);
+			journal.syncAppended();
+			assertTrue(journalFile.length() > length);
+			length = journalFile.length();
+		}
+		Journal reader = new Journal(journalFile);
+		try {
+			assertEquals(20, reader.replay(0, recorder()));
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package photo_renamer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A change to the photo or tag library, sent to listeners by the <EventBus>.
+ * Each event says what changed rather than only that something did, so a
+ * listener can update just what the change touched. The events of one
+ * transaction are merged where they can be, so a photo renamed twice is one
+ * rename and a tag added then deleted is nothing at all.
+ * 
+ * @author Ben,Sara
+ *
+ */
+public abstract class LibraryEvent {
+
+	LibraryEvent() {
+	}
+
+	/**
+	 * Get what the event is about, only events with equal keys are merged
+	 * 
+	 * @return <Object> the key
+	 */
+	abstract Object key();
+
+	/**
+	 * Merge a later event with the same key into this one
+	 * 
+	 * @param <LibraryEvent> later : the later event
+	 * @return <LibraryEvent> the merged event, NOTHING if the two cancel out,
+	 *         or null if they can not be merged
+	 */
+	abstract LibraryEvent mergeWith(LibraryEvent later);
+
+	/**
+	 * What two events merge into when they cancel each other out
+	 */
+	static final LibraryEvent NOTHING = new LibraryEvent() {
+		@Override
+		Object key() {
+			return this;
+		}
+
+		@Override
+		LibraryEvent mergeWith(LibraryEvent later) {
+			return null;
+		}
+	};
+
+	/**
+	 * A photo was given a new name or moved to a new directory
+	 */
+	public static final class PhotoRenamed extends LibraryEvent {
+		public final Photo photo;
+		public final String oldName;
+		public final String oldDir;
+		public final String newName;
+		public final String newDir;
+
+		PhotoRenamed(Photo photo, String oldName, String oldDir, String newName, String newDir) {
+			this.photo = photo;
+			this.oldName = oldName;
+			this.oldDir = oldDir;
+			this.newName = newName;
+			this.newDir = newDir;
+		}
+
+		@Override
+		Object key() {
+			return Arrays.asList(getClass(), photo);
+		}
+
+		@Override
+		LibraryEvent mergeWith(LibraryEvent later) {
+			if (!(later instanceof PhotoRenamed)) {
+				return null;
+			}
+			PhotoRenamed next = (PhotoRenamed) later;
+			if (oldName.equals(next.newName) && oldDir.equals(next.newDir)) {
+				return NOTHING;
+			}
+			return new PhotoRenamed(photo, oldName, oldDir, next.newName, next.newDir);
+		}
+	}
+
+	/**
+	 * Tags were added to or removed from a photo
+	 */
+	public static final class PhotoTagsChanged extends LibraryEvent {
+		public final Photo photo;
+		// the names of the tags the photo has now and did not have before
+		public final Set<String> added;
+		// the names of the tags the photo had before and does not have now
+		public final Set<String> removed;
+
+		PhotoTagsChanged(Photo photo, Set<String> added, Set<String> removed) {
+			this.photo = photo;
+			this.added = Collections.unmodifiableSet(added);
+			this.removed = Collections.unmodifiableSet(removed);
+		}
+
+		/**
+		 * Get the tags added to and removed from a photo between two sets of
+		 * tag names
+		 * 
+		 * @param <Photo> photo : the photo
+		 * @param <Set> before : the tag names the photo had
+		 * @param <Set> after : the tag names the photo has now
+		 * @return <PhotoTagsChanged> the change, null if the tags are the same
+		 */
+		static PhotoTagsChanged between(Photo photo, Set<String> before, Set<String> after) {
+			Set<String> added = new LinkedHashSet<String>(after);
+			added.removeAll(before);
+			Set<String> removed = new LinkedHashSet<String>(before);
+			removed.removeAll(after);
+			if (added.isEmpty() && removed.isEmpty()) {
+				return null;
+			}
+			return new PhotoTagsChanged(photo, added, removed);
+		}
+
+		@Override
+		Object key() {
+			return Arrays.asList(getClass(), photo);
+		}
+
+		@Override
+		LibraryEvent mergeWith(LibraryEvent later) {
+			if (!(later instanceof PhotoTagsChanged)) {
+				return null;
+			}
+			PhotoTagsChanged next = (PhotoTagsChanged) later;
+			Set<String> netAdded = new LinkedHashSet<String>(added);
+			netAdded.removeAll(next.removed);
+			Set<String> netRemoved = new LinkedHashSet<String>(removed);
+			netRemoved.removeAll(next.added);
+			for (String tagName : next.added) {
+				if (!removed.contains(tagName)) {
+					netAdded.add(tagName);
+				}
+			}
+			for (String tagName : next.removed) {
+				if (!added.contains(tagName)) {
+					netRemoved.add(tagName);
+				}
+			}
+			if (netAdded.isEmpty() && netRemoved.isEmpty()) {
+				return NOTHING;
+			}
+			return new PhotoTagsChanged(photo, netAdded, netRemoved);
+		}
+	}
+
+	/**
+	 * A photo was removed from the library after its file was deleted
+	 */
+	public static final class PhotoRemoved extends LibraryEvent {
+		public final Photo photo;
+
+		PhotoRemoved(Photo photo) {
+			this.photo = photo;
+		}
+
+		@Override
+		Object key() {
+			return Arrays.asList(getClass(), photo);
+		}
+
+		@Override
+		LibraryEvent mergeWith(LibraryEvent later) {
+			return null;
+		}
+	}
+
+	/**
+	 * A tag was added to the tag library
+	 */
+	public static final class TagAdded extends LibraryEvent {
+		public final String tagName;
+
+		TagAdded(String tagName) {
+			this.tagName = tagName;
+		}
+
+		@Override
+		Object key() {
+			return Arrays.asList("tag", tagName);
+		}
+
+		@Override
+		LibraryEvent mergeWith(LibraryEvent later) {
+			//a tag that was added and deleted again was never there
+			return later instanceof TagRemoved ? NOTHING : null;
+		}
+	}
+
+	/**
+	 * A tag was deleted from the tag library
+	 */
+	public static final class TagRemoved extends LibraryEvent {
+		public final String tagName;
+
+		TagRemoved(String tagName) {
+			this.tagName = tagName;
+		}
+
+		@Override
+		Object key() {
+			return Arrays.asList("tag", tagName);
+		}
+
+		@Override
+		LibraryEvent mergeWith(LibraryEvent later) {
+			return null;
+		}
+	}
+}
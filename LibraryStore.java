@@ -0,0 +1,706 @@
+package photo_renamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and loads the photo and tag libraries in a compact binary file
+ * instead of serializing the whole object graph. The file has a versioned
+ * header, then tables of tag names, directories and extensions, and one
+ * record per photo that refers to those tables by number. A name made of
+ * the original name, tags and extension, which is nearly every current and
+ * previous name, is stored as just its list of tag numbers. Numbers are
+ * written as variable length integers so small ones take a single byte.
+ * Photos are written grouped by directory and sorted by name, and after them
+ * comes a small index of where every few photos and every directory start,
+ * that <MappedLibrary> uses to find a single photo or directory without
+ * reading the rest.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class LibraryStore {
+	// the file both libraries are saved to
+	public static final String LIBRARY_FILE_NAME = "photoLibrary.dat";
+	// "PRLB", marks the file as a photo renamer library
+	static final int MAGIC = 0x50524C42;
+	// version 2 added the journal generation, version 3 the index
+	static final int VERSION = 3;
+	// the first version with an index after the photos
+	static final int INDEXED_VERSION = 3;
+	// the index has the offset of one photo in this many
+	static final int INDEX_INTERVAL = 16;
+	// set on a photo record whose name is not made from its original name and tags
+	private static final int NAME_STORED = 1;
+
+	/**
+	 * Save the libraries to a file. The file is written next to the old one,
+	 * synced, and then moved over it, so a failed save leaves the old file.
+	 * The directory is synced after the move, so once this returns the new
+	 * file survives a crash and the journal before it can be cleared.
+	 *
+	 * @param <File> file : the file to save to
+	 * @param <Map> photoLibrary : the photos, keyed by directory and name
+	 * @param <Map> tagLibrary : the tags, keyed by name
+	 * @param <int> nextId : the id the next new photo will get
+	 * @param <long> journalGeneration : the generation of the journal started after this save
+	 * @throws IOException
+	 */
+	public static void save(File file, Map<String, Photo> photoLibrary, Map<String, Tag> tagLibrary, int nextId,
+			long journalGeneration) throws IOException {
+		save(file, photoLibrary, tagLibrary, null, nextId, journalGeneration);
+	}
+
+	/**
+	 * Save the libraries to a file, copying the photos that have not been
+	 * handed out from the saved library that is in use, without making
+	 * them. The saved library is left open, unless the system does not let
+	 * a mapped file be replaced, in which case it is closed before the move
+	 * and mapped again if the move still fails.
+	 *
+	 * @param <File> file : the file to save to
+	 * @param <Map> photoLibrary : the photos, keyed by directory and name
+	 * @param <Map> tagLibrary : the tags, keyed by name, including every tag
+	 *            of the saved library
+	 * @param <MappedLibrary> saved : the saved library, null if there is none
+	 * @param <int> nextId : the id the next new photo will get
+	 * @param <long> journalGeneration : the generation of the journal started after this save
+	 * @return <BitSet> the numbers in the new file of the photos from photoLibrary
+	 * @throws IOException
+	 */
+	public static BitSet save(File file, Map<String, Photo> photoLibrary, Map<String, Tag> tagLibrary,
+			MappedLibrary saved, int nextId, long journalGeneration) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+		BitSet fromLibrary;
+		try {
+			fromLibrary = write(out, photoLibrary, tagLibrary, saved, nextId, journalGeneration);
+			out.flush();
+			fileOut.getChannel().force(true);
+		} finally {
+			out.close();
+		}
+		try {
+			move(tmp, file);
+		} catch (IOException e) {
+			if (saved == null) {
+				throw e;
+			}
+			//everything needed from the old file has been copied
+			saved.close();
+			try {
+				move(tmp, file);
+			} catch (IOException again) {
+				//the old file is still there
+				saved.remap();
+				throw again;
+			}
+		}
+		syncDirectory(file.getAbsoluteFile().getParentFile());
+		return fromLibrary;
+	}
+
+	/**
+	 * Move a file over another, atomically where the system allows it
+	 */
+	private static void move(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Sync a directory so a file just moved into it is not lost in a crash.
+	 * Some systems, such as Windows, can not open a directory, and make the
+	 * move durable on their own.
+	 *
+	 * @param <File> dir : the directory
+	 * @throws IOException if the directory was opened but could not be synced
+	 */
+	static void syncDirectory(File dir) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Write the libraries to a stream
+	 *
+	 * @param <OutputStream> stream : where to write
+	 * @param <Map> photoLibrary : the photos, keyed by directory and name
+	 * @param <Map> tagLibrary : the tags, keyed by name
+	 * @param <int> nextId : the id the next new photo will get
+	 * @param <long> journalGeneration : the generation of the journal started after this save
+	 * @throws IOException
+	 */
+	static void write(OutputStream stream, Map<String, Photo> photoLibrary, Map<String, Tag> tagLibrary,
+			int nextId, long journalGeneration) throws IOException {
+		write(stream, photoLibrary, tagLibrary, null, nextId, journalGeneration);
+	}
+
+	/**
+	 * Write the libraries to a stream, with the photos that have not been
+	 * handed out from a saved library. Those are read as records and
+	 * written with the numbers of the new tables, so no <Photo> is made for
+	 * them.
+	 *
+	 * @param <OutputStream> stream : where to write
+	 * @param <Map> photoLibrary : the photos, keyed by directory and name
+	 * @param <Map> tagLibrary : the tags, keyed by name
+	 * @param <MappedLibrary> saved : the saved library, null if there is none
+	 * @param <int> nextId : the id the next new photo will get
+	 * @param <long> journalGeneration : the generation of the journal started after this save
+	 * @return <BitSet> the numbers of the photos written from photoLibrary
+	 * @throws IOException
+	 */
+	static BitSet write(OutputStream stream, Map<String, Photo> photoLibrary, Map<String, Tag> tagLibrary,
+			MappedLibrary saved, int nextId, long journalGeneration) throws IOException {
+		//a new stream so size() counts from the start of the library
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		writeVarint(out, VERSION);
+		writeVarint(out, nextId);
+		out.writeLong(journalGeneration);
+
+		//number every tag in library order
+		HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+		writeVarint(out, tagLibrary.size());
+		for (String tagName : tagLibrary.keySet()) {
+			tagIds.put(tagName, tagIds.size());
+			writeString(out, tagName);
+		}
+
+		//number every directory and extension that a photo has, and group
+		//the photos by directory
+		LinkedHashMap<String, Integer> dirIds = new LinkedHashMap<String, Integer>();
+		LinkedHashMap<String, Integer> extensionIds = new LinkedHashMap<String, Integer>();
+		LinkedHashMap<String, List<Photo>> photosByDir = new LinkedHashMap<String, List<Photo>>();
+		for (Photo photo : photoLibrary.values()) {
+			number(dirIds, photo.getDir());
+			number(extensionIds, ImageTypeChecker.getExtension(photo.getName()));
+			List<Photo> dirPhotos = photosByDir.get(photo.getDir());
+			if (dirPhotos == null) {
+				dirPhotos = new ArrayList<Photo>();
+				photosByDir.put(photo.getDir(), dirPhotos);
+			}
+			dirPhotos.add(photo);
+		}
+		int photoCount = photoLibrary.size();
+		if (saved != null) {
+			for (String dir : saved.unloadedDirs()) {
+				number(dirIds, dir);
+			}
+			for (String extension : saved.getExtensions()) {
+				number(extensionIds, extension);
+			}
+			photoCount += saved.getUnloadedCount();
+		}
+		writeTable(out, dirIds);
+		writeTable(out, extensionIds);
+
+		writeVarint(out, photoCount);
+		int[] offsets = new int[(photoCount + INDEX_INTERVAL - 1) / INDEX_INTERVAL];
+		int[] dirCounts = new int[dirIds.size()];
+		BitSet fromLibrary = new BitSet(photoCount);
+		int photoNumber = 0;
+		for (String dir : dirIds.keySet()) {
+			List<Photo> dirPhotos = photosByDir.get(dir);
+			if (dirPhotos == null) {
+				dirPhotos = Collections.emptyList();
+			}
+			//sorted so a photo can be found in its directory by name
+			Collections.sort(dirPhotos, new Comparator<Photo>() {
+				@Override
+				public int compare(Photo p1, Photo p2) {
+					return p1.getName().compareTo(p2.getName());
+				}
+			});
+			//the saved photos are already sorted, so the two are merged
+			List<Record> records = saved == null ? Collections.<Record>emptyList() : saved.unloadedRecords(dir);
+			int p = 0;
+			int r = 0;
+			while (p < dirPhotos.size() || r < records.size()) {
+				if (photoNumber % INDEX_INTERVAL == 0) {
+					offsets[photoNumber / INDEX_INTERVAL] = out.size();
+				}
+				if (r == records.size()
+						|| (p < dirPhotos.size() && dirPhotos.get(p).getName().compareTo(records.get(r).name) <= 0)) {
+					writePhoto(out, dirPhotos.get(p++), tagIds, dirIds, extensionIds);
+					fromLibrary.set(photoNumber);
+				} else {
+					Record record = records.get(r++);
+					writeRecord(out, record.id, record.name, record.dir, record.originalName, record.tagNames,
+							record.prevNames, tagIds, dirIds, extensionIds);
+				}
+				photoNumber++;
+			}
+			dirCounts[dirIds.get(dir)] = dirPhotos.size() + records.size();
+		}
+		if (photoNumber != photoCount) {
+			throw new IOException("The saved library changed while it was copied");
+		}
+
+		//the index: where every few photos start, then the first photo and
+		//number of photos in each directory
+		int indexOffset = out.size();
+		for (int offset : offsets) {
+			out.writeInt(offset);
+		}
+		int firstPhoto = 0;
+		for (int dirCount : dirCounts) {
+			out.writeInt(firstPhoto);
+			out.writeInt(dirCount);
+			firstPhoto += dirCount;
+		}
+		out.writeInt(indexOffset);
+		out.flush();
+		return fromLibrary;
+	}
+
+	/**
+	 * Write the record of one photo
+	 */
+	private static void writePhoto(DataOutputStream out, Photo photo, Map<String, Integer> tagIds,
+			Map<String, Integer> dirIds, Map<String, Integer> extensionIds) throws IOException {
+		writeRecord(out, photo.getId(), photo.getName(), photo.getDir(), photo.getOriginalName(), photo.getTags(),
+				photo.getPrevNames(), tagIds, dirIds, extensionIds);
+	}
+
+	/**
+	 * Write the record of one photo from its parts
+	 */
+	private static void writeRecord(DataOutputStream out, int id, String name, String dir, String originalName,
+			Collection<String> tagNames, Collection<String> prevNames, Map<String, Integer> tagIds,
+			Map<String, Integer> dirIds, Map<String, Integer> extensionIds) throws IOException {
+		String extension = ImageTypeChecker.getExtension(name);
+		boolean nameStored = !name.equals(composeName(originalName, tagNames, extension));
+		writeVarint(out, nameStored ? NAME_STORED : 0);
+		writeVarint(out, id);
+		writeVarint(out, dirIds.get(dir));
+		writeString(out, originalName);
+		writeVarint(out, extensionIds.get(extension));
+		if (nameStored) {
+			writeString(out, name);
+		}
+		writeVarint(out, tagNames.size());
+		for (String tagName : tagNames) {
+			Integer tagId = tagIds.get(tagName);
+			if (tagId == null) {
+				throw new IOException("Photo " + dir + name + " has a tag that is not in the library");
+			}
+			writeVarint(out, tagId);
+		}
+		writeVarint(out, prevNames.size());
+		for (String prevName : prevNames) {
+			writeName(out, prevName, originalName, extension, tagIds);
+		}
+	}
+
+	/**
+	 * Load the libraries from a file
+	 *
+	 * @param <File> file : the file to load
+	 * @param <Map> photoLibrary : filled with the photos, keyed by directory and name
+	 * @param <Map> tagLibrary : filled with the tags, keyed by name
+	 * @return <Info> the id the next new photo should get and the journal generation
+	 * @throws IOException if the file is not a library or can not be read
+	 */
+	public static Info load(File file, Map<String, Photo> photoLibrary, Map<String, Tag> tagLibrary)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			return read(in, photoLibrary, tagLibrary);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the libraries from a stream
+	 *
+	 * @param <InputStream> stream : where to read from
+	 * @param <Map> photoLibrary : filled with the photos, keyed by directory and name
+	 * @param <Map> tagLibrary : filled with the tags, keyed by name
+	 * @return <Info> the id the next new photo should get and the journal generation
+	 * @throws IOException
+	 */
+	static Info read(InputStream stream, Map<String, Photo> photoLibrary, Map<String, Tag> tagLibrary)
+			throws IOException {
+		DataInputStream in = stream instanceof DataInputStream ? (DataInputStream) stream
+				: new DataInputStream(stream);
+		Header header = readHeader(in, tagLibrary);
+		int nextId = header.nextId;
+		int photoCount = readVarint(in);
+		List<Tag> photoTags = new ArrayList<Tag>();
+		for (int i = 0; i < photoCount; i++) {
+			Photo photo = readPhoto(in, header, photoTags);
+			for (Tag tag : photoTags) {
+				photo.restoreTag(tag);
+			}
+			photoLibrary.put(photo.getDir() + photo.getName(), photo);
+			nextId = Math.max(nextId, photo.getId() + 1);
+		}
+		return new Info(nextId, header.journalGeneration);
+	}
+
+	/**
+	 * Read everything in a library before the photos
+	 *
+	 * @param <DataInputStream> in : where to read from
+	 * @param <Map> tagLibrary : filled with the tags, keyed by name
+	 * @return <Header> the header and tables
+	 * @throws IOException if the stream is not a library
+	 */
+	static Header readHeader(DataInputStream in, Map<String, Tag> tagLibrary) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a photo library file");
+		}
+		int version = readVarint(in);
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported photo library version " + version);
+		}
+		int nextId = readVarint(in);
+		//libraries saved before there was a journal start at generation 0
+		long journalGeneration = version >= 2 ? in.readLong() : 0;
+
+		int tagCount = readVarint(in);
+		Tag[] tags = new Tag[tagCount];
+		for (int i = 0; i < tagCount; i++) {
+			tags[i] = new Tag(readString(in));
+			tagLibrary.put(tags[i].getName(), tags[i]);
+		}
+
+		String[] dirs = readTable(in);
+		String[] extensions = readTable(in);
+		return new Header(version, nextId, journalGeneration, tags, dirs, extensions);
+	}
+
+	/**
+	 * Read the record of one photo. The photo is not added to its tags, so
+	 * a photo that is read and not kept leaves the tags unchanged.
+	 *
+	 * @param <DataInputStream> in : where to read from
+	 * @param <Header> header : the tables the record refers to
+	 * @param <List> photoTags : cleared and filled with the tags of the photo
+	 * @return <Photo> the photo
+	 * @throws IOException
+	 */
+	static Photo readPhoto(DataInputStream in, Header header, List<Tag> photoTags) throws IOException {
+		Record record = readRecord(in, header, photoTags);
+		return new Photo(record.id, record.name, record.dir, record.originalName, record.prevNames);
+	}
+
+	/**
+	 * Read the record of one photo without making the photo
+	 *
+	 * @param <DataInputStream> in : where to read from
+	 * @param <Header> header : the tables the record refers to
+	 * @param <List> photoTags : cleared and filled with the tags of the photo
+	 * @return <Record> what the record holds
+	 * @throws IOException
+	 */
+	static Record readRecord(DataInputStream in, Header header, List<Tag> photoTags) throws IOException {
+		int flags = readVarint(in);
+		int id = readVarint(in);
+		String dir = header.dirs[readVarint(in)];
+		String originalName = readString(in);
+		String extension = header.extensions[readVarint(in)];
+		String name = (flags & NAME_STORED) != 0 ? readString(in) : null;
+
+		int photoTagCount = readVarint(in);
+		photoTags.clear();
+		List<String> photoTagNames = new ArrayList<String>(photoTagCount);
+		for (int j = 0; j < photoTagCount; j++) {
+			Tag tag = header.tags[readVarint(in)];
+			photoTags.add(tag);
+			photoTagNames.add(tag.getName());
+		}
+		if (name == null) {
+			name = composeName(originalName, photoTagNames, extension);
+		}
+		int prevNameCount = readVarint(in);
+		LinkedHashSet<String> prevNames = new LinkedHashSet<String>();
+		for (int j = 0; j < prevNameCount; j++) {
+			prevNames.add(readName(in, originalName, extension, header.tags));
+		}
+		return new Record(id, name, dir, originalName, photoTagNames, prevNames);
+	}
+
+	/**
+	 * Read the id and tag numbers of a photo and skip the rest of it, so the
+	 * photos with a tag can be found without making them
+	 *
+	 * @param <DataInputStream> in : the stream, at the start of a photo
+	 * @param <List> tagNumbers : set to the tag numbers of the photo
+	 * @return <int> the id of the photo
+	 * @throws IOException
+	 */
+	static int skimPhoto(DataInputStream in, List<Integer> tagNumbers) throws IOException {
+		int flags = readVarint(in);
+		int id = readVarint(in);
+		readVarint(in); //directory
+		skipString(in); //original name
+		readVarint(in); //extension
+		if ((flags & NAME_STORED) != 0) {
+			skipString(in);
+		}
+		int photoTagCount = readVarint(in);
+		tagNumbers.clear();
+		for (int j = 0; j < photoTagCount; j++) {
+			tagNumbers.add(readVarint(in));
+		}
+		int prevNameCount = readVarint(in);
+		for (int j = 0; j < prevNameCount; j++) {
+			int tagCount = readVarint(in) - 1;
+			if (tagCount < 0) {
+				skipString(in);
+			}
+			for (int k = 0; k < tagCount; k++) {
+				readVarint(in);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Make a photo name the way <Photo> does, from its original name, tags
+	 * and extension
+	 *
+	 * @param <String> originalName : the name without tags or extension
+	 * @param <Iterable> tagNames : the tags, in order
+	 * @param <String> extension : the extension
+	 * @return <String> the photo name
+	 */
+	static String composeName(String originalName, Iterable<String> tagNames, String extension) {
+		StringBuilder name = new StringBuilder(originalName);
+		for (String tagName : tagNames) {
+			name.append('@').append(tagName);
+		}
+		return name.append('.').append(extension).toString();
+	}
+
+	/**
+	 * Write a name of a photo. A name made of the photo's original name, tags
+	 * in the tag table and extension is written as the number of tags plus
+	 * one followed by the tag numbers, anything else as a 0 and the name.
+	 */
+	private static void writeName(DataOutputStream out, String name, String originalName, String extension,
+			Map<String, Integer> tagIds) throws IOException {
+		String suffix = "." + extension;
+		if (name.startsWith(originalName) && name.endsWith(suffix)
+				&& name.length() >= originalName.length() + suffix.length()) {
+			String tagString = name.substring(originalName.length(), name.length() - suffix.length());
+			List<Integer> ids = new ArrayList<Integer>();
+			boolean allKnown = tagString.isEmpty() || tagString.charAt(0) == '@';
+			int start = 1;
+			while (allKnown && start <= tagString.length()) {
+				int end = tagString.indexOf('@', start);
+				if (end < 0) {
+					end = tagString.length();
+				}
+				Integer id = tagIds.get(tagString.substring(start, end));
+				if (id == null) {
+					allKnown = false;
+				} else {
+					ids.add(id);
+				}
+				start = end + 1;
+			}
+			if (allKnown) {
+				writeVarint(out, ids.size() + 1);
+				for (int id : ids) {
+					writeVarint(out, id);
+				}
+				return;
+			}
+		}
+		writeVarint(out, 0);
+		writeString(out, name);
+	}
+
+	/**
+	 * Read a name written by writeName
+	 */
+	private static String readName(DataInputStream in, String originalName, String extension, Tag[] tags)
+			throws IOException {
+		int tagCount = readVarint(in) - 1;
+		if (tagCount < 0) {
+			return readString(in);
+		}
+		List<String> tagNames = new ArrayList<String>(tagCount);
+		for (int i = 0; i < tagCount; i++) {
+			tagNames.add(tags[readVarint(in)].getName());
+		}
+		return composeName(originalName, tagNames, extension);
+	}
+
+	/**
+	 * Give a string the next number in a table if it is not already in it
+	 */
+	private static void number(Map<String, Integer> table, String s) {
+		if (!table.containsKey(s)) {
+			table.put(s, table.size());
+		}
+	}
+
+	private static void writeTable(DataOutputStream out, LinkedHashMap<String, Integer> table) throws IOException {
+		writeVarint(out, table.size());
+		for (String s : table.keySet()) {
+			writeString(out, s);
+		}
+	}
+
+	private static String[] readTable(DataInputStream in) throws IOException {
+		String[] table = new String[readVarint(in)];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = readString(in);
+		}
+		return table;
+	}
+
+	/**
+	 * Write a non negative int using 7 bits per byte, the high bit set on
+	 * every byte but the last
+	 */
+	static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Read an int written by writeVarint
+	 */
+	static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed number in photo library");
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static void skipString(DataInputStream in) throws IOException {
+		int length = readVarint(in);
+		if (length < 0 || in.skipBytes(length) != length) {
+			throw new EOFException();
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = readVarint(in);
+		if (length < 0) {
+			throw new EOFException();
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * What is known about a saved library besides its photos and tags
+	 */
+	public static class Info {
+		// the id the next new photo should get
+		public final int nextId;
+		// the generation of the journal that goes with the library
+		public final long journalGeneration;
+
+		Info(int nextId, long journalGeneration) {
+			this.nextId = nextId;
+			this.journalGeneration = journalGeneration;
+		}
+	}
+
+	/**
+	 * What the record of a photo holds, read without making the photo
+	 */
+	static class Record {
+		final int id;
+		final String name;
+		final String dir;
+		final String originalName;
+		final List<String> tagNames;
+		final LinkedHashSet<String> prevNames;
+
+		Record(int id, String name, String dir, String originalName, List<String> tagNames,
+				LinkedHashSet<String> prevNames) {
+			this.id = id;
+			this.name = name;
+			this.dir = dir;
+			this.originalName = originalName;
+			this.tagNames = tagNames;
+			this.prevNames = prevNames;
+		}
+	}
+
+	/**
+	 * The numbers and tables at the start of a library, which photo records
+	 * refer to
+	 */
+	static class Header {
+		final int version;
+		final int nextId;
+		final long journalGeneration;
+		final Tag[] tags;
+		final String[] dirs;
+		final String[] extensions;
+
+		Header(int version, int nextId, long journalGeneration, Tag[] tags, String[] dirs, String[] extensions) {
+			this.version = version;
+			this.nextId = nextId;
+			this.journalGeneration = journalGeneration;
+			this.tags = tags;
+			this.dirs = dirs;
+			this.extensions = extensions;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests LibraryStore
+ *
+ * @author Ben,Sara
+ */
+public class LibraryStoreTest {
+
+	LinkedHashMap<String, Photo> photoLibrary;
+	LinkedHashMap<String, Tag> tagLibrary;
+	Photo testPhoto1;
+	Photo testPhoto2;
+
+	/**
+	 * Sets up the tests with two tags and two photos, one tagged with both
+	 * tags and one that was renamed outside of the program
+	 */
+	@Before
+	public void setUp() {
+		photoLibrary = new LinkedHashMap<String, Photo>();
+		tagLibrary = new LinkedHashMap<String, Tag>();
+		Tag sun = new Tag("Sun");
+		Tag sea = new Tag("Sea");
+		tagLibrary.put("Sun", sun);
+		tagLibrary.put("Sea", sea);
+
+		testPhoto1 = new Photo("beach.jpg", ".\\");
+		testPhoto1.addTags(new Tag[] { sun, sea });
+		testPhoto2 = new Photo("dune.png", ".\\trip\\");
+		testPhoto2.relocate("sand@dunes.png", ".\\trip\\");
+		photoLibrary.put(testPhoto1.getDir() + testPhoto1.getName(), testPhoto1);
+		photoLibrary.put(testPhoto2.getDir() + testPhoto2.getName(), testPhoto2);
+	}
+
+	/**
+	 * Clears up after the tests by setting variables to null
+	 */
+	@After
+	public void tearDown() {
+		photoLibrary = null;
+		tagLibrary = null;
+	}
+
+	private byte[] write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		LibraryStore.write(bytes, photoLibrary, tagLibrary, 42, 7);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Tests that photos and tags read back the same as they were written,
+	 * including names, ids, directories, previous names and tag links
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		LinkedHashMap<String, Photo> loadedPhotos = new LinkedHashMap<String, Photo>();
+		LinkedHashMap<String, Tag> loadedTags = new LinkedHashMap<String, Tag>();
+		LibraryStore.Info info = LibraryStore.read(new ByteArrayInputStream(write()), loadedPhotos, loadedTags);
+
+		assertTrue(info.nextId >= 42);
+		assertEquals(7, info.journalGeneration);
+		assertEquals(Arrays.asList("Sun", "Sea"), Arrays.asList(loadedTags.keySet().toArray()));
+		assertEquals(photoLibrary.keySet(), loadedPhotos.keySet());
+
+		Photo loaded1 = loadedPhotos.get(".\\beach@Sun@Sea.jpg");
+		assertEquals(testPhoto1.getId(), loaded1.getId());
+		assertEquals("beach", loaded1.getOriginalName());
+		assertEquals(Arrays.asList("Sun", "Sea"), Arrays.asList(loaded1.getTags().toArray()));
+		assertEquals(testPhoto1.getPrevNames(), loaded1.getPrevNames());
+		assertTrue(loadedTags.get("Sea").getPhotosWithTag().contains(loaded1));
+
+		Photo loaded2 = loadedPhotos.get(".\\trip\\sand@dunes.png");
+		assertEquals(".\\trip\\", loaded2.getDir());
+		assertEquals("sand", loaded2.getOriginalName());
+		assertTrue(loaded2.getPrevNames().contains("dune.png"));
+
+		//tagging a loaded photo names it the same way as before saving
+		loaded1.deleteTag(loadedTags.get("Sun"));
+		assertEquals("beach@Sea.jpg", loaded1.getName());
+		assertFalse(loadedTags.get("Sun").getPhotosWithTag().contains(loaded1));
+	}
+
+	/**
+	 * Tests that the library file is at least ten times smaller than
+	 * serializing the libraries
+	 * @throws IOException
+	 */
+	@Test
+	public void testSmallerThanSerialization() throws IOException {
+		Tag[] bothTags = tagLibrary.values().toArray(new Tag[2]);
+		for (int i = 0; i < 200; i++) {
+			Photo photo = new Photo("IMG_" + i + ".jpg", ".\\shoot\\");
+			photo.addTags(bothTags);
+			photoLibrary.put(photo.getDir() + photo.getName(), photo);
+		}
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(serialized);
+		out.writeObject(photoLibrary);
+		out.writeObject(tagLibrary);
+		out.close();
+		assertTrue(write().length * 10 < serialized.size());
+	}
+
+	/**
+	 * Tests that a file that is not a library is rejected
+	 */
+	@Test
+	public void testBadHeader() {
+		try {
+			LibraryStore.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }),
+					new LinkedHashMap<String, Photo>(), new LinkedHashMap<String, Tag>());
+			fail("Read a file that is not a library");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Tests writing and reading variable length numbers
+	 * @throws IOException
+	 */
+	@Test
+	public void testVarint() throws IOException {
+		int[] values = { 0, 1, 127, 128, 300, 16384, Integer.MAX_VALUE };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int v : values) {
+			LibraryStore.writeVarint(out, v);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int v : values) {
+			assertEquals(v, LibraryStore.readVarint(in));
+		}
+	}
+}
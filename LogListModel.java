@@ -0,0 +1,88 @@
+package photo_renamer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * The renames in the <RenameLog> as a list for the log tab, oldest first.
+ * Only the number of renames is known up front, and a page of renames is
+ * read the first time one of its lines is drawn, so scrolling up reads older
+ * pages as they are shown. Updating the list only adds the renames made
+ * since it was last updated, so the cost of an update is the number of new
+ * renames rather than the length of the log.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class LogListModel extends AbstractListModel<String> {
+
+	private static final long serialVersionUID = 1L;
+	// the most pages of lines kept at once
+	static final int MAX_CACHED_PAGES = 8;
+
+	private final RenameLog log;
+	private final int pageSize;
+	// the number of renames in the log when the list was last updated
+	private int size;
+	// recently read pages by page number, least recently used first
+	private final LinkedHashMap<Integer, List<String>> pages = new LinkedHashMap<Integer, List<String>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, List<String>> eldest) {
+			return size() > MAX_CACHED_PAGES;
+		}
+	};
+
+	/**
+	 * Create a list of the renames in a log
+	 *
+	 * @param <RenameLog> log : the log to list
+	 * @param <int> pageSize : the number of renames read at once
+	 */
+	public LogListModel(RenameLog log, int pageSize) {
+		this.log = log;
+		this.pageSize = pageSize;
+		size = (int) Math.min(Integer.MAX_VALUE, log.getCount());
+	}
+
+	/**
+	 * Add the renames made since the list was last updated
+	 *
+	 * @return <int> the number of renames added
+	 */
+	public int update() {
+		int newSize = (int) Math.min(Integer.MAX_VALUE, log.getCount());
+		if (newSize <= size) {
+			return 0;
+		}
+		int oldSize = size;
+		//the last page read may have been cut short by the end of the log
+		if (oldSize % pageSize != 0) {
+			pages.remove(oldSize / pageSize);
+		}
+		size = newSize;
+		fireIntervalAdded(this, oldSize, newSize - 1);
+		return newSize - oldSize;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String getElementAt(int index) {
+		int pageNumber = index / pageSize;
+		List<String> page = pages.get(pageNumber);
+		if (page == null) {
+			page = ViewLog.getLog(log, (long) pageNumber * pageSize, pageSize);
+			pages.put(pageNumber, page);
+		}
+		int line = index % pageSize;
+		return line < page.size() ? page.get(line) : "";
+	}
+}
@@ -0,0 +1,101 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests LogListModel
+ *
+ * @author Ben,Sara
+ */
+public class LogListModelTest {
+
+	File logFile;
+	File namesFile;
+	RenameLog log;
+	ListDataEvent added;
+
+	/**
+	 * Sets up the tests with an empty log
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		logFile = new File("testLogListModel.dat");
+		namesFile = new File("testLogListModel.names");
+		logFile.delete();
+		namesFile.delete();
+		log = new RenameLog(logFile, namesFile, RenameLog.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Closes and deletes the log after the tests
+	 */
+	@After
+	public void tearDown() {
+		log.close();
+		logFile.delete();
+		namesFile.delete();
+	}
+
+	/**
+	 * Tests that every rename can be read by its line, across pages
+	 */
+	@Test
+	public void testLines() {
+		for (int i = 0; i < 25; i++) {
+			log.append(i, "name" + i + ".jpg", "name" + i + "@Tag.jpg");
+		}
+		LogListModel model = new LogListModel(log, 10);
+		assertEquals(25, model.getSize());
+		assertTrue(model.getElementAt(0).startsWith("Previous name:name0.jpg, New Name: name0@Tag.jpg"));
+		assertTrue(model.getElementAt(24).startsWith("Previous name:name24.jpg, New Name: name24@Tag.jpg"));
+		assertTrue(model.getElementAt(13).startsWith("Previous name:name13.jpg"));
+	}
+
+	/**
+	 * Tests that an update adds only the new renames, including to a page
+	 * that was read before they were made
+	 */
+	@Test
+	public void testUpdate() {
+		for (int i = 0; i < 5; i++) {
+			log.append(i, "name" + i + ".jpg", "name" + i + "@Tag.jpg");
+		}
+		LogListModel model = new LogListModel(log, 10);
+		model.addListDataListener(new ListDataListener() {
+			@Override
+			public void intervalAdded(ListDataEvent e) {
+				added = e;
+			}
+
+			@Override
+			public void intervalRemoved(ListDataEvent e) {
+			}
+
+			@Override
+			public void contentsChanged(ListDataEvent e) {
+			}
+		});
+		assertTrue(model.getElementAt(4).startsWith("Previous name:name4.jpg"));
+		assertEquals(0, model.update());
+		assertNull(added);
+
+		log.append(5, "name5.jpg", "name5@Tag.jpg");
+		log.append(6, "name6.jpg", "name6@Tag.jpg");
+		assertEquals(2, model.update());
+		assertEquals(5, added.getIndex0());
+		assertEquals(6, added.getIndex1());
+		assertEquals(7, model.getSize());
+		assertTrue(model.getElementAt(6).startsWith("Previous name:name6.jpg"));
+	}
+}
@@ -3,101 +3,321 @@ package photo_renamer;
 import java.io.Serializable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Observable;
 import java.util.Set;
-import java.util.logging.FileHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * A manager to manage all the tags and photos that exist in the program. Creates
- * a log of all changes done to all of the photos names, serialized the tag and photo
- * libraries so that when the program is closed all of the information will still be
- * available, and is observed by the two possible ways of changing a photos name; tagging
- * and revert name, so that actions can occur. 
+ * A manager to manage all the tags and photos that exist in the program. Every
+ * change to a photos name is logged by the photo in the <RenameLog>. Serializes
+ * the tag and photo libraries so that when the program is closed all of the information will still be
+ * available. Every change is sent as a <LibraryEvent> through its <EventBus>, so the two
+ * possible ways of changing a photos name; tagging and revert name, can follow the changes.
+ * Observers added with addObserver are still notified, once for each tag added or deleted
+ * and once for each batch of changes to photos.
+ * 
+ * The manager can be used from many threads, so directories can be scanned or imported
+ * in the background while the user tags photos. The directories are shared out between
+ * a fixed number of locks, and a change to photos holds the locks of their directories,
+ * so changes to photos in different directories are made at the same time. A change to
+ * the whole library, such as deleting a tag, a tag query or saving, waits for every
+ * change to photos to finish and holds the library to itself. Listeners are told about
+ * a change after its locks are let go.
  * 
  * @author Ben,Sara
  *
  */
 public class Manager extends Observable implements Serializable {
 	// the library of all Photos (keys: path + file name, values: Photo objects)
-	private LinkedHashMap<String, Photo> photoLibrary = new LinkedHashMap<String, Photo>();
-	// the library of all used tTag
+	private ConcurrentHashMap<String, Photo> photoLibrary = new ConcurrentHashMap<String, Photo>();
+	// the same photos by their directories, changed with photoLibrary
+	private transient DirectoryIndex dirIndex = new DirectoryIndex();
+	// the library of all used tTag, only changed while holding tagLock
 	private LinkedHashMap<String, Tag> tagLibrary = new LinkedHashMap<String, Tag>();
-	// the logger of all changes made
-	private final Logger logger = Logger.getLogger(Manager.class.getName());
-	// the filehandler for the logger
-	private FileHandler handler = null;
+	// the number of locks the directories are shared out between
+	private static final int DIR_LOCKS = 64;
+	// changes to photos hold the read lock and the locks of their directories,
+	// changes to the whole library hold the write lock
+	private final transient ReentrantReadWriteLock libraryLock = new ReentrantReadWriteLock();
+	private final transient ReentrantLock[] dirLocks = new ReentrantLock[DIR_LOCKS];
+	private final transient Object tagLock = new Object();
+	// observers added with addObserver are notified one batch at a time
+	private final transient Object observerLock = new Object();
+	// the number of journal records after which the libraries are saved
+	private static final int SNAPSHOT_RECORDS = 10000;
+	// the journal records at which the next save is tried, raised after a failed save
+	private transient volatile int snapshotAt = SNAPSHOT_RECORDS;
+	// the journal of changes made since the libraries were last saved
+	private transient Journal journal;
+	// the journal generation of the library that was loaded
+	private long libraryGeneration;
+	// true while the journal is being replayed, so changes are not journaled again
+	private transient boolean replaying;
+	// the saved library, for photos that have not been needed yet
+	private transient volatile MappedLibrary mappedLibrary;
+	// renames the files of many photos at once
+	private transient RenameExecutor renameExecutor;
+	// the ids of every photo and each photo by its id, for tag queries,
+	// made again when they are needed after a photo is added or removed
+	private transient volatile PhotoIdSet allPhotoIds;
+	private transient volatile HashMap<Integer, Photo> photosById;
+	// sends the changes to the library to its listeners
+	private transient EventBus events = new EventBus();
+	// runs the tag deletions started with deleteTagInBackground, one at a time
+	private transient ExecutorService tagDeleter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "tag-deleter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	/**
 	 * Creates an instance of manager, deserializes the tag and photo libraries,
-	 * if the serializable files exist and intializes the logger handler so  that
-	 * all logging of changes can occur.
+	 * if the serializable files exist. Any changes in the journal that were
+	 * made after the libraries were last saved are then applied again.
 	 */
 	public Manager(){
-		//if the serializeable files exist deserialize them
-		if (new File("photoLibrary.ser").exists() && new File("tagLibrary.ser").exists() ){
-			deserializeLibs();
+		for (int i = 0; i < DIR_LOCKS; i++) {
+			dirLocks[i] = new ReentrantLock();
 		}
-		//start the logger handler
-		initHandler();
+		events.subscribe(LibraryEvent.class, new EventBus.Listener<LibraryEvent>() {
+			@Override
+			public void onEvents(List<LibraryEvent> changes) {
+				notifyLegacyObservers(changes);
+			}
+		});
+		//if a saved library exists load it
+		deserializeLibs();
+		openJournal();
+		openRenameExecutor();
 	}
+
 	/**
-	 * Intialize the handler for the logger
+	 * Open the rename executor and sort out the moves of a bulk rename that
+	 * was cut short. A move is finished if the library has the photo under
+	 * its new name, since the change reached the journal, and undone if not.
 	 */
-	private void initHandler() {
+	private void openRenameExecutor() {
 		try {
-			//create the logger file and set the handler
-			String workingDir = System.getProperty("user.dir");
-			String fileName = workingDir + "Manager.log";
-			handler = new FileHandler(fileName, true);
+			renameExecutor = new RenameExecutor(new File(RenameExecutor.PLAN_FILE_NAME));
+			renameExecutor.recover(new RenameExecutor.Decider() {
+				@Override
+				public boolean shouldFinish(RenameExecutor.Move move) {
+					return findPhoto(move.to.getName(), dirOf(move.to)) != null;
+				}
+			});
+		} catch (IOException e) {
+			//files are still renamed, one at a time by the actions
+			e.printStackTrace();
+			renameExecutor = null;
+		}
+	}
+
+	/**
+	 * Open the journal and replay the changes made since the last save
+	 */
+	private void openJournal() {
+		try {
+			journal = new Journal(new File(Journal.JOURNAL_FILE_NAME));
+			replaying = true;
+			//the renames were logged when the changes were first made
+			RenameLog.getInstance().setRecording(false);
+			try {
+				journal.replay(libraryGeneration, new Journal.Replayer() {
+					@Override
+					public void setPhotoState(String photoName, String dir, String[] tags) {
+						Manager.this.setPhotoState(photoName, dir, tags);
+					}
+
+					@Override
+					public void addTag(String tagName) {
+						Manager.this.addTag(tagName);
+					}
 
+					@Override
+					public void deleteTag(String tagName) {
+						Manager.this.deleteTag(tagName);
+					}
+
+					@Override
+					public void relocatePhoto(String oldName, String oldDir, String newName, String newDir) {
+						Manager.this.relocatePhoto(oldName, oldDir, newName, newDir);
+					}
+
+					@Override
+					public void removePhoto(String photoName, String dir) {
+						Manager.this.removePhoto(photoName, dir);
+					}
+				});
+			} finally {
+				replaying = false;
+				RenameLog.getInstance().setRecording(true);
+			}
 		} catch (IOException e) {
+			//carry on without a journal, changes are still saved on exit
 			e.printStackTrace();
+			journal = null;
 		}
-		//format the handler so it saves everything written to it in a simple format
-		handler.setFormatter(new SimpleFormatter());
-		logger.addHandler(handler);
-		logger.setLevel(Level.ALL);
 	}
-	
+
 	/**
-	 * Update the log of photo name changes by adding the old name of the photo
-	 * and the newly update name of a photo
+	 * Get if changes should be written to the journal
 	 * 
-	 * @param <String>
-	 * 			oldName
-	 * @param newName
+	 * @return <boolean> true if there is a journal and it is not being replayed
+	 */
+	private boolean journaling() {
+		return journal != null && !replaying;
+	}
+
+	/**
+	 * Get the bus that the changes to the library are sent through
+	 * 
+	 * @return <EventBus> the bus
+	 */
+	public EventBus getEvents() {
+		return events;
+	}
+
+	/**
+	 * Notify the observers added with addObserver of a batch of changes, with
+	 * the name of each tag added or deleted and then once with null if any
+	 * photo changed
+	 * 
+	 * @param <List>
+	 *            changes : the events of the batch
+	 */
+	private void notifyLegacyObservers(List<LibraryEvent> changes) {
+		//the changed flag is shared, so batches from two threads must not mix
+		synchronized (observerLock) {
+			boolean photosChanged = false;
+			for (LibraryEvent change : changes) {
+				String tagName = null;
+				if (change instanceof LibraryEvent.TagAdded) {
+					tagName = ((LibraryEvent.TagAdded) change).tagName;
+				} else if (change instanceof LibraryEvent.TagRemoved) {
+					tagName = ((LibraryEvent.TagRemoved) change).tagName;
+				} else {
+					photosChanged = true;
+				}
+				if (tagName != null) {
+					setChanged();
+					notifyObservers(tagName);
+					clearChanged();
+				}
+			}
+			if (photosChanged) {
+				setChanged();
+				notifyObservers();
+				clearChanged();
+			}
+		}
+	}
+
+	/**
+	 * Lock the directories of the photos about to be changed, always in the
+	 * same order so two threads never wait for each other
+	 * 
+	 * @param <String...>
+	 *            dirs : the directories, which may repeat
+	 * @return <int[]> the locks held, for unlockDirs
+	 */
+	private int[] lockDirs(String... dirs) {
+		int[] locks = new int[dirs.length];
+		for (int i = 0; i < dirs.length; i++) {
+			locks[i] = (dirs[i].hashCode() & Integer.MAX_VALUE) % DIR_LOCKS;
+		}
+		Arrays.sort(locks);
+		libraryLock.readLock().lock();
+		for (int i = 0; i < locks.length; i++) {
+			if (i == 0 || locks[i] != locks[i - 1]) {
+				dirLocks[locks[i]].lock();
+			}
+		}
+		return locks;
+	}
+
+	/**
+	 * Let go of the locks taken by lockDirs
+	 * 
+	 * @param <int[]>
+	 *            locks : the locks lockDirs returned
 	 */
-	private void updateLog(String oldName, String newName){
-		//create the time at which the change occurs (year/month/day hour:min.second
-		String timeStamp = new SimpleDateFormat("yyyy/MM/dd HH:mm.ss").format(new java.util.Date());
-		//add the previous name, new name and timestamp
-		logger.log(Level.SEVERE, "Previous name:{0}, New Name: {1}, Date: {2}",
-				new Object[] { oldName, newName, timeStamp });
+	private void unlockDirs(int[] locks) {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			if (i == 0 || locks[i] != locks[i - 1]) {
+				dirLocks[locks[i]].unlock();
+			}
+		}
+		libraryLock.readLock().unlock();
 	}
 
+	/**
+	 * Wait until the changes this thread made are in the journal on the disk,
+	 * then save the libraries once the journal has grown long, so that
+	 * replaying it after a crash stays quick. A thread that still holds
+	 * directories can not wait for the whole library, and one in the middle
+	 * of changing the whole library has not finished, so the change that
+	 * holds nothing does both. Waiting with nothing held lets changes made
+	 * meanwhile on other threads share the same sync. A save that fails is
+	 * not tried again until as many more records have been written, rather
+	 * than on every change.
+	 */
+	private void snapshotIfNeeded() {
+		if (libraryLock.getReadHoldCount() == 0 && !libraryLock.isWriteLockedByCurrentThread() && journaling()) {
+			try {
+				journal.syncAppended();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (journal.getRecordCount() >= snapshotAt) {
+				serializeLibs();
+			}
+		}
+	}
+
+	/**
+	 * Write any changes still waiting in the journal to the disk and close it
+	 */
+	public void close() {
+		tagDeleter.shutdown();
+		if (renameExecutor != null) {
+			renameExecutor.close();
+			renameExecutor = null;
+		}
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+	}
 	/**
 	 * Return the set off all the tag names, from the tags that are contained
-	 * within the tag library. 
+	 * within the tag library, as they are now. 
 	 * 
 	 * @return <Set> of <String> tag names
 	 */
 	public Set<String> getTags() {
-		return tagLibrary.keySet();
+		synchronized (tagLock) {
+			return new LinkedHashSet<String>(tagLibrary.keySet());
+		}
 	}
 
 	/**
@@ -106,7 +326,14 @@ public class Manager extends Observable implements Serializable {
 	 * @return <Collection> of <Tag> objects in the library
 	 */
 	public Collection<Tag> getTagInstances() {
-		return tagLibrary.values();
+		libraryLock.writeLock().lock();
+		try {
+			//a tag only knows about the photos that have been loaded
+			loadAllPhotos();
+			return new ArrayList<Tag>(tagLibrary.values());
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
 	}
 
 	/**
@@ -115,7 +342,13 @@ public class Manager extends Observable implements Serializable {
 	 * @return <Collection> of all <Photo> objects in the library
 	 */
 	public Collection<Photo> getPhotoInstances() {
-		return photoLibrary.values();
+		libraryLock.writeLock().lock();
+		try {
+			loadAllPhotos();
+			return new ArrayList<Photo>(photoLibrary.values());
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
 	}
 
 	/**
@@ -148,7 +381,245 @@ public class Manager extends Observable implements Serializable {
 	 *            tags : array of tags that the photo is being updated with
 	 */
 	public void setPhotoState(String photoName, String dir, String[] tags) {
+		events.begin();
+		try {
+			int[] locks = lockDirs(dir);
+			try {
+				applyPhotoState(photoName, dir, tags);
+				//journaled while locked, so changes to a photo are replayed in order
+				if (journaling()) {
+					journal.logSetPhotoState(photoName, dir, tags);
+				}
+			} finally {
+				unlockDirs(locks);
+			}
+		} finally {
+			//update tag action nd revert name action listeners
+			events.commit();
+		}
+		snapshotIfNeeded();
+	}
+
+	/**
+	 * Changes the names of many photos at once, as setPhotoState does for one.
+	 * The changes are made in order, as if setPhotoState was called for each,
+	 * but they are one transaction on the <EventBus>, so listeners hear about
+	 * them once after every photo has changed, and they are written to the
+	 * journal and the rename log together. A state that is not valid is not
+	 * made and gets a failed <Outcome>, and the rest of the batch goes on.
+	 * 
+	 * @param <List>
+	 *            states : the <PhotoState> of each photo to change
+	 * @return <List> of <Outcome> for each state, in the same order
+	 */
+	public List<Outcome> setPhotoStates(List<PhotoState> states) {
+		List<Outcome> outcomes = new ArrayList<Outcome>(states.size());
+		List<PhotoState> valid = new ArrayList<PhotoState>(states.size());
+		for (PhotoState state : states) {
+			String error = checkState(state);
+			outcomes.add(error == null ? null : new Outcome(state, state.photoName, true, error));
+			if (error == null) {
+				valid.add(state);
+			}
+		}
+		if (valid.isEmpty()) {
+			return outcomes;
+		}
+		events.begin();
+		RenameLog log = RenameLog.getInstance();
+		log.startBatch();
+		try {
+			int[] locks = lockDirs(dirsOf(valid));
+			try {
+				for (int i = 0; i < states.size(); i++) {
+					if (outcomes.get(i) == null) {
+						PhotoState state = states.get(i);
+						Photo changingPhoto = applyPhotoState(state.photoName, state.dir, state.tags);
+						outcomes.set(i, new Outcome(state, changingPhoto.getName()));
+					}
+				}
+				if (journaling()) {
+					journal.logSetPhotoStates(valid);
+				}
+			} finally {
+				unlockDirs(locks);
+			}
+		} finally {
+			log.finishBatch();
+			//one notification for the whole batch
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return outcomes;
+	}
+
+	/**
+	 * Check a change in a batch before any of the batch is made
+	 * 
+	 * @param <PhotoState>
+	 *            state : the change
+	 * @return <String> why the change can not be made, null if it can
+	 */
+	static String checkState(PhotoState state) {
+		if (state.photoName == null || state.dir == null || state.tags == null) {
+			return "Missing photo name, directory or tags";
+		}
+		for (String tag : state.tags) {
+			String error = checkTagName(tag);
+			if (error != null) {
+				return error;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check that a tag name can be put in a file name
+	 * 
+	 * @param <String>
+	 *            tagName : the tag name
+	 * @return <String> why it can not be a tag name, null if it can
+	 */
+	static String checkTagName(String tagName) {
+		//a tag name is part of the file name, after a tag mark
+		if (tagName == null || tagName.isEmpty() || tagName.indexOf(PhotoNames.TAG_MARK) >= 0
+				|| tagName.indexOf('/') >= 0 || tagName.indexOf('\\') >= 0) {
+			return "Not a valid tag name: " + tagName;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the directory of each photo in a batch of changes
+	 */
+	private static String[] dirsOf(List<PhotoState> states) {
+		String[] dirs = new String[states.size()];
+		for (int i = 0; i < dirs.length; i++) {
+			dirs[i] = states.get(i).dir;
+		}
+		return dirs;
+	}
+
+	/**
+	 * Changes the names of many photos as setPhotoStates does, and then
+	 * renames their files together with the rename executor. A photo whose
+	 * file could not be renamed is given back the tags it had, so its name in
+	 * the library stays the name of its file. Listeners only hear about the
+	 * changes that were kept. The directories of the photos stay locked until
+	 * their files are renamed.
+	 * 
+	 * @param <List>
+	 *            states : the <PhotoState> of each photo to change, each
+	 *            photo at most once
+	 * @return <List> of <Outcome> for each state, in the same order
+	 */
+	public List<Outcome> renamePhotos(List<PhotoState> states) {
+		List<Outcome> outcomes;
+		events.begin();
+		try {
+			//a state that is not valid is not made, so its directory is not locked
+			List<PhotoState> valid = new ArrayList<PhotoState>(states.size());
+			for (PhotoState state : states) {
+				if (checkState(state) == null) {
+					valid.add(state);
+				}
+			}
+			int[] locks = lockDirs(dirsOf(valid));
+			try {
+				outcomes = renamePhotoFiles(states);
+			} finally {
+				unlockDirs(locks);
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return outcomes;
+	}
+
+	/**
+	 * Change the photos and rename their files, for renamePhotos
+	 */
+	private List<Outcome> renamePhotoFiles(List<PhotoState> states) {
+		List<String[]> oldTags = new ArrayList<String[]>(states.size());
+		for (PhotoState state : states) {
+			if (checkState(state) != null) {
+				//not changed, so nothing to give back
+				oldTags.add(null);
+				continue;
+			}
+			Set<String> tags = getPhotoInstance(state.photoName, state.dir).getTags();
+			oldTags.add(tags.toArray(new String[tags.size()]));
+		}
+		List<Outcome> outcomes = setPhotoStates(states);
+
+		//move the files of the photos that were renamed
+		List<RenameExecutor.Move> moves = new ArrayList<RenameExecutor.Move>();
+		List<Integer> moved = new ArrayList<Integer>();
+		for (int i = 0; i < outcomes.size(); i++) {
+			Outcome outcome = outcomes.get(i);
+			if (outcome.isRenamed()) {
+				moves.add(new RenameExecutor.Move(new File(outcome.state.dir + outcome.state.photoName),
+						new File(outcome.state.dir + outcome.newName)));
+				moved.add(i);
+			}
+		}
+		boolean[] done = new boolean[moves.size()];
+		if (renameExecutor != null) {
+			try {
+				done = renameExecutor.execute(moves);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else {
+			for (int i = 0; i < moves.size(); i++) {
+				done[i] = moves.get(i).from.renameTo(moves.get(i).to);
+			}
+		}
+
+		//give the photos that could not be moved their old tags back
+		List<PhotoState> undo = new ArrayList<PhotoState>();
+		List<Integer> undone = new ArrayList<Integer>();
+		for (int i = 0; i < done.length; i++) {
+			if (!done[i]) {
+				int index = moved.get(i);
+				PhotoState state = outcomes.get(index).state;
+				undo.add(new PhotoState(outcomes.get(index).newName, state.dir, oldTags.get(index)));
+				undone.add(index);
+			}
+		}
+		List<Outcome> undoOutcomes = setPhotoStates(undo);
+		for (int i = 0; i < undone.size(); i++) {
+			int index = undone.get(i);
+			outcomes.set(index, new Outcome(outcomes.get(index).state, undoOutcomes.get(i).newName, true));
+		}
+		return outcomes;
+	}
+
+	/**
+	 * Get the counts of the files renamed together by renamePhotos
+	 * 
+	 * @return <RenameExecutor.Stats> the counts, null if there is no executor
+	 */
+	public RenameExecutor.Stats getRenameStats() {
+		return renameExecutor == null ? null : renameExecutor.getStats();
+	}
+
+	/**
+	 * Give a photo a new set of tags and move it to its new name in the
+	 * photo library, publishing the change but not journaling it
+	 * 
+	 * @param <String>
+	 *            photoName : photo name
+	 * @param <String>
+	 *            dir : directory photo is located in
+	 * @param <Array>
+	 *            tags : array of tags that the photo is being updated with
+	 * @return <Photo> the changed photo
+	 */
+	private Photo applyPhotoState(String photoName, String dir, String[] tags) {
 		Photo changingPhoto = getPhotoInstance(photoName, dir);
+		Set<String> oldTags = new LinkedHashSet<String>(changingPhoto.getTags());
 		changingPhoto.deleteAllTags(false); // deletes all references to tags
 
 		Tag[] tagObjects = new Tag[tags.length];
@@ -161,13 +632,15 @@ public class Manager extends Observable implements Serializable {
 
 		updatePhotoInstance(photoName, dir); // updates photoLibrary with new
 												// name
-		//update tag action nd revert name action observers
-		setChanged();
-		notifyObservers();
-		clearChanged();
-		
-		//update the log with the photos names change
-		updateLog(photoName, changingPhoto.getName());
+		if (!changingPhoto.getName().equals(photoName)) {
+			events.publish(new LibraryEvent.PhotoRenamed(changingPhoto, photoName, dir, changingPhoto.getName(), dir));
+		}
+		LibraryEvent.PhotoTagsChanged tagChange = LibraryEvent.PhotoTagsChanged.between(changingPhoto, oldTags,
+				changingPhoto.getTags());
+		if (tagChange != null) {
+			events.publish(tagChange);
+		}
+		return changingPhoto;
 	}
 
 	/**
@@ -179,16 +652,25 @@ public class Manager extends Observable implements Serializable {
 	 * @return <boolean> true if addition is successful
 	 */
 	public boolean addTag(String tagName) {
-		if (!tagLibrary.containsKey(tagName)) {  
-			Tag newTag = new Tag(tagName); // if it doesn't already exsist create 
-											// instance of tag
-			tagLibrary.put(tagName, newTag);
-			setChanged();  //notify action observers
-			notifyObservers(tagName);
-			clearChanged();
-			return true;
+		libraryLock.readLock().lock();
+		try {
+			synchronized (tagLock) {
+				if (tagLibrary.containsKey(tagName)) {
+					return false;
+				}
+				Tag newTag = new Tag(tagName); // if it doesn't already exsist create 
+												// instance of tag
+				tagLibrary.put(tagName, newTag);
+				if (journaling()) {
+					journal.logAddTag(tagName);
+				}
+			}
+		} finally {
+			libraryLock.readLock().unlock();
 		}
-		return false;
+		events.publish(new LibraryEvent.TagAdded(tagName));  //notify action listeners
+		snapshotIfNeeded();
+		return true;
 	}
 
 	/**
@@ -203,36 +685,609 @@ public class Manager extends Observable implements Serializable {
 	public HashMap<String, Photo> deleteTag(String tagName) { 
 
 		HashMap<String, Photo> photosToRename = new LinkedHashMap<String, Photo>();
-		//find the tag in the tag library and remove it
-		if (tagLibrary.containsKey(tagName)) {
-			Tag tagToDelete = tagLibrary.get(tagName);  //get the tag instance of the 
-														//tag to delete
-			
-			//get all the photos that contain this tag
-			HashSet<Photo> photosWithTag = new LinkedHashSet<Photo>();
-			photosWithTag.addAll(tagToDelete.getPhotosWithTag());
-			
-			//remove the tag from the photos which it was contained in, update log
-			for (Photo photo : photosWithTag) {
-				String oldName = photo.getName();
-				photo.deleteTag(tagToDelete);
+		events.begin();
+		try {
+			libraryLock.writeLock().lock();
+			try {
+				//find the tag in the tag library and remove it
+				Tag tagToDelete;  //get the tag instance of the tag to delete
+				synchronized (tagLock) {
+					tagToDelete = tagLibrary.get(tagName);
+				}
+				if (tagToDelete != null) {
+					loadAllPhotos();
+				
+					//get all the photos that contain this tag, oldest first so
+					//they are renamed in the same order each time
+					List<Photo> photosWithTag = new ArrayList<Photo>(tagToDelete.getPhotosWithTag());
+					Collections.sort(photosWithTag, new Comparator<Photo>() {
+						@Override
+						public int compare(Photo p1, Photo p2) {
+							return Integer.compare(p1.getId(), p2.getId());
+						}
+					});
 				
-				updatePhotoInstance(oldName, photo.getDir()); 
-				updateLog(oldName, photo.getName());
+					//remove the tag from the photos which it was contained in, update log
+					for (Photo photo : photosWithTag) {
+						String oldName = photo.getName();
+						if (photoLibrary.get(photo.getDir() + oldName) != photo) {
+							//not in the library, so it only leaves the tag
+							photo.deleteTag(tagToDelete);
+							continue;
+						}
+						photo.deleteTag(tagToDelete);
+					
+						updatePhotoInstance(oldName, photo.getDir()); 
+					
+						photosToRename.put(oldName, photo);
+						events.publish(new LibraryEvent.PhotoRenamed(photo, oldName, photo.getDir(), photo.getName(),
+								photo.getDir()));
+						events.publish(new LibraryEvent.PhotoTagsChanged(photo, Collections.<String>emptySet(),
+								Collections.singleton(tagName)));
+					}
+					//remove tag from tag library
+					synchronized (tagLock) {
+						tagLibrary.remove(tagName);
+					}
 				
-				photosToRename.put(oldName, photo);
+					//tell actions that this tag is no longer an option
+					events.publish(new LibraryEvent.TagRemoved(tagName));
+					if (journaling()) {
+						journal.logDeleteTag(tagName);
+					}
+				}
+			} finally {
+				libraryLock.writeLock().unlock();
 			}
-			//remove tag from tag library
-			tagLibrary.remove(tagName);
-			
-			//tell actions that this tag is no longer an option
-			setChanged();
-			notifyObservers(tagName);
-			clearChanged();
+		} finally {
+			events.commit();
 		}
+		snapshotIfNeeded();
 		return photosToRename;
 	}
 
+	/**
+	 * Give a tag a new name, renaming the photos and files that have it, see
+	 * mergeTags
+	 * 
+	 * @param <String>
+	 *            oldName : the name of the tag
+	 * @param <String>
+	 *            newName : the new name, which must not be a tag already
+	 * @return <List> of <Outcome> for each photo that had the tag, null if
+	 *         oldName is not a tag, newName already is one or newName is
+	 *         not a valid tag name
+	 */
+	public List<Outcome> renameTag(String oldName, String newName) {
+		List<Outcome> outcomes;
+		//held so the names can not be taken between checking and merging
+		libraryLock.writeLock().lock();
+		try {
+			synchronized (tagLock) {
+				if (checkTagName(newName) != null || !tagLibrary.containsKey(oldName)
+						|| tagLibrary.containsKey(newName)) {
+					return null;
+				}
+			}
+			outcomes = mergeTags(Collections.singleton(oldName), newName);
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
+		snapshotIfNeeded();
+		return outcomes;
+	}
+
+	/**
+	 * Merge tags into one tag. Each photo with any of the tags is given the
+	 * new tag where it had the first of them, and is renamed once, with the
+	 * files of all the photos renamed together by the rename executor. Their
+	 * renames are logged together and they are one change in the journal
+	 * and on the <EventBus>. A tag is taken out of the library once no photo
+	 * has it, so a photo whose file could not be renamed keeps its tags and
+	 * they stay in the library.
+	 * 
+	 * @param <Collection>
+	 *            tagNames : the names of the tags to merge
+	 * @param <String>
+	 *            into : the tag to merge them into, added if it is not a tag
+	 * @return <List> of <Outcome> for each photo that had any of the tags,
+	 *         oldest photo first, null if into is not a valid tag name, in
+	 *         which case nothing is changed
+	 */
+	public List<Outcome> mergeTags(Collection<String> tagNames, String into) {
+		if (checkTagName(into) != null) {
+			return null;
+		}
+		Set<String> merged = new LinkedHashSet<String>(tagNames);
+		merged.remove(into);
+		List<Outcome> outcomes;
+		events.begin();
+		try {
+			libraryLock.writeLock().lock();
+			RenameLog log = RenameLog.getInstance();
+			log.startBatch();
+			try {
+				loadAllPhotos();
+				List<Tag> mergedTags = new ArrayList<Tag>();
+				synchronized (tagLock) {
+					for (String tagName : merged) {
+						if (tagLibrary.containsKey(tagName)) {
+							mergedTags.add(tagLibrary.get(tagName));
+						}
+					}
+				}
+				getTagInstance(into);
+
+				//each photo with any of the tags once, oldest first
+				PhotoIdSet ids = new PhotoIdSet();
+				for (Tag tag : mergedTags) {
+					ids = PhotoIdSet.or(ids, tag.getPhotoIds());
+				}
+				List<PhotoState> states = new ArrayList<PhotoState>();
+				for (int id : ids.toArray()) {
+					Photo photo = null;
+					for (int i = 0; photo == null; i++) {
+						photo = mergedTags.get(i).getPhotoWithTag(id);
+					}
+					Set<String> tags = new LinkedHashSet<String>();
+					for (String tagName : photo.getTags()) {
+						tags.add(merged.contains(tagName) ? into : tagName);
+					}
+					states.add(new PhotoState(photo.getName(), photo.getDir(), tags.toArray(new String[tags.size()])));
+				}
+				outcomes = renamePhotoFiles(states);
+
+				//take out the tags no photo has any more
+				for (Tag tag : mergedTags) {
+					if (tag.getPhotoIds().isEmpty()) {
+						synchronized (tagLock) {
+							tagLibrary.remove(tag.getName());
+						}
+						events.publish(new LibraryEvent.TagRemoved(tag.getName()));
+						if (journaling()) {
+							journal.logDeleteTag(tag.getName());
+						}
+					}
+				}
+			} finally {
+				log.finishBatch();
+				libraryLock.writeLock().unlock();
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return outcomes;
+	}
+
+	/**
+	 * Delete a tag in the background, renaming the photos and files that have
+	 * it a chunk at a time, see <TagDeletion>. Deletions run one after another.
+	 * 
+	 * @param <String>
+	 *            tagName : tag to delete
+	 * @param <TagDeletion.Listener>
+	 *            listener : told about the progress, may be null
+	 * @return <TagDeletion> the deletion, to follow or cancel it
+	 */
+	public TagDeletion deleteTagInBackground(String tagName, TagDeletion.Listener listener) {
+		TagDeletion deletion = new TagDeletion(this, tagName, TagDeletion.DEFAULT_CHUNK_SIZE, listener);
+		tagDeleter.execute(deletion);
+		return deletion;
+	}
+
+	/**
+	 * Get a tag after loading every saved photo, so the tag knows all the
+	 * photos that have it, for a <TagDeletion>
+	 * 
+	 * @param <String>
+	 *            tagName : the name of the tag
+	 * @return <Tag> the tag, null if there is no such tag
+	 */
+	Tag loadTag(String tagName) {
+		libraryLock.writeLock().lock();
+		try {
+			loadAllPhotos();
+			synchronized (tagLock) {
+				return tagLibrary.get(tagName);
+			}
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Take a tag off some photos and rename their files together, for a
+	 * <TagDeletion>. A photo that lost the tag since it was picked is left
+	 * alone. A photo that is not in the library under its name keeps the tag
+	 * and is handed back with the photos that could not be renamed, so the
+	 * deletion does not pick it again. The renames are logged together, and
+	 * the change is one transaction on the <EventBus>.
+	 * 
+	 * @param <String>
+	 *            tagName : the tag to take off
+	 * @param <List>
+	 *            photos : the <Photo> objects to take it off
+	 * @param <List>
+	 *            notRenamed : given the <Photo> objects that kept the tag
+	 *            since their files could not be renamed or they are not in
+	 *            the library
+	 * @return <int> the number of photos the tag was taken off
+	 */
+	int removeTagFrom(String tagName, List<Photo> photos, List<Photo> notRenamed) {
+		int removed = 0;
+		String[] dirs = new String[photos.size()];
+		for (int i = 0; i < dirs.length; i++) {
+			dirs[i] = photos.get(i).getDir();
+		}
+		events.begin();
+		try {
+			int[] locks = lockDirs(dirs);
+			RenameLog log = RenameLog.getInstance();
+			log.startBatch();
+			try {
+				List<PhotoState> states = new ArrayList<PhotoState>(photos.size());
+				List<Photo> changing = new ArrayList<Photo>(photos.size());
+				for (Photo photo : photos) {
+					Set<String> tags = new LinkedHashSet<String>(photo.getTags());
+					if (photoLibrary.get(photo.getDir() + photo.getName()) != photo) {
+						notRenamed.add(photo);
+					} else if (tags.remove(tagName)) {
+						states.add(new PhotoState(photo.getName(), photo.getDir(), tags.toArray(new String[tags.size()])));
+						changing.add(photo);
+					}
+				}
+				List<Outcome> outcomes = renamePhotoFiles(states);
+				for (int i = 0; i < outcomes.size(); i++) {
+					if (outcomes.get(i).failed) {
+						notRenamed.add(changing.get(i));
+					} else {
+						removed++;
+					}
+				}
+			} finally {
+				//logged before the directories are let go, so later renames come after
+				log.finishBatch();
+				unlockDirs(locks);
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return removed;
+	}
+
+	/**
+	 * Take a tag out of the tag library if no photo has it, for a
+	 * <TagDeletion>
+	 * 
+	 * @param <Tag>
+	 *            tag : the tag to take out
+	 * @return <boolean> true if the tag is no longer in the library
+	 */
+	boolean removeTagIfUnused(Tag tag) {
+		String tagName = tag.getName();
+		events.begin();
+		try {
+			libraryLock.writeLock().lock();
+			try {
+				synchronized (tagLock) {
+					if (tagLibrary.get(tagName) != tag) {
+						return true;
+					}
+					if (!tag.getPhotoIds().isEmpty()) {
+						return false;
+					}
+					tagLibrary.remove(tagName);
+				}
+				events.publish(new LibraryEvent.TagRemoved(tagName));
+				if (journaling()) {
+					journal.logDeleteTag(tagName);
+				}
+			} finally {
+				libraryLock.writeLock().unlock();
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return true;
+	}
+
+	/**
+	 * Remove a photo from the library after its file has been deleted, and
+	 * remove it from all the tags it was tagged with
+	 * 
+	 * @param <String>
+	 *            photoName : photo name
+	 * @param <String>
+	 *            dir : directory photo was located in
+	 * @return <boolean> true if the photo was in the library
+	 */
+	public boolean removePhoto(String photoName, String dir) {
+		events.begin();
+		try {
+			int[] locks = lockDirs(dir);
+			try {
+				if (findPhoto(photoName, dir) == null) {
+					return false;
+				}
+				Photo removed = removeFromLibrary(photoName, dir);
+				removed.deleteAllTags(false);
+				photosChanged();
+				events.publish(new LibraryEvent.PhotoRemoved(removed));
+				if (journaling()) {
+					journal.logRemovePhoto(photoName, dir);
+				}
+			} finally {
+				unlockDirs(locks);
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return true;
+	}
+
+	/**
+	 * Move a photo in the library to a new name or directory after its file
+	 * was renamed or moved outside of the program. The photo keeps its id,
+	 * tags and previous names.
+	 * 
+	 * @param <String>
+	 *            oldName : the name the photo had
+	 * @param <String>
+	 *            oldDir : the directory the photo was in
+	 * @param <String>
+	 *            newName : the new name of the photo
+	 * @param <String>
+	 *            newDir : the new directory of the photo
+	 * @return <boolean> true if the photo was in the library
+	 */
+	public boolean relocatePhoto(String oldName, String oldDir, String newName, String newDir) {
+		events.begin();
+		try {
+			int[] locks = lockDirs(oldDir, newDir);
+			try {
+				if (findPhoto(oldName, oldDir) == null) {
+					return false;
+				}
+				//a photo already at the new name is replaced, so it leaves its tags first
+				Photo displaced = findPhoto(newName, newDir);
+				if (displaced != null && !(oldName.equals(newName) && oldDir.equals(newDir))) {
+					removeFromLibrary(newName, newDir);
+					displaced.deleteAllTags(false);
+					events.publish(new LibraryEvent.PhotoRemoved(displaced));
+				}
+				Photo moved = removeFromLibrary(oldName, oldDir);
+				moved.relocate(newName, newDir);
+				putInLibrary(moved);
+				photosChanged();
+				if (!(oldName.equals(newName) && oldDir.equals(newDir))) {
+					events.publish(new LibraryEvent.PhotoRenamed(moved, oldName, oldDir, newName, newDir));
+				}
+				if (journaling()) {
+					journal.logRelocatePhoto(oldName, oldDir, newName, newDir);
+				}
+			} finally {
+				unlockDirs(locks);
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return true;
+	}
+
+	/**
+	 * Find the ids of the photos that match a tag query, such as
+	 * "Beach & (Sun | Sand) & !Rain". See <TagQuery> for how to write one.
+	 * 
+	 * @param <String>
+	 *            query : the tag query
+	 * @return <PhotoIdSet> the ids of the matching photos, as they are when
+	 *         the query is run
+	 * @throws IllegalArgumentException if the query can not be parsed
+	 */
+	public PhotoIdSet queryPhotoIds(String query) {
+		return queryPhotoIds(TagQuery.parse(query));
+	}
+
+	/**
+	 * Find the ids of the photos that match a parsed tag query. The photos
+	 * still only in the saved library are found from the tags saved with
+	 * them, without loading them.
+	 */
+	private PhotoIdSet queryPhotoIds(TagQuery tagQuery) {
+		libraryLock.writeLock().lock();
+		try {
+			if (mappedLibrary != null) {
+				try {
+					mappedLibrary.indexTags();
+				} catch (IOException e) {
+					e.printStackTrace();
+					loadAllPhotos();
+				}
+			}
+			PhotoIdSet ids = tagQuery.evaluate(new TagQuery.Source() {
+				@Override
+				public PhotoIdSet idsWithTag(String tagName) {
+					Tag tag = tagLibrary.get(tagName);
+					if (tag == null) {
+						return new PhotoIdSet();
+					}
+					//a tag only knows about the photos that have been loaded
+					return mappedLibrary == null ? tag.getPhotoIds()
+							: PhotoIdSet.or(tag.getPhotoIds(), mappedLibrary.unloadedIdsWithTag(tag));
+				}
+
+				@Override
+				public PhotoIdSet allIds() {
+					return mappedLibrary == null ? getAllPhotoIds()
+							: PhotoIdSet.or(getAllPhotoIds(), mappedLibrary.unloadedIds());
+				}
+			});
+			//the sets of the tags keep changing once the library is let go
+			return PhotoIdSet.or(ids, new PhotoIdSet());
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the photos that match a tag query
+	 * 
+	 * @param <String>
+	 *            query : the tag query
+	 * @return <List> of <Photo> that match, in the order of their ids
+	 * @throws IllegalArgumentException if the query can not be parsed
+	 */
+	public List<Photo> findPhotos(String query) {
+		TagQuery tagQuery = TagQuery.parse(query);
+		libraryLock.writeLock().lock();
+		try {
+			PhotoIdSet matching = queryPhotoIds(tagQuery);
+			//only the photos found are loaded
+			if (mappedLibrary != null) {
+				try {
+					for (Photo p : mappedLibrary.loadIds(matching)) {
+						putInLibrary(p);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				photosChanged();
+			}
+			int[] ids = matching.toArray();
+			getAllPhotoIds();
+			List<Photo> found = new ArrayList<Photo>(ids.length);
+			for (int id : ids) {
+				found.add(photosById.get(id));
+			}
+			return found;
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Keep only the images whose photos match a tag query, so the images
+	 * being viewed can be filtered by their tags. An image that is not in the
+	 * library has no tags.
+	 * 
+	 * @param <List>
+	 *            images : the image files
+	 * @param <String>
+	 *            query : the tag query
+	 * @return <List> of <File> the images that match, in the same order
+	 * @throws IllegalArgumentException if the query can not be parsed
+	 */
+	public List<File> filterImages(List<File> images, String query) {
+		TagQuery tagQuery = TagQuery.parse(query);
+		boolean untaggedMatch = tagQuery.matchesNoTags();
+		libraryLock.writeLock().lock();
+		try {
+			PhotoIdSet ids = queryPhotoIds(tagQuery);
+			List<File> matching = new ArrayList<File>();
+			for (File image : images) {
+				Photo photo = findPhoto(image.getName(), dirOf(image));
+				if (photo == null ? untaggedMatch : ids.contains(photo.getId())) {
+					matching.add(image);
+				}
+			}
+			return matching;
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the ids of every photo in the library, making the set again if a
+	 * photo was added or removed since it was last made. Only used while
+	 * holding the whole library.
+	 * 
+	 * @return <PhotoIdSet> the ids
+	 */
+	private PhotoIdSet getAllPhotoIds() {
+		if (allPhotoIds == null) {
+			allPhotoIds = new PhotoIdSet();
+			photosById = new HashMap<Integer, Photo>();
+			for (Photo photo : photoLibrary.values()) {
+				allPhotoIds.add(photo.getId());
+				photosById.put(photo.getId(), photo);
+			}
+		}
+		return allPhotoIds;
+	}
+
+	/**
+	 * Forget the ids of every photo after a photo is added or removed
+	 */
+	private void photosChanged() {
+		allPhotoIds = null;
+		photosById = null;
+	}
+
+	/**
+	 * Get the directory string a file is stored under in the photo library
+	 * 
+	 * @param <File>
+	 *            file : the file
+	 * @return <String> the parent directory of the file with a trailing separator
+	 */
+	static String dirOf(File file) {
+		return file.getParent() + "\\";
+	}
+
+	/**
+	 * Remove a photo whose file was deleted outside of the program. Passed
+	 * on from a <DirectoryWatcher> by the owner of the manager.
+	 * 
+	 * @param <File>
+	 *            image : the deleted image
+	 * @return <boolean> true if the image was a photo in the library
+	 */
+	public boolean imageDeleted(File image) {
+		return removePhoto(image.getName(), dirOf(image));
+	}
+
+	/**
+	 * Remove every photo under a directory deleted outside of the program
+	 * 
+	 * @param <File>
+	 *            dir : the deleted directory
+	 */
+	public void directoryDeleted(File dir) {
+		String deletedDir = dir.getPath() + "\\";
+		events.begin();
+		try {
+			libraryLock.writeLock().lock();
+			try {
+				loadDirectory(deletedDir);
+				for (Photo photo : dirIndex.photosUnder(deletedDir)) {
+					removePhoto(photo.getName(), photo.getDir());
+				}
+			} finally {
+				libraryLock.writeLock().unlock();
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+	}
+
+	/**
+	 * Move a photo renamed or moved outside of the program
+	 * 
+	 * @param <File>
+	 *            from : the old file
+	 * @param <File>
+	 *            to : the new file
+	 */
+	public void imageRenamed(File from, File to) {
+		relocatePhoto(from.getName(), dirOf(from), to.getName(), dirOf(to));
+	}
+
 	/**
 	 * get the photo instance from the photo name
 	 * 
@@ -243,16 +1298,176 @@ public class Manager extends Observable implements Serializable {
 	 * @return <Photo> the <Photo> mapped to photoName
 	 */
 	protected Photo getPhotoInstance(String photoName, String dir) {
-		Photo p;
-		if (!photoLibrary.containsKey(dir + photoName)) { //if not in photo library
-														  // create new photo instance
-			p = new Photo(photoName, dir);
-			photoLibrary.put(dir + photoName, p);
-		} else { //otherwise get it from the library
-			p = photoLibrary.get(dir + photoName);
+		int[] locks = lockDirs(dir);
+		try {
+			Photo p = findPhoto(photoName, dir);
+			if (p == null) { //if not in photo library
+							 // create new photo instance
+				p = new Photo(photoName, dir);
+				putInLibrary(p);
+				photosChanged();
+			}
+			return p;
+		} finally {
+			unlockDirs(locks);
+		}
+	}
+
+	/**
+	 * Get a photo from the photo library, loading it from the saved library
+	 * the first time it is needed. The directory of the photo must be locked.
+	 * 
+	 * @param <String>
+	 *            photoName : photo name
+	 * @param <String>
+	 *            dir : directory photo is located in
+	 * @return <Photo> the photo, null if there is no photo with that name
+	 */
+	private Photo findPhoto(String photoName, String dir) {
+		Photo p = photoLibrary.get(dir + photoName);
+		if (p == null && mappedLibrary != null) {
+			try {
+				p = mappedLibrary.load(dir, photoName);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (p != null) {
+				putInLibrary(p);
+				photosChanged();
+			}
 		}
 		return p;
 	}
+
+	/**
+	 * Load the photos in a directory and every directory below it from the
+	 * saved library, so they are ready when the directory is opened
+	 * 
+	 * @param <String>
+	 *            dir : the directory, with a trailing separator
+	 */
+	public void loadDirectory(String dir) {
+		//the saved library is only released while holding the whole library,
+		//so it is checked under the read lock, which a loaded directory
+		//shares with everything else
+		List<String> dirs;
+		libraryLock.readLock().lock();
+		try {
+			MappedLibrary mapped = mappedLibrary;
+			if (mapped == null || !mapped.hasUnloadedUnder(dir)) {
+				return;
+			}
+			dirs = mapped.dirsUnder(dir);
+		} finally {
+			libraryLock.readLock().unlock();
+		}
+		//only the directories that are loaded are locked, as in findPhoto
+		int[] locks = lockDirs(dirs.toArray(new String[dirs.size()]));
+		try {
+			//the saved library is only released while holding the whole library
+			if (mappedLibrary != null) {
+				for (Photo p : mappedLibrary.loadDirectory(dir)) {
+					putInLibrary(p);
+				}
+				photosChanged();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			unlockDirs(locks);
+		}
+	}
+
+	/**
+	 * Get the photos in a directory, not counting the directories below it,
+	 * looking only at the photos in that directory
+	 * 
+	 * @param <String>
+	 *            dir : the directory, with a trailing separator
+	 * @return <List> of <Photo> the photos in the directory
+	 */
+	public List<Photo> getPhotosInDirectory(String dir) {
+		loadDirectory(dir);
+		int[] locks = lockDirs(dir);
+		try {
+			return dirIndex.photosIn(dir);
+		} finally {
+			unlockDirs(locks);
+		}
+	}
+
+	/**
+	 * Get the photos in a directory and every directory below it, looking
+	 * only at the photos under that directory
+	 * 
+	 * @param <String>
+	 *            dir : the directory, with a trailing separator
+	 * @return <List> of <Photo> the photos under the directory
+	 */
+	public List<Photo> getPhotosUnder(String dir) {
+		//the directories below it have their own locks
+		libraryLock.writeLock().lock();
+		try {
+			loadDirectory(dir);
+			return dirIndex.photosUnder(dir);
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Move every photo under a directory to another directory after the
+	 * directory was moved, keeping the directories below it. The photos keep
+	 * their ids, tags and previous names, as they do in relocatePhoto.
+	 * 
+	 * @param <String>
+	 *            oldDir : the directory that was moved, with a trailing separator
+	 * @param <String>
+	 *            newDir : where it was moved to, with a trailing separator
+	 * @return <int> the number of photos moved
+	 */
+	public int relocateDirectory(String oldDir, String newDir) {
+		int moved = 0;
+		events.begin();
+		try {
+			libraryLock.writeLock().lock();
+			try {
+				loadDirectory(oldDir);
+				for (Photo photo : dirIndex.photosUnder(oldDir)) {
+					String dir = photo.getDir();
+					if (relocatePhoto(photo.getName(), dir, photo.getName(), newDir + dir.substring(oldDir.length()))) {
+						moved++;
+					}
+				}
+			} finally {
+				libraryLock.writeLock().unlock();
+			}
+		} finally {
+			events.commit();
+		}
+		snapshotIfNeeded();
+		return moved;
+	}
+
+	/**
+	 * Load every photo that is still only in the saved library, for changes
+	 * that need all of them, and release the saved library. Only used while
+	 * holding the whole library.
+	 */
+	private void loadAllPhotos() {
+		if (mappedLibrary != null) {
+			try {
+				for (Photo p : mappedLibrary.loadAll()) {
+					putInLibrary(p);
+				}
+				photosChanged();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mappedLibrary.close();
+			mappedLibrary = null;
+		}
+	}
 	
 	/**
 	 * Get the tag instance from the tag library 
@@ -263,13 +1478,24 @@ public class Manager extends Observable implements Serializable {
 	 * 			the tag instance of the tag
 	 */
 	protected Tag getTagInstance(String tagName) {
-		Tag t;
-		if (!tagLibrary.containsKey(tagName)) {
-			// if not in tag library than create tag instance of the tag
-			addTag(tagName);
+		//the tag can not be deleted while the library is held
+		libraryLock.readLock().lock();
+		try {
+			Tag t;
+			synchronized (tagLock) {
+				t = tagLibrary.get(tagName); //get the tag instance
+			}
+			if (t == null) {
+				// if not in tag library than create tag instance of the tag
+				addTag(tagName);
+				synchronized (tagLock) {
+					t = tagLibrary.get(tagName);
+				}
+			}
+			return t;
+		} finally {
+			libraryLock.readLock().unlock();
 		}
-		t = tagLibrary.get(tagName); //get the tag instance
-		return t;
 	}
 
 	/**
@@ -282,19 +1508,92 @@ public class Manager extends Observable implements Serializable {
 	 *            dir : directory photo is located in
 	 */
 	private void updatePhotoInstance(String photoName, String dir) {
-		Photo changedPhoto = photoLibrary.remove(dir + photoName); //remove old
-		photoLibrary.put(dir + changedPhoto.getName(), changedPhoto);
+		Photo changedPhoto = photoLibrary.get(dir + photoName);
+		if (changedPhoto.getName().equals(photoName)) {
+			return; //the name is the same so the photo is already in place
+		}
+		removeFromLibrary(photoName, dir); //remove old
+		putInLibrary(changedPhoto);
 
 	}
 
 	/**
-	 * Deserialize the photo and tag library files so that the stored information
-	 * can be accessed upon opening the program.
-	 * @throws IOException 
-	 * @throws ClassNotFoundException 
+	 * Put a photo in the photo library and the directory index under its
+	 * name and directory. The directory of the photo must be locked.
+	 * 
+	 * @param <Photo>
+	 *            photo : the photo
+	 */
+	private void putInLibrary(Photo photo) {
+		photoLibrary.put(photo.getDir() + photo.getName(), photo);
+		dirIndex.add(photo.getDir(), photo.getName(), photo);
+	}
+
+	/**
+	 * Take a photo out of the photo library and the directory index. The
+	 * directory of the photo must be locked.
+	 * 
+	 * @param <String>
+	 *            photoName : the name the photo is kept under
+	 * @param <String>
+	 *            dir : the directory the photo is kept under
+	 * @return <Photo> the photo, null if there was none
+	 */
+	private Photo removeFromLibrary(String photoName, String dir) {
+		dirIndex.remove(dir, photoName);
+		return photoLibrary.remove(dir + photoName);
+	}
+
+	/**
+	 * Make the directory index again after the photo library is replaced
+	 */
+	private void indexDirectories() {
+		dirIndex.clear();
+		for (Photo photo : photoLibrary.values()) {
+			dirIndex.add(photo.getDir(), photo.getName(), photo);
+		}
+	}
+
+	/**
+	 * Load the photo and tag libraries so that the stored information can be
+	 * accessed upon opening the program. Only the tags are read straight away,
+	 * photos are loaded from the mapped library file as they are needed.
+	 * Libraries saved with java serialization by older versions are read if
+	 * there is no library file yet.
 	 */
-	
 	private void deserializeLibs() {
+		File libraryFile = new File(LibraryStore.LIBRARY_FILE_NAME);
+		if (libraryFile.exists()) {
+			LinkedHashMap<String, Photo> loadedPhotos = new LinkedHashMap<String, Photo>();
+			LinkedHashMap<String, Tag> loadedTags = new LinkedHashMap<String, Tag>();
+			try {
+				LibraryStore.Info info;
+				mappedLibrary = MappedLibrary.open(libraryFile, loadedTags);
+				if (mappedLibrary != null) {
+					info = mappedLibrary.getInfo();
+				} else {
+					//saved before the library had an index
+					info = LibraryStore.load(libraryFile, loadedPhotos, loadedTags);
+				}
+				photoLibrary = new ConcurrentHashMap<String, Photo>(loadedPhotos);
+				indexDirectories();
+				tagLibrary = loadedTags;
+				libraryGeneration = info.journalGeneration;
+				Photo.reserveIds(info.nextId);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else if (new File("photoLibrary.ser").exists() && new File("tagLibrary.ser").exists()) {
+			deserializeLegacyLibs();
+		}
+	}
+
+	/**
+	 * Deserialize the photo and tag library files written by older versions
+	 * of the program with java serialization.
+	 */
+	@SuppressWarnings("unchecked")
+	private void deserializeLegacyLibs() {
 
 		String[] serializedFileNames = { "photoLibrary.ser", "tagLibrary.ser" };
 		try {
@@ -306,7 +1605,8 @@ public class Manager extends Observable implements Serializable {
 				
 				//if reading the photo library add information to the photos library
 				if (i == 0){
-					photoLibrary = (LinkedHashMap<String, Photo>) libraryIn.readObject();
+					photoLibrary = new ConcurrentHashMap<String, Photo>(
+							(LinkedHashMap<String, Photo>) libraryIn.readObject());
 				}
 				//if reading the tag library file add information to the tag library
 				else if (i == 1){
@@ -320,34 +1620,121 @@ public class Manager extends Observable implements Serializable {
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
+		indexDirectories();
+		//ids were not saved by older versions so start after the largest one,
+		//and photos keep only the names of their tags so add them back to the tags
+		for (Photo photo : photoLibrary.values()) {
+			Photo.reserveIds(photo.getId() + 1);
+			for (String tagName : photo.getTags().toArray(new String[0])) {
+				Tag tag = tagLibrary.get(tagName);
+				if (tag != null) {
+					photo.restoreTag(tag);
+				}
+			}
+		}
 	}
 
 	/**
-	 * Serialize the photo and tag libraries so that the information can be 
-	 * saved when the program is closed
+	 * Save the photo and tag libraries so that the information can be 
+	 * saved when the program is closed. The journal is then started again,
+	 * since everything in it is now in the saved libraries. The photos still
+	 * only in the saved library are copied into the new file without being
+	 * loaded, and are loaded from the new file when they are needed.
 	 * 
 	 */
 	public void serializeLibs() {
-	
-		HashMap<String, LinkedHashMap> serializedFileMap = new HashMap<>();
-		serializedFileMap.put("photoLibrary.ser", photoLibrary);
-		serializedFileMap.put("tagLibrary.ser", tagLibrary);
-		
-		for (String fileName : serializedFileMap.keySet()){
-			try {
-				// create the serializing file and write the info from the library
-				// to it
-				FileOutputStream libraryFile = new FileOutputStream(fileName);
-				ObjectOutputStream libraryOut = new ObjectOutputStream(libraryFile);
-				libraryOut.writeObject(serializedFileMap.get(fileName));
-				libraryOut.close();
-				libraryFile.close();
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
+		libraryLock.writeLock().lock();
+		try {
+			//a photo can only be copied if the tags it was saved with are still there
+			if (mappedLibrary != null && !mappedLibrary.hasTagsOf(tagLibrary)) {
+				loadAllPhotos();
+			}
+			long generation = libraryGeneration + 1;
+			if (journal != null) {
+				generation = Math.max(generation, journal.getGeneration() + 1);
+			}
+			File libraryFile = new File(LibraryStore.LIBRARY_FILE_NAME);
+			MappedLibrary saved = mappedLibrary;
+			BitSet handedOut = LibraryStore.save(libraryFile, photoLibrary, tagLibrary, saved, Photo.getNextId(),
+					generation);
+			libraryGeneration = generation;
+			//the save is synced to the disk, so the changes in the journal are safe to drop
+			if (journal != null) {
+				journal.reset(generation);
+			}
+			snapshotAt = SNAPSHOT_RECORDS;
+			if (saved != null) {
+				//the new file has every photo the old one still had, so the
+				//old one is only let go once the new one is mapped
+				mappedLibrary = MappedLibrary.open(libraryFile, tagLibrary, handedOut);
+				saved.close();
 			}
-		
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (journal != null) {
+				snapshotAt = journal.getRecordCount() + SNAPSHOT_RECORDS;
+			}
+		} finally {
+			libraryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * The tags to give a photo in a batch of changes
+	 */
+	public static class PhotoState {
+		public final String photoName;
+		public final String dir;
+		public final String[] tags;
+
+		/**
+		 * @param <String> photoName : photo name
+		 * @param <String> dir : directory photo is located in
+		 * @param <String[]> tags : the tags the photo is being updated with
+		 */
+		public PhotoState(String photoName, String dir, String[] tags) {
+			this.photoName = photoName;
+			this.dir = dir;
+			this.tags = tags;
+		}
+	}
+
+	/**
+	 * What happened to one photo in a batch of changes
+	 */
+	public static class Outcome {
+		public final PhotoState state;
+		// the name of the photo after the change
+		public final String newName;
+		// true if the state was not valid, or the file could not be renamed
+		// so the change was undone
+		public final boolean failed;
+		// why the change was not made, null if it was or the file could not be renamed
+		public final String error;
+
+		Outcome(PhotoState state, String newName) {
+			this(state, newName, false);
+		}
+
+		Outcome(PhotoState state, String newName, boolean failed) {
+			this(state, newName, failed, null);
+		}
+
+		Outcome(PhotoState state, String newName, boolean failed, String error) {
+			this.state = state;
+			this.newName = newName;
+			this.failed = failed;
+			this.error = error;
+		}
+
+		/**
+		 * Get if the change gave the photo a new name
+		 * 
+		 * @return <boolean> true if the photo was renamed, false if the
+		 *         change failed
+		 */
+		public boolean isRenamed() {
+			return !failed && !newName.equals(state.photoName);
 		}
 	}
 }
@@ -3,10 +3,20 @@ package photo_renamer;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
@@ -21,6 +31,8 @@ public class ManagerTest {
 	@Before
 	public void setUp() throws Exception {
 		photoDir = ".\\";
+		new File(Journal.JOURNAL_FILE_NAME).delete(); // start without changes
+														// from other tests
 		manager = new Manager();
 		testPhoto = manager.getPhotoInstance("test1.png", photoDir);
 	}
@@ -38,6 +50,8 @@ public class ManagerTest {
 			manager.deleteTag(key);
 		}
 
+		manager.close();
+		new File(Journal.JOURNAL_FILE_NAME).delete();
 		manager = null;
 		testPhoto = null;
 
@@ -266,6 +280,442 @@ public class ManagerTest {
 		assertTrue(manager.getTags().contains(testTag));
 	}
 
+	/**
+	 * Tests that a photo renamed outside of the program keeps its tags and
+	 * previous names under its new name
+	 */
+	@Test
+	public void testRelocatePhoto() {
+		String[] testTags = { "Otter" };
+		manager.setPhotoState(testPhoto.getName(), photoDir, testTags);
+		int id = testPhoto.getId();
+
+		assertTrue(manager.relocatePhoto("test1@Otter.png", photoDir, "renamed.png", ".\\moved\\"));
+		Photo relocated = manager.getPhotoInstance("renamed.png", ".\\moved\\");
+		assertEquals(id, relocated.getId());
+		assertEquals(".\\moved\\", relocated.getDir());
+		assertTrue(relocated.getTags().contains("Otter"));
+		assertTrue(relocated.getPrevNames().contains("test1@Otter.png"));
+		assertFalse(manager.relocatePhoto("test1@Otter.png", photoDir, "other.png", photoDir));
+
+		//a photo moved over another one replaces it, and the other one leaves its tags
+		manager.setPhotoState("old.png", photoDir, new String[] { "Owl" });
+		Photo old = manager.getPhotoInstance("old@Owl.png", photoDir);
+		assertTrue(manager.relocatePhoto("renamed.png", ".\\moved\\", "old@Owl.png", photoDir));
+		assertSame(relocated, manager.getPhotoInstance("old@Owl.png", photoDir));
+		assertFalse(manager.queryPhotoIds("Owl").contains(old.getId()));
+		assertTrue(manager.queryPhotoIds("Otter").contains(id));
+	}
+
+	/**
+	 * Tests that removing a deleted photo takes it out of the library and
+	 * out of its tags
+	 */
+	@Test
+	public void testRemovePhoto() {
+		String[] testTags = { "Lynx" };
+		manager.setPhotoState(testPhoto.getName(), photoDir, testTags);
+
+		assertTrue(manager.removePhoto(testPhoto.getName(), photoDir));
+		assertFalse(manager.getPhotoInstances().contains(testPhoto));
+		assertTrue(manager.getTagInstance("Lynx").getPhotosWithTag().isEmpty());
+		assertFalse(manager.removePhoto(testPhoto.getName(), photoDir));
+	}
+
+	/**
+	 * Tests that changes made after the last save are recovered from the
+	 * journal by the next manager
+	 */
+	@Test
+	public void testJournalRecovery() {
+		String[] testTags = { "Heron" };
+		manager.setPhotoState(testPhoto.getName(), photoDir, testTags);
+		manager.close(); // as if the program stopped without saving
+
+		Manager newManager = new Manager();
+		assertTrue(newManager.getTags().contains("Heron"));
+		Photo recovered = newManager.getPhotoInstance("test1@Heron.png", photoDir);
+		assertTrue(recovered.getTags().contains("Heron"));
+		newManager.close();
+	}
+
+	/**
+	 * Tests that a batch of changes renames every photo, reports what happened
+	 * to each, notifies observers once and is recovered from the journal
+	 */
+	@Test
+	public void testSetPhotoStates() {
+		final int[] notifications = new int[1];
+		manager.addObserver(new Observer() {
+			@Override
+			public void update(Observable o, Object arg) {
+				if (arg == null) {
+					notifications[0]++;
+				}
+			}
+		});
+		List<Manager.PhotoState> states = new ArrayList<Manager.PhotoState>();
+		for (int i = 0; i < 20; i++) {
+			manager.getPhotoInstance("shoot" + i + ".png", photoDir);
+			states.add(new Manager.PhotoState("shoot" + i + ".png", photoDir, new String[] { "Wedding" }));
+		}
+		states.add(new Manager.PhotoState("test1.png", photoDir, new String[0]));
+		//a state that is not valid fails on its own and the rest are still made
+		states.add(5, new Manager.PhotoState("bad.png", photoDir, new String[] { "Sun@Sea" }));
+
+		List<Manager.Outcome> outcomes = manager.setPhotoStates(states);
+		Manager.Outcome bad = outcomes.remove(5);
+		assertTrue(bad.failed);
+		assertNotNull(bad.error);
+		assertFalse(bad.isRenamed());
+		assertEquals(1, notifications[0]);
+		assertEquals(21, outcomes.size());
+		assertEquals("shoot7@Wedding.png", outcomes.get(7).newName);
+		assertTrue(outcomes.get(7).isRenamed());
+		assertFalse(outcomes.get(20).isRenamed());
+		assertEquals(20, manager.getTagInstance("Wedding").getPhotosWithTag().size());
+		manager.close(); // as if the program stopped without saving
+
+		Manager newManager = new Manager();
+		Photo recovered = newManager.getPhotoInstance("shoot19@Wedding.png", photoDir);
+		assertTrue(recovered.getTags().contains("Wedding"));
+		newManager.close();
+	}
+
+	/**
+	 * Tests that a batch of changes is sent to listeners once, with each
+	 * rename and the tags each photo gained or lost
+	 */
+	@Test
+	public void testEvents() {
+		final List<List<LibraryEvent>> batches = new ArrayList<List<LibraryEvent>>();
+		manager.getEvents().subscribe(LibraryEvent.class, new EventBus.Listener<LibraryEvent>() {
+			@Override
+			public void onEvents(List<LibraryEvent> events) {
+				batches.add(events);
+			}
+		});
+		manager.setPhotoState("test1.png", photoDir, new String[] { "Heron" });
+		assertEquals(1, batches.size());
+		List<Manager.PhotoState> states = new ArrayList<Manager.PhotoState>();
+		states.add(new Manager.PhotoState("test1@Heron.png", photoDir, new String[] { "Heron", "Crane" }));
+		states.add(new Manager.PhotoState("test1@Heron@Crane.png", photoDir, new String[] { "Crane" }));
+		manager.setPhotoStates(states);
+		assertEquals(2, batches.size());
+
+		List<LibraryEvent> events = batches.get(1);
+		assertEquals(3, events.size());
+		assertEquals("Crane", ((LibraryEvent.TagAdded) events.get(0)).tagName);
+		LibraryEvent.PhotoRenamed renamed = (LibraryEvent.PhotoRenamed) events.get(1);
+		assertEquals("test1@Heron.png", renamed.oldName);
+		assertEquals("test1@Crane.png", renamed.newName);
+		LibraryEvent.PhotoTagsChanged changed = (LibraryEvent.PhotoTagsChanged) events.get(2);
+		assertTrue(changed.added.contains("Crane"));
+		assertTrue(changed.removed.contains("Heron"));
+		assertEquals(1, changed.added.size());
+	}
+
+	/**
+	 * Tests that renaming photos moves their files, and that a photo whose
+	 * file can not be moved keeps its old name and tags
+	 * @throws Exception
+	 */
+	@Test
+	public void testRenamePhotos() throws Exception {
+		File photoFile = new File(photoDir + "test1.png");
+		photoFile.createNewFile();
+		manager.getPhotoInstance("missing.png", photoDir);
+		List<Manager.PhotoState> states = new ArrayList<Manager.PhotoState>();
+		states.add(new Manager.PhotoState("test1.png", photoDir, new String[] { "Owl" }));
+		states.add(new Manager.PhotoState("missing.png", photoDir, new String[] { "Owl" }));
+		states.add(new Manager.PhotoState("nodir.png", null, new String[] { "Owl" }));
+		states.add(new Manager.PhotoState(null, photoDir, new String[] { "Owl" }));
+
+		List<Manager.Outcome> outcomes = manager.renamePhotos(states);
+		//bad entries fail on their own
+		for (int i = 2; i < 4; i++) {
+			assertTrue(outcomes.get(i).failed);
+			assertFalse(outcomes.get(i).isRenamed());
+		}
+		File renamed = new File(photoDir + "test1@Owl.png");
+		assertFalse(outcomes.get(0).failed);
+		assertTrue(renamed.exists());
+		assertTrue(outcomes.get(1).failed);
+		assertEquals("missing.png", outcomes.get(1).newName);
+		assertTrue(manager.getTagsfromPhoto("missing.png", photoDir).isEmpty());
+		assertEquals(1, manager.getRenameStats().moved);
+		renamed.delete();
+	}
+
+	/**
+	 * Tests that deleting a tag in the background takes it off its photos a
+	 * chunk at a time and renames their files, keeps the tag while a file can
+	 * not be renamed, can be cancelled, and is replayed from the journal
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeleteTagInBackground() throws Exception {
+		List<Manager.PhotoState> states = new ArrayList<Manager.PhotoState>();
+		for (int i = 0; i < 7; i++) {
+			new File(photoDir + "bird" + i + ".png").createNewFile();
+			states.add(new Manager.PhotoState("bird" + i + ".png", photoDir, new String[] { "Heron", "Sky" }));
+		}
+		manager.renamePhotos(states);
+		//a photo with no file, so it can not be renamed
+		manager.setPhotoState("ghost.png", photoDir, new String[] { "Heron" });
+
+		final AtomicInteger chunks = new AtomicInteger();
+		final AtomicInteger finished = new AtomicInteger();
+		TagDeletion.Listener listener = new TagDeletion.Listener() {
+			@Override
+			public void progressed(TagDeletion deletion) {
+				chunks.incrementAndGet();
+			}
+
+			@Override
+			public void finished(TagDeletion deletion) {
+				finished.incrementAndGet();
+			}
+		};
+		TagDeletion deletion = new TagDeletion(manager, "Heron", 3, listener);
+		deletion.run();
+		assertEquals(3, chunks.get());
+		assertEquals(1, finished.get());
+		assertEquals(7, deletion.getDone());
+		assertEquals(1, deletion.getFailed());
+		assertEquals(8, deletion.getTotal());
+		assertFalse(deletion.isTagDeleted());
+		assertTrue(manager.getTags().contains("Heron"));
+		assertTrue(manager.getTagsfromPhoto("ghost@Heron.png", photoDir).contains("Heron"));
+		for (int i = 0; i < 7; i++) {
+			assertTrue(new File(photoDir + "bird" + i + "@Sky.png").exists());
+			assertFalse(manager.getTagsfromPhoto("bird" + i + "@Sky.png", photoDir).contains("Heron"));
+		}
+
+		manager.setPhotoState("ghost@Heron.png", photoDir, new String[0]);
+		deletion = manager.deleteTagInBackground("Heron", null);
+		assertTrue(deletion.await(10, TimeUnit.SECONDS));
+		assertTrue(deletion.isTagDeleted());
+		assertFalse(manager.getTags().contains("Heron"));
+
+		//a photo that has the tag but is not in the library fails instead of being picked forever
+		Photo stray = new Photo("stray.png", photoDir);
+		stray.addTags(new Tag[] { manager.getTagInstance("Crow") });
+		deletion = manager.deleteTagInBackground("Crow", null);
+		assertTrue(deletion.await(10, TimeUnit.SECONDS));
+		assertEquals(1, deletion.getFailed());
+		assertEquals(1, deletion.getTotal());
+		assertFalse(deletion.isTagDeleted());
+
+		deletion = new TagDeletion(manager, "Sky", 3, null);
+		deletion.cancel();
+		deletion.run();
+		assertTrue(deletion.isFinished());
+		assertEquals(0, deletion.getDone());
+		assertTrue(manager.getTags().contains("Sky"));
+
+		Manager newManager = new Manager();
+		assertFalse(newManager.getTags().contains("Heron"));
+		assertTrue(newManager.getTagsfromPhoto("bird3@Sky.png", photoDir).contains("Sky"));
+		newManager.close();
+		for (int i = 0; i < 7; i++) {
+			new File(photoDir + "bird" + i + "@Sky.png").delete();
+		}
+	}
+
+	/**
+	 * Tests that merging and renaming tags renames each photo and its file
+	 * once, takes the old tags out of the library, and is replayed from the
+	 * journal
+	 * @throws Exception
+	 */
+	@Test
+	public void testMergeAndRenameTags() throws Exception {
+		String[][] tags = { { "Beach", "Sun" }, { "Sand", "Beach" }, { "Sun" } };
+		List<Manager.PhotoState> states = new ArrayList<Manager.PhotoState>();
+		for (int i = 0; i < tags.length; i++) {
+			new File(photoDir + "sea" + i + ".png").createNewFile();
+			states.add(new Manager.PhotoState("sea" + i + ".png", photoDir, tags[i]));
+		}
+		manager.renamePhotos(states);
+
+		List<Manager.Outcome> outcomes = manager.mergeTags(Arrays.asList("Beach", "Sand"), "Shore");
+		assertEquals(2, outcomes.size());
+		assertEquals("sea0@Shore@Sun.png", outcomes.get(0).newName);
+		assertEquals("sea1@Shore.png", outcomes.get(1).newName);
+		assertTrue(new File(photoDir + "sea0@Shore@Sun.png").exists());
+		assertTrue(new File(photoDir + "sea1@Shore.png").exists());
+		assertTrue(new File(photoDir + "sea2@Sun.png").exists());
+		assertFalse(manager.getTags().contains("Beach"));
+		assertFalse(manager.getTags().contains("Sand"));
+		assertEquals(2, manager.getTagInstance("Shore").getPhotosWithTag().size());
+
+		assertNull(manager.renameTag("Sun", "Shore"));
+		assertNull(manager.renameTag("Moon", "Sol"));
+		//a name that can not be in a file name changes nothing
+		assertNull(manager.mergeTags(Arrays.asList("Sun"), "bad@tag"));
+		assertNull(manager.renameTag("Sun", ""));
+		assertNull(manager.renameTag("Sun", "a/b"));
+		assertNull(manager.renameTag("Sun", null));
+		assertFalse(manager.getTags().contains("bad@tag"));
+		assertTrue(new File(photoDir + "sea2@Sun.png").exists());
+		outcomes = manager.renameTag("Sun", "Sol");
+		assertEquals(2, outcomes.size());
+		assertTrue(new File(photoDir + "sea0@Shore@Sol.png").exists());
+		assertTrue(new File(photoDir + "sea2@Sol.png").exists());
+		assertFalse(manager.getTags().contains("Sun"));
+		assertEquals(1, manager.findPhotos("Sol & Shore").size());
+
+		Manager newManager = new Manager();
+		assertFalse(newManager.getTags().contains("Beach"));
+		assertFalse(newManager.getTags().contains("Sun"));
+		assertTrue(newManager.getTagsfromPhoto("sea0@Shore@Sol.png", photoDir).contains("Sol"));
+		assertEquals(2, newManager.getTagInstance("Sol").getPhotosWithTag().size());
+		newManager.close();
+		new File(photoDir + "sea0@Shore@Sol.png").delete();
+		new File(photoDir + "sea1@Shore.png").delete();
+		new File(photoDir + "sea2@Sol.png").delete();
+	}
+
+	/**
+	 * Tests that the photos of a directory and the directories below it are
+	 * found, follow renames and deletes, and can be moved together
+	 */
+	@Test
+	public void testDirectories() {
+		String shoot = photoDir + "shoot\\";
+		manager.setPhotoState("a.png", shoot, new String[] { "Fog" });
+		manager.getPhotoInstance("b.png", shoot + "day2\\");
+		manager.getPhotoInstance("c.png", shoot + "day2\\");
+
+		assertEquals(1, manager.getPhotosInDirectory(shoot).size());
+		assertEquals("a@Fog.png", manager.getPhotosInDirectory(shoot).get(0).getName());
+		assertEquals(3, manager.getPhotosUnder(shoot).size());
+		assertEquals(2, manager.getPhotosInDirectory(shoot + "day2\\").size());
+
+		manager.removePhoto("c.png", shoot + "day2\\");
+		assertEquals(2, manager.getPhotosUnder(shoot).size());
+
+		String moved = photoDir + "archive\\";
+		assertEquals(2, manager.relocateDirectory(shoot, moved));
+		assertTrue(manager.getPhotosUnder(shoot).isEmpty());
+		assertEquals(2, manager.getPhotosUnder(moved).size());
+		assertTrue(manager.getTagsfromPhoto("a@Fog.png", moved).contains("Fog"));
+		assertEquals(1, manager.getPhotosInDirectory(moved + "day2\\").size());
+
+		manager.directoryDeleted(new File(photoDir + "archive"));
+		assertTrue(manager.getPhotosUnder(moved).isEmpty());
+	}
+
+	/**
+	 * Tests that tag queries find the photos with and without tags, follow
+	 * tag changes, and filter images
+	 */
+	@Test
+	public void testQueryPhotos() {
+		Photo beach = manager.getPhotoInstance("beach.png", photoDir);
+		Photo storm = manager.getPhotoInstance("storm.png", photoDir);
+		manager.setPhotoState("beach.png", photoDir, new String[] { "Sea", "Sun" });
+		manager.setPhotoState("storm.png", photoDir, new String[] { "Sea", "Rain" });
+
+		List<Photo> found = manager.findPhotos("Sea & !Rain");
+		assertEquals(1, found.size());
+		assertSame(beach, found.get(0));
+		assertTrue(manager.queryPhotoIds("Sun | Rain").contains(storm.getId()));
+		assertTrue(manager.queryPhotoIds("!Sea").contains(testPhoto.getId()));
+
+		manager.setPhotoState(storm.getName(), photoDir, new String[] { "Sea" });
+		assertEquals(2, manager.findPhotos("Sea & !Rain").size());
+		manager.removePhoto(beach.getName(), photoDir);
+		assertFalse(manager.queryPhotoIds("Sea").contains(beach.getId()));
+
+		File shore = new File("shore");
+		String shoreDir = Manager.dirOf(new File(shore, "gull.png"));
+		manager.setPhotoState("gull.png", shoreDir, new String[] { "Sea" });
+		List<File> images = new ArrayList<File>();
+		images.add(new File(shore, "gull@Sea.png"));
+		images.add(new File(shore, "unknown.png"));
+		assertEquals("gull@Sea.png", manager.filterImages(images, "Sea").get(0).getName());
+		assertEquals("unknown.png", manager.filterImages(images, "!Sea").get(0).getName());
+	}
+
+	/**
+	 * Tests that a saved photo is loaded with its tags when it is first
+	 * asked for, and that a directory can be loaded before it is opened
+	 */
+	@Test
+	public void testLoadSavedPhotos() {
+		String[] testTags = { "Gull" };
+		manager.setPhotoState(testPhoto.getName(), photoDir, testTags);
+		int ternId = manager.getPhotoInstance("tern.png", ".\\coast\\").getId();
+		manager.serializeLibs();
+
+		Manager newManager = new Manager();
+		Photo loaded = newManager.getPhotoInstance("test1@Gull.png", photoDir);
+		assertEquals(testPhoto.getId(), loaded.getId());
+		assertEquals(newManager.getTagInstance("Gull").getPhotosWithTag().size(), 1);
+
+		//a query finds saved photos by their tags before they are loaded
+		assertTrue(newManager.queryPhotoIds("!Gull").contains(ternId));
+		assertEquals(1, newManager.findPhotos("Gull").size());
+
+		//saving copies the photos that were not loaded, which are then loaded from the new file
+		newManager.serializeLibs();
+		assertTrue(newManager.queryPhotoIds("!Gull").contains(ternId));
+		assertEquals("tern.png", newManager.getPhotosInDirectory(".\\coast\\").get(0).getName());
+		newManager.loadDirectory(".\\coast\\");
+		assertTrue(newManager.getTagsfromPhoto("tern.png", ".\\coast\\").isEmpty());
+		assertEquals(2, newManager.getPhotoInstances().size());
+		newManager.close();
+		Manager reopened = new Manager();
+		assertEquals(2, reopened.getPhotoInstances().size());
+		assertEquals(1, reopened.getTagInstance("Gull").getPhotosWithTag().size());
+		reopened.close();
+		new File(LibraryStore.LIBRARY_FILE_NAME).delete();
+	}
+
+	/**
+	 * Tests opening directories of a saved library while it is being saved,
+	 * which replaces the mapped file the directories are loaded from
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testLoadDirectoryWhileSaving() throws InterruptedException {
+		final String[] dirs = new String[40];
+		for (int d = 0; d < dirs.length; d++) {
+			dirs[d] = ".\\saving" + d + "\\";
+			manager.getPhotoInstance("kite.png", dirs[d]);
+		}
+		manager.serializeLibs();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		for (int round = 0; round < 20 && error.get() == null; round++) {
+			final Manager saving = new Manager();
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (String dir : dirs) {
+							assertEquals(1, saving.getPhotosInDirectory(dir).size());
+						}
+					} catch (Throwable e) {
+						error.set(e);
+					}
+				}
+			};
+			reader.start();
+			start.countDown();
+			saving.serializeLibs();
+			reader.join();
+			saving.close();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		new File(LibraryStore.LIBRARY_FILE_NAME).delete();
+	}
+
 	/**
 	 * Tests if files are correctly serialized and that libraries are maintained
 	 * upon re-instancing new Managers
@@ -281,12 +731,163 @@ public class ManagerTest {
 		assertFalse(newManager.getPhotoInstances().isEmpty());
 		assertTrue(newManager.getTags().contains("Whale"));
 
-		File serialFile1 = new File("photoLibrary.ser");
-		File serialFile2 = new File("tagLibrary.ser");
+		File libraryFile = new File(LibraryStore.LIBRARY_FILE_NAME);
 
-		serialFile1.delete(); // deletes the serializing files as to not affect
+		libraryFile.delete(); // deletes the library file as to not affect
 								// other tests
-		serialFile2.delete();
 
 	}
+
+	/**
+	 * Tests many threads tagging photos at once in shared directories with
+	 * shared tags, while all of them keep moving one photo between two
+	 * directories. Every photo must end with the name and tags its thread
+	 * gave it last, every tag must know exactly the photos that have it, a
+	 * move must only succeed if the photo was where it was moved from, and
+	 * replaying the journal must give the same library, so the changes were
+	 * journaled in the order they were made.
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testConcurrentWriters() throws InterruptedException {
+		final int threads = 8;
+		final int photosPerThread = 6;
+		final int changes = 150;
+		final String[] tagPool = { "Red", "Green", "Blue", "Gold", "Grey" };
+		final String[] dirs = { ".\\stress0\\", ".\\stress1\\", ".\\stress2\\" };
+		final String[][] names = new String[threads][photosPerThread];
+		final Photo[] shared = new Photo[threads];
+		final AtomicInteger tagsAdded = new AtomicInteger();
+		final AtomicInteger expectedRenames = new AtomicInteger();
+		final AtomicInteger renameEvents = new AtomicInteger();
+		final AtomicInteger[] moves = { new AtomicInteger(), new AtomicInteger() };
+		manager.setPhotoState("ferry.png", dirs[0], new String[] { "Boat" });
+		final Photo ferry = manager.getPhotoInstance("ferry@Boat.png", dirs[0]);
+		manager.getEvents().subscribe(LibraryEvent.PhotoRenamed.class,
+				new EventBus.Listener<LibraryEvent.PhotoRenamed>() {
+					@Override
+					public void onEvents(List<LibraryEvent.PhotoRenamed> events) {
+						renameEvents.addAndGet(events.size());
+					}
+				});
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] writers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					Random random = new Random(thread);
+					//every thread asks for the same new photo and tag at once
+					shared[thread] = manager.getPhotoInstance("shared.png", dirs[0]);
+					if (manager.addTag("Contested")) {
+						tagsAdded.incrementAndGet();
+					}
+					for (int p = 0; p < photosPerThread; p++) {
+						names[thread][p] = "t" + thread + "p" + p + ".png";
+					}
+					for (int i = 0; i < changes; i++) {
+						int p = random.nextInt(photosPerThread);
+						List<String> tags = new ArrayList<String>();
+						for (String tag : tagPool) {
+							if (random.nextBoolean()) {
+								tags.add(tag);
+							}
+						}
+						String dir = dirs[p % dirs.length];
+						String oldName = names[thread][p];
+						int from = random.nextInt(2);
+						if (manager.relocatePhoto("ferry@Boat.png", dirs[from], "ferry@Boat.png", dirs[1 - from])) {
+							moves[from].incrementAndGet();
+							expectedRenames.incrementAndGet();
+						}
+						if (i % 10 == 9) {
+							//a batch of two photos in different directories
+							int q = (p + 1) % photosPerThread;
+							List<Manager.PhotoState> states = new ArrayList<Manager.PhotoState>();
+							states.add(new Manager.PhotoState(oldName, dir, tags.toArray(new String[0])));
+							states.add(new Manager.PhotoState(names[thread][q], dirs[q % dirs.length], new String[0]));
+							List<Manager.Outcome> outcomes = manager.setPhotoStates(states);
+							for (int k = 0; k < 2; k++) {
+								if (outcomes.get(k).isRenamed()) {
+									expectedRenames.incrementAndGet();
+								}
+							}
+							names[thread][p] = outcomes.get(0).newName;
+							names[thread][q] = outcomes.get(1).newName;
+						} else {
+							manager.setPhotoState(oldName, dir, tags.toArray(new String[0]));
+							StringBuilder newName = new StringBuilder("t" + thread + "p" + p);
+							for (String tag : tags) {
+								newName.append('@').append(tag);
+							}
+							names[thread][p] = newName.append(".png").toString();
+							if (!names[thread][p].equals(oldName)) {
+								expectedRenames.incrementAndGet();
+							}
+						}
+					}
+				}
+			};
+			writers[t].start();
+		}
+		start.countDown();
+		//tag queries hold the whole library while the writers wait
+		for (int i = 0; i < 20; i++) {
+			manager.queryPhotoIds("Red & !Blue");
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		assertEquals(1, tagsAdded.get());
+		for (int t = 1; t < threads; t++) {
+			assertSame(shared[0], shared[t]);
+		}
+		assertEquals(expectedRenames.get(), renameEvents.get());
+		//each move across started where the last one ended
+		int side = moves[0].get() - moves[1].get();
+		assertTrue(side == 0 || side == 1);
+		assertEquals(dirs[side], ferry.getDir());
+		int ferries = 0;
+		for (Photo photo : manager.getPhotoInstances()) {
+			if (photo == ferry) {
+				ferries++;
+			}
+		}
+		assertEquals(1, ferries);
+		HashSet<Integer> ids = new HashSet<Integer>();
+		for (int t = 0; t < threads; t++) {
+			for (int p = 0; p < photosPerThread; p++) {
+				String dir = dirs[p % dirs.length];
+				Photo photo = manager.getPhotoInstance(names[t][p], dir);
+				assertEquals(names[t][p], photo.getName());
+				assertTrue(ids.add(photo.getId()));
+				for (String tag : tagPool) {
+					boolean tagged = names[t][p].contains("@" + tag);
+					assertEquals(tagged, photo.getTags().contains(tag));
+					assertEquals(tagged, manager.getTagInstance(tag).getPhotosWithTag().contains(photo));
+					assertEquals(tagged, manager.queryPhotoIds(tag).contains(photo.getId()));
+				}
+			}
+		}
+		manager.close(); // as if the program stopped without saving
+
+		Manager newManager = new Manager();
+		assertTrue(newManager.getTagsfromPhoto("ferry@Boat.png", dirs[side]).contains("Boat"));
+		for (int t = 0; t < threads; t++) {
+			for (int p = 0; p < photosPerThread; p++) {
+				Set<String> tags = newManager.getTagsfromPhoto(names[t][p], dirs[p % dirs.length]);
+				for (String tag : tagPool) {
+					assertEquals(names[t][p].contains("@" + tag), tags.contains(tag));
+				}
+			}
+		}
+		newManager.close();
+	}
 }
@@ -0,0 +1,639 @@
+package photo_renamer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A saved library that is mapped into memory instead of read, so the program
+ * can start without making a <Photo> for every photo it has ever tagged. Only
+ * the header and the tag, directory and extension tables are read when it is
+ * opened. A photo is made the first time it is asked for, by key or because
+ * its directory is opened, and is then owned by the caller; each photo is
+ * only handed out once. Photos can be asked for from many threads at once.
+ *
+ * The mapping is released when the library is closed, so the file can be
+ * replaced on systems that do not allow a mapped file to be overwritten. If
+ * the running java gives no way to release it, the file is read into memory
+ * instead of mapped.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class MappedLibrary {
+	// releases a mapping, null if the running java does not allow it
+	private static final Unmapper UNMAPPER = findUnmapper();
+
+	private final File file;
+	private ByteBuffer buffer;
+	private final LibraryStore.Header header;
+	private final int photoCount;
+	// where the photo offsets and directory ranges start
+	private final int offsetsStart;
+	private final int dirRangesStart;
+	// the number of each directory in the directory table
+	private final HashMap<String, Integer> dirNumbers = new HashMap<String, Integer>();
+	// the directory numbers in the order of their names, so the directories
+	// below a directory come one after another
+	private final Integer[] sortedDirs;
+	// the photos that have been handed out
+	private final BitSet loaded;
+	private int loadedCount;
+	// the id of each photo and the photo numbers of the photos with each
+	// tag, by tag number, read the first time they are needed
+	private int[] photoIds;
+	private int[][] tagPhotos;
+
+	private MappedLibrary(File file, ByteBuffer buffer, LibraryStore.Header header, int photoCount, int indexOffset) {
+		this.file = file;
+		this.buffer = buffer;
+		this.header = header;
+		this.photoCount = photoCount;
+		this.offsetsStart = indexOffset;
+		this.dirRangesStart = offsetsStart + offsetCount(photoCount) * 4;
+		this.loaded = new BitSet(photoCount);
+		this.sortedDirs = new Integer[header.dirs.length];
+		for (int d = 0; d < header.dirs.length; d++) {
+			dirNumbers.put(header.dirs[d], d);
+			sortedDirs[d] = d;
+		}
+		Arrays.sort(sortedDirs, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return header.dirs[a].compareTo(header.dirs[b]);
+			}
+		});
+	}
+
+	/**
+	 * Map a library file and read its tags
+	 *
+	 * @param <File> file : the library file
+	 * @param <Map> tagLibrary : filled with the tags, keyed by name
+	 * @return <MappedLibrary> the library, or null if it was saved by a version
+	 *         without an index and has to be loaded with <LibraryStore>
+	 * @throws IOException if the file is not a library or can not be mapped
+	 */
+	public static MappedLibrary open(File file, Map<String, Tag> tagLibrary) throws IOException {
+		return open(file, tagLibrary, null);
+	}
+
+	/**
+	 * Map a library file that was just saved by <LibraryStore> from a library
+	 * in use. Its photos keep the tags that are already in the tag library,
+	 * and the photos that were saved from the photo library count as handed
+	 * out.
+	 *
+	 * @param <File> file : the library file
+	 * @param <Map> tagLibrary : the tags, keyed by name, which must have every
+	 *            tag in the file
+	 * @param <BitSet> handedOut : the numbers of the photos that were saved
+	 *            from the photo library, as returned by LibraryStore.save
+	 * @return <MappedLibrary> the library
+	 * @throws IOException if the file is not a library or can not be mapped
+	 */
+	public static MappedLibrary open(File file, Map<String, Tag> tagLibrary, BitSet handedOut) throws IOException {
+		ByteBuffer buffer = map(file);
+		DataInputStream in = new DataInputStream(new BufferInputStream(buffer, 0));
+		LinkedHashMap<String, Tag> tags = new LinkedHashMap<String, Tag>();
+		LibraryStore.Header header = LibraryStore.readHeader(in, tags);
+		if (header.version < LibraryStore.INDEXED_VERSION) {
+			return null;
+		}
+		int photoCount = LibraryStore.readVarint(in);
+		int indexOffset = buffer.getInt(buffer.limit() - 4);
+		if (indexOffset < 0
+				|| (long) indexOffset + offsetCount(photoCount) * 4L + header.dirs.length * 8L + 4 != buffer.limit()) {
+			throw new IOException("Damaged photo library index");
+		}
+		if (handedOut == null) {
+			tagLibrary.putAll(tags);
+		} else {
+			//the photos already handed out have these tags
+			for (int t = 0; t < header.tags.length; t++) {
+				Tag tag = tagLibrary.get(header.tags[t].getName());
+				if (tag == null) {
+					throw new IOException("Tag " + header.tags[t].getName() + " is not in the library");
+				}
+				header.tags[t] = tag;
+			}
+		}
+		MappedLibrary library = new MappedLibrary(file, buffer, header, photoCount, indexOffset);
+		if (handedOut != null) {
+			library.loaded.or(handedOut);
+			library.loadedCount = library.loaded.cardinality();
+		}
+		return library;
+	}
+
+	/**
+	 * Map a file, or read it if the mapping could not be released
+	 */
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (UNMAPPER != null) {
+				//the mapping stays valid after the file is closed
+				return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			}
+			//a mapping that can not be released would keep the file from being replaced
+			ByteBuffer buffer = ByteBuffer.allocate((int) raf.length());
+			raf.readFully(buffer.array());
+			return buffer;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the id the next new photo should get and the journal generation
+	 *
+	 * @return <Info> what was saved with the library
+	 */
+	public LibraryStore.Info getInfo() {
+		return new LibraryStore.Info(header.nextId, header.journalGeneration);
+	}
+
+	/**
+	 * Make the photo saved under a name and directory
+	 *
+	 * @param <String> dir : directory of the photo
+	 * @param <String> photoName : name of the photo
+	 * @return <Photo> the photo, or null if it is not in the file or was
+	 *         already handed out
+	 * @throws IOException if the file is damaged
+	 */
+	public synchronized Photo load(String dir, String photoName) throws IOException {
+		Integer d = dirNumbers.get(dir);
+		if (d == null) {
+			return null;
+		}
+		//the photos in a directory are sorted by name
+		List<Tag> photoTags = new ArrayList<Tag>();
+		int low = dirFirst(d);
+		int high = low + dirCount(d) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			Photo photo = LibraryStore.readPhoto(streamAt(mid), header, photoTags);
+			int c = photo.getName().compareTo(photoName);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return loaded.get(mid) ? null : handOut(mid, photo, photoTags);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Make the photos in a directory and all the directories below it that
+	 * have not been handed out yet
+	 *
+	 * @param <String> dir : the directory, with a trailing separator
+	 * @return <List> of the <Photo> objects made
+	 * @throws IOException if the file is damaged
+	 */
+	public synchronized List<Photo> loadDirectory(String dir) throws IOException {
+		List<Photo> photos = new ArrayList<Photo>();
+		for (int s = firstDirFrom(dir); s < sortedDirs.length && header.dirs[sortedDirs[s]].startsWith(dir); s++) {
+			int d = sortedDirs[s];
+			loadRange(dirFirst(d), dirFirst(d) + dirCount(d), photos);
+		}
+		return photos;
+	}
+
+	/**
+	 * Get the directories saved in the library that are a directory or
+	 * below it
+	 *
+	 * @param <String> dir : the directory, with a trailing separator
+	 * @return <List> of the directories, each with a trailing separator
+	 */
+	public List<String> dirsUnder(String dir) {
+		List<String> dirs = new ArrayList<String>();
+		for (int s = firstDirFrom(dir); s < sortedDirs.length && header.dirs[sortedDirs[s]].startsWith(dir); s++) {
+			dirs.add(header.dirs[sortedDirs[s]]);
+		}
+		return dirs;
+	}
+
+	/**
+	 * Check whether a directory or a directory below it still has photos
+	 * that have not been handed out
+	 *
+	 * @param <String> dir : the directory, with a trailing separator
+	 * @return <boolean> true if loadDirectory would make any photos
+	 */
+	public synchronized boolean hasUnloadedUnder(String dir) {
+		for (int s = firstDirFrom(dir); s < sortedDirs.length && header.dirs[sortedDirs[s]].startsWith(dir); s++) {
+			int d = sortedDirs[s];
+			if (loaded.nextClearBit(dirFirst(d)) < dirFirst(d) + dirCount(d)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the first directory in name order that does not come before a
+	 * name, the directories starting with that name come right after it
+	 */
+	private int firstDirFrom(String name) {
+		int low = 0;
+		int high = sortedDirs.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (header.dirs[sortedDirs[mid]].compareTo(name) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Make every photo that has not been handed out yet
+	 *
+	 * @return <List> of the <Photo> objects made
+	 * @throws IOException if the file is damaged
+	 */
+	public synchronized List<Photo> loadAll() throws IOException {
+		List<Photo> photos = new ArrayList<Photo>(photoCount - loadedCount);
+		loadRange(0, photoCount, photos);
+		return photos;
+	}
+
+	/**
+	 * Read the id and tags of every photo without making the photos, so
+	 * the photos with a tag can be found. Only the first call reads them.
+	 *
+	 * @throws IOException if the file is damaged
+	 */
+	public synchronized void indexTags() throws IOException {
+		if (tagPhotos != null) {
+			return;
+		}
+		int[] ids = new int[photoCount];
+		int[][] photos = new int[header.tags.length][];
+		int[] counts = new int[header.tags.length];
+		List<Integer> tagNumbers = new ArrayList<Integer>();
+		DataInputStream in = photoCount == 0 ? null : streamAt(0);
+		for (int i = 0; i < photoCount; i++) {
+			ids[i] = LibraryStore.skimPhoto(in, tagNumbers);
+			for (int t : tagNumbers) {
+				if (photos[t] == null) {
+					photos[t] = new int[4];
+				} else if (counts[t] == photos[t].length) {
+					photos[t] = Arrays.copyOf(photos[t], counts[t] * 2);
+				}
+				photos[t][counts[t]++] = i;
+			}
+		}
+		for (int t = 0; t < photos.length; t++) {
+			photos[t] = photos[t] == null ? new int[0] : Arrays.copyOf(photos[t], counts[t]);
+		}
+		photoIds = ids;
+		tagPhotos = photos;
+	}
+
+	/**
+	 * Get the ids of the photos with a tag that have not been handed out
+	 * yet, without making them. The photos handed out are in the tag itself.
+	 * indexTags must have been called.
+	 *
+	 * @param <Tag> tag : the tag
+	 * @return <PhotoIdSet> the ids, empty if the tag is not in the file
+	 */
+	public synchronized PhotoIdSet unloadedIdsWithTag(Tag tag) {
+		PhotoIdSet ids = new PhotoIdSet();
+		for (int t = 0; t < header.tags.length; t++) {
+			if (header.tags[t] == tag) {
+				for (int photoNumber : tagPhotos[t]) {
+					if (!loaded.get(photoNumber)) {
+						ids.add(photoIds[photoNumber]);
+					}
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Get the ids of every photo that has not been handed out yet, without
+	 * making them. indexTags must have been called.
+	 *
+	 * @return <PhotoIdSet> the ids
+	 */
+	public synchronized PhotoIdSet unloadedIds() {
+		PhotoIdSet ids = new PhotoIdSet();
+		for (int i = loaded.nextClearBit(0); i < photoCount; i = loaded.nextClearBit(i + 1)) {
+			ids.add(photoIds[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * Make the photos with the given ids that have not been handed out yet.
+	 * indexTags must have been called.
+	 *
+	 * @param <PhotoIdSet> ids : the ids of the photos
+	 * @return <List> of the <Photo> objects made
+	 * @throws IOException if the file is damaged
+	 */
+	public synchronized List<Photo> loadIds(PhotoIdSet ids) throws IOException {
+		List<Photo> photos = new ArrayList<Photo>();
+		List<Tag> photoTags = new ArrayList<Tag>();
+		for (int i = loaded.nextClearBit(0); i < photoCount; i = loaded.nextClearBit(i + 1)) {
+			if (ids.contains(photoIds[i])) {
+				photos.add(handOut(i, LibraryStore.readPhoto(streamAt(i), header, photoTags), photoTags));
+			}
+		}
+		return photos;
+	}
+
+	/**
+	 * Get the number of photos that have not been handed out yet
+	 *
+	 * @return <int> the number of photos still only in the file
+	 */
+	public synchronized int getUnloadedCount() {
+		return photoCount - loadedCount;
+	}
+
+	/**
+	 * Check whether a tag library still has every tag of the file, so the
+	 * photos that have not been handed out can be copied into a new file
+	 * with their tags
+	 *
+	 * @param <Map> tagLibrary : the tags, keyed by name
+	 * @return <boolean> true if each tag of the file is in the tag library
+	 */
+	public boolean hasTagsOf(Map<String, Tag> tagLibrary) {
+		for (Tag tag : header.tags) {
+			if (tagLibrary.get(tag.getName()) != tag) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the directories that still have photos that have not been handed
+	 * out, for copying them into a new file
+	 *
+	 * @return <List> of the directories, in the order of the file
+	 */
+	synchronized List<String> unloadedDirs() {
+		List<String> dirs = new ArrayList<String>();
+		for (int d = 0; d < header.dirs.length; d++) {
+			if (loaded.nextClearBit(dirFirst(d)) < dirFirst(d) + dirCount(d)) {
+				dirs.add(header.dirs[d]);
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * Get the extensions of the file, for copying its photos into a new file
+	 *
+	 * @return <String[]> the extensions
+	 */
+	String[] getExtensions() {
+		return header.extensions;
+	}
+
+	/**
+	 * Read the records of the photos in a directory that have not been
+	 * handed out, without making the photos or handing them out
+	 *
+	 * @param <String> dir : the directory, with a trailing separator
+	 * @return <List> of the <LibraryStore.Record> of each photo, by name
+	 * @throws IOException if the file is damaged
+	 */
+	synchronized List<LibraryStore.Record> unloadedRecords(String dir) throws IOException {
+		List<LibraryStore.Record> records = new ArrayList<LibraryStore.Record>();
+		Integer d = dirNumbers.get(dir);
+		if (d == null) {
+			return records;
+		}
+		List<Tag> photoTags = new ArrayList<Tag>();
+		int to = dirFirst(d) + dirCount(d);
+		int next = loaded.nextClearBit(dirFirst(d));
+		while (next < to) {
+			int end = loaded.nextSetBit(next);
+			if (end < 0 || end > to) {
+				end = to;
+			}
+			DataInputStream in = streamAt(next);
+			for (int i = next; i < end; i++) {
+				records.add(LibraryStore.readRecord(in, header, photoTags));
+			}
+			next = loaded.nextClearBit(end);
+		}
+		return records;
+	}
+
+	/**
+	 * Release the mapping. The library can not be used after it is closed,
+	 * unless it is mapped again.
+	 */
+	public synchronized void close() {
+		if (buffer != null) {
+			unmap(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Map the file again after it was closed, when it was not replaced
+	 *
+	 * @throws IOException if the file can not be mapped
+	 */
+	synchronized void remap() throws IOException {
+		if (buffer == null) {
+			buffer = map(file);
+		}
+	}
+
+	/**
+	 * Make the photos in a range of photo numbers that have not been handed
+	 * out yet. The photos are stored one after another, so one stream reads
+	 * each run of them.
+	 */
+	private void loadRange(int from, int to, List<Photo> photos) throws IOException {
+		List<Tag> photoTags = new ArrayList<Tag>();
+		int next = loaded.nextClearBit(from);
+		while (next < to) {
+			int end = loaded.nextSetBit(next);
+			if (end < 0 || end > to) {
+				end = to;
+			}
+			DataInputStream in = streamAt(next);
+			for (int i = next; i < end; i++) {
+				photos.add(handOut(i, LibraryStore.readPhoto(in, header, photoTags), photoTags));
+			}
+			next = loaded.nextClearBit(end);
+		}
+	}
+
+	/**
+	 * Get a stream at the start of a photo, by starting at the closest photo
+	 * in the index and reading past the ones before it
+	 */
+	private DataInputStream streamAt(int photoNumber) throws IOException {
+		int offset = buffer.getInt(offsetsStart + photoNumber / LibraryStore.INDEX_INTERVAL * 4);
+		DataInputStream in = new DataInputStream(new BufferInputStream(buffer, offset));
+		List<Tag> skippedTags = new ArrayList<Tag>();
+		for (int i = photoNumber % LibraryStore.INDEX_INTERVAL; i > 0; i--) {
+			LibraryStore.readPhoto(in, header, skippedTags);
+		}
+		return in;
+	}
+
+	/**
+	 * Add a photo to its tags and mark it as handed out
+	 */
+	private Photo handOut(int photoNumber, Photo photo, List<Tag> photoTags) {
+		for (Tag tag : photoTags) {
+			photo.restoreTag(tag);
+		}
+		loaded.set(photoNumber);
+		loadedCount++;
+		return photo;
+	}
+
+	private int dirFirst(int d) {
+		return buffer.getInt(dirRangesStart + d * 8);
+	}
+
+	private int dirCount(int d) {
+		return buffer.getInt(dirRangesStart + d * 8 + 4);
+	}
+
+	private static int offsetCount(int photoCount) {
+		return (photoCount + LibraryStore.INDEX_INTERVAL - 1) / LibraryStore.INDEX_INTERVAL;
+	}
+
+	/**
+	 * Get whether the running java allows a mapping to be released, so
+	 * libraries are mapped rather than read into memory
+	 *
+	 * @return <boolean> true if a mapping can be released
+	 */
+	static boolean canUnmap() {
+		return UNMAPPER != null;
+	}
+
+	/**
+	 * Unmap a buffer straight away instead of when it is garbage collected.
+	 * A buffer read into memory is left to the garbage collector.
+	 */
+	private static void unmap(ByteBuffer buffer) {
+		if (buffer instanceof MappedByteBuffer && UNMAPPER != null) {
+			try {
+				UNMAPPER.unmap(buffer);
+			} catch (Exception e) {
+				//left to the garbage collector
+			}
+		}
+	}
+
+	/**
+	 * Find a way to unmap a buffer. Java 9 and later have
+	 * Unsafe.invokeCleaner, and the cleaner of a buffer can no longer be
+	 * reached; java 8 has the public cleaner method of DirectBuffer.
+	 *
+	 * @return <Unmapper> the way to unmap, null if there is none
+	 */
+	private static Unmapper findUnmapper() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return new Unmapper() {
+				@Override
+				public void unmap(ByteBuffer buffer) throws Exception {
+					invokeCleaner.invoke(unsafe, buffer);
+				}
+			};
+		} catch (Exception e) {
+			//not java 9 or later
+		} catch (LinkageError e) {
+			//not java 9 or later
+		}
+		try {
+			final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return new Unmapper() {
+				@Override
+				public void unmap(ByteBuffer buffer) throws Exception {
+					Object cleaner = cleanerMethod.invoke(buffer);
+					if (cleaner != null) {
+						cleanMethod.invoke(cleaner);
+					}
+				}
+			};
+		} catch (Exception e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Releases the memory mapping of a buffer
+	 */
+	private interface Unmapper {
+		void unmap(ByteBuffer buffer) throws Exception;
+	}
+
+	/**
+	 * Reads a mapped buffer from a position without copying it
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer, int position) {
+			this.buffer = buffer.duplicate();
+			this.buffer.position(position);
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests MappedLibrary
+ *
+ * @author Ben,Sara
+ */
+public class MappedLibraryTest {
+
+	File libraryFile;
+	LinkedHashMap<String, Tag> tagLibrary;
+	MappedLibrary library;
+
+	/**
+	 * Sets up the tests by saving a library with photos in a directory, a
+	 * directory below it and another directory
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		LinkedHashMap<String, Photo> photoLibrary = new LinkedHashMap<String, Photo>();
+		LinkedHashMap<String, Tag> savedTags = new LinkedHashMap<String, Tag>();
+		Tag sun = new Tag("Sun");
+		savedTags.put("Sun", sun);
+		String[] dirs = { ".\\trip\\", ".\\home\\", ".\\trip\\day1\\" };
+		int id = 0;
+		for (String dir : dirs) {
+			for (int i = 0; i < 3; i++) {
+				Photo photo = new Photo(id++, "IMG_" + i + ".jpg", dir, "IMG_" + i, new LinkedHashSet<String>());
+				photoLibrary.put(dir + photo.getName(), photo);
+			}
+		}
+		Photo tagged = photoLibrary.get(".\\home\\IMG_0.jpg");
+		tagged.addTags(new Tag[] { sun });
+		photoLibrary.remove(".\\home\\IMG_0.jpg");
+		photoLibrary.put(".\\home\\" + tagged.getName(), tagged);
+
+		libraryFile = new File("testMappedLibrary.dat");
+		LibraryStore.save(libraryFile, photoLibrary, savedTags, id, 3);
+		tagLibrary = new LinkedHashMap<String, Tag>();
+		library = MappedLibrary.open(libraryFile, tagLibrary);
+	}
+
+	/**
+	 * Releases and deletes the library file
+	 */
+	@After
+	public void tearDown() {
+		if (library != null) {
+			library.close();
+		}
+		libraryFile.delete();
+	}
+
+	/**
+	 * Tests that opening reads the tags and what was saved with the library
+	 * without making any photos
+	 */
+	@Test
+	public void testOpen() {
+		assertEquals(Arrays.asList("Sun"), Arrays.asList(tagLibrary.keySet().toArray()));
+		assertTrue(tagLibrary.get("Sun").getPhotosWithTag().isEmpty());
+		assertEquals(9, library.getInfo().nextId);
+		assertEquals(3, library.getInfo().journalGeneration);
+		assertEquals(9, library.getUnloadedCount());
+	}
+
+	/**
+	 * Tests that a photo is made with its tags when asked for, and only once
+	 * @throws IOException
+	 */
+	@Test
+	public void testLoad() throws IOException {
+		Photo photo = library.load(".\\home\\", "IMG_0@Sun.jpg");
+		assertEquals(3, photo.getId());
+		assertTrue(photo.getTags().contains("Sun"));
+		assertTrue(tagLibrary.get("Sun").getPhotosWithTag().contains(photo));
+		assertEquals(8, library.getUnloadedCount());
+
+		assertNull(library.load(".\\home\\", "IMG_0@Sun.jpg"));
+		assertNull(library.load(".\\home\\", "missing.jpg"));
+		assertNull(library.load(".\\elsewhere\\", "IMG_1.jpg"));
+	}
+
+	/**
+	 * Tests that the photos with a tag are found without making them, and
+	 * that only the photos asked for by id are made
+	 * @throws IOException
+	 */
+	@Test
+	public void testTagIds() throws IOException {
+		library.indexTags();
+		Tag sun = tagLibrary.get("Sun");
+		assertEquals(PhotoIdSet.of(3), library.unloadedIdsWithTag(sun));
+		assertEquals(9, library.unloadedIds().cardinality());
+		assertEquals(9, library.getUnloadedCount());
+
+		List<Photo> found = library.loadIds(PhotoIdSet.of(3, 7));
+		assertEquals(2, found.size());
+		assertEquals(7, library.getUnloadedCount());
+		//a photo handed out is in its tag instead
+		assertTrue(library.unloadedIdsWithTag(sun).isEmpty());
+		assertFalse(library.unloadedIds().contains(7));
+		assertTrue(sun.getPhotoIds().contains(3));
+	}
+
+	/**
+	 * Tests that opening a directory makes the photos in it and below it,
+	 * and that every other photo is made by loadAll
+	 * @throws IOException
+	 */
+	@Test
+	public void testLoadDirectory() throws IOException {
+		assertEquals(Arrays.asList(".\\trip\\", ".\\trip\\day1\\"), library.dirsUnder(".\\trip\\"));
+		assertEquals(2, library.dirsUnder(".\\tr").size());
+		assertTrue(library.dirsUnder(".\\zoo\\").isEmpty());
+		library.load(".\\trip\\", "IMG_1.jpg");
+		assertTrue(library.hasUnloadedUnder(".\\trip\\"));
+		List<Photo> tripPhotos = library.loadDirectory(".\\trip\\");
+		assertEquals(5, tripPhotos.size());
+		for (Photo photo : tripPhotos) {
+			assertTrue(photo.getDir().startsWith(".\\trip\\"));
+		}
+		assertFalse(library.hasUnloadedUnder(".\\trip\\"));
+		assertTrue(library.hasUnloadedUnder(".\\"));
+		assertFalse(library.hasUnloadedUnder(".\\zoo\\"));
+		assertEquals(3, library.loadAll().size());
+		assertEquals(0, library.getUnloadedCount());
+		assertTrue(library.loadAll().isEmpty());
+	}
+
+	/**
+	 * Tests that a library saved before there was an index is not mapped
+	 * @throws IOException
+	 */
+	@Test
+	public void testOldVersion() throws IOException {
+		library.close();
+		library = null;
+		DataOutputStream data = new DataOutputStream(new FileOutputStream(libraryFile));
+		try {
+			//a version 1 library with no tags, directories, extensions or photos
+			data.writeInt(LibraryStore.MAGIC);
+			LibraryStore.writeVarint(data, 1);
+			LibraryStore.writeVarint(data, 0);
+			LibraryStore.writeVarint(data, 0);
+			LibraryStore.writeVarint(data, 0);
+			LibraryStore.writeVarint(data, 0);
+			LibraryStore.writeVarint(data, 0);
+		} finally {
+			data.close();
+		}
+		assertNull(MappedLibrary.open(libraryFile, tagLibrary));
+	}
+
+	/**
+	 * Tests that saving over the file copies the photos that were not handed
+	 * out, and that the new file hands out only those, with the same tags
+	 * @throws IOException
+	 */
+	@Test
+	public void testSaveCopiesUnloaded() throws IOException {
+		Photo moved = library.load(".\\trip\\", "IMG_1.jpg");
+		moved.relocate("IMG_1.jpg", ".\\new\\");
+		LinkedHashMap<String, Photo> photoLibrary = new LinkedHashMap<String, Photo>();
+		photoLibrary.put(moved.getDir() + moved.getName(), moved);
+		Photo added = new Photo(20, "IMG_5.jpg", ".\\trip\\", "IMG_5", new LinkedHashSet<String>());
+		photoLibrary.put(added.getDir() + added.getName(), added);
+		tagLibrary.put("Sea", new Tag("Sea"));
+
+		BitSet handedOut = LibraryStore.save(libraryFile, photoLibrary, tagLibrary, library, 21, 4);
+		assertEquals(2, handedOut.cardinality());
+		MappedLibrary saved = library;
+		library = MappedLibrary.open(libraryFile, tagLibrary, handedOut);
+		saved.close();
+
+		assertEquals(8, library.getUnloadedCount());
+		assertEquals(4, library.getInfo().journalGeneration);
+		assertNull(library.load(".\\new\\", "IMG_1.jpg"));
+		assertNull(library.load(".\\trip\\", "IMG_5.jpg"));
+		Photo tagged = library.load(".\\home\\", "IMG_0@Sun.jpg");
+		assertEquals(3, tagged.getId());
+		assertTrue(tagLibrary.get("Sun").getPhotosWithTag().contains(tagged));
+		//the copied photos are still sorted in their directories
+		assertEquals(0, library.load(".\\trip\\", "IMG_0.jpg").getId());
+		assertEquals(2, library.load(".\\trip\\", "IMG_2.jpg").getId());
+		assertEquals(3, library.loadDirectory(".\\trip\\").size());
+
+		LinkedHashMap<String, Photo> everything = new LinkedHashMap<String, Photo>();
+		LibraryStore.load(libraryFile, everything, new LinkedHashMap<String, Tag>());
+		assertEquals(10, everything.size());
+		assertTrue(everything.containsKey(".\\new\\IMG_1.jpg"));
+		assertTrue(everything.get(".\\home\\IMG_0@Sun.jpg").getTags().contains("Sun"));
+	}
+
+	/**
+	 * Tests that the mapping can be released on this java, and that a closed
+	 * library's file can be replaced by a new save
+	 * @throws IOException
+	 */
+	@Test
+	public void testCloseReleasesFile() throws IOException {
+		assertTrue(MappedLibrary.canUnmap());
+		library.close();
+		library = null;
+		LibraryStore.save(libraryFile, new LinkedHashMap<String, Photo>(), new LinkedHashMap<String, Tag>(), 0, 4);
+		library = MappedLibrary.open(libraryFile, tagLibrary);
+		assertEquals(4, library.getInfo().journalGeneration);
+	}
+}
@@ -0,0 +1,130 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Works out a hash of what an image looks like, so copies of a photo that
+ * were exported again at another size or quality have hashes that differ in
+ * only a few bits. The image is shrunk to a grid of 9 by 8 grey cells and
+ * each bit says if a cell is brighter than the cell to its right, which is
+ * known as a difference hash. Only every n-th pixel of the image is decoded,
+ * so a full resolution copy of the photo is never held in memory.
+ *
+ * @author Ben,Sara
+ *
+ */
+public final class PerceptualHash {
+	// the grid the image is shrunk to, one column more than there are bits in a row
+	static final int COLUMNS = 9;
+	static final int ROWS = 8;
+	// the fewest pixels decoded along the longer side of the image
+	static final int DECODED_SIZE = 64;
+
+	private PerceptualHash() {
+	}
+
+	/**
+	 * Work out the hash of an image file, decoding the whole frame rather
+	 * than an embedded thumbnail, which may not have been updated when the
+	 * photo was edited
+	 *
+	 * @param <File> imageFile : the image
+	 * @return <long> the hash
+	 * @throws IOException if the image can not be read or decoded
+	 */
+	public static long of(File imageFile) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(imageFile);
+		if (in == null) {
+			throw new IOException("Cannot read " + imageFile);
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException("Not an image " + imageFile);
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int side = Math.max(reader.getWidth(0), reader.getHeight(0));
+				ImageReadParam param = reader.getDefaultReadParam();
+				int period = ThumbnailDecoder.subsampling(side, DECODED_SIZE);
+				param.setSourceSubsampling(period, period, 0, 0);
+				return of(reader.read(0, param));
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Work out the hash of a decoded image
+	 *
+	 * @param <BufferedImage> image : the image
+	 * @return <long> the hash, one bit for each cell of the grid that is
+	 *         brighter than the next cell in its row
+	 */
+	public static long of(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		long[] sums = new long[COLUMNS * ROWS];
+		int[] counts = new int[COLUMNS * ROWS];
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			int cellRow = (int) ((long) y * ROWS / height) * COLUMNS;
+			for (int x = 0; x < width; x++) {
+				int cell = cellRow + (int) ((long) x * COLUMNS / width);
+				sums[cell] += luminance(row[x]);
+				counts[cell]++;
+			}
+		}
+
+		//an image narrower than the grid leaves some cells empty, they stay dark
+		long hash = 0;
+		for (int r = 0; r < ROWS; r++) {
+			for (int c = 0; c < COLUMNS - 1; c++) {
+				int cell = r * COLUMNS + c;
+				hash <<= 1;
+				if (average(sums, counts, cell) > average(sums, counts, cell + 1)) {
+					hash |= 1;
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static long average(long[] sums, int[] counts, int cell) {
+		return counts[cell] == 0 ? 0 : sums[cell] / counts[cell];
+	}
+
+	/**
+	 * Get the brightness of a pixel, weighting the colours the way the eye does
+	 */
+	private static int luminance(int rgb) {
+		int r = (rgb >> 16) & 0xFF;
+		int g = (rgb >> 8) & 0xFF;
+		int b = rgb & 0xFF;
+		return (299 * r + 587 * g + 114 * b) / 1000;
+	}
+
+	/**
+	 * Get the number of bits two hashes differ in
+	 *
+	 * @param <long> a : a hash
+	 * @param <long> b : another hash
+	 * @return <int> the hamming distance between them, from 0 to 64
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+}
@@ -0,0 +1,99 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Tests PerceptualHash
+ *
+ * @author Ben,Sara
+ */
+public class PerceptualHashTest {
+
+	/**
+	 * Draw a scene of coloured blocks that looks the same at any size
+	 *
+	 * @param <int> width : the width of the image
+	 * @param <int> height : the height of the image
+	 * @param <long> seed : picks the scene
+	 * @return <BufferedImage> the image
+	 */
+	static BufferedImage scene(int width, int height, long seed) {
+		Random random = new Random(seed);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		for (int i = 0; i < 12; i++) {
+			g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+			double x = random.nextDouble();
+			double y = random.nextDouble();
+			g.fillRect((int) (x * width), (int) (y * height), (int) ((1 - x) * width * random.nextDouble()) + 1,
+					(int) ((1 - y) * height * random.nextDouble()) + 1);
+		}
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Tests that the same scene at other sizes has a close hash and another
+	 * scene does not
+	 */
+	@Test
+	public void testCloseForResizedCopies() {
+		long hash = PerceptualHash.of(scene(800, 600, 1));
+		assertTrue(PerceptualHash.distance(hash, PerceptualHash.of(scene(400, 300, 1))) <= 4);
+		assertTrue(PerceptualHash.distance(hash, PerceptualHash.of(scene(1600, 1200, 1))) <= 4);
+		long other = PerceptualHash.of(scene(800, 600, 2));
+		assertTrue(PerceptualHash.distance(hash, other) > DuplicateFinder.DEFAULT_RADIUS);
+	}
+
+	/**
+	 * Tests that an image file is hashed from a subsampled decode much like
+	 * the image it was written from
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testHashFile() throws IOException {
+		BufferedImage image = scene(1200, 900, 3);
+		File file = new File("perceptualHashTest.png");
+		ImageIO.write(image, "png", file);
+		try {
+			assertTrue(PerceptualHash.distance(PerceptualHash.of(image), PerceptualHash.of(file)) <= 4);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tests that a file that is not an image can not be hashed
+	 */
+	@Test
+	public void testNotAnImage() {
+		try {
+			PerceptualHash.of(new File("missingPerceptualHashTest.png"));
+			fail("Hashed a file that is not there");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Tests the distance between hashes
+	 */
+	@Test
+	public void testDistance() {
+		assertEquals(0, PerceptualHash.distance(0x1234L, 0x1234L));
+		assertEquals(64, PerceptualHash.distance(0L, -1L));
+		assertEquals(2, PerceptualHash.distance(0x5L, 0x0L));
+	}
+}
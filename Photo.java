@@ -1,45 +1,63 @@
 package photo_renamer;
 
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.Observable;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.logging.FileHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
 
 /**
  * Create a photo object which can be tagged using a <Tag>, has its own name,
  * its original name, the set of all previous names, the file extension, the set
- * of all tags that it is tagged by, a logger, and a unique ID. Tag observes photo,
- * so every time the photos name is changed it sends an update to the tags that
- * are watching it, telling the tag its new file name. 
+ * of all tags that it is tagged by, and a unique ID. A photo keeps its tags
+ * in one array and adds itself to or removes itself from each tag as the tag
+ * is added or removed, so a photo needs no list of observers. The <Manager>
+ * publishes the changes to the tags on its <EventBus>.
+ * Every rename is written to the shared <RenameLog>.
  * 
  * @author Ben,Sara
  *
  */
-public class Photo extends Observable implements Serializable  {
+public class Photo implements Serializable  {
 	
+	//the id older versions had without saying it, so their libraries can be read
+	private static final long serialVersionUID = 1954680183149270522L;
 	private String name;
 	private String originalName; //filename without any tags, includes extension
 	private String extension;
 	private String dir;
-	private LinkedHashMap<String, Tag> tags;
+	//the tags of the photo, in the order they were added. The array is replaced
+	//rather than changed, so the tags can be read from any thread
+	private transient volatile Tag[] tags;
 	private LinkedHashSet<String> prevNames;
 	private int id;
-	private static final Logger logger = Logger.getLogger( Photo.class.getName() );
-	private static FileHandler handler = null;
-	static int nextId;// int id for the next photo to be added to the Library
+	//the id for the next photo to be added to the Library
+	private static final AtomicInteger nextId = new AtomicInteger();
+	private static final Tag[] NO_TAGS = new Tag[0];
+	//the fields of older versions, so old serialized libraries can still be read
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("name", String.class),
+			new ObjectStreamField("originalName", String.class),
+			new ObjectStreamField("extension", String.class),
+			new ObjectStreamField("dir", String.class),
+			new ObjectStreamField("tags", LinkedHashMap.class),
+			new ObjectStreamField("prevNames", LinkedHashSet.class),
+			new ObjectStreamField("id", int.class) };
 	
 	/**
 	 * Create instance of <Photo> which contains the photos name, directory,
-	 * originial name, extension, a unique id number, the tags it contains, 
-	 * the set of all previous names and the log file handler.
+	 * originial name, extension, a unique id number, the tags it contains
+	 * and the set of all previous names.
 	 * 
 	 * @param <String> name : name of photo <File>
 	 * @param <String> dir : parent directory of photo <File>
@@ -49,31 +67,121 @@ public class Photo extends Observable implements Serializable  {
 		this.dir = dir;
 		this.extension = ImageTypeChecker.getExtension(name);
 		this.originalName = ImageTypeChecker.removeExtension(name);
-		this.id = nextId;
-		nextId += 1;
-		tags = new LinkedHashMap<String, Tag>(); //key: tag name, value: Tag object
+		this.id = nextId.getAndIncrement();
+		tags = NO_TAGS;
 		prevNames = new LinkedHashSet<String>();
+	}
 		
-		//set handler for each instance of a photo
-		try{
-			String workingDir = System.getProperty("user.dir");
-			String fileName = workingDir + this.originalName + ".log";
-			handler = new FileHandler(fileName, true);
+	/**
+	 * Recreate a <Photo> that was saved by <LibraryStore>, keeping its id.
+	 * Its tags are added back with restoreTag.
+	 * 
+	 * @param <int> id : the id the photo was saved with
+	 * @param <String> name : name of photo <File>
+	 * @param <String> dir : parent directory of photo <File>
+	 * @param <String> originalName : the name of the photo without tags or extension
+	 * @param <LinkedHashSet> prevNames : the previous names of the photo
+	 */
+	Photo(int id, String name, String dir, String originalName, LinkedHashSet<String> prevNames){
+		this.id = id;
+		this.name = name;
+		this.dir = dir;
+		this.extension = ImageTypeChecker.getExtension(name);
+		this.originalName = originalName;
+		this.tags = NO_TAGS;
+		this.prevNames = prevNames;
+	}
+	
+	/**
+	 * Get the id the next new photo will get
+	 * @return the next <int> id
+	 */
+	static int getNextId(){
+		return nextId.get();
+	}
+	
+	/**
+	 * Make sure new photos get ids from at least a given id, so they do not
+	 * take the id of a photo that was loaded
+	 * @param <int> id : the smallest id new photos may get
+	 */
+	static void reserveIds(int id){
+		int next = nextId.get();
+		while (next < id && !nextId.compareAndSet(next, id)){
+			next = nextId.get();
 		}
-		catch (IOException e) {  
-			e.printStackTrace();
+	}
+	
+	/**
+	 * Get the name of the photo without its tags or extension
+	 * @return the original name <String>
+	 */
+	String getOriginalName(){
+		return originalName;
+	}
+	
+	/**
+	 * Add a tag back to a photo that is being loaded, without changing its
+	 * name. It takes the place of a tag of the same name that was only read
+	 * by name.
+	 * @param <Tag> tag : a tag the photo was saved with
+	 */
+	void restoreTag(Tag tag){
+		Tag[] current = tags;
+		int i = 0;
+		while (i < current.length && current[i].getOrdinal() != tag.getOrdinal()){
+			i++;
 		}
-			handler.setFormatter(new SimpleFormatter());
-			logger.addHandler(handler);
-			logger.setLevel(Level.ALL);
+		if (i == current.length){
+			addTag(tag);
+		} else {
+			Tag[] replaced = current.clone();
+			replaced[i] = tag;
+			tags = replaced;
 		}
-		
+		tag.addPhoto(this);
+	}
+	
+	/**
+	 * Get if the photo is tagged with a tag
+	 * @param <int> ordinal : the <TagNames> ordinal of the tag
+	 * @return <boolean> true if the photo has the tag
+	 */
+	boolean hasTag(int ordinal){
+		Tag[] current = tags;
+		for (int i = 0; i < current.length; i++){
+			if (current[i].getOrdinal() == ordinal){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void addTag(Tag tag){
+		Tag[] current = tags;
+		Tag[] grown = Arrays.copyOf(current, current.length + 1);
+		grown[current.length] = tag;
+		tags = grown;
+	}
+	
+	/**
+	 * Get the <TagNames> ordinals of the tags, for making the name
+	 */
+	private static int[] ordinals(Tag[] tags){
+		int[] ordinals = new int[tags.length];
+		for (int i = 0; i < tags.length; i++){
+			ordinals[i] = tags[i].getOrdinal();
+		}
+		return ordinals;
+	}
+	
 	/**
-	 * Get the <Logger> for the <Photo>
-	 * @return the photo <Logger>
+	 * Get every rename of the <Photo> from the shared <RenameLog>
+	 * @return <List> of renames, oldest first
+	 * @throws IOException if the log can not be read
 	 */
-	public Logger getPhotoLogger(){
-	return logger;
+	public List<RenameLog.Entry> getHistory() throws IOException{
+		return RenameLog.getInstance().getHistory(id);
 	}
 	
 	/**
@@ -131,12 +239,53 @@ public class Photo extends Observable implements Serializable  {
 	}
 
 	/**
-	 * Get the <Set> of <Tag> objects the <Photo> has
+	 * Get the <Set> of <Tag> names the <Photo> has, as a view that can not
+	 * be changed
 	 * @return <Set> of tags the <Photo> is tagged with
 	 */
 
 	public Set<String> getTags(){
-		return tags.keySet();
+		return new AbstractSet<String>(){
+			@Override
+			public Iterator<String> iterator(){
+				final Tag[] iterated = tags;
+				return new Iterator<String>(){
+					private int next;
+
+					@Override
+					public boolean hasNext(){
+						return next < iterated.length;
+					}
+
+					@Override
+					public String next(){
+						if (!hasNext()){
+							throw new NoSuchElementException();
+						}
+						return iterated[next++].getName();
+					}
+
+					@Override
+					public void remove(){
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size(){
+				return tags.length;
+			}
+
+			@Override
+			public boolean contains(Object o){
+				if (!(o instanceof String)){
+					return false;
+				}
+				int ordinal = TagNames.find((String) o);
+				return ordinal >= 0 && hasTag(ordinal);
+			}
+		};
 	}
 	
 	/**
@@ -144,34 +293,53 @@ public class Photo extends Observable implements Serializable  {
 	 * from the tags within the <Photo> instance
 	 */
 	private void setName(){
-		String tagString = new String();
-		for (String k : tags.keySet()){
-			tagString += "@" + k;
-		}
-		String newName = originalName + tagString +"."+ extension;
-		if (!newName.equals(name)){
+		int[] ordinals = ordinals(tags);
+		//checked first so a name that stays the same is not built again
+		if (!PhotoNames.isComposed(name, originalName, ordinals, extension)){
+			String newName = PhotoNames.compose(originalName, ordinals, extension);
 			removePrevNames(newName); //if the new name is a previous name
 			addPrevNames(name);
 			updateLog(newName);
 			name = newName;
-			//notify the tag observer
-			setChanged();
-			notifyObservers();
-			clearChanged();
 		}
 	}
 	
+	/**
+	 * Move the photo to a new file after it has been renamed or moved outside
+	 * of the program. The photo keeps its tags, and the old name is kept as a
+	 * previous name. A move to another directory is logged with the
+	 * directories in both names, so it shows in the history even when the
+	 * name stays the same.
+	 * 
+	 * @param <String> newName : the new file name
+	 * @param <String> newDir : the new parent directory
+	 */
+	public void relocate(String newName, String newDir){
+		if (!newName.equals(name)){
+			removePrevNames(newName);
+			addPrevNames(name);
+		}
+		if (!newDir.equals(dir)){
+			RenameLog.getInstance().append(id, dir + name, newDir + newName);
+		} else if (!newName.equals(name)){
+			updateLog(newName);
+		}
+		name = newName;
+		dir = newDir;
+		extension = ImageTypeChecker.getExtension(newName);
+		//the original name is everything before the first tag
+		originalName = PhotoNames.originalName(ImageTypeChecker.removeExtension(newName));
+	}
+	
 	/**
 	 * Add a <Tag> to the photo
 	 * @param <Tag[]> newTags: all the tags to add to the photo
 	 */
 	public void addTags(Tag[] newTags){
-		String tagName;
 		for (int i = 0; i < newTags.length; i++){
-			tagName = newTags[i].getName();
-			if (!tags.containsKey(tagName)){ //checks if photo is already tagged with the tag
-				tags.put(tagName, newTags[i]);
-				addObserver(newTags[i]);
+			if (!hasTag(newTags[i].getOrdinal())){ //checks if photo is already tagged with the tag
+				addTag(newTags[i]);
+				newTags[i].addPhoto(this);
 			}
 		}
 		
@@ -183,11 +351,21 @@ public class Photo extends Observable implements Serializable  {
 	 * @param <Tag> tag : tag being deleted
 	 */
 	public void deleteTag(Tag tag){
-		String tagName = tag.getName();
-		if (tags.containsKey(tagName)){
-			tags.remove(tagName);
+		int ordinal = tag.getOrdinal();
+		if (hasTag(ordinal)){
+			Tag[] current = tags;
+			Tag[] kept = new Tag[current.length - 1];
+			int k = 0;
+			for (int i = 0; i < current.length; i++){
+				if (current[i].getOrdinal() != ordinal){
+					kept[k++] = current[i];
+				} else if (current[i] != tag){
+					current[i].removePhoto(this);
+				}
+			}
+			tags = kept;
 			setName();
-			deleteObserver(tag);
+			tag.removePhoto(this);
 		}
 	}
 	/**
@@ -200,11 +378,11 @@ public class Photo extends Observable implements Serializable  {
 	 * Delete all the tags from this photo
 	 */
 	public void deleteAllTags(boolean toResetName){
-		tags.clear();
-		setChanged();
-		notifyObservers();
-		clearChanged();
-		deleteObservers();	
+		Tag[] removed = tags;
+		tags = NO_TAGS;
+		for (Tag tag : removed){
+			tag.removePhoto(this);
+		}
 		
 		if (toResetName){
 			setName();
@@ -217,8 +395,52 @@ public class Photo extends Observable implements Serializable  {
 	 * @param newName <String> the new name of the photo 
 	 */
 	public void updateLog(String newName){
-		String timeStamp = new SimpleDateFormat("yyyy/MM/dd HH:mm.ss").format(new java.util.Date());
-		logger.log(Level.SEVERE,"Previous name:{0}, New Name: {1}, Date: {2}", new Object[] {name, newName,timeStamp});
+		RenameLog.getInstance().append(id, name, newName);
+	}
+	
+	/**
+	 * Write the photo the way older versions did, with its tags as a map
+	 * from their names. The tags themselves are not written, the <Manager>
+	 * adds the photo back to its tags when the library is read.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		LinkedHashMap<String, Tag> tags = new LinkedHashMap<String, Tag>();
+		for (String tagName : getTags()){
+			tags.put(tagName, null);
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("name", name);
+		fields.put("originalName", originalName);
+		fields.put("extension", extension);
+		fields.put("dir", dir);
+		fields.put("tags", tags);
+		fields.put("prevNames", prevNames);
+		fields.put("id", id);
+		out.writeFields();
+	}
+	
+	/**
+	 * Read a photo written by writeObject or by an older version, keeping
+	 * only the names of its tags
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		name = (String) fields.get("name", null);
+		originalName = (String) fields.get("originalName", null);
+		extension = (String) fields.get("extension", null);
+		dir = (String) fields.get("dir", null);
+		prevNames = (LinkedHashSet<String>) fields.get("prevNames", new LinkedHashSet<String>());
+		id = fields.get("id", 0);
+		this.tags = NO_TAGS;
+		LinkedHashMap<?, ?> tags = (LinkedHashMap<?, ?>) fields.get("tags", null);
+		if (tags != null){
+			//the tags in the map may not be read yet, but their names are, and
+			//the <Manager> puts the tags of its library in their place
+			for (Object tagName : tags.keySet()){
+				addTag(new Tag((String) tagName));
+			}
+		}
 	}
 
 	
@@ -0,0 +1,358 @@
+package photo_renamer;
+
+import java.awt.Component;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingConstants;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * Shows the images in the selected directory as a grid of thumbnails. Only
+ * the cells that are on screen are drawn, and a thumbnail is only loaded when
+ * its cell is drawn, so the cost of the grid depends on the size of the
+ * window rather than the number of images. The thumbnails of recently shown
+ * cells are kept so scrolling back is smooth, and older ones are released.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class PhotoGrid extends JList<File> implements ThumbnailLoader.Listener {
+
+	private static final long serialVersionUID = 1L;
+	// the width and height of a cell in the grid
+	private static final int CELL_SIZE = 200;
+	// the fewest thumbnails kept whatever the size of the window
+	private static final int MIN_CACHED_ICONS = 100;
+
+	private final ThumbnailLoader thumbnailLoader;
+	private final ImageChooserButtonListener chooser;
+	private final ImageListModel model = new ImageListModel();
+	// the images whose thumbnails could not be made, drawn as their names
+	private final HashSet<File> failed = new HashSet<File>();
+	// the thumbnails of recently shown images, least recently shown first
+	private final LinkedHashMap<File, ImageIcon> icons = new LinkedHashMap<File, ImageIcon>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, ImageIcon> eldest) {
+			return size() > maxCachedIcons();
+		}
+	};
+
+	/**
+	 * Create the photo grid
+	 *
+	 * @param <ThumbnailLoader> thumbnailLoader : loads the thumbnails of the images
+	 * @param <ImageMode> imageMode : the instance of image mode
+	 * @param <ActionCheckBoxPanel> optionsPanel : the options that are reset when an
+	 *            image is chosen
+	 */
+	public PhotoGrid(ThumbnailLoader thumbnailLoader, ImageMode imageMode, ActionCheckBoxPanel optionsPanel) {
+		this.thumbnailLoader = thumbnailLoader;
+		this.chooser = new ImageChooserButtonListener(null, imageMode, optionsPanel);
+		setModel(model);
+		setLayoutOrientation(JList.HORIZONTAL_WRAP);
+		setVisibleRowCount(-1);
+		setFixedCellWidth(CELL_SIZE);
+		setFixedCellHeight(CELL_SIZE);
+		setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		setCellRenderer(new ThumbnailRenderer());
+
+		//choosing a cell makes its image the working file
+		addListSelectionListener(new ListSelectionListener() {
+			@Override
+			public void valueChanged(ListSelectionEvent e) {
+				File selected = getSelectedValue();
+				if (!e.getValueIsAdjusting() && selected != null) {
+					chooser.setImageFile(selected);
+					chooser.actionPerformed(null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Show the grid in a scroll pane, and stop loading the thumbnails of
+	 * images that are scrolled out of view
+	 *
+	 * @param <JScrollPane> scrollPane : the scroll pane to show the grid in
+	 */
+	public void attachTo(JScrollPane scrollPane) {
+		scrollPane.setViewportView(this);
+		scrollPane.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				thumbnailLoader.cancelAllExcept(getVisibleImages());
+			}
+		});
+	}
+
+	/**
+	 * Show a new list of images, throwing away the thumbnails of the old ones
+	 *
+	 * @param <List> images : the images to show
+	 */
+	public void setImages(List<File> images) {
+		thumbnailLoader.cancelAll();
+		icons.clear();
+		failed.clear();
+		clearSelection();
+		model.setImages(images);
+	}
+
+	/**
+	 * Add images to the end of the grid, used to show the images of a
+	 * directory while it is still being scanned
+	 *
+	 * @param <List> images : the images to add
+	 */
+	public void addImages(List<File> images) {
+		model.addImages(images);
+	}
+
+	/**
+	 * Remove an image from the grid, or every image below it if it is a
+	 * directory
+	 *
+	 * @param <File> removed : the image or directory that was removed
+	 */
+	public void removeImages(File removed) {
+		String dirPrefix = removed.getPath() + File.separator;
+		for (int i = model.getSize() - 1; i >= 0; i--) {
+			File image = model.getElementAt(i);
+			if (image.equals(removed) || image.getPath().startsWith(dirPrefix)) {
+				icons.remove(image);
+				failed.remove(image);
+				model.removeImage(i);
+			}
+		}
+	}
+
+	/**
+	 * Replace an image in the grid with its new file after it was renamed,
+	 * keeping its thumbnail
+	 *
+	 * @param <File> from : the old file
+	 * @param <File> to : the new file
+	 * @return <boolean> true if the old file was in the grid
+	 */
+	public boolean replaceImage(File from, File to) {
+		int index = model.images.indexOf(from);
+		if (index < 0) {
+			return false;
+		}
+		ImageIcon icon = icons.remove(from);
+		if (icon != null) {
+			icons.put(to, icon);
+		}
+		if (failed.remove(from)) {
+			failed.add(to);
+		}
+		model.images.set(index, to);
+		model.fireChanged(index, index);
+		return true;
+	}
+
+	/**
+	 * Get if an image is shown in the grid
+	 *
+	 * @param <File> image : the image
+	 * @return <boolean> true if the grid has the image
+	 */
+	public boolean containsImage(File image) {
+		return model.images.contains(image);
+	}
+
+	/**
+	 * Get the images shown in the grid
+	 *
+	 * @return <ArrayList> a copy of the images in the grid, in order
+	 */
+	public ArrayList<File> getImages() {
+		return new ArrayList<File>(model.images);
+	}
+
+	/**
+	 * Update the grid after images have been renamed. Only the cells that are
+	 * on screen are redrawn, and renamed images keep their thumbnails. If the
+	 * grid has more images than are given, the extra images were added by a
+	 * scan that is still going and are kept.
+	 *
+	 * @param <List> images : the images to show, in the same order as before
+	 */
+	public void refresh(List<File> images) {
+		List<File> old = model.images;
+		if (images.size() > old.size()) {
+			setImages(images);
+			return;
+		}
+		images = new ArrayList<File>(images);
+		images.addAll(old.subList(images.size(), old.size()));
+		int first = Math.max(0, getFirstVisibleIndex());
+		int last = Math.min(images.size() - 1, getLastVisibleIndex());
+		for (int i = first; i <= last; i++) {
+			//move the thumbnail of a renamed image to its new name
+			ImageIcon icon = icons.get(old.get(i));
+			if (icon != null && !old.get(i).equals(images.get(i))) {
+				icons.put(images.get(i), icon);
+			}
+		}
+		model.images = images;
+		if (last >= first) {
+			model.fireChanged(first, last);
+		}
+	}
+
+	/**
+	 * Get the images whose cells are on screen
+	 *
+	 * @return <HashSet> of the visible image files
+	 */
+	HashSet<File> getVisibleImages() {
+		HashSet<File> visible = new HashSet<File>();
+		int first = getFirstVisibleIndex();
+		int last = getLastVisibleIndex();
+		if (first >= 0) {
+			for (int i = first; i <= last && i < model.getSize(); i++) {
+				visible.add(model.getElementAt(i));
+			}
+		}
+		return visible;
+	}
+
+	/**
+	 * Get the number of thumbnails currently held by the grid
+	 *
+	 * @return <int> the number of thumbnails kept
+	 */
+	int getCachedIconCount() {
+		return icons.size();
+	}
+
+	/**
+	 * Store a loaded thumbnail and redraw its cell if it is still shown
+	 */
+	@Override
+	public void thumbnailLoaded(File imageFile, ImageIcon thumbnail) {
+		icons.put(imageFile, thumbnail);
+		int first = Math.max(0, getFirstVisibleIndex());
+		int last = getLastVisibleIndex();
+		for (int i = first; i <= last && i < model.getSize(); i++) {
+			if (model.getElementAt(i).equals(imageFile)) {
+				repaint(getCellBounds(i, i));
+			}
+		}
+	}
+
+	/**
+	 * Remember an image that has no thumbnail, so drawing its cell again
+	 * does not queue it again
+	 */
+	@Override
+	public void thumbnailFailed(File imageFile) {
+		failed.add(imageFile);
+	}
+
+	/**
+	 * Keep enough thumbnails for about three screens of cells
+	 *
+	 * @return <int> the most thumbnails to keep
+	 */
+	private int maxCachedIcons() {
+		int visible = getLastVisibleIndex() - getFirstVisibleIndex() + 1;
+		return Math.max(MIN_CACHED_ICONS, visible * 3);
+	}
+
+	/**
+	 * The list of images shown in the grid
+	 */
+	private static class ImageListModel extends AbstractListModel<File> {
+		private static final long serialVersionUID = 1L;
+		List<File> images = new ArrayList<File>();
+
+		void setImages(List<File> newImages) {
+			int oldSize = images.size();
+			images = new ArrayList<File>();
+			if (oldSize > 0) {
+				fireIntervalRemoved(this, 0, oldSize - 1);
+			}
+			images = newImages == null ? new ArrayList<File>() : new ArrayList<File>(newImages);
+			if (!images.isEmpty()) {
+				fireIntervalAdded(this, 0, images.size() - 1);
+			}
+		}
+
+		void addImages(List<File> newImages) {
+			if (newImages.isEmpty()) {
+				return;
+			}
+			int first = images.size();
+			images.addAll(newImages);
+			fireIntervalAdded(this, first, images.size() - 1);
+		}
+
+		void removeImage(int index) {
+			images.remove(index);
+			fireIntervalRemoved(this, index, index);
+		}
+
+		void fireChanged(int first, int last) {
+			fireContentsChanged(this, first, last);
+		}
+
+		@Override
+		public int getSize() {
+			return images.size();
+		}
+
+		@Override
+		public File getElementAt(int index) {
+			return images.get(index);
+		}
+	}
+
+	/**
+	 * Draws a cell as its thumbnail, or as the name of its image while the
+	 * thumbnail is loading or if it could not be made
+	 */
+	private class ThumbnailRenderer extends DefaultListCellRenderer {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+				boolean isSelected, boolean cellHasFocus) {
+			File imageFile = (File) value;
+			JLabel cell = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected,
+					cellHasFocus);
+			cell.setHorizontalAlignment(SwingConstants.CENTER);
+			cell.setToolTipText(imageFile.getName());
+			ImageIcon icon = icons.get(imageFile);
+			if (icon != null) {
+				cell.setIcon(icon);
+				cell.setText(null);
+			} else {
+				cell.setIcon(null);
+				cell.setText(imageFile.getName());
+				if (!failed.contains(imageFile)) {
+					thumbnailLoader.load(imageFile, PhotoGrid.this);
+				}
+			}
+			return cell;
+		}
+	}
+}
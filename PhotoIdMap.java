@@ -0,0 +1,170 @@
+package photo_renamer;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The photos with a tag, found by their ids. The photos are kept in one
+ * array by open addressing on their ids, so there is no boxed id or entry
+ * object for each photo, only a slot in the array.
+ *
+ * @author Ben,Sara
+ *
+ */
+class PhotoIdMap {
+	// the slots, a power of two long, null where there is no photo
+	private Photo[] slots = new Photo[4];
+	private int size;
+
+	/**
+	 * Add a photo, replacing a photo with the same id
+	 *
+	 * @param <Photo> photo : the photo
+	 */
+	void put(Photo photo) {
+		int i = find(photo.getId());
+		if (slots[i] == null) {
+			size++;
+			if (size * 4 > slots.length * 3) {
+				grow();
+				i = find(photo.getId());
+			}
+		}
+		slots[i] = photo;
+	}
+
+	/**
+	 * Get a photo by its id
+	 *
+	 * @param <int> id : the photo id
+	 * @return <Photo> the photo, null if it is not in the map
+	 */
+	Photo get(int id) {
+		return slots[find(id)];
+	}
+
+	/**
+	 * Remove a photo by its id
+	 *
+	 * @param <int> id : the photo id
+	 */
+	void remove(int id) {
+		int mask = slots.length - 1;
+		int i = find(id);
+		if (slots[i] == null) {
+			return;
+		}
+		slots[i] = null;
+		size--;
+		//move the photos after it back, so none is left past an empty slot
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (slots[j] == null) {
+				return;
+			}
+			int home = hash(slots[j].getId()) & mask;
+			//the photo can move into the gap if its home is not between the gap and it
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				slots[i] = slots[j];
+				slots[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of photos
+	 *
+	 * @return <int> the number of photos
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Get the photos, as a view that follows the map
+	 *
+	 * @return <Collection> of <Photo> in the map
+	 */
+	Collection<Photo> values() {
+		return new AbstractCollection<Photo>() {
+			@Override
+			public Iterator<Photo> iterator() {
+				return new Iterator<Photo>() {
+					private final Photo[] iterated = slots;
+					private int next = advance(0);
+
+					private int advance(int from) {
+						while (from < iterated.length && iterated[from] == null) {
+							from++;
+						}
+						return from;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < iterated.length;
+					}
+
+					@Override
+					public Photo next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Photo photo = iterated[next];
+						next = advance(next + 1);
+						return photo;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof Photo && get(((Photo) o).getId()) == o;
+			}
+		};
+	}
+
+	/**
+	 * Get the slot of a photo id, or the empty slot where it would go
+	 */
+	private int find(int id) {
+		int mask = slots.length - 1;
+		int i = hash(id) & mask;
+		while (slots[i] != null && slots[i].getId() != id) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void grow() {
+		Photo[] old = slots;
+		slots = new Photo[old.length * 2];
+		for (Photo photo : old) {
+			if (photo != null) {
+				slots[find(photo.getId())] = photo;
+			}
+		}
+	}
+
+	/**
+	 * Spread the ids, which are given out in order, across the slots
+	 */
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
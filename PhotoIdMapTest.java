@@ -0,0 +1,80 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests PhotoIdMap
+ *
+ * @author Ben,Sara
+ */
+public class PhotoIdMapTest {
+
+	private static Photo photo(int id) {
+		return new Photo(id, "img" + id + ".jpg", ".\\", "img" + id, new LinkedHashSet<String>());
+	}
+
+	/**
+	 * Tests that photos can be added, found and removed as the map grows
+	 */
+	@Test
+	public void testPutGetRemove() {
+		PhotoIdMap map = new PhotoIdMap();
+		for (int id = 0; id < 100; id++) {
+			map.put(photo(id));
+		}
+		Photo again = photo(7);
+		map.put(again);
+		assertEquals(100, map.size());
+		assertSame(again, map.get(7));
+		assertNull(map.get(100));
+
+		for (int id = 0; id < 100; id += 3) {
+			map.remove(id);
+		}
+		map.remove(500);
+		assertEquals(66, map.size());
+		assertNull(map.get(3));
+		assertEquals(4, map.get(4).getId());
+		assertEquals(66, map.values().size());
+		assertTrue(map.values().contains(map.get(5)));
+		assertFalse(map.values().contains(photo(5)));
+	}
+
+	/**
+	 * Tests random puts and removes against a HashMap, so photos are still
+	 * found after the photos before them are removed
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		PhotoIdMap map = new PhotoIdMap();
+		HashMap<Integer, Photo> expected = new HashMap<Integer, Photo>();
+		Random random = new Random(16);
+		for (int i = 0; i < 20000; i++) {
+			int id = random.nextInt(2000);
+			if (random.nextInt(3) == 0) {
+				map.remove(id);
+				expected.remove(id);
+			} else {
+				Photo photo = photo(id);
+				map.put(photo);
+				expected.put(id, photo);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (int id = 0; id < 2000; id++) {
+			assertSame(expected.get(id), map.get(id));
+		}
+		int count = 0;
+		for (Photo photo : map.values()) {
+			assertSame(expected.get(photo.getId()), photo);
+			count++;
+		}
+		assertEquals(expected.size(), count);
+	}
+}
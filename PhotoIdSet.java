@@ -0,0 +1,442 @@
+package photo_renamer;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of photo ids. The ids are split into chunks of 65536 by
+ * their high 16 bits, and each chunk keeps its low 16 bits either as a sorted
+ * array when it has few ids or as a bitmap when it has many, so a set of a
+ * few ids is small and a set of most ids is 8KB a chunk. And, or and and not
+ * work a chunk at a time, mostly a word of 64 ids at a time.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class PhotoIdSet {
+	// a chunk with more ids than this is kept as a bitmap
+	static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	// the high 16 bits of each chunk, sorted, and the chunks
+	private char[] keys;
+	private Chunk[] chunks;
+	private int chunkCount;
+
+	/**
+	 * Create an empty set
+	 */
+	public PhotoIdSet() {
+		keys = new char[4];
+		chunks = new Chunk[4];
+	}
+
+	/**
+	 * Create a set of ids
+	 *
+	 * @param <int...> ids : the ids in the set
+	 */
+	public static PhotoIdSet of(int... ids) {
+		PhotoIdSet set = new PhotoIdSet();
+		for (int id : ids) {
+			set.add(id);
+		}
+		return set;
+	}
+
+	/**
+	 * Add an id to the set
+	 *
+	 * @param <int> id : a photo id, not negative
+	 */
+	public void add(int id) {
+		char key = (char) (id >>> 16);
+		int i = find(key);
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, key, new Chunk());
+		}
+		chunks[i].add((char) id);
+	}
+
+	/**
+	 * Remove an id from the set
+	 *
+	 * @param <int> id : a photo id
+	 */
+	public void remove(int id) {
+		int i = find((char) (id >>> 16));
+		if (i >= 0) {
+			chunks[i].remove((char) id);
+			if (chunks[i].cardinality == 0) {
+				System.arraycopy(keys, i + 1, keys, i, chunkCount - i - 1);
+				System.arraycopy(chunks, i + 1, chunks, i, chunkCount - i - 1);
+				chunkCount--;
+				chunks[chunkCount] = null;
+			}
+		}
+	}
+
+	/**
+	 * Get if an id is in the set
+	 *
+	 * @param <int> id : a photo id
+	 * @return <boolean> true if it is in the set
+	 */
+	public boolean contains(int id) {
+		int i = find((char) (id >>> 16));
+		return i >= 0 && chunks[i].contains((char) id);
+	}
+
+	/**
+	 * Get the number of ids in the set
+	 *
+	 * @return <int> the number of ids
+	 */
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			cardinality += chunks[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Get if the set has no ids
+	 *
+	 * @return <boolean> true if it is empty
+	 */
+	public boolean isEmpty() {
+		return chunkCount == 0;
+	}
+
+	/**
+	 * Get the ids in the set, smallest first
+	 *
+	 * @return <int[]> the ids
+	 */
+	public int[] toArray() {
+		int[] ids = new int[cardinality()];
+		int n = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			n = chunks[i].copyTo(ids, n, keys[i] << 16);
+		}
+		return ids;
+	}
+
+	/**
+	 * Get the ids in both sets
+	 *
+	 * @return <PhotoIdSet> a new set
+	 */
+	public static PhotoIdSet and(PhotoIdSet a, PhotoIdSet b) {
+		PhotoIdSet result = new PhotoIdSet();
+		int i = 0;
+		int j = 0;
+		while (i < a.chunkCount && j < b.chunkCount) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				result.appendIfNotEmpty(a.keys[i], Chunk.and(a.chunks[i], b.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the ids in either set
+	 *
+	 * @return <PhotoIdSet> a new set
+	 */
+	public static PhotoIdSet or(PhotoIdSet a, PhotoIdSet b) {
+		PhotoIdSet result = new PhotoIdSet();
+		int i = 0;
+		int j = 0;
+		while (i < a.chunkCount || j < b.chunkCount) {
+			if (j == b.chunkCount || (i < a.chunkCount && a.keys[i] < b.keys[j])) {
+				result.appendIfNotEmpty(a.keys[i], a.chunks[i].copy());
+				i++;
+			} else if (i == a.chunkCount || a.keys[i] > b.keys[j]) {
+				result.appendIfNotEmpty(b.keys[j], b.chunks[j].copy());
+				j++;
+			} else {
+				result.appendIfNotEmpty(a.keys[i], Chunk.or(a.chunks[i], b.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the ids in the first set that are not in the second
+	 *
+	 * @return <PhotoIdSet> a new set
+	 */
+	public static PhotoIdSet andNot(PhotoIdSet a, PhotoIdSet b) {
+		PhotoIdSet result = new PhotoIdSet();
+		int j = 0;
+		for (int i = 0; i < a.chunkCount; i++) {
+			while (j < b.chunkCount && b.keys[j] < a.keys[i]) {
+				j++;
+			}
+			if (j < b.chunkCount && b.keys[j] == a.keys[i]) {
+				result.appendIfNotEmpty(a.keys[i], Chunk.andNot(a.chunks[i], b.chunks[j]));
+			} else {
+				result.appendIfNotEmpty(a.keys[i], a.chunks[i].copy());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof PhotoIdSet && Arrays.equals(toArray(), ((PhotoIdSet) o).toArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	private int find(char key) {
+		return Arrays.binarySearch(keys, 0, chunkCount, key);
+	}
+
+	private void insert(int i, char key, Chunk chunk) {
+		if (chunkCount == keys.length) {
+			keys = Arrays.copyOf(keys, chunkCount * 2);
+			chunks = Arrays.copyOf(chunks, chunkCount * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, chunkCount - i);
+		System.arraycopy(chunks, i, chunks, i + 1, chunkCount - i);
+		keys[i] = key;
+		chunks[i] = chunk;
+		chunkCount++;
+	}
+
+	/**
+	 * Add a chunk after every chunk already in the set
+	 */
+	private void appendIfNotEmpty(char key, Chunk chunk) {
+		if (chunk.cardinality > 0) {
+			insert(chunkCount, key, chunk);
+		}
+	}
+
+	/**
+	 * The low 16 bits of the ids in one chunk, as a sorted array while there
+	 * are few of them and as a bitmap once there are many
+	 */
+	private static class Chunk {
+		// the sorted ids, null while the chunk is a bitmap
+		char[] array = new char[4];
+		// one bit for each id, null while the chunk is an array
+		long[] bitmap;
+		int cardinality;
+
+		boolean contains(char low) {
+			if (bitmap != null) {
+				return (bitmap[low >>> 6] & (1L << low)) != 0;
+			}
+			return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+		}
+
+		void add(char low) {
+			if (bitmap != null) {
+				long word = bitmap[low >>> 6];
+				long bit = 1L << low;
+				if ((word & bit) == 0) {
+					bitmap[low >>> 6] = word | bit;
+					cardinality++;
+				}
+				return;
+			}
+			int i = Arrays.binarySearch(array, 0, cardinality, low);
+			if (i >= 0) {
+				return;
+			}
+			if (cardinality == ARRAY_MAX) {
+				toBitmap();
+				add(low);
+				return;
+			}
+			i = -i - 1;
+			if (cardinality == array.length) {
+				array = Arrays.copyOf(array, Math.min(ARRAY_MAX, cardinality * 2));
+			}
+			System.arraycopy(array, i, array, i + 1, cardinality - i);
+			array[i] = low;
+			cardinality++;
+		}
+
+		void remove(char low) {
+			if (bitmap != null) {
+				long word = bitmap[low >>> 6];
+				long bit = 1L << low;
+				if ((word & bit) != 0) {
+					bitmap[low >>> 6] = word & ~bit;
+					cardinality--;
+					if (cardinality <= ARRAY_MAX) {
+						toArray();
+					}
+				}
+				return;
+			}
+			int i = Arrays.binarySearch(array, 0, cardinality, low);
+			if (i >= 0) {
+				System.arraycopy(array, i + 1, array, i, cardinality - i - 1);
+				cardinality--;
+			}
+		}
+
+		int copyTo(int[] ids, int n, int high) {
+			if (bitmap != null) {
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					long word = bitmap[w];
+					while (word != 0) {
+						ids[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					ids[n++] = high | array[i];
+				}
+			}
+			return n;
+		}
+
+		Chunk copy() {
+			Chunk copy = new Chunk();
+			copy.cardinality = cardinality;
+			copy.array = array == null ? null : Arrays.copyOf(array, Math.max(4, cardinality));
+			copy.bitmap = bitmap == null ? null : bitmap.clone();
+			return copy;
+		}
+
+		private void toBitmap() {
+			bitmap = new long[BITMAP_WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				bitmap[array[i] >>> 6] |= 1L << array[i];
+			}
+			array = null;
+		}
+
+		private void toArray() {
+			char[] lows = new char[Math.max(4, cardinality)];
+			int n = 0;
+			for (int w = 0; w < BITMAP_WORDS; w++) {
+				long word = bitmap[w];
+				while (word != 0) {
+					lows[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			array = lows;
+			bitmap = null;
+		}
+
+		/**
+		 * Make a bitmap chunk from words, as an array if it has few ids
+		 */
+		private static Chunk fromWords(long[] words) {
+			Chunk chunk = new Chunk();
+			chunk.bitmap = words;
+			chunk.array = null;
+			for (long word : words) {
+				chunk.cardinality += Long.bitCount(word);
+			}
+			if (chunk.cardinality <= ARRAY_MAX) {
+				chunk.toArray();
+			}
+			return chunk;
+		}
+
+		static Chunk and(Chunk a, Chunk b) {
+			if (a.bitmap != null && b.bitmap != null) {
+				long[] words = new long[BITMAP_WORDS];
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					words[w] = a.bitmap[w] & b.bitmap[w];
+				}
+				return fromWords(words);
+			}
+			//the result is never bigger than the array, so keep only what is in both
+			Chunk small = a.bitmap == null ? a : b;
+			Chunk other = small == a ? b : a;
+			Chunk result = new Chunk();
+			result.array = new char[Math.max(4, small.cardinality)];
+			for (int i = 0; i < small.cardinality; i++) {
+				if (other.contains(small.array[i])) {
+					result.array[result.cardinality++] = small.array[i];
+				}
+			}
+			return result;
+		}
+
+		static Chunk or(Chunk a, Chunk b) {
+			if (a.bitmap == null && b.bitmap == null && a.cardinality + b.cardinality <= ARRAY_MAX) {
+				Chunk result = new Chunk();
+				result.array = new char[Math.max(4, a.cardinality + b.cardinality)];
+				int i = 0;
+				int j = 0;
+				while (i < a.cardinality || j < b.cardinality) {
+					char next;
+					if (j == b.cardinality || (i < a.cardinality && a.array[i] < b.array[j])) {
+						next = a.array[i++];
+					} else if (i == a.cardinality || a.array[i] > b.array[j]) {
+						next = b.array[j++];
+					} else {
+						next = a.array[i++];
+						j++;
+					}
+					result.array[result.cardinality++] = next;
+				}
+				return result;
+			}
+			long[] words = new long[BITMAP_WORDS];
+			orInto(words, a);
+			orInto(words, b);
+			return fromWords(words);
+		}
+
+		static Chunk andNot(Chunk a, Chunk b) {
+			if (a.bitmap == null) {
+				Chunk result = new Chunk();
+				result.array = new char[Math.max(4, a.cardinality)];
+				for (int i = 0; i < a.cardinality; i++) {
+					if (!b.contains(a.array[i])) {
+						result.array[result.cardinality++] = a.array[i];
+					}
+				}
+				return result;
+			}
+			long[] words = a.bitmap.clone();
+			if (b.bitmap != null) {
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					words[w] &= ~b.bitmap[w];
+				}
+			} else {
+				for (int i = 0; i < b.cardinality; i++) {
+					words[b.array[i] >>> 6] &= ~(1L << b.array[i]);
+				}
+			}
+			return fromWords(words);
+		}
+
+		private static void orInto(long[] words, Chunk chunk) {
+			if (chunk.bitmap != null) {
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					words[w] |= chunk.bitmap[w];
+				}
+			} else {
+				for (int i = 0; i < chunk.cardinality; i++) {
+					words[chunk.array[i] >>> 6] |= 1L << chunk.array[i];
+				}
+			}
+		}
+	}
+}
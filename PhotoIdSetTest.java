@@ -0,0 +1,78 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests PhotoIdSet
+ *
+ * @author Ben,Sara
+ */
+public class PhotoIdSetTest {
+
+	/**
+	 * Tests adding, removing and finding ids, including when a chunk grows
+	 * into a bitmap and shrinks back into an array
+	 */
+	@Test
+	public void testAddRemove() {
+		PhotoIdSet set = new PhotoIdSet();
+		assertTrue(set.isEmpty());
+		for (int id = 0; id < 3 * PhotoIdSet.ARRAY_MAX; id += 2) {
+			set.add(id);
+		}
+		set.add(70000);
+		set.add(70000);
+		assertEquals(PhotoIdSet.ARRAY_MAX * 3 / 2 + 1, set.cardinality());
+		assertTrue(set.contains(4000));
+		assertFalse(set.contains(4001));
+		assertTrue(set.contains(70000));
+
+		for (int id = 0; id < 3 * PhotoIdSet.ARRAY_MAX; id += 4) {
+			set.remove(id);
+		}
+		assertFalse(set.contains(4000));
+		assertTrue(set.contains(4002));
+		set.remove(70000);
+		assertFalse(set.contains(70000));
+		assertEquals(PhotoIdSet.ARRAY_MAX * 3 / 4, set.cardinality());
+		assertEquals(2, set.toArray()[0]);
+	}
+
+	/**
+	 * Tests and, or and and not against BitSet on random sets that mix small
+	 * and large chunks
+	 */
+	@Test
+	public void testOperations() {
+		Random random = new Random(7);
+		BitSet bitsA = new BitSet();
+		BitSet bitsB = new BitSet();
+		PhotoIdSet a = new PhotoIdSet();
+		PhotoIdSet b = new PhotoIdSet();
+		for (int i = 0; i < 40000; i++) {
+			//dense in the first chunk, sparse in the ones after it
+			int id = i % 2 == 0 ? random.nextInt(65536) : random.nextInt(400000);
+			bitsA.set(id);
+			a.add(id);
+			id = random.nextInt(200000);
+			bitsB.set(id);
+			b.add(id);
+		}
+
+		BitSet expected = (BitSet) bitsA.clone();
+		expected.and(bitsB);
+		assertArrayEquals(expected.stream().toArray(), PhotoIdSet.and(a, b).toArray());
+		expected = (BitSet) bitsA.clone();
+		expected.or(bitsB);
+		assertArrayEquals(expected.stream().toArray(), PhotoIdSet.or(a, b).toArray());
+		expected = (BitSet) bitsA.clone();
+		expected.andNot(bitsB);
+		assertArrayEquals(expected.stream().toArray(), PhotoIdSet.andNot(a, b).toArray());
+		assertEquals(bitsA.cardinality(), a.cardinality());
+	}
+}
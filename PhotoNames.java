@@ -0,0 +1,136 @@
+package photo_renamer;
+
+/**
+ * Builds and reads photo file names of the form original@tag1@tag2.ext.
+ * Names are built in a builder kept by each thread and sized before it is
+ * filled, and read by looking for the @ characters, so renaming a photo
+ * only makes the <String> of its new name, and nothing at all if its name
+ * does not change.
+ *
+ * @author Ben,Sara
+ *
+ */
+final class PhotoNames {
+	//the character before each tag in a name
+	static final char TAG_MARK = '@';
+	//a builder bigger than this is not kept, so one long name does not hold memory
+	private static final int MAX_KEPT_CAPACITY = 1024;
+	private static final ThreadLocal<StringBuilder> builders = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(64);
+		}
+	};
+
+	private PhotoNames() {
+	}
+
+	/**
+	 * Get the length of the name of a photo with the given tags
+	 *
+	 * @param <String> originalName : the name without tags or extension
+	 * @param <int[]> ordinals : the <TagNames> ordinals of the tags, in order
+	 * @param <String> extension : the extension, without the dot
+	 * @return <int> the length of the name
+	 */
+	static int length(String originalName, int[] ordinals, String extension) {
+		int length = originalName.length() + 1 + extension.length();
+		for (int ordinal : ordinals) {
+			length += 1 + TagNames.name(ordinal).length();
+		}
+		return length;
+	}
+
+	/**
+	 * Build the name of a photo with the given tags
+	 *
+	 * @param <String> originalName : the name without tags or extension
+	 * @param <int[]> ordinals : the <TagNames> ordinals of the tags, in order
+	 * @param <String> extension : the extension, without the dot
+	 * @return <String> the name
+	 */
+	static String compose(String originalName, int[] ordinals, String extension) {
+		int length = length(originalName, ordinals, extension);
+		StringBuilder builder = builders.get();
+		if (builder.capacity() > MAX_KEPT_CAPACITY && length <= MAX_KEPT_CAPACITY) {
+			builder = new StringBuilder(64);
+			builders.set(builder);
+		}
+		builder.setLength(0);
+		builder.ensureCapacity(length);
+		builder.append(originalName);
+		for (int ordinal : ordinals) {
+			builder.append(TAG_MARK).append(TagNames.name(ordinal));
+		}
+		builder.append('.').append(extension);
+		return builder.toString();
+	}
+
+	/**
+	 * Get if a name is already the name compose would build, without
+	 * building it
+	 *
+	 * @param <String> name : the name to check
+	 * @param <String> originalName : the name without tags or extension
+	 * @param <int[]> ordinals : the <TagNames> ordinals of the tags, in order
+	 * @param <String> extension : the extension, without the dot
+	 * @return <boolean> true if name is the composed name
+	 */
+	static boolean isComposed(String name, String originalName, int[] ordinals, String extension) {
+		if (name == null || name.length() != length(originalName, ordinals, extension)
+				|| !name.startsWith(originalName)) {
+			return false;
+		}
+		int position = originalName.length();
+		for (int ordinal : ordinals) {
+			String tag = TagNames.name(ordinal);
+			if (name.charAt(position) != TAG_MARK || !name.startsWith(tag, position + 1)) {
+				return false;
+			}
+			position += 1 + tag.length();
+		}
+		return name.charAt(position) == '.' && name.startsWith(extension, position + 1);
+	}
+
+	/**
+	 * Get the name of a photo without its tags
+	 *
+	 * @param <String> baseName : a name without its extension
+	 * @return <String> everything before the first tag
+	 */
+	static String originalName(String baseName) {
+		int firstTag = baseName.indexOf(TAG_MARK);
+		return firstTag < 0 ? baseName : baseName.substring(0, firstTag);
+	}
+
+	/**
+	 * Get the tags in the name of a photo. Empty tags at the end of the name
+	 * are left out, as they are when the name is split on @.
+	 *
+	 * @param <String> baseName : a name without its extension
+	 * @return <String[]> the tags, in the order they are in the name
+	 */
+	static String[] tags(String baseName) {
+		int end = baseName.length();
+		while (end > 0 && baseName.charAt(end - 1) == TAG_MARK) {
+			end--;
+		}
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			if (baseName.charAt(i) == TAG_MARK) {
+				count++;
+			}
+		}
+		String[] tags = new String[count];
+		int start = baseName.indexOf(TAG_MARK);
+		for (int t = 0; t < count; t++) {
+			int next = baseName.indexOf(TAG_MARK, start + 1);
+			if (next < 0 || next > end) {
+				next = end;
+			}
+			tags[t] = baseName.substring(start + 1, next);
+			start = next;
+		}
+		return tags;
+	}
+}
@@ -0,0 +1,65 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests PhotoNames
+ *
+ * @author Ben,Sara
+ */
+public class PhotoNamesTest {
+
+	private static int[] ordinals(String... tags) {
+		int[] ordinals = new int[tags.length];
+		for (int i = 0; i < tags.length; i++) {
+			ordinals[i] = TagNames.intern(tags[i]);
+		}
+		return ordinals;
+	}
+
+	/**
+	 * Tests that names are built with their tags in order, and that a name
+	 * is only recognised as built from exactly the same parts
+	 */
+	@Test
+	public void testCompose() {
+		int[] tags = ordinals("Beach", "Sun");
+		assertEquals("holiday@Beach@Sun.jpg", PhotoNames.compose("holiday", tags, "jpg"));
+		assertEquals("holiday.jpg", PhotoNames.compose("holiday", new int[0], "jpg"));
+		assertEquals("holiday@Beach@Sun.jpg".length(), PhotoNames.length("holiday", tags, "jpg"));
+
+		assertTrue(PhotoNames.isComposed("holiday@Beach@Sun.jpg", "holiday", tags, "jpg"));
+		assertTrue(PhotoNames.isComposed("holiday.jpg", "holiday", new int[0], "jpg"));
+		assertFalse(PhotoNames.isComposed("holiday@Sun@Beach.jpg", "holiday", tags, "jpg"));
+		assertFalse(PhotoNames.isComposed("holiday@Beach@Sun.png", "holiday", tags, "jpg"));
+		assertFalse(PhotoNames.isComposed("holidax@Beach@Sun.jpg", "holiday", tags, "jpg"));
+		assertFalse(PhotoNames.isComposed("holiday@Beach.Sun.jpg", "holiday", tags, "jpg"));
+		assertFalse(PhotoNames.isComposed(null, "holiday", tags, "jpg"));
+
+		//a long name does not stop shorter names being built afterwards
+		StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			longName.append("long");
+		}
+		assertEquals(longName + "@Beach@Sun.jpg", PhotoNames.compose(longName.toString(), tags, "jpg"));
+		assertEquals("a@Sun.png", PhotoNames.compose("a", ordinals("Sun"), "png"));
+	}
+
+	/**
+	 * Tests that names are read back into their original name and tags the
+	 * same way splitting them on @ did
+	 */
+	@Test
+	public void testParse() {
+		assertEquals("holiday", PhotoNames.originalName("holiday@Beach@Sun"));
+		assertEquals("holiday", PhotoNames.originalName("holiday"));
+
+		assertArrayEquals(new String[] { "Beach", "Sun" }, PhotoNames.tags("holiday@Beach@Sun"));
+		assertArrayEquals(new String[0], PhotoNames.tags("holiday"));
+		assertArrayEquals(new String[] { "", "Sun" }, PhotoNames.tags("holiday@@Sun"));
+		assertArrayEquals(new String[] { "Beach" }, PhotoNames.tags("holiday@Beach@@"));
+		assertArrayEquals(new String[0], PhotoNames.tags("@@"));
+	}
+}
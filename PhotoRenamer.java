@@ -1,19 +1,19 @@
 package photo_renamer;
 
 import java.awt.BorderLayout;
-import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import javax.imageio.ImageIO;
+import java.util.List;
 import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 
 /**
  * Create the graphical user interface for the entire program so that a user
@@ -27,6 +27,9 @@ import javax.swing.*;
 public class PhotoRenamer {
 	
 	private ImageMode imageMode = ImageMode.getInstance();
+	// the manager image mode changes the photos through, which is also told
+	// about changes made by other programs
+	private Manager manager = imageMode.getManager();
 
 	private JFrame photoRenamerWindow = new JFrame("Photo Renamer");
 	private JFrame deleteConfirmationWindow = new JFrame("Confirm Deletion");
@@ -56,14 +59,31 @@ public class PhotoRenamer {
 	
 	private JPanel masterLogPanel;
 	private JScrollPane logScroll;
-	private JList<Object> logList;
+	private JList<String> logList;
+	private LogListModel logModel;
+
+	private JPanel duplicatesPanel;
+	private JButton findDuplicatesButton;
+	private DefaultListModel<String> clusterNames = new DefaultListModel<String>();
+	private List<List<File>> clusters = new ArrayList<List<File>>();
+	private volatile DuplicateFinder duplicateFinder;
+
+	private JPanel filterPanel;
+	private JTextField filterField;
+	private JLabel filterMessage;
+	// the name used to size the lines of the master log
+	private static final String LOG_PROTOTYPE_NAME = "IMG_0000@Tag@Tag@Tag.jpg";
 
 	private JTabbedPane westPane;
 	private JScrollPane optionsScroll;
 
 	private JButton getDirectoryButton;
 	private JScrollPane photoView = new JScrollPane();
-	private static JPanel photoViewer = new JPanel();
+	private ThumbnailCache thumbnailCache = ThumbnailCache.open();
+	private ThumbnailLoader thumbnailLoader = new ThumbnailLoader(thumbnailCache);
+	private PhotoGrid photoGrid = new PhotoGrid(thumbnailLoader, imageMode, optionPanel);
+	private DirectoryScanner directoryScanner;
+	private DirectoryWatcher directoryWatcher;
 	
 
 	/***
@@ -79,9 +99,8 @@ public class PhotoRenamer {
 		acceptDeleteButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				deleteTag();
-				updateLogPanel();
 				deleteConfirmationWindow.setVisible(false);
+				deleteTag();
 			}
 		});
 		//create decline button and its action listener
@@ -104,22 +123,43 @@ public class PhotoRenamer {
 	/**
 	 * Deletes selected tags from the library once the user has confirmed their decision
 	 * Also updates the buttons and options once the tags are removed.
+	 * A tag on many photos takes a while to delete, since every file is
+	 * renamed, so the tags are deleted on a background thread and the delete
+	 * button is turned off until they are done.
 	 */
 	private void deleteTag() {
 		
 		//gets the selected tags from optionPanel, and calls delete on them which
 		//removes them from the library of tags and all the photos they are contained in
-		String[] tagsToDelete = optionPanel.getSelected();
-
-		for (String tag : tagsToDelete) {
-			imageMode.deleteTag(tag);
-		}
-		//update the photo buttons to makes sure their names are correct and 
-		//update the list of possible tags to select
-		updatePhotoButtons();
-		optionPanel.clear();
-		optionPanel.reset();
-
+		final String[] tagsToDelete = optionPanel.getSelected();
+		deleteTagButton.setEnabled(false);
+		deleteTagButton.setText("Deleting tags...");
+		Thread deletion = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (String tag : tagsToDelete) {
+						imageMode.deleteTag(tag);
+					}
+				} finally {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							//update the photo grid to makes sure their names are correct and 
+							//update the list of possible tags to select
+							updatePhotoGrid();
+							optionPanel.clear();
+							optionPanel.reset();
+							updateLogPanel();
+							deleteTagButton.setText("Delete selected tags");
+							deleteTagButton.setEnabled(true);
+						}
+					});
+				}
+			}
+		}, "delete tags");
+		deletion.setDaemon(true);
+		deletion.start();
 	}
 
 	/**
@@ -140,40 +180,185 @@ public class PhotoRenamer {
 		
 		westPane.add("DO STUFF!", actionBorder);
 		westPane.addTab("View Complete Log", masterLogPanel);
+		buildDuplicatesPanel();
+		westPane.addTab("Find Duplicates", duplicatesPanel);
+		buildFilterPanel();
+		westPane.addTab("Filter by Tags", filterPanel);
 		
 	}
 
 	/**
-	 * Creates the panel that shows the master log by reading the log file
-	 * that is added too every time a photos name is changed. 
+	 * Creates the panel that shows only the viewing images whose tags match
+	 * a tag query, such as "Beach & (Sun | Sand) & !Rain". An empty query
+	 * shows every viewing image again.
+	 */
+	private void buildFilterPanel(){
+		filterPanel = new JPanel();
+		filterPanel.setLayout(new BorderLayout());
+		filterField = new JTextField();
+		filterMessage = new JLabel("Type a tag query, such as Beach & !Rain");
+		ActionListener filter = new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				filterImages();
+			}
+		};
+		filterField.addActionListener(filter);
+		JButton filterButton = new JButton("Filter");
+		filterButton.addActionListener(filter);
+		filterPanel.add(filterField, BorderLayout.NORTH);
+		filterPanel.add(filterButton, BorderLayout.CENTER);
+		filterPanel.add(filterMessage, BorderLayout.SOUTH);
+	}
+
+	/**
+	 * Show the viewing images that match the query in the filter field
+	 */
+	private void filterImages(){
+		List<File> images = imageMode.getViewingImages();
+		String query = filterField.getText().trim();
+		if (query.isEmpty()) {
+			photoGrid.setImages(images);
+			filterMessage.setText("Showing all " + images.size() + " images");
+			return;
+		}
+		try {
+			List<File> matching = TagQuery.parse(query).filterFiles(images);
+			photoGrid.setImages(matching);
+			filterMessage.setText("Showing " + matching.size() + " of " + images.size() + " images");
+		} catch (IllegalArgumentException e) {
+			filterMessage.setText(e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates the panel that shows the master log, a list of every rename in
+	 * the rename log that reads its pages only as they are scrolled to. 
 	 */
 	private void viewMasterLogPanel(){
 		
-		//get the log file name and read it into ViewLog
-		String workingDir = System.getProperty("user.dir");
-		String fileName = workingDir + "Manager.log";
-		java.util.Queue<String> fullLog = ViewLog.getLog(fileName);
+		//list the rename log, reading only the pages that are shown
+		logModel = new LogListModel(RenameLog.getInstance(), ViewLog.PAGE_SIZE);
+		logList = new JList<String>(logModel);
+		//every line is the size of the prototype, so the list never reads every line to measure it
+		logList.setPrototypeCellValue("Previous name:" + LOG_PROTOTYPE_NAME + ", New Name: "
+				+ LOG_PROTOTYPE_NAME + ", Date: 0000/00/00 00:00.00");
 		
-		//add the log to the scroll pane and display
-		logScroll = new JScrollPane();
-		if (!fullLog.isEmpty()){
-			logList = new JList<Object>(fullLog.toArray());
-			logScroll.setViewportView(logList);
-			Dimension preferredSize = new Dimension(500,650);
-			logScroll.setPreferredSize(preferredSize);
-			masterLogPanel.add(logScroll);	}
-		else{
-			System.out.println("No log file, tag some photos to get one!");
+		//add the log to the scroll pane and display, starting at the most recent rename
+		logScroll = new JScrollPane(logList);
+		Dimension preferredSize = new Dimension(500,650);
+		logScroll.setPreferredSize(preferredSize);
+		masterLogPanel.add(logScroll);
+		showLatestRename();
+	}
+	/**
+	 * Creates the panel that finds the images in the viewing images that are
+	 * copies of the same photo. Each cluster of copies is a line in a list, and
+	 * choosing a line shows the images of that cluster in the photo grid.
+	 */
+	private void buildDuplicatesPanel(){
+		duplicatesPanel = new JPanel();
+		duplicatesPanel.setLayout(new BorderLayout());
+		findDuplicatesButton = new JButton("Find Duplicates");
+		findDuplicatesButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				findDuplicates();
+			}
+		});
+
+		final JList<String> clusterList = new JList<String>(clusterNames);
+		clusterList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		clusterList.addListSelectionListener(new ListSelectionListener() {
+			@Override
+			public void valueChanged(ListSelectionEvent e) {
+				int index = clusterList.getSelectedIndex();
+				if (!e.getValueIsAdjusting() && index >= 0) {
+					photoGrid.setImages(clusters.get(index));
+				}
+			}
+		});
+		JScrollPane clusterScroll = new JScrollPane(clusterList);
+		clusterScroll.setPreferredSize(new Dimension(500,650));
+		duplicatesPanel.add(findDuplicatesButton, BorderLayout.NORTH);
+		duplicatesPanel.add(clusterScroll, BorderLayout.CENTER);
+	}
+
+	/**
+	 * Find the copies among the viewing images on a background thread, then
+	 * list the clusters, largest first. The button is turned off until the
+	 * search is done, since searches can not run at the same time.
+	 */
+	private void findDuplicates(){
+		final List<File> images = new ArrayList<File>(imageMode.getViewingImages());
+		findDuplicatesButton.setEnabled(false);
+		findDuplicatesButton.setText("Finding Duplicates...");
+		Thread search = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				List<List<File>> found;
+				try {
+					if (duplicateFinder == null) {
+						duplicateFinder = new DuplicateFinder(new File(DuplicateFinder.HASHES_FILE_NAME));
+					}
+					found = duplicateFinder.findDuplicates(images, DuplicateFinder.DEFAULT_RADIUS);
+					DuplicateFinder.sortBySize(found);
+				} catch (IOException e) {
+					System.out.println("Cannot find duplicates: " + e.getMessage());
+					found = new ArrayList<List<File>>();
+				}
+				final List<List<File>> result = found;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						showClusters(result);
+						findDuplicatesButton.setText("Find Duplicates");
+						findDuplicatesButton.setEnabled(true);
+					}
+				});
+			}
+		}, "find duplicates");
+		search.setDaemon(true);
+		search.start();
+	}
+
+	/**
+	 * List clusters of copies, each line naming the images in the cluster
+	 * 
+	 * @param found <List> the clusters, each a <List> of images
+	 */
+	private void showClusters(List<List<File>> found){
+		clusters = found;
+		clusterNames.clear();
+		for (List<File> cluster : found) {
+			StringBuilder line = new StringBuilder();
+			line.append(cluster.size()).append(" copies:");
+			for (File image : cluster) {
+				line.append(' ').append(image.getName());
+			}
+			clusterNames.addElement(line.toString());
 		}
 	}
+
 	/**
 	 * Updates the master log panel, called when save button and confirm delete 
 	 * buttons are pressed so that the changes in photos names are printed 
-	 * in the view the total log.
+	 * in the view the total log. Only the renames made since the last update
+	 * are added.
 	 */
 	private void updateLogPanel(){
-		masterLogPanel.removeAll();
-		viewMasterLogPanel();
+		if (logModel.update() > 0) {
+			showLatestRename();
+		}
+	}
+
+	/**
+	 * Scroll the master log to its most recent rename
+	 */
+	private void showLatestRename(){
+		if (logModel.getSize() > 0) {
+			logList.ensureIndexIsVisible(logModel.getSize() - 1);
+		}
 	}
 
 
@@ -290,25 +475,12 @@ public class PhotoRenamer {
 		});
 	}
 	/**
-	 * Updates the buttons that are the photos in the working directory so that 
-	 * the new file name, after a photo has been tagged, is associated with that button
+	 * Updates the photo grid so that the new file name, after a photo has been
+	 * tagged, is associated with its cell. Only the cells on screen are redrawn.
 	 * 
 	 */
-	public void updatePhotoButtons() {
-		ArrayList<File> viewingImages = imageMode.getViewingImages();
-		Component[] photos = photoViewer.getComponents();
-
-		for (int i = 0; i < photos.length; i++) {
-			try {
-				ActionListener listener = ((JButton) photos[i]).getActionListeners()[0];
-				File listenerFile = ((ImageChooserButtonListener) listener).getImageFile();
-				if (!viewingImages.get(i).equals(listenerFile)) {
-					((ImageChooserButtonListener) listener).setImageFile(viewingImages.get(i));
-				}
-			} catch (IndexOutOfBoundsException ex) {
-				System.out.println("This JButton does nothing!");
-			}
-		}
+	public void updatePhotoGrid() {
+		photoGrid.refresh(imageMode.getViewingImages());
 	}
 
 	/**
@@ -321,7 +493,7 @@ public class PhotoRenamer {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				imageMode.doAction();
-				updatePhotoButtons();
+				updatePhotoGrid();
 				optionPanel.clear();
 				optionPanel.reset();
 				
@@ -349,8 +521,10 @@ public class PhotoRenamer {
 
 	/**
 	 * selected directory button is pressed in the main GUI frame this 
-	 * called which gets the images from the selected directory and reads them into
-	 * the function to produce buttons from these images
+	 * called which gets the images from the selected directory and shows them
+	 * in the photo grid. The directory is scanned in the background and the
+	 * grid fills in as images are found. The directory is then watched so
+	 * images changed by other programs are updated without a new scan.
 	 * 
 	 */
 	private void selectDirectory() {
@@ -360,50 +534,163 @@ public class PhotoRenamer {
 		chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
 		int returnVal = chooser.showOpenDialog(photoRenamerWindow);
 		if (returnVal == JFileChooser.APPROVE_OPTION) {
-			photoViewer.removeAll();
-			ArrayList<File> photosInDir = (ImageMode.imageSelectFromDir(chooser.getSelectedFile()));
-			imageMode.setViewingImages(photosInDir);
-			buildPhotoButtons();
+			//stop scanning the old directory, the grid stops reading its thumbnails
+			if (directoryScanner != null) {
+				directoryScanner.cancel();
+			}
+			imageMode.setViewingImages(new ArrayList<File>());
+			photoGrid.setImages(new ArrayList<File>());
+			scanDirectory(chooser.getSelectedFile());
+			watchDirectory(chooser.getSelectedFile());
 			
 		}
-		photoViewer.setLayout(new GridLayout(5, 5));
 		photoRenamerWindow.repaint();
 	}
+
+	/**
+	 * Scan a directory for images, adding them to the photo grid in batches
+	 * as they are found and to the viewing images once the scan is done
+	 * 
+	 * @param dir <File> the directory to scan
+	 */
+	private void scanDirectory(File dir) {
+		final DirectoryScanner scanner = new DirectoryScanner(dir);
+		final ArrayList<File> photosInDir = new ArrayList<File>();
+		directoryScanner = scanner;
+		scanner.start(new DirectoryScanner.BatchListener() {
+			@Override
+			public void imagesFound(final List<File> images) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						//ignore batches from a scan that has been replaced
+						if (directoryScanner == scanner && !scanner.isCancelled()) {
+							photosInDir.addAll(images);
+							photoGrid.addImages(images);
+							//let image mode know about the images found so far each time
+							//the count doubles, so this costs linear time over the scan
+							if (photosInDir.size() >= 2 * imageMode.getViewingImages().size()) {
+								imageMode.setViewingImages(new ArrayList<File>(photosInDir));
+							}
+						}
+					}
+				});
+			}
+
+			@Override
+			public void scanFinished(boolean wasCancelled) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (directoryScanner == scanner && !scanner.isCancelled()) {
+							imageMode.setViewingImages(photosInDir);
+						}
+					}
+				});
+			}
+		});
+	}
 	
 	
 	/**
-	 * Creates buttons from the images in the selected directory and 
-	 * and sub directories that it contains. Makes these buttons listen for 
-	 * clicks on them, and if they are clicked call ImageChoserButtonListener.
+	 * Watch a directory for images being added, deleted or renamed by other
+	 * programs and apply each change to the manager, the photo grid and the
+	 * viewing images, replacing the watch on the previous directory
+	 * 
+	 * @param dir <File> the directory to watch
 	 */
-	private void buildPhotoButtons() {
-		ArrayList<File> photosInDir = imageMode.getViewingImages();
-
-		for (int i = 0; i < photosInDir.size(); i++) {
-			try {
-				//If there are files read them in and create an icon from them, which
-				//is added to a button and placed in the window
-				File imageFile = photosInDir.get(i);
-				BufferedImage photo = ImageIO.read(imageFile);
-				ImageIcon photoIcon = new ImageIcon(photo.getScaledInstance(150, 150, 100));
-				JButton photoButton = new JButton(photoIcon);
-
-				photoButton.setSize(new Dimension(200, 200));
-				photoButton.setBorderPainted(true);
-				
-				//create the buttons listener
-				photoButton.addActionListener(new ImageChooserButtonListener(imageFile, imageMode, optionPanel));
-				photoViewer.add(photoButton);
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+	private void watchDirectory(File dir) {
+		if (directoryWatcher != null) {
+			directoryWatcher.stop();
+			directoryWatcher = null;
 		}
-		
-		//make it so the pane attached to the main GUI is a scroll pane
-		photoViewer.setLayout(new GridLayout(2, 5));
-		photoRenamerWindow.repaint();
-		photoView.setViewportView(photoViewer);
+		final DirectoryWatcher watcher;
+		try {
+			watcher = new DirectoryWatcher(dir);
+		} catch (IOException e) {
+			System.out.println("Cannot watch " + dir + ", changes made by other programs will not be shown");
+			return;
+		}
+		directoryWatcher = watcher;
+		watcher.addListener(new DirectoryWatcher.Listener() {
+			@Override
+			public void imageCreated(final File image) {
+				//the manager makes a photo for a new image when it is first asked for
+				applyChange(watcher, new Runnable() {
+					@Override
+					public void run() {
+						//the scan may have found the image already
+						if (!photoGrid.containsImage(image)) {
+							ArrayList<File> added = new ArrayList<File>();
+							added.add(image);
+							photoGrid.addImages(added);
+						}
+					}
+				});
+			}
+
+			@Override
+			public void imageDeleted(final File file) {
+				//the manager is told on the watcher thread, so the event thread never waits for it
+				manager.imageDeleted(file);
+				applyChange(watcher, new Runnable() {
+					@Override
+					public void run() {
+						photoGrid.removeImages(file);
+					}
+				});
+			}
+
+			@Override
+			public void directoryDeleted(final File dir) {
+				manager.directoryDeleted(dir);
+				applyChange(watcher, new Runnable() {
+					@Override
+					public void run() {
+						photoGrid.removeImages(dir);
+					}
+				});
+			}
+
+			@Override
+			public void imageRenamed(final File from, final File to) {
+				//the photo keeps its tags and history, a rename we made ourselves
+				//has already moved it so nothing changes
+				manager.imageRenamed(from, to);
+				applyChange(watcher, new Runnable() {
+					@Override
+					public void run() {
+						//a file we renamed ourselves is already in the grid
+						if (!photoGrid.replaceImage(from, to) && !photoGrid.containsImage(to)) {
+							ArrayList<File> added = new ArrayList<File>();
+							added.add(to);
+							photoGrid.addImages(added);
+						}
+					}
+				});
+			}
+		});
+		watcher.start();
+	}
+
+	/**
+	 * Apply a change from the directory watcher on the event thread, then pass
+	 * the grid's images to image mode so both agree
+	 * 
+	 * @param watcher <DirectoryWatcher> the watcher that saw the change
+	 * @param change <Runnable> updates the photo grid
+	 */
+	private void applyChange(final DirectoryWatcher watcher, final Runnable change) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				//ignore changes from a directory that is no longer shown
+				if (directoryWatcher == watcher) {
+					change.run();
+					imageMode.setViewingImages(photoGrid.getImages());
+				}
+			}
+		});
 	}
 
 	/**
@@ -420,6 +707,7 @@ public class PhotoRenamer {
 		
 		//add panes to the main window
 		photoRenamerWindow.setLayout(new BorderLayout());
+		photoGrid.attachTo(photoView);
 		photoRenamerWindow.add(photoView, BorderLayout.CENTER);
 		photoRenamerWindow.add(westPane, BorderLayout.WEST);
 		photoRenamerWindow.add(getDirectoryButton, BorderLayout.NORTH);
@@ -438,7 +726,19 @@ public class PhotoRenamer {
 			}
 			@Override
 			public void windowClosing(WindowEvent e) {
+				thumbnailLoader.shutdown();
+				if (directoryWatcher != null) {
+					directoryWatcher.stop();
+				}
+				if (thumbnailCache != null) {
+					thumbnailCache.close();
+				}
+				if (duplicateFinder != null) {
+					duplicateFinder.close();
+				}
 				imageMode.serialize();
+				//write the renames still waiting in the log
+				RenameLog.getInstance().close();
 				photoRenamerWindow.dispose();
 				System.exit(0);
 			}
@@ -2,6 +2,10 @@ package photo_renamer;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -30,6 +34,10 @@ public class PhotoTest {
 	 */
 	@Before
 	public void setUp() throws Exception {
+		//start with an empty rename log, since ids start again at every run
+		RenameLog.getInstance().close();
+		new File(RenameLog.LOG_FILE_NAME).delete();
+		new File(RenameLog.NAMES_FILE_NAME).delete();
 
 		testPhoto1 = new Photo("img.jpg", workingDir);
 		testPhoto2 = new Photo("pic.jpg", workingDir);
@@ -169,4 +177,28 @@ public class PhotoTest {
 		assertEquals(expectedNames[1], testPhoto1.getName());
 	}
 
+	/**
+	 * Tests that the renames of a photo can be read back from the rename log
+	 * @throws IOException
+	 */
+	@Test
+	public void testGetHistory() throws IOException {
+		testPhoto1.addTags(testTagArray1);
+		testPhoto1.deleteAllTags();
+		List<RenameLog.Entry> history = testPhoto1.getHistory();
+		assertEquals(2, history.size());
+		assertEquals("img.jpg", history.get(0).oldName);
+		assertEquals("img@Apple.jpg", history.get(0).newName);
+		assertEquals("img.jpg", history.get(1).newName);
+		assertTrue(testPhoto2.getHistory().isEmpty());
+
+		//a move keeps the name, so it is logged with the directories
+		Photo moved = new Photo("move.jpg", ".\\trip\\");
+		moved.relocate("move.jpg", ".\\home\\");
+		history = moved.getHistory();
+		assertEquals(1, history.size());
+		assertEquals(".\\trip\\move.jpg", history.get(0).oldName);
+		assertEquals(".\\home\\move.jpg", history.get(0).newName);
+	}
+
 }
@@ -0,0 +1,351 @@
+package photo_renamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Finds the photos whose files were renamed or moved outside of the program
+ * and moves them in the library to where their files are now, so they keep
+ * their ids, tags and previous names instead of starting again as new
+ * photos. Each pass over a directory works out the <FileFingerprint> of the
+ * files of the photos there, so a photo whose file is gone by the next pass
+ * can be matched with an image that is not in the library by their
+ * fingerprints. Fingerprints are worked out on a pool of threads and kept
+ * in a file along with the size and modified time of each file, so a file
+ * that has not changed is not read again.
+ *
+ * A photo whose file is gone and not found is an orphan. Orphans are only
+ * reported, and so are images that match no photo, or that match more than
+ * one.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class Reconciler {
+	// the default file the fingerprints are kept in, next to the library file
+	public static final String FINGERPRINTS_FILE_NAME = "photoFingerprints.dat";
+	// "PRFP", marks the file as photo renamer fingerprints
+	static final int MAGIC = 0x50524650;
+
+	private final Manager manager;
+	private final File fingerprintsFile;
+	private final ExecutorService pool;
+	// key: id of a photo, value: the fingerprint of its file when it was last read
+	private final ConcurrentHashMap<Integer, Known> known = new ConcurrentHashMap<Integer, Known>();
+
+	/**
+	 * Open a reconciler with a thread for each core, reading the
+	 * fingerprints kept by earlier passes
+	 *
+	 * @param <Manager> manager : the manager of the photos
+	 * @param <File> fingerprintsFile : the file the fingerprints are kept in
+	 * @throws IOException if the fingerprints file can not be read
+	 */
+	public Reconciler(Manager manager, File fingerprintsFile) throws IOException {
+		this.manager = manager;
+		this.fingerprintsFile = fingerprintsFile;
+		pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "reconciler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (fingerprintsFile.exists()) {
+			readFingerprints();
+		}
+	}
+
+	/**
+	 * Reconcile the library with the images in a directory and every
+	 * directory below it, then save the fingerprints
+	 *
+	 * @param <File> root : the directory
+	 * @return <Report> what was found
+	 * @throws IOException if the directory can not be listed or the
+	 *             fingerprints can not be saved
+	 */
+	public synchronized Report reconcile(File root) throws IOException {
+		final Map<String, List<File>> imagesByDir = new LinkedHashMap<String, List<File>>();
+		Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+				File file = path.toFile();
+				if (attributes.isRegularFile() && ImageTypeChecker.isImage(file)) {
+					String dir = Manager.dirOf(file);
+					List<File> images = imagesByDir.get(dir);
+					if (images == null) {
+						images = new ArrayList<File>();
+						imagesByDir.put(dir, images);
+					}
+					images.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path path, IOException e) {
+				//a file or directory that can not be read is skipped
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		//the photos of the library under the directory, and the images not in it
+		Set<Photo> photos = new LinkedHashSet<Photo>(manager.getPhotosUnder(root.getPath() + "\\"));
+		List<File> untracked = new ArrayList<File>();
+		for (Map.Entry<String, List<File>> entry : imagesByDir.entrySet()) {
+			List<Photo> inDir = manager.getPhotosInDirectory(entry.getKey());
+			photos.addAll(inDir);
+			Set<String> names = new HashSet<String>();
+			for (Photo photo : inDir) {
+				names.add(photo.getName());
+			}
+			for (File image : entry.getValue()) {
+				if (!names.contains(image.getName())) {
+					untracked.add(image);
+				}
+			}
+		}
+		List<Photo> present = new ArrayList<Photo>();
+		List<Photo> missing = new ArrayList<Photo>();
+		for (Photo photo : photos) {
+			(fileOf(photo).isFile() ? present : missing).add(photo);
+		}
+
+		Report report = new Report();
+		//remember the files of the photos that are there, for later passes
+		List<Future<FileFingerprint>> presentPrints = fingerprint(present, report);
+		List<Future<FileFingerprint>> untrackedPrints = new ArrayList<Future<FileFingerprint>>();
+		for (final File image : untracked) {
+			report.read++;
+			untrackedPrints.add(pool.submit(new Callable<FileFingerprint>() {
+				@Override
+				public FileFingerprint call() throws IOException {
+					return FileFingerprint.of(image);
+				}
+			}));
+		}
+		for (int i = 0; i < present.size(); i++) {
+			if (presentPrints.get(i) == null) {
+				continue;
+			}
+			FileFingerprint print = get(presentPrints.get(i));
+			if (print != null) {
+				File file = fileOf(present.get(i));
+				known.put(present.get(i).getId(), new Known(print, file.length(), file.lastModified()));
+			}
+		}
+
+		//match each missing photo with the images that have its fingerprint
+		Map<FileFingerprint, List<Photo>> missingByPrint = new HashMap<FileFingerprint, List<Photo>>();
+		for (Photo photo : missing) {
+			Known last = known.get(photo.getId());
+			if (last == null) {
+				report.orphans.add(photo);
+			} else {
+				add(missingByPrint, last.print, photo);
+			}
+		}
+		Map<FileFingerprint, List<File>> untrackedByPrint = new HashMap<FileFingerprint, List<File>>();
+		for (int i = 0; i < untracked.size(); i++) {
+			FileFingerprint print = get(untrackedPrints.get(i));
+			if (print != null) {
+				add(untrackedByPrint, print, untracked.get(i));
+			} else {
+				report.untracked.add(untracked.get(i));
+			}
+		}
+		for (Map.Entry<FileFingerprint, List<Photo>> entry : missingByPrint.entrySet()) {
+			List<File> images = untrackedByPrint.remove(entry.getKey());
+			//copies of the same file can not be told apart, so they are left alone
+			if (images != null && images.size() == 1 && entry.getValue().size() == 1) {
+				Photo photo = entry.getValue().get(0);
+				File image = images.get(0);
+				if (manager.relocatePhoto(photo.getName(), photo.getDir(), image.getName(), Manager.dirOf(image))) {
+					known.put(photo.getId(), new Known(entry.getKey(), image.length(), image.lastModified()));
+					report.relinked.add(photo);
+					continue;
+				}
+			}
+			report.orphans.addAll(entry.getValue());
+			if (images != null) {
+				report.untracked.addAll(images);
+			}
+		}
+		for (List<File> images : untrackedByPrint.values()) {
+			report.untracked.addAll(images);
+		}
+		saveFingerprints();
+		return report;
+	}
+
+	/**
+	 * Start working out the fingerprints of the files of photos, skipping a
+	 * file whose size and modified time are the same as when it was last
+	 * read
+	 *
+	 * @return <List> of <Future> for each photo, in order, null for a file
+	 *         that is not read again
+	 */
+	private List<Future<FileFingerprint>> fingerprint(List<Photo> photos, Report report) {
+		List<Future<FileFingerprint>> prints = new ArrayList<Future<FileFingerprint>>(photos.size());
+		for (Photo photo : photos) {
+			final File file = fileOf(photo);
+			Known last = known.get(photo.getId());
+			if (last != null && last.length == file.length() && last.modified == file.lastModified()) {
+				prints.add(null);
+			} else {
+				report.read++;
+				prints.add(pool.submit(new Callable<FileFingerprint>() {
+					@Override
+					public FileFingerprint call() throws IOException {
+						return FileFingerprint.of(file);
+					}
+				}));
+			}
+		}
+		return prints;
+	}
+
+	/**
+	 * Get a fingerprint that was worked out on the pool
+	 *
+	 * @return <FileFingerprint> the fingerprint, null if the file could not be read
+	 */
+	private static FileFingerprint get(Future<FileFingerprint> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static <T> void add(Map<FileFingerprint, List<T>> map, FileFingerprint print, T value) {
+		List<T> values = map.get(print);
+		if (values == null) {
+			values = new ArrayList<T>(1);
+			map.put(print, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * Get the file of a photo from its directory, which ends with a separator
+	 */
+	static File fileOf(Photo photo) {
+		String dir = photo.getDir();
+		return new File(dir.substring(0, dir.length() - 1), photo.getName());
+	}
+
+	/**
+	 * Stop the threads of the reconciler
+	 */
+	public void close() {
+		pool.shutdown();
+	}
+
+	private void readFingerprints() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fingerprintsFile)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a photo fingerprints file");
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int id = in.readInt();
+				FileFingerprint print = new FileFingerprint(in.readLong(), in.readLong(), in.readLong());
+				known.put(id, new Known(print, in.readLong(), in.readLong()));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the fingerprints to a temporary file and move it over the old one
+	 *
+	 * @throws IOException
+	 */
+	private void saveFingerprints() throws IOException {
+		File tmp = new File(fingerprintsFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			Map<Integer, Known> snapshot = new HashMap<Integer, Known>(known);
+			out.writeInt(MAGIC);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<Integer, Known> entry : snapshot.entrySet()) {
+				Known last = entry.getValue();
+				out.writeInt(entry.getKey());
+				out.writeLong(last.print.size);
+				out.writeLong(last.print.hash);
+				out.writeLong(last.print.taken);
+				out.writeLong(last.length);
+				out.writeLong(last.modified);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), fingerprintsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * What a pass found
+	 */
+	public static class Report {
+		// the photos moved in the library to the images that had their fingerprints
+		public final List<Photo> relinked = new ArrayList<Photo>();
+		// the photos whose files are gone and were not found
+		public final List<Photo> orphans = new ArrayList<Photo>();
+		// the images that are not in the library and were not matched with a photo
+		public final List<File> untracked = new ArrayList<File>();
+		// the number of files that were read
+		public int read;
+	}
+
+	/**
+	 * The fingerprint of the file of a photo, and the size and modified
+	 * time the file had when it was read
+	 */
+	private static class Known {
+		final FileFingerprint print;
+		final long length;
+		final long modified;
+
+		Known(FileFingerprint print, long length, long modified) {
+			this.print = print;
+			this.length = length;
+			this.modified = modified;
+		}
+	}
+}
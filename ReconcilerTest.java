@@ -0,0 +1,131 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests Reconciler
+ *
+ * @author Ben,Sara
+ */
+public class ReconcilerTest {
+
+	private Manager manager;
+	private File testDir;
+	private File movedDir;
+	private File fingerprints;
+	private Reconciler reconciler;
+
+	/**
+	 * Sets up the tests with a directory and a sub directory for the images
+	 * and no fingerprints yet
+	 */
+	@Before
+	public void setUp() {
+		new File(Journal.JOURNAL_FILE_NAME).delete();
+		manager = new Manager();
+		testDir = new File("reconcile_test_dir");
+		movedDir = new File(testDir, "moved");
+		movedDir.mkdirs();
+		fingerprints = new File("testPhotoFingerprints.dat");
+		fingerprints.delete();
+	}
+
+	/**
+	 * Deletes the directories and files after the tests
+	 */
+	@After
+	public void tearDown() {
+		if (reconciler != null) {
+			reconciler.close();
+		}
+		manager.close();
+		new File(Journal.JOURNAL_FILE_NAME).delete();
+		for (File f : movedDir.listFiles()) {
+			f.delete();
+		}
+		for (File f : testDir.listFiles()) {
+			f.delete();
+		}
+		testDir.delete();
+		fingerprints.delete();
+	}
+
+	private File image(File dir, String name, int seed) throws IOException {
+		File file = new File(dir, name);
+		FileFingerprintTest.write(file, FileFingerprintTest.jpeg("2023:01:0" + (seed % 9 + 1) + " 10:00:00", 500, seed));
+		return file;
+	}
+
+	/**
+	 * Tests that photos whose files were renamed or moved are found again by
+	 * their fingerprints and keep their ids and tags, that copies which can
+	 * not be told apart and deleted files are reported, and that files that
+	 * have not changed are not read again
+	 * @throws IOException
+	 */
+	@Test
+	public void testReconcile() throws IOException {
+		String dir = Manager.dirOf(new File(testDir, "a.jpg"));
+		File a = image(testDir, "a.jpg", 1);
+		manager.setPhotoState("a.jpg", dir, new String[] { "Sun" });
+		assertTrue(a.renameTo(new File(testDir, "a@Sun.jpg")));
+		image(testDir, "b.jpg", 2);
+		image(testDir, "c.jpg", 3);
+		image(testDir, "d.jpg", 4);
+		image(testDir, "e.jpg", 4);
+		Photo photoA = manager.getPhotoInstance("a@Sun.jpg", dir);
+		Photo photoB = manager.getPhotoInstance("b.jpg", dir);
+		Photo photoC = manager.getPhotoInstance("c.jpg", dir);
+		Photo photoD = manager.getPhotoInstance("d.jpg", dir);
+		manager.getPhotoInstance("e.jpg", dir);
+		int idA = photoA.getId();
+
+		reconciler = new Reconciler(manager, fingerprints);
+		Reconciler.Report report = reconciler.reconcile(testDir);
+		assertEquals(5, report.read);
+		assertTrue(report.relinked.isEmpty());
+		assertTrue(report.orphans.isEmpty());
+		assertTrue(report.untracked.isEmpty());
+		assertEquals(0, reconciler.reconcile(testDir).read);
+		reconciler.close();
+
+		//changes made outside of the program
+		assertTrue(new File(testDir, "a@Sun.jpg").renameTo(new File(movedDir, "holiday.jpg")));
+		assertTrue(new File(testDir, "b.jpg").renameTo(new File(testDir, "b2.jpg")));
+		assertTrue(new File(testDir, "c.jpg").delete());
+		assertTrue(new File(testDir, "d.jpg").renameTo(new File(movedDir, "d1.jpg")));
+		assertTrue(new File(testDir, "e.jpg").renameTo(new File(movedDir, "e1.jpg")));
+		File f = image(testDir, "f.jpg", 6);
+
+		//the fingerprints are read back from the file
+		reconciler = new Reconciler(manager, fingerprints);
+		report = reconciler.reconcile(testDir);
+		assertEquals(2, report.relinked.size());
+		assertTrue(report.relinked.contains(photoA));
+		assertTrue(report.relinked.contains(photoB));
+		assertEquals("holiday.jpg", photoA.getName());
+		assertEquals(Manager.dirOf(new File(movedDir, "holiday.jpg")), photoA.getDir());
+		assertEquals(idA, photoA.getId());
+		assertTrue(manager.getTagsfromPhoto("holiday.jpg", photoA.getDir()).contains("Sun"));
+		assertEquals("b2.jpg", photoB.getName());
+
+		assertEquals(3, report.orphans.size());
+		assertTrue(report.orphans.contains(photoC));
+		assertTrue(report.orphans.contains(photoD));
+		assertEquals(3, report.untracked.size());
+		assertTrue(report.untracked.contains(f));
+		assertTrue(report.untracked.contains(new File(movedDir, "d1.jpg")));
+
+		report = reconciler.reconcile(testDir);
+		assertTrue(report.relinked.isEmpty());
+		//only the images that are not photos are read again
+		assertEquals(3, report.read);
+	}
+}
@@ -0,0 +1,388 @@
+package photo_renamer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Renames many photo files at once. The moves are written to a plan file and
+ * synced before any file is touched, then run on a pool of threads with only
+ * a few moves in the same directory at a time, so one busy directory does not
+ * hold up the others. A move that fails is tried again a few times before it
+ * is given up on. The plan is cleared once every move has finished, so a plan
+ * left in the file was cut short by a crash, and recover finishes or undoes
+ * each of its moves.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class RenameExecutor {
+	// the default plan file, kept next to the library file
+	public static final String PLAN_FILE_NAME = "photoRenames.plan";
+	// "PRMV", marks the file as a photo renamer plan
+	static final int MAGIC = 0x50524D56;
+	// the default number of moves run at once in one directory
+	public static final int DEFAULT_PER_DIRECTORY = 2;
+	// the number of times a move is tried before it is given up on
+	static final int ATTEMPTS = 3;
+	// the time waited before trying a move again, doubled each time
+	private static final long RETRY_MILLIS = 20;
+
+	private final FileChannel plan;
+	private final int perDirectory;
+	private final ExecutorService pool;
+
+	private final AtomicLong moved = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong movingNanos = new AtomicLong();
+
+	/**
+	 * Open an executor with a thread for each core and the default number of
+	 * moves at once in each directory
+	 *
+	 * @param <File> planFile : the file the moves are planned in
+	 * @throws IOException if the plan file can not be opened
+	 */
+	public RenameExecutor(File planFile) throws IOException {
+		this(planFile, Runtime.getRuntime().availableProcessors(), DEFAULT_PER_DIRECTORY);
+	}
+
+	/**
+	 * Open an executor
+	 *
+	 * @param <File> planFile : the file the moves are planned in
+	 * @param <int> threads : the most moves run at once
+	 * @param <int> perDirectory : the most moves run at once in one directory
+	 * @throws IOException if the plan file can not be opened
+	 */
+	public RenameExecutor(File planFile, int threads, int perDirectory) throws IOException {
+		plan = FileChannel.open(planFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.perDirectory = Math.max(1, perDirectory);
+		pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "rename-executor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Get the moves of a plan that was cut short, and finish or undo each of
+	 * them. A move is finished if the decider says so and the file has not
+	 * been moved yet, and otherwise undone if the file was already moved. The
+	 * plan is then cleared.
+	 *
+	 * @param <Decider> decider : decides which moves to finish
+	 * @return <List> of <Move> the moves that were in the plan
+	 * @throws IOException if the plan can not be read or cleared
+	 */
+	public synchronized List<Move> recover(Decider decider) throws IOException {
+		List<Move> planned = readPlan();
+		for (Move move : planned) {
+			boolean sourceExists = move.from.exists();
+			boolean targetExists = move.to.exists();
+			try {
+				if (decider.shouldFinish(move)) {
+					if (sourceExists && !targetExists) {
+						Files.move(move.from.toPath(), move.to.toPath());
+					}
+				} else if (targetExists && !sourceExists) {
+					Files.move(move.to.toPath(), move.from.toPath());
+				}
+			} catch (IOException e) {
+				//the photo is left where it is, and found there by the next scan
+				e.printStackTrace();
+			}
+		}
+		clearPlan();
+		return planned;
+	}
+
+	/**
+	 * Plan the moves, then run them and wait for all of them to finish
+	 *
+	 * @param <List> moves : the <Move> of each file, no two to the same file
+	 * @return <boolean[]> true for each move that was made, in the same order
+	 * @throws IOException if the plan could not be written, in which case no
+	 *             file was moved
+	 */
+	public synchronized boolean[] execute(List<Move> moves) throws IOException {
+		final boolean[] done = new boolean[moves.size()];
+		if (moves.isEmpty()) {
+			return done;
+		}
+		writePlan(moves);
+		long start = System.nanoTime();
+
+		//the moves of each directory wait in their own queue
+		Map<File, ConcurrentLinkedQueue<Integer>> byDirectory = new LinkedHashMap<File, ConcurrentLinkedQueue<Integer>>();
+		for (int i = 0; i < moves.size(); i++) {
+			File dir = moves.get(i).from.getAbsoluteFile().getParentFile();
+			ConcurrentLinkedQueue<Integer> queue = byDirectory.get(dir);
+			if (queue == null) {
+				queue = new ConcurrentLinkedQueue<Integer>();
+				byDirectory.put(dir, queue);
+			}
+			queue.add(i);
+		}
+		//a few workers take from each queue, so no directory has more moves at once
+		final List<Move> toRun = moves;
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (final ConcurrentLinkedQueue<Integer> queue : byDirectory.values()) {
+			int directoryWorkers = Math.min(perDirectory, queue.size());
+			for (int w = 0; w < directoryWorkers; w++) {
+				workers.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						Integer index;
+						while ((index = queue.poll()) != null) {
+							done[index] = move(toRun.get(index));
+						}
+					}
+				}));
+			}
+		}
+		for (Future<?> worker : workers) {
+			try {
+				worker.get();
+			} catch (InterruptedException e) {
+				//the plan is kept, so the moves are sorted out on the next start
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while renaming photos", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Could not rename photos", e.getCause());
+			}
+		}
+		movingNanos.addAndGet(System.nanoTime() - start);
+		batches.incrementAndGet();
+		clearPlan();
+		return done;
+	}
+
+	/**
+	 * Get the counts of the moves made so far
+	 *
+	 * @return <Stats> the counts
+	 */
+	public Stats getStats() {
+		return new Stats(moved.get(), failed.get(), retried.get(), batches.get(), movingNanos.get());
+	}
+
+	/**
+	 * Stop the threads. A plan still in the file is kept for recover.
+	 */
+	public void close() {
+		pool.shutdown();
+		try {
+			plan.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Move one file, trying again if the move fails for a reason that might
+	 * pass. A file already at the target, or a source that is gone, will not
+	 * change by waiting, so those are not tried again.
+	 *
+	 * @return <boolean> true if the file was moved
+	 */
+	private boolean move(Move move) {
+		long wait = RETRY_MILLIS;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				Files.move(move.from.toPath(), move.to.toPath());
+				moved.incrementAndGet();
+				return true;
+			} catch (FileAlreadyExistsException e) {
+				break;
+			} catch (NoSuchFileException e) {
+				break;
+			} catch (IOException e) {
+				if (attempt == ATTEMPTS) {
+					break;
+				}
+			}
+			retried.incrementAndGet();
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			wait *= 2;
+		}
+		failed.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Write the moves to the plan file and sync it
+	 */
+	void writePlan(List<Move> moves) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		LibraryStore.writeVarint(out, moves.size());
+		for (Move move : moves) {
+			writeString(out, move.from.getPath());
+			writeString(out, move.to.getPath());
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray(), 0, bytes.size());
+		out.writeInt((int) crc.getValue());
+
+		plan.truncate(0);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		while (buffer.hasRemaining()) {
+			plan.write(buffer, buffer.position());
+		}
+		plan.force(false);
+	}
+
+	/**
+	 * Read the moves in the plan file
+	 *
+	 * @return <List> of <Move> the planned moves, empty if there is no plan or
+	 *         it was not fully written, in which case no file was moved
+	 */
+	private List<Move> readPlan() throws IOException {
+		List<Move> moves = new ArrayList<Move>();
+		long size = plan.size();
+		if (size < 8) {
+			return moves;
+		}
+		ByteBuffer contents = ByteBuffer.allocate((int) size);
+		while (contents.hasRemaining()) {
+			if (plan.read(contents, contents.position()) < 0) {
+				return moves;
+			}
+		}
+		byte[] bytes = contents.array();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		if (ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt() != (int) crc.getValue()) {
+			return moves;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+		try {
+			if (in.readInt() != MAGIC) {
+				return moves;
+			}
+			int count = LibraryStore.readVarint(in);
+			for (int i = 0; i < count; i++) {
+				moves.add(new Move(new File(readString(in)), new File(readString(in))));
+			}
+		} catch (EOFException e) {
+			moves.clear();
+		}
+		return moves;
+	}
+
+	private void clearPlan() throws IOException {
+		plan.truncate(0);
+		plan.force(false);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		LibraryStore.writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[LibraryStore.readVarint(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * One file to move
+	 */
+	public static class Move {
+		public final File from;
+		public final File to;
+
+		/**
+		 * @param <File> from : the file as it is
+		 * @param <File> to : the file it is moved to
+		 */
+		public Move(File from, File to) {
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * Decides what to do with the moves of a plan that was cut short
+	 */
+	public interface Decider {
+		/**
+		 * @param <Move> move : a planned move
+		 * @return <boolean> true to finish the move, false to undo it
+		 */
+		boolean shouldFinish(Move move);
+	}
+
+	/**
+	 * The counts of the moves an executor has made
+	 */
+	public static class Stats {
+		public final long moved;
+		public final long failed;
+		public final long retried;
+		public final long batches;
+		public final long movingNanos;
+
+		Stats(long moved, long failed, long retried, long batches, long movingNanos) {
+			this.moved = moved;
+			this.failed = failed;
+			this.retried = retried;
+			this.batches = batches;
+			this.movingNanos = movingNanos;
+		}
+
+		/**
+		 * Get the number of files moved for each second spent moving
+		 *
+		 * @return <double> the moves a second, 0 before anything is moved
+		 */
+		public double getMovesPerSecond() {
+			return movingNanos == 0 ? 0 : moved * 1e9 / movingNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "Moved: " + moved + ", Failed: " + failed + ", Retried: " + retried + ", Batches: " + batches
+					+ ", Moves a second: " + Math.round(getMovesPerSecond());
+		}
+	}
+}
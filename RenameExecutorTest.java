@@ -0,0 +1,133 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests RenameExecutor
+ *
+ * @author Ben,Sara
+ */
+public class RenameExecutorTest {
+
+	private File testDir;
+	private File planFile;
+	private RenameExecutor executor;
+
+	/**
+	 * Sets up the tests with two directories and an executor that runs one
+	 * move at a time in each directory
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		testDir = new File("executor_test_dir");
+		new File(testDir, "a").mkdirs();
+		new File(testDir, "b").mkdirs();
+		planFile = new File("testPhotoRenames.plan");
+		planFile.delete();
+		executor = new RenameExecutor(planFile, 4, 1);
+	}
+
+	/**
+	 * Closes the executor and deletes the directories and plan
+	 */
+	@After
+	public void tearDown() {
+		executor.close();
+		delete(testDir);
+		planFile.delete();
+	}
+
+	private static void delete(File f) {
+		if (f.isDirectory()) {
+			for (File c : f.listFiles()) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	private File photo(String dir, String name) throws IOException {
+		File file = new File(new File(testDir, dir), name);
+		file.createNewFile();
+		return file;
+	}
+
+	/**
+	 * Tests that the moves in every directory are made, that a move onto a
+	 * file that exists fails without being tried again, and that the plan is
+	 * cleared afterwards
+	 * @throws IOException
+	 */
+	@Test
+	public void testExecute() throws IOException {
+		List<RenameExecutor.Move> moves = new ArrayList<RenameExecutor.Move>();
+		for (int i = 0; i < 20; i++) {
+			String dir = i % 2 == 0 ? "a" : "b";
+			File from = photo(dir, "shoot" + i + ".jpg");
+			moves.add(new RenameExecutor.Move(from, new File(from.getParentFile(), "shoot" + i + "@Party.jpg")));
+		}
+		File taken = photo("a", "taken.jpg");
+		moves.add(new RenameExecutor.Move(photo("a", "other.jpg"), taken));
+
+		boolean[] done = executor.execute(moves);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(done[i]);
+			assertTrue(moves.get(i).to.exists());
+			assertFalse(moves.get(i).from.exists());
+		}
+		assertFalse(done[20]);
+		assertTrue(moves.get(20).from.exists());
+
+		RenameExecutor.Stats stats = executor.getStats();
+		assertEquals(20, stats.moved);
+		assertEquals(1, stats.failed);
+		assertEquals(0, stats.retried);
+		assertEquals(1, stats.batches);
+		assertEquals(0, planFile.length());
+	}
+
+	/**
+	 * Tests that the moves of a plan that was cut short are finished or
+	 * undone as the decider says
+	 * @throws IOException
+	 */
+	@Test
+	public void testRecover() throws IOException {
+		File sun = photo("a", "sun.jpg");
+		File sea = photo("b", "sea.jpg");
+		File sand = photo("b", "sand.jpg");
+		final RenameExecutor.Move finish = new RenameExecutor.Move(sun, new File(sun.getParentFile(), "sun@Hot.jpg"));
+		RenameExecutor.Move undo = new RenameExecutor.Move(sea, new File(sea.getParentFile(), "sea@Wet.jpg"));
+		RenameExecutor.Move undoNotMade = new RenameExecutor.Move(sand, new File(sand.getParentFile(), "sand@Dry.jpg"));
+		executor.writePlan(Arrays.asList(finish, undo, undoNotMade));
+		//the program stopped after only the second move was made
+		assertTrue(sea.renameTo(undo.to));
+		executor.close();
+
+		executor = new RenameExecutor(planFile, 4, 1);
+		List<RenameExecutor.Move> planned = executor.recover(new RenameExecutor.Decider() {
+			@Override
+			public boolean shouldFinish(RenameExecutor.Move move) {
+				return move.from.equals(finish.from);
+			}
+		});
+		assertEquals(3, planned.size());
+		assertTrue(finish.to.exists());
+		assertFalse(sun.exists());
+		assertTrue(sea.exists());
+		assertFalse(undo.to.exists());
+		assertTrue(sand.exists());
+		assertTrue(executor.recover(null).isEmpty());
+	}
+}
@@ -0,0 +1,535 @@
+package photo_renamer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * One log of every photo rename, shared by all photos. Renames are put in a
+ * fixed size ring and a background thread writes everything in the ring at
+ * once, so renaming a photo never waits for the disk unless the ring is full.
+ *
+ * Each rename is a fixed size record of its time, photo id and where its old
+ * and new names are in a second file of names. Since every record is the same
+ * size any page of the log can be read straight from its position, and since
+ * renames are written in time order the first rename after a time is found
+ * by a binary search. The records of each photo are remembered by its id, so
+ * the history of one photo is read without reading the whole log.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class RenameLog {
+	// the default files for the log, kept next to the library file
+	public static final String LOG_FILE_NAME = "photoRenames.dat";
+	public static final String NAMES_FILE_NAME = "photoRenames.names";
+	// the number of renames that can wait to be written
+	static final int DEFAULT_CAPACITY = 4096;
+	// time, photo id, old name offset and new name offset
+	static final int RECORD_BYTES = 28;
+
+	private static RenameLog instance;
+
+	private final FileChannel records;
+	private final FileChannel names;
+	// renames waiting to be written, from head up to but not including tail
+	private final Entry[] ring;
+	private long head;
+	private long tail;
+	// the renames taken from the ring and written, or failed to be written
+	private long handled;
+	// the number of renames in the file, and the length of the names file
+	private long recordCount;
+	private long namesLength;
+	// the time of the last rename, so times never go backwards
+	private long lastTime;
+	private boolean recording = true;
+	private boolean closed;
+	// the record numbers of the renames of each photo, by photo id
+	private final HashMap<Integer, List<Integer>> photoIndex = new HashMap<Integer, List<Integer>>();
+	private final Thread writer;
+	// the renames a thread is holding back between startBatch and finishBatch
+	private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+	/**
+	 * Get the log all photos write to, opening it the first time
+	 *
+	 * @return <RenameLog> the shared log
+	 */
+	public static synchronized RenameLog getInstance() {
+		if (instance == null) {
+			try {
+				instance = new RenameLog(new File(LOG_FILE_NAME), new File(NAMES_FILE_NAME), DEFAULT_CAPACITY);
+			} catch (IOException e) {
+				throw new IllegalStateException("Can not open the rename log", e);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Open a log, reading the photo ids of the renames already in it into the
+	 * index
+	 *
+	 * @param <File> recordFile : the file of rename records
+	 * @param <File> nameFile : the file of names the records refer to
+	 * @param <int> capacity : the number of renames that can wait to be written
+	 * @throws IOException if the log can not be opened
+	 */
+	public RenameLog(File recordFile, File nameFile, int capacity) throws IOException {
+		records = FileChannel.open(recordFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		names = FileChannel.open(nameFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		ring = new Entry[capacity];
+		readIndex();
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "rename-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Add a rename to the log. Only waits if the ring is full, and is held
+	 * back if this thread has started a batch.
+	 *
+	 * @param <int> photoId : the id of the renamed photo
+	 * @param <String> oldName : the name the photo had
+	 * @param <String> newName : the new name of the photo
+	 */
+	public void append(int photoId, String oldName, String newName) {
+		Batch batch = batches.get();
+		if (batch != null) {
+			//timed when the batch is added
+			batch.held.add(new Entry(0, photoId, oldName, newName));
+			return;
+		}
+		appendNow(photoId, oldName, newName);
+	}
+
+	private synchronized void appendNow(int photoId, String oldName, String newName) {
+		while (tail - head == ring.length && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (closed || !recording) {
+			return;
+		}
+		lastTime = Math.max(lastTime, System.currentTimeMillis());
+		ring[(int) (tail % ring.length)] = new Entry(lastTime, photoId, oldName, newName);
+		tail++;
+		notifyAll();
+	}
+
+	/**
+	 * Hold back the renames this thread adds until finishBatch, so a batch of
+	 * renames is put in the ring together. A batch started inside another
+	 * one is part of it, and its renames wait for the outer batch.
+	 */
+	public void startBatch() {
+		Batch batch = batches.get();
+		if (batch == null) {
+			batch = new Batch();
+			batches.set(batch);
+		}
+		batch.depth++;
+	}
+
+	/**
+	 * Add the renames held back since startBatch, in the order they were
+	 * made, once the outermost batch finishes
+	 */
+	public void finishBatch() {
+		Batch batch = batches.get();
+		if (batch == null || --batch.depth > 0) {
+			return;
+		}
+		batches.remove();
+		if (!batch.held.isEmpty()) {
+			appendAll(batch.held);
+		}
+	}
+
+	private synchronized void appendAll(List<Entry> held) {
+		for (Entry entry : held) {
+			while (tail - head == ring.length && !closed) {
+				//the writer may still be waiting to hear about the renames added so far
+				notifyAll();
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (closed || !recording) {
+				return;
+			}
+			lastTime = Math.max(lastTime, System.currentTimeMillis());
+			ring[(int) (tail % ring.length)] = new Entry(lastTime, entry.photoId, entry.oldName, entry.newName);
+			tail++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Turn recording renames off while changes that were already logged are
+	 * made again, and back on afterwards
+	 *
+	 * @param <boolean> recording : true to log renames
+	 */
+	public synchronized void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	/**
+	 * Wait until every rename added so far is in the file
+	 */
+	public synchronized void flush() {
+		long target = tail;
+		while (handled < target && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of renames in the log, including any still waiting
+	 *
+	 * @return <long> the number of renames
+	 */
+	public long getCount() {
+		flush();
+		synchronized (this) {
+			return recordCount;
+		}
+	}
+
+	/**
+	 * Get a page of renames in the order they happened
+	 *
+	 * @param <long> first : the number of the first rename, from 0
+	 * @param <int> count : the most renames to get
+	 * @return <List> of <Entry> renames, fewer than count at the end of the log
+	 * @throws IOException if the log can not be read
+	 */
+	public List<Entry> getPage(long first, int count) throws IOException {
+		long end = Math.min(getCount(), first + count);
+		if (first < 0 || first >= end) {
+			return Collections.emptyList();
+		}
+		ByteBuffer page = ByteBuffer.allocate((int) (end - first) * RECORD_BYTES);
+		readFully(records, page, first * RECORD_BYTES);
+		page.flip();
+		List<Entry> entries = new ArrayList<Entry>(page.remaining() / RECORD_BYTES);
+		while (page.hasRemaining()) {
+			entries.add(readEntry(page));
+		}
+		return entries;
+	}
+
+	/**
+	 * Find the first rename made at or after a time
+	 *
+	 * @param <long> time : the time in milliseconds
+	 * @return <long> the number of the rename, the number of renames if
+	 *         every rename was made before the time
+	 * @throws IOException if the log can not be read
+	 */
+	public long findTime(long time) throws IOException {
+		long low = 0;
+		long high = getCount();
+		ByteBuffer recordTime = ByteBuffer.allocate(8);
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			recordTime.clear();
+			readFully(records, recordTime, mid * RECORD_BYTES);
+			if (recordTime.getLong(0) < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Get every rename of a photo, oldest first
+	 *
+	 * @param <int> photoId : the id of the photo
+	 * @return <List> of <Entry> renames of the photo
+	 * @throws IOException if the log can not be read
+	 */
+	public List<Entry> getHistory(int photoId) throws IOException {
+		flush();
+		List<Integer> recordNumbers;
+		synchronized (this) {
+			List<Integer> photoRecords = photoIndex.get(photoId);
+			if (photoRecords == null) {
+				return Collections.emptyList();
+			}
+			recordNumbers = new ArrayList<Integer>(photoRecords);
+		}
+		List<Entry> history = new ArrayList<Entry>(recordNumbers.size());
+		ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+		for (int recordNumber : recordNumbers) {
+			record.clear();
+			readFully(records, record, (long) recordNumber * RECORD_BYTES);
+			record.flip();
+			history.add(readEntry(record));
+		}
+		return history;
+	}
+
+	/**
+	 * Write the waiting renames and close the log
+	 */
+	public void close() {
+		flush();
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join(1000);
+			records.close();
+			names.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (RenameLog.class) {
+			if (instance == this) {
+				instance = null;
+			}
+		}
+	}
+
+	/**
+	 * Write everything in the ring each time there is something in it. The
+	 * names are written before the records that refer to them.
+	 */
+	private void writeLoop() {
+		while (true) {
+			Entry[] batch;
+			long nameStart;
+			long recordStart;
+			synchronized (this) {
+				while (head == tail && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (head == tail) {
+					return;
+				}
+				batch = new Entry[(int) (tail - head)];
+				for (int i = 0; i < batch.length; i++) {
+					int slot = (int) ((head + i) % ring.length);
+					batch[i] = ring[slot];
+					ring[slot] = null;
+				}
+				//the slots are free again once the entries are copied out
+				head = tail;
+				nameStart = namesLength;
+				recordStart = recordCount;
+				notifyAll();
+			}
+
+			ByteArrayOutputStream nameBytes = new ByteArrayOutputStream();
+			DataOutputStream nameOut = new DataOutputStream(nameBytes);
+			ByteBuffer recordBytes = ByteBuffer.allocate(batch.length * RECORD_BYTES);
+			boolean ok = true;
+			try {
+				for (Entry entry : batch) {
+					recordBytes.putLong(entry.time);
+					recordBytes.putInt(entry.photoId);
+					recordBytes.putLong(nameStart + nameOut.size());
+					writeName(nameOut, entry.oldName);
+					recordBytes.putLong(nameStart + nameOut.size());
+					writeName(nameOut, entry.newName);
+				}
+				recordBytes.flip();
+				writeFully(names, ByteBuffer.wrap(nameBytes.toByteArray()), nameStart);
+				writeFully(records, recordBytes, recordStart * RECORD_BYTES);
+			} catch (IOException e) {
+				e.printStackTrace();
+				ok = false;
+			}
+			synchronized (this) {
+				if (ok) {
+					for (int i = 0; i < batch.length; i++) {
+						addToIndex(batch[i].photoId, (int) (recordStart + i));
+					}
+					namesLength = nameStart + nameOut.size();
+					recordCount = recordStart + batch.length;
+				}
+				//a batch that failed is dropped, so nothing waits for it forever
+				handled += batch.length;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Read the photo ids of the records already in the file into the index,
+	 * dropping a record at the end that was only partly written
+	 *
+	 * @throws IOException
+	 */
+	private void readIndex() throws IOException {
+		namesLength = names.size();
+		long count = records.size() / RECORD_BYTES;
+		//a record is only kept if the names it refers to were written
+		ByteBuffer last = ByteBuffer.allocate(RECORD_BYTES);
+		while (count > 0) {
+			last.clear();
+			readFully(records, last, (count - 1) * RECORD_BYTES);
+			if (last.getLong(20) < namesLength) {
+				lastTime = last.getLong(0);
+				break;
+			}
+			count--;
+		}
+		records.truncate(count * RECORD_BYTES);
+
+		ByteBuffer chunk = ByteBuffer.allocate(RECORD_BYTES * 2048);
+		for (long start = 0; start < count; start += 2048) {
+			int chunkRecords = (int) Math.min(2048, count - start);
+			chunk.clear();
+			chunk.limit(chunkRecords * RECORD_BYTES);
+			readFully(records, chunk, start * RECORD_BYTES);
+			for (int i = 0; i < chunkRecords; i++) {
+				addToIndex(chunk.getInt(i * RECORD_BYTES + 8), (int) (start + i));
+			}
+		}
+		recordCount = count;
+	}
+
+	private void addToIndex(int photoId, int recordNumber) {
+		List<Integer> recordNumbers = photoIndex.get(photoId);
+		if (recordNumbers == null) {
+			recordNumbers = new ArrayList<Integer>(2);
+			photoIndex.put(photoId, recordNumbers);
+		}
+		recordNumbers.add(recordNumber);
+	}
+
+	/**
+	 * Read a record and the names it refers to
+	 */
+	private Entry readEntry(ByteBuffer record) throws IOException {
+		long time = record.getLong();
+		int photoId = record.getInt();
+		String oldName = readName(record.getLong());
+		String newName = readName(record.getLong());
+		return new Entry(time, photoId, oldName, newName);
+	}
+
+	private static void writeName(DataOutputStream out, String name) throws IOException {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		LibraryStore.writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a name written by writeName from the names file
+	 */
+	private String readName(long offset) throws IOException {
+		ByteBuffer start = ByteBuffer.allocate(128);
+		names.read(start, offset);
+		start.flip();
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (!start.hasRemaining() || shift > 28) {
+				throw new IOException("Damaged rename log");
+			}
+			b = start.get();
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		ByteBuffer name = ByteBuffer.allocate(length);
+		readFully(names, name, offset + start.position());
+		return new String(name.array(), StandardCharsets.UTF_8);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Damaged rename log");
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	/**
+	 * The renames a thread is holding back, and how many batches it has
+	 * started and not finished
+	 */
+	private static class Batch {
+		final List<Entry> held = new ArrayList<Entry>();
+		int depth;
+	}
+
+	/**
+	 * One rename of a photo
+	 */
+	public static class Entry {
+		static final String DATE_FORMAT = "yyyy/MM/dd HH:mm.ss";
+
+		public final long time;
+		public final int photoId;
+		public final String oldName;
+		public final String newName;
+
+		Entry(long time, int photoId, String oldName, String newName) {
+			this.time = time;
+			this.photoId = photoId;
+			this.oldName = oldName;
+			this.newName = newName;
+		}
+
+		/**
+		 * Show the rename the way the log has always shown it
+		 */
+		@Override
+		public String toString() {
+			return "Previous name:" + oldName + ", New Name: " + newName + ", Date: "
+					+ new SimpleDateFormat(DATE_FORMAT).format(new Date(time));
+		}
+	}
+}
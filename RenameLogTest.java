@@ -0,0 +1,159 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests RenameLog
+ *
+ * @author Ben,Sara
+ */
+public class RenameLogTest {
+
+	File logFile;
+	File namesFile;
+	RenameLog log;
+
+	/**
+	 * Sets up the tests with an empty log that has room for only a few
+	 * waiting renames
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		logFile = new File("testPhotoRenames.dat");
+		namesFile = new File("testPhotoRenames.names");
+		logFile.delete();
+		namesFile.delete();
+		log = new RenameLog(logFile, namesFile, 4);
+	}
+
+	/**
+	 * Closes and deletes the log after the tests
+	 */
+	@After
+	public void tearDown() {
+		log.close();
+		logFile.delete();
+		namesFile.delete();
+	}
+
+	/**
+	 * Tests that the history of each photo is its own renames in order, even
+	 * when there are more renames than room in the ring
+	 * @throws IOException
+	 */
+	@Test
+	public void testHistory() throws IOException {
+		for (int i = 0; i < 50; i++) {
+			log.append(i % 2, "name" + i + ".jpg", "name" + (i + 1) + ".jpg");
+		}
+		List<RenameLog.Entry> history = log.getHistory(1);
+		assertEquals(25, history.size());
+		for (int i = 0; i < history.size(); i++) {
+			assertEquals(1, history.get(i).photoId);
+			assertEquals("name" + (2 * i + 1) + ".jpg", history.get(i).oldName);
+			assertEquals("name" + (2 * i + 2) + ".jpg", history.get(i).newName);
+		}
+		assertTrue(log.getHistory(7).isEmpty());
+	}
+
+	/**
+	 * Tests that the renames in a log are found again after it is reopened
+	 * @throws IOException
+	 */
+	@Test
+	public void testReopen() throws IOException {
+		log.append(3, "beach.jpg", "beach@Sun.jpg");
+		log.append(4, "dune.jpg", "dune@Sand.jpg");
+		log.close();
+		log = new RenameLog(logFile, namesFile, 4);
+		log.append(3, "beach@Sun.jpg", "beach@Sun@Sea.jpg");
+
+		List<RenameLog.Entry> history = log.getHistory(3);
+		assertEquals(2, history.size());
+		assertEquals("beach.jpg", history.get(0).oldName);
+		assertEquals("beach@Sun@Sea.jpg", history.get(1).newName);
+		assertTrue(history.get(0).toString().startsWith("Previous name:beach.jpg, New Name: beach@Sun.jpg"));
+	}
+
+	/**
+	 * Tests that a page of the log is the renames at that position, and that
+	 * a page past the end of the log is empty
+	 * @throws IOException
+	 */
+	@Test
+	public void testPage() throws IOException {
+		for (int i = 0; i < 30; i++) {
+			log.append(i, "name" + i + ".jpg", "name" + i + "@Tag.jpg");
+		}
+		assertEquals(30, log.getCount());
+		List<RenameLog.Entry> page = log.getPage(10, 5);
+		assertEquals(5, page.size());
+		for (int i = 0; i < page.size(); i++) {
+			assertEquals(10 + i, page.get(i).photoId);
+			assertEquals("name" + (10 + i) + ".jpg", page.get(i).oldName);
+			assertEquals("name" + (10 + i) + "@Tag.jpg", page.get(i).newName);
+		}
+		assertEquals(2, log.getPage(28, 5).size());
+		assertTrue(log.getPage(30, 5).isEmpty());
+	}
+
+	/**
+	 * Tests that the first rename at or after a time is found
+	 * @throws IOException
+	 */
+	@Test
+	public void testFindTime() throws IOException {
+		log.append(1, "a.jpg", "a@One.jpg");
+		long middle = log.getPage(0, 1).get(0).time + 1;
+		while (System.currentTimeMillis() < middle) {
+			Thread.yield();
+		}
+		log.append(2, "b.jpg", "b@Two.jpg");
+		log.append(3, "c.jpg", "c@Three.jpg");
+
+		assertEquals(0, log.findTime(0));
+		assertEquals(1, log.findTime(middle));
+		assertEquals(3, log.findTime(Long.MAX_VALUE));
+	}
+
+	/**
+	 * Tests that renames held back in a batch are added in order when the
+	 * batch finishes, even when there are more of them than room in the ring
+	 * @throws IOException
+	 */
+	@Test
+	public void testBatch() throws IOException {
+		log.append(1, "a.jpg", "a@One.jpg");
+		log.startBatch();
+		for (int i = 0; i < 10; i++) {
+			//a batch inside the batch waits for the outer one
+			if (i == 5) {
+				log.startBatch();
+			}
+			log.append(2, "b" + i + ".jpg", "b" + (i + 1) + ".jpg");
+		}
+		log.finishBatch();
+		log.flush();
+		assertEquals(1, log.getCount());
+		log.finishBatch();
+		log.append(3, "c.jpg", "c@Three.jpg");
+		log.flush();
+
+		assertEquals(12, log.getCount());
+		List<RenameLog.Entry> history = log.getHistory(2);
+		assertEquals(10, history.size());
+		for (int i = 0; i < history.size(); i++) {
+			assertEquals("b" + i + ".jpg", history.get(i).oldName);
+		}
+		assertEquals("c.jpg", log.getPage(11, 1).get(0).oldName);
+	}
+}
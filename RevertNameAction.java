@@ -2,14 +2,16 @@ package photo_renamer;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
 /**
  * Creates the action to revert a photo to a previous name. Inherits all methods
- * from Action interface, and observes Manager.  
+ * from Action interface, and listens to the renames sent by Manager, so its
+ * options change only when its working photo is renamed.
  * 
  * @author Ben,Sara
  *
@@ -28,7 +30,18 @@ public class RevertNameAction implements Observer, Action {
 	 * @param manager <Manger> the instance of manager
 	 */
 	public RevertNameAction(Manager manager) {
-
+		manager.getEvents().subscribe(LibraryEvent.PhotoRenamed.class,
+				new EventBus.Listener<LibraryEvent.PhotoRenamed>() {
+					@Override
+					public void onEvents(List<LibraryEvent.PhotoRenamed> renames) {
+						for (LibraryEvent.PhotoRenamed rename : renames) {
+							if (rename.photo == workingPhoto) {
+								reset(workingPhoto);
+								return;
+							}
+						}
+					}
+				});
 	}
 	
 	/**
@@ -96,10 +109,10 @@ public class RevertNameAction implements Observer, Action {
 	}
 
 	/**
-	 * Automatically updates when changes have been made to this
-	 * list of available tags or a photo has changed names. This ensures
-	 * that RevertNameAction will maintain the most current version
-	 * it's working photo's names
+	 * Updates when changes have been made to this list of available tags or
+	 * a photo has changed names, for when the action is added as an observer
+	 * of the manager. The action already follows the renames of its working
+	 * photo, so this is only needed by older code.
 	 * 
 	 * @param
 	 * 		<Manager> manager
@@ -133,15 +146,14 @@ public class RevertNameAction implements Observer, Action {
 			//renames the photo based on the tags in the old file name
 			if (fileName.equals(currFileName) && (dir).equals(currDir)) { //makes sure current file is workingFile
 				selectedName = ImageTypeChecker.removeExtension(selectedName);
-				String[] nameSplit = selectedName.split("@"); // gets tags from
-																// old file Name
-				String[] tags = Arrays.copyOfRange(nameSplit, 1, nameSplit.length);
+				String[] tags = PhotoNames.tags(selectedName); // gets tags from old file Name
 
-				manager.setPhotoState(fileName, dir, tags);
-				File newFile = new File(currDir + workingPhoto.getName());
+				//the photo keeps its name if its file can not be renamed
+				Manager.Outcome outcome = manager.renamePhotos(
+						Collections.singletonList(new Manager.PhotoState(fileName, dir, tags))).get(0);
 
-				if (file.renameTo(newFile)) {
-					return newFile;
+				if (!outcome.failed) {
+					return new File(currDir + outcome.newName);
 				}
 			}
 		}
@@ -25,6 +25,8 @@ public class RevertNameActionTest {
 
 	@After
 	public void tearDown() throws Exception {
+		manager.close(); // deletes the journal so changes are not replayed
+		new File(Journal.JOURNAL_FILE_NAME).delete(); // in other tests
 		manager = null;
 		revertNameActionTest = null;
 		testPhoto = null;
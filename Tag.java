@@ -1,26 +1,37 @@
 package photo_renamer;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Observable;
-import java.util.Observer;
 
 /**
  * Creates tag instances so all tags the user wants to be adding to photos 
- * will have a name and know what photos they are currently tagged in. This class
- * observes photo so that its collection of photos that the tag is saved in is
- * automatically updated when the photos name is changed.
+ * will have a name and know what photos they are currently tagged in. A photo
+ * adds itself to and removes itself from its tags as it is tagged, so the
+ * collection of photos that the tag is saved in is always up to date.
  * 
  * @author Ben,Sara
  *
  */
-public class Tag implements Serializable, Observer {
+public class Tag implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private String name;
-	//map of all the photos that contain this tag with key as id of photo, 
-	//and value as the photo object it corresponds to
-	private HashMap<Integer, Photo> photosWithTag;
+	//the <TagNames> ordinal of the name, which photos keep instead of the name
+	private transient int ordinal;
+	//all the photos that contain this tag, found by the id of the photo
+	private transient PhotoIdMap photosWithTag;
+	//the ids of the photos with this tag, for tag queries, made again from
+	//photosWithTag when it is needed after loading
+	private transient PhotoIdSet photoIds;
+	//the fields of older versions, so old serialized libraries can still be read
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("name", String.class),
+			new ObjectStreamField("photosWithTag", HashMap.class) };
 	
 	/**
 	 * Create a tag which has a name, and a set of all the photos that it is tagged
@@ -30,18 +41,70 @@ public class Tag implements Serializable, Observer {
 	 */
 	public Tag(String name) {
 		this.name = name;
-		this.photosWithTag = new HashMap<Integer, Photo>();
+		this.ordinal = TagNames.intern(name);
+		this.photosWithTag = new PhotoIdMap();
 	}
 	
 	/**
-	 * Get the full <Map> of photos that contain this <Tag>
+	 * Get the photos that contain this <Tag>, as they are now, since photos
+	 * may be tagged on other threads
 	 * 
-	 * @return the <Map> of <Photo> objects mapped to this <Tag>
+	 * @return the <Collection> of <Photo> objects mapped to this <Tag>
 	 */
-	public Collection<Photo> getPhotosWithTag() {
-		return photosWithTag.values();
+	public synchronized Collection<Photo> getPhotosWithTag() {
+		return new ArrayList<Photo>(photosWithTag.values());
 		}
 		
+	/**
+	 * Add a photo to the photos with this tag, used when a library is loaded
+	 * 
+	 * @param <Photo> photo : a photo tagged with this tag
+	 */
+	synchronized void addPhoto(Photo photo) {
+		photosWithTag.put(photo);
+		if (photoIds != null) {
+			photoIds.add(photo.getId());
+		}
+	}
+
+	/**
+	 * Get the ids of the photos that contain this <Tag>. The set is kept up
+	 * to date by the tag, so it must not be changed, and it is only read
+	 * while no photo is being tagged.
+	 * 
+	 * @return the <PhotoIdSet> of ids of photos with this <Tag>
+	 */
+	public synchronized PhotoIdSet getPhotoIds() {
+		if (photoIds == null) {
+			photoIds = new PhotoIdSet();
+			for (Photo photo : photosWithTag.values()) {
+				photoIds.add(photo.getId());
+			}
+		}
+		return photoIds;
+	}
+	
+	/**
+	 * Get the ids of the photos with this <Tag> that are not in a set, in
+	 * order, as they are now
+	 * 
+	 * @param <PhotoIdSet> excluded : the ids to leave out
+	 * @return <int[]> the ids of the photos
+	 */
+	synchronized int[] getPhotoIds(PhotoIdSet excluded) {
+		return PhotoIdSet.andNot(getPhotoIds(), excluded).toArray();
+	}
+	
+	/**
+	 * Get a photo with this <Tag> by its id
+	 * 
+	 * @param <int> id : the id of the photo
+	 * @return <Photo> the photo, null if it does not have this tag
+	 */
+	synchronized Photo getPhotoWithTag(int id) {
+		return photosWithTag.get(id);
+	}
+	
 	/**
 	 * Get the name of this tag
 	 * 
@@ -52,23 +115,51 @@ public class Tag implements Serializable, Observer {
 	}
 	
 	/**
-	 * Receive any changes from the photo's that this tag is observing and update
-	 * the tag instance to either remove the photo from its set of photos it is contained
-	 * in, or add it, depending on if it has been deleted or added to a photo. 
+	 * Get the <TagNames> ordinal of the name of this tag
+	 * 
+	 * @return the <int> ordinal
+	 */
+	int getOrdinal() {
+		return ordinal;
+	}
+	
+	/**
+	 * Take a photo out of the photos with this tag, when the tag is removed
+	 * from it
+	 * 
+	 * @param <Photo> photo : a photo no longer tagged with this tag
 	 */
-	@Override
-	public void update(Observable observedPhoto, Object arg) {
-		Photo photo = (Photo) observedPhoto;
-		//if the name of the tag is in the list of tags then it is being kept or added
-		//so add it to the photos that contain this tag
-		if (photo.getTags().contains(this.name)){
-			photosWithTag.put(photo.getId(), photo);
+	synchronized void removePhoto(Photo photo) {
+		photosWithTag.remove(photo.getId());
+		if (photoIds != null) {
+			photoIds.remove(photo.getId());
 		}
-		//otherwise it has been deleted from this photo so you remove the photo instance
-		//from the photos that contain this tag
-		else{
-			photosWithTag.remove(photo.getId());
+	}
+	
+	/**
+	 * Write the tag the way older versions did, with its photos as a map
+	 * from their ids
+	 */
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		HashMap<Integer, Photo> photos = new HashMap<Integer, Photo>();
+		for (Photo photo : photosWithTag.values()) {
+			photos.put(photo.getId(), photo);
 		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("name", name);
+		fields.put("photosWithTag", photos);
+		out.writeFields();
+	}
+	
+	/**
+	 * Read a tag written by writeObject or by an older version. Its photos
+	 * may not be read yet, so the <Manager> adds them back afterwards.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		name = (String) fields.get("name", null);
+		ordinal = TagNames.intern(name);
+		photosWithTag = new PhotoIdMap();
 	}
 	
 }
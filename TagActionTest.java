@@ -52,6 +52,8 @@ public class TagActionTest {
 		for (String key : tagsInLibrary) { //removes all the tags from library
 			manager.deleteTag(key);
 		}
+		manager.close(); // deletes the journal so changes are not replayed
+		new File(Journal.JOURNAL_FILE_NAME).delete(); // in other tests
 		manager = null;
 		tagActionTest = null;
 	}
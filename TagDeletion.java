@@ -0,0 +1,223 @@
+package photo_renamer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes a tag from the photos that have it a chunk at a time on a
+ * background thread, so a tag on many thousands of photos can be deleted
+ * while the program carries on. Each chunk takes the tag off its photos and
+ * renames their files together as one change to the <Manager>, so between
+ * chunks the library, the journal and the files agree. The tag itself is
+ * only taken out of the library once no photo has it.
+ *
+ * A deletion can be cancelled, and stops after the chunk it is working on,
+ * leaving the tag on the photos it has not reached. A photo whose file could
+ * not be renamed, or that is not in the library under its name, keeps the
+ * tag and counts as failed, and then the library keeps the tag too.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class TagDeletion implements Runnable {
+	// the default number of photos renamed together
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	private final Manager manager;
+	private final String tagName;
+	private final int chunkSize;
+	private final Listener listener;
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private volatile boolean cancelled;
+	// the photos the tag was taken off, and those that kept it
+	private volatile int done;
+	private volatile int failed;
+	// done and failed, and the photos still to do
+	private volatile int total;
+	private volatile boolean tagDeleted;
+
+	/**
+	 * Create a deletion, which is started by running it
+	 *
+	 * @param <Manager> manager : the manager of the tag
+	 * @param <String> tagName : the tag to delete
+	 * @param <int> chunkSize : the number of photos renamed together
+	 * @param <Listener> listener : told about the progress, may be null
+	 */
+	TagDeletion(Manager manager, String tagName, int chunkSize, Listener listener) {
+		this.manager = manager;
+		this.tagName = tagName;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.listener = listener;
+	}
+
+	@Override
+	public void run() {
+		try {
+			Tag tag = manager.loadTag(tagName);
+			if (tag != null) {
+				deleteFrom(tag);
+			}
+		} finally {
+			finished.countDown();
+			if (listener != null) {
+				listener.finished(this);
+			}
+		}
+	}
+
+	/**
+	 * Take the tag off its photos a chunk at a time, lowest ids first, then
+	 * take it out of the library
+	 */
+	private void deleteFrom(Tag tag) {
+		//photos that kept the tag, so they are not tried again
+		PhotoIdSet kept = new PhotoIdSet();
+		while (!cancelled) {
+			int[] ids = tag.getPhotoIds(kept);
+			total = done + failed + ids.length;
+			if (ids.length == 0) {
+				if (failed > 0) {
+					return;
+				}
+				if (manager.removeTagIfUnused(tag)) {
+					tagDeleted = true;
+					return;
+				}
+				//a photo was given the tag since its photos were read
+				continue;
+			}
+			List<Photo> chunk = new ArrayList<Photo>(Math.min(chunkSize, ids.length));
+			for (int i = 0; i < ids.length && chunk.size() < chunkSize; i++) {
+				Photo photo = tag.getPhotoWithTag(ids[i]);
+				if (photo != null) {
+					chunk.add(photo);
+				}
+			}
+			List<Photo> notRenamed = new ArrayList<Photo>();
+			done += manager.removeTagFrom(tagName, chunk, notRenamed);
+			for (Photo photo : notRenamed) {
+				kept.add(photo.getId());
+			}
+			failed += notRenamed.size();
+			if (listener != null) {
+				listener.progressed(this);
+			}
+		}
+	}
+
+	/**
+	 * Stop the deletion after the chunk it is working on
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Wait for the deletion to finish
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void await() throws InterruptedException {
+		finished.await();
+	}
+
+	/**
+	 * Wait for the deletion to finish, for at most a given time
+	 *
+	 * @param <long> timeout : the most time to wait
+	 * @param <TimeUnit> unit : the unit of timeout
+	 * @return <boolean> true if the deletion finished
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+
+	/**
+	 * Get the tag being deleted
+	 *
+	 * @return <String> the name of the tag
+	 */
+	public String getTagName() {
+		return tagName;
+	}
+
+	/**
+	 * Get the number of photos the tag has been taken off so far
+	 *
+	 * @return <int> the number of photos
+	 */
+	public int getDone() {
+		return done;
+	}
+
+	/**
+	 * Get the number of photos that kept the tag since their files could not
+	 * be renamed
+	 *
+	 * @return <int> the number of photos
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Get the number of photos the deletion has dealt with and still has to
+	 * deal with, which grows if photos are given the tag meanwhile
+	 *
+	 * @return <int> the number of photos
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Get if the tag has been taken out of the library
+	 *
+	 * @return <boolean> true if the tag was deleted
+	 */
+	public boolean isTagDeleted() {
+		return tagDeleted;
+	}
+
+	/**
+	 * Get if the deletion was cancelled
+	 *
+	 * @return <boolean> true if cancel was called
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Get if the deletion has finished, because it is done, was cancelled,
+	 * or could not rename some files
+	 *
+	 * @return <boolean> true if it has finished
+	 */
+	public boolean isFinished() {
+		return finished.getCount() == 0;
+	}
+
+	/**
+	 * Told about the progress of a deletion, on the thread doing it
+	 */
+	public interface Listener {
+		/**
+		 * Called after each chunk of photos
+		 *
+		 * @param <TagDeletion> deletion : the deletion
+		 */
+		void progressed(TagDeletion deletion);
+
+		/**
+		 * Called once when the deletion has finished
+		 *
+		 * @param <TagDeletion> deletion : the deletion
+		 */
+		void finished(TagDeletion deletion);
+	}
+}
@@ -0,0 +1,58 @@
+package photo_renamer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Gives every tag name a small number, its ordinal, so a photo can keep its
+ * tags as an array of ints instead of a map of names. A name keeps its
+ * ordinal for as long as the program runs. Ordinals are never saved, since
+ * they depend on the order names are first seen.
+ *
+ * @author Ben,Sara
+ *
+ */
+final class TagNames {
+	private static final HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+	private static final ArrayList<String> names = new ArrayList<String>();
+
+	private TagNames() {
+	}
+
+	/**
+	 * Get the ordinal of a tag name, giving it the next one if it has none
+	 *
+	 * @param <String> name : the tag name
+	 * @return <int> its ordinal
+	 */
+	static synchronized int intern(String name) {
+		Integer ordinal = ordinals.get(name);
+		if (ordinal == null) {
+			ordinal = names.size();
+			ordinals.put(name, ordinal);
+			names.add(name);
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Get the ordinal of a tag name without giving it one
+	 *
+	 * @param <String> name : the tag name
+	 * @return <int> its ordinal, -1 if it has none
+	 */
+	static synchronized int find(String name) {
+		Integer ordinal = ordinals.get(name);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * Get the tag name of an ordinal
+	 *
+	 * @param <int> ordinal : an ordinal given by intern
+	 * @return <String> the tag name
+	 */
+	static synchronized String name(int ordinal) {
+		return names.get(ordinal);
+	}
+}
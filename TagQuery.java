@@ -0,0 +1,314 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A query for photos by their tags, such as "Beach & (Sun | Sand) & !Rain".
+ * A query is parsed once and can then be run many times. It is run as and,
+ * or and and not of the <PhotoIdSet> of each tag, so its cost depends on the
+ * number of photos with the tags rather than on reading each photo. Not
+ * inside an and is run as an and not, so only a query that is not anything
+ * at all needs the set of every photo.
+ *
+ * The words AND, OR and NOT can be used for &, | and !. A tag with spaces or
+ * one of those characters in its name is written in double quotes.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class TagQuery {
+
+	private final Node root;
+
+	private TagQuery(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Parse a query
+	 *
+	 * @param <String> query : the query
+	 * @return <TagQuery> the parsed query
+	 * @throws IllegalArgumentException if the query can not be parsed
+	 */
+	public static TagQuery parse(String query) {
+		Parser parser = new Parser(tokenize(query));
+		Node root = parser.parseOr();
+		if (parser.position != parser.tokens.size()) {
+			throw new IllegalArgumentException("Unexpected " + parser.tokens.get(parser.position) + " in tag query");
+		}
+		return new TagQuery(root);
+	}
+
+	/**
+	 * Run the query
+	 *
+	 * @param <Source> source : the ids of the photos with each tag
+	 * @return <PhotoIdSet> the ids of the photos that match, which may be a
+	 *         set of the source so it must not be changed
+	 */
+	public PhotoIdSet evaluate(Source source) {
+		return root.evaluate(source);
+	}
+
+	/**
+	 * Keep only the images whose names have tags that match the query, for
+	 * filtering the images being viewed without asking the library. Each
+	 * image is numbered by its place in the list.
+	 *
+	 * @param <List> images : the image files
+	 * @return <List> of <File> the images that match, in the same order
+	 */
+	public List<File> filterFiles(List<File> images) {
+		final HashMap<String, PhotoIdSet> withTag = new HashMap<String, PhotoIdSet>();
+		final PhotoIdSet all = new PhotoIdSet();
+		for (int i = 0; i < images.size(); i++) {
+			all.add(i);
+			String name = images.get(i).getName();
+			int dot = name.lastIndexOf('.');
+			for (String tag : PhotoNames.tags(dot < 0 ? name : name.substring(0, dot))) {
+				PhotoIdSet ids = withTag.get(tag);
+				if (ids == null) {
+					ids = new PhotoIdSet();
+					withTag.put(tag, ids);
+				}
+				ids.add(i);
+			}
+		}
+		PhotoIdSet matching = evaluate(new Source() {
+			@Override
+			public PhotoIdSet idsWithTag(String tagName) {
+				PhotoIdSet ids = withTag.get(tagName);
+				return ids == null ? new PhotoIdSet() : ids;
+			}
+
+			@Override
+			public PhotoIdSet allIds() {
+				return all;
+			}
+		});
+		List<File> filtered = new ArrayList<File>(matching.cardinality());
+		for (int i : matching.toArray()) {
+			filtered.add(images.get(i));
+		}
+		return filtered;
+	}
+
+	/**
+	 * Get if a photo with no tags matches the query
+	 *
+	 * @return <boolean> true if it matches
+	 */
+	public boolean matchesNoTags() {
+		final PhotoIdSet onePhoto = PhotoIdSet.of(0);
+		return evaluate(new Source() {
+			@Override
+			public PhotoIdSet idsWithTag(String tagName) {
+				return new PhotoIdSet();
+			}
+
+			@Override
+			public PhotoIdSet allIds() {
+				return onePhoto;
+			}
+		}).contains(0);
+	}
+
+	/**
+	 * Where a query gets the ids of the photos with each tag
+	 */
+	public interface Source {
+		/**
+		 * @param <String> tagName : the name of a tag
+		 * @return <PhotoIdSet> the ids of the photos with the tag, empty if
+		 *         there is no such tag. The set is not changed.
+		 */
+		PhotoIdSet idsWithTag(String tagName);
+
+		/**
+		 * @return <PhotoIdSet> the ids of every photo. The set is not changed.
+		 */
+		PhotoIdSet allIds();
+	}
+
+	private static List<String> tokenize(String query) {
+		List<String> tokens = new ArrayList<String>();
+		int i = 0;
+		while (i < query.length()) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '(' || c == ')' || c == '&' || c == '|' || c == '!') {
+				tokens.add(String.valueOf(c));
+				i++;
+			} else if (c == '"') {
+				int end = query.indexOf('"', i + 1);
+				if (end < 0) {
+					throw new IllegalArgumentException("Unclosed quote in tag query");
+				}
+				//a quoted tag keeps its quote so it is never read as a word
+				tokens.add(query.substring(i, end));
+				i = end + 1;
+			} else {
+				int start = i;
+				while (i < query.length() && !Character.isWhitespace(query.charAt(i))
+						&& "()&|!\"".indexOf(query.charAt(i)) < 0) {
+					i++;
+				}
+				String word = query.substring(start, i);
+				if (word.equalsIgnoreCase("AND")) {
+					tokens.add("&");
+				} else if (word.equalsIgnoreCase("OR")) {
+					tokens.add("|");
+				} else if (word.equalsIgnoreCase("NOT")) {
+					tokens.add("!");
+				} else {
+					tokens.add(word);
+				}
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Reads tokens into nodes, not binding tightest, then and, then or
+	 */
+	private static class Parser {
+		final List<String> tokens;
+		int position;
+
+		Parser(List<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		Node parseOr() {
+			List<Node> terms = new ArrayList<Node>();
+			terms.add(parseAnd());
+			while (accept("|")) {
+				terms.add(parseAnd());
+			}
+			return terms.size() == 1 ? terms.get(0) : new Or(terms);
+		}
+
+		Node parseAnd() {
+			List<Node> factors = new ArrayList<Node>();
+			factors.add(parseNot());
+			while (accept("&")) {
+				factors.add(parseNot());
+			}
+			return factors.size() == 1 ? factors.get(0) : new And(factors);
+		}
+
+		Node parseNot() {
+			if (accept("!")) {
+				return new Not(parseNot());
+			}
+			if (accept("(")) {
+				Node inner = parseOr();
+				if (!accept(")")) {
+					throw new IllegalArgumentException("Missing ) in tag query");
+				}
+				return inner;
+			}
+			if (position == tokens.size()) {
+				throw new IllegalArgumentException("Tag query ends too soon");
+			}
+			String token = tokens.get(position++);
+			if (token.length() == 1 && "()&|!".indexOf(token.charAt(0)) >= 0) {
+				throw new IllegalArgumentException("Unexpected " + token + " in tag query");
+			}
+			return new TagName(token.startsWith("\"") ? token.substring(1) : token);
+		}
+
+		boolean accept(String token) {
+			if (position < tokens.size() && tokens.get(position).equals(token)) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private interface Node {
+		PhotoIdSet evaluate(Source source);
+	}
+
+	private static class TagName implements Node {
+		final String name;
+
+		TagName(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public PhotoIdSet evaluate(Source source) {
+			return source.idsWithTag(name);
+		}
+	}
+
+	private static class Not implements Node {
+		final Node inner;
+
+		Not(Node inner) {
+			this.inner = inner;
+		}
+
+		@Override
+		public PhotoIdSet evaluate(Source source) {
+			return PhotoIdSet.andNot(source.allIds(), inner.evaluate(source));
+		}
+	}
+
+	private static class And implements Node {
+		final List<Node> factors;
+
+		And(List<Node> factors) {
+			this.factors = factors;
+		}
+
+		@Override
+		public PhotoIdSet evaluate(Source source) {
+			//start from the sets that are wanted, then take away the ones that are not
+			PhotoIdSet result = null;
+			List<Node> excluded = new ArrayList<Node>();
+			for (Node factor : factors) {
+				if (factor instanceof Not) {
+					excluded.add(((Not) factor).inner);
+				} else {
+					PhotoIdSet ids = factor.evaluate(source);
+					result = result == null ? ids : PhotoIdSet.and(result, ids);
+				}
+			}
+			if (result == null) {
+				result = source.allIds();
+			}
+			for (Node factor : excluded) {
+				if (result.isEmpty()) {
+					break;
+				}
+				result = PhotoIdSet.andNot(result, factor.evaluate(source));
+			}
+			return result;
+		}
+	}
+
+	private static class Or implements Node {
+		final List<Node> terms;
+
+		Or(List<Node> terms) {
+			this.terms = terms;
+		}
+
+		@Override
+		public PhotoIdSet evaluate(Source source) {
+			PhotoIdSet result = terms.get(0).evaluate(source);
+			for (int i = 1; i < terms.size(); i++) {
+				result = PhotoIdSet.or(result, terms.get(i).evaluate(source));
+			}
+			return result;
+		}
+	}
+}
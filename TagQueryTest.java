@@ -0,0 +1,104 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests TagQuery
+ *
+ * @author Ben,Sara
+ */
+public class TagQueryTest {
+
+	HashMap<String, PhotoIdSet> tags;
+	TagQuery.Source source;
+
+	/**
+	 * Sets up the tests with photos 0 to 5 and a few tags
+	 */
+	@Before
+	public void setUp() {
+		tags = new HashMap<String, PhotoIdSet>();
+		tags.put("Beach", PhotoIdSet.of(0, 1, 2, 3));
+		tags.put("Sun", PhotoIdSet.of(1, 2, 4));
+		tags.put("Rain", PhotoIdSet.of(2, 5));
+		tags.put("Big Wave", PhotoIdSet.of(3));
+		source = new TagQuery.Source() {
+			@Override
+			public PhotoIdSet idsWithTag(String tagName) {
+				PhotoIdSet ids = tags.get(tagName);
+				return ids == null ? new PhotoIdSet() : ids;
+			}
+
+			@Override
+			public PhotoIdSet allIds() {
+				return PhotoIdSet.of(0, 1, 2, 3, 4, 5);
+			}
+		};
+	}
+
+	private int[] run(String query) {
+		return TagQuery.parse(query).evaluate(source).toArray();
+	}
+
+	/**
+	 * Tests and, or, not, brackets and the words for them
+	 */
+	@Test
+	public void testEvaluate() {
+		assertArrayEquals(new int[] { 1, 2 }, run("Beach & Sun"));
+		assertArrayEquals(new int[] { 1 }, run("Beach & Sun & !Rain"));
+		assertArrayEquals(new int[] { 1 }, run("beach and sun AND NOT Rain".replace("beach", "Beach").replace("sun", "Sun")));
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, run("Beach | Sun"));
+		assertArrayEquals(new int[] { 2, 4 }, run("(Beach | Sun) & (Rain | !Beach)"));
+		assertArrayEquals(new int[] { 0, 1, 3, 4 }, run("!Rain"));
+		assertArrayEquals(new int[] { 0, 1, 2, 4, 5 }, run("!\"Big Wave\" & !!(Beach | Sun | Rain)"));
+		assertArrayEquals(new int[0], run("Snow"));
+	}
+
+	/**
+	 * Tests that a photo with no tags matches only queries that want a tag
+	 * to be missing
+	 */
+	@Test
+	public void testMatchesNoTags() {
+		assertTrue(TagQuery.parse("!Rain").matchesNoTags());
+		assertFalse(TagQuery.parse("Rain | Sun").matchesNoTags());
+		assertTrue(TagQuery.parse("Rain | !Sun").matchesNoTags());
+	}
+
+	/**
+	 * Tests that image files are filtered by the tags in their names
+	 */
+	@Test
+	public void testFilterFiles() {
+		List<File> images = Arrays.asList(new File("a@Sun@Beach.jpg"), new File("b.png"),
+				new File("c@Rain.jpg"), new File("d@Sun.jpg"));
+		assertEquals(Arrays.asList(images.get(0), images.get(3)), TagQuery.parse("Sun").filterFiles(images));
+		assertEquals(Arrays.asList(images.get(1), images.get(3)),
+				TagQuery.parse("!Beach & !Rain").filterFiles(images));
+		assertTrue(TagQuery.parse("Snow").filterFiles(images).isEmpty());
+	}
+
+	/**
+	 * Tests that queries that can not be parsed are refused
+	 */
+	@Test
+	public void testParseErrors() {
+		String[] bad = { "", "Beach &", "(Beach", "Beach Sun", "& Sun", "\"Big Wave" };
+		for (String query : bad) {
+			try {
+				TagQuery.parse(query);
+				fail("Parsed " + query);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+}
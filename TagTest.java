@@ -2,6 +2,12 @@ package photo_renamer;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -102,4 +108,36 @@ public class TagTest {
 
 		assertTrue(testPhoto.getTags().isEmpty());
 	}
+
+	/**
+	 * Tests that a tagged photo and its tag can still be serialized, with the
+	 * photo keeping its tag names in order
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@Test
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		testPhoto.addTags(testTagArray2);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(testPhoto);
+		out.writeObject(testTag1);
+		out.close();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Photo photo = (Photo) in.readObject();
+		Tag tag = (Tag) in.readObject();
+		in.close();
+		assertEquals(testPhoto.getId(), photo.getId());
+		assertEquals("img@Mango@Ketchup.jpg", photo.getName());
+		assertArrayEquals(new Object[] { "Mango", "Ketchup" }, photo.getTags().toArray());
+		assertEquals("Mango", tag.getName());
+		assertTrue(tag.getPhotosWithTag().isEmpty());
+		photo.restoreTag(tag);
+		assertTrue(tag.getPhotosWithTag().contains(photo));
+		assertEquals(2, photo.getTags().size());
+		//the restored tag took the place of the one read by name
+		photo.deleteAllTags();
+		assertTrue(tag.getPhotosWithTag().isEmpty());
+	}
 }
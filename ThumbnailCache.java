@@ -0,0 +1,447 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Keeps the thumbnails of photos on disk so that reopening a directory does
+ * not decode every original again. Thumbnails are stored as small jpegs
+ * appended to a data file, and an index maps each photo to where its
+ * thumbnail is in that file. A photo is identified by its absolute path, its
+ * size and the time it was last modified, so an edited photo is never shown
+ * with an old thumbnail.
+ *
+ * The index is kept in least recently used order, and once the thumbnails
+ * take more than the size cap the oldest ones are dropped. Space left behind
+ * by dropped thumbnails is given back by compacting the data file on a
+ * background thread.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class ThumbnailCache {
+	// the default files for the cache, kept next to photoLibrary.ser
+	public static final String DATA_FILE_NAME = "thumbnailCache.dat";
+	public static final String INDEX_FILE_NAME = "thumbnailCache.idx";
+	// the default cap on the bytes of thumbnails kept
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	// compaction only runs once this many bytes are unused in the data file
+	private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+	private final File dataFile;
+	private final File indexFile;
+	private final long maxBytes;
+	private RandomAccessFile data;
+	// key: path, size and modified time of a photo, value: where its thumbnail is
+	private LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	// the bytes of the data file used by thumbnails in the index
+	private long liveBytes;
+	private boolean compacting;
+	// held for the whole of a compaction, so only one runs at a time
+	private final Object compactionLock = new Object();
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "thumbnail-cache-compactor");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Open the thumbnail cache in the working directory
+	 *
+	 * @return <ThumbnailCache> the cache, or null if it can not be opened
+	 */
+	public static ThumbnailCache open() {
+		try {
+			return new ThumbnailCache(new File(DATA_FILE_NAME), new File(INDEX_FILE_NAME), DEFAULT_MAX_BYTES);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Open a thumbnail cache, reading in the index if it has been saved before
+	 *
+	 * @param <File> dataFile : the file the thumbnails are stored in
+	 * @param <File> indexFile : the file the index is saved to
+	 * @param <long> maxBytes : the most bytes of thumbnails to keep
+	 * @throws IOException if the data file can not be opened
+	 */
+	public ThumbnailCache(File dataFile, File indexFile, long maxBytes) throws IOException {
+		this.dataFile = dataFile;
+		this.indexFile = indexFile;
+		this.maxBytes = maxBytes;
+		loadIndex();
+		data = new RandomAccessFile(dataFile, "rw");
+		//drop anything the index says is past the end of the data file
+		Iterator<Entry> entries = index.values().iterator();
+		while (entries.hasNext()) {
+			Entry e = entries.next();
+			if (e.offset + e.length > data.length()) {
+				entries.remove();
+				liveBytes -= e.length;
+			}
+		}
+	}
+
+	/**
+	 * Make the key a photo is stored under
+	 *
+	 * @param <File> imageFile : the photo
+	 * @return <String> the absolute path, size and last modified time of the photo
+	 */
+	static String keyFor(File imageFile) {
+		return imageFile.getAbsolutePath() + "|" + imageFile.length() + "|" + imageFile.lastModified();
+	}
+
+	/**
+	 * Get the thumbnail of a photo if it has been stored
+	 *
+	 * @param <File> imageFile : the photo
+	 * @return <BufferedImage> the thumbnail, null if it is not in the cache
+	 */
+	public synchronized BufferedImage get(File imageFile) {
+		String key = keyFor(imageFile);
+		Entry e = index.get(key);
+		if (e == null) {
+			return null;
+		}
+		try {
+			byte[] bytes = new byte[e.length];
+			data.seek(e.offset);
+			data.readFully(bytes);
+			BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(bytes));
+			if (thumbnail != null) {
+				return thumbnail;
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+		//the stored thumbnail could not be read so forget it
+		remove(key);
+		return null;
+	}
+
+	/**
+	 * Store the thumbnail of a photo, replacing any older one
+	 *
+	 * @param <File> imageFile : the photo
+	 * @param <BufferedImage> thumbnail : the thumbnail of the photo
+	 */
+	public void put(File imageFile, BufferedImage thumbnail) {
+		byte[] bytes;
+		try {
+			bytes = encode(thumbnail);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		synchronized (this) {
+			String key = keyFor(imageFile);
+			remove(key);
+			try {
+				long offset = data.length();
+				data.seek(offset);
+				data.write(bytes);
+				index.put(key, new Entry(offset, bytes.length));
+				liveBytes += bytes.length;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			evict();
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * Get the number of thumbnails in the cache
+	 *
+	 * @return <int> number of thumbnails
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Get the bytes used by thumbnails still in the cache
+	 *
+	 * @return <long> the bytes used
+	 */
+	public synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * Get the size of the data file, including space not yet compacted
+	 *
+	 * @return <long> the length of the data file
+	 */
+	public synchronized long getFileBytes() {
+		try {
+			return data.length();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Start a compaction on the background thread if enough of the data
+	 * file is no longer used
+	 */
+	public void compactIfNeeded() {
+		synchronized (this) {
+			long deadBytes = getFileBytes() - liveBytes;
+			if (compacting || deadBytes < MIN_COMPACT_BYTES || deadBytes < liveBytes) {
+				return;
+			}
+			compacting = true;
+		}
+		compactor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compact();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Rewrite the data file so it only contains the thumbnails still in the
+	 * index, then save the index that points into the new file.
+	 *
+	 * The thumbnails in the index when the compaction starts are copied
+	 * without holding the cache, through a handle of its own, so loaders can
+	 * still get and put thumbnails meanwhile. Thumbnails are only ever
+	 * appended, so the bytes being copied do not change. The cache is only
+	 * held at the end to copy what was appended meanwhile and swap in the new
+	 * file and index.
+	 *
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		synchronized (compactionLock) {
+			try {
+				rewriteDataFile();
+			} finally {
+				synchronized (this) {
+					compacting = false;
+				}
+			}
+		}
+	}
+
+	private void rewriteDataFile() throws IOException {
+		List<Entry> copied;
+		long copiedEnd;
+		synchronized (this) {
+			copied = new ArrayList<Entry>(index.values());
+			copiedEnd = data.length();
+		}
+
+		File compactedFile = new File(dataFile.getPath() + ".tmp");
+		//key: a thumbnail that was copied, value: where it is in the new file
+		Map<Entry, Entry> moved = new IdentityHashMap<Entry, Entry>();
+		RandomAccessFile compacted = new RandomAccessFile(compactedFile, "rw");
+		try {
+			compacted.setLength(0);
+			RandomAccessFile source = new RandomAccessFile(dataFile, "r");
+			try {
+				for (Entry e : copied) {
+					byte[] bytes = new byte[e.length];
+					source.seek(e.offset);
+					source.readFully(bytes);
+					moved.put(e, new Entry(compacted.getFilePointer(), bytes.length));
+					compacted.write(bytes);
+				}
+			} finally {
+				source.close();
+			}
+
+			synchronized (this) {
+				//thumbnails put since the copy started are past its end, move them as one block
+				long tailStart = compacted.getFilePointer();
+				long tailLength = data.length() - copiedEnd;
+				byte[] tail = new byte[(int) tailLength];
+				data.seek(copiedEnd);
+				data.readFully(tail);
+				compacted.write(tail);
+				compacted.close();
+
+				//keep the index in its current order, without what was dropped meanwhile
+				LinkedHashMap<String, Entry> compactedIndex = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+				for (Map.Entry<String, Entry> e : index.entrySet()) {
+					Entry old = e.getValue();
+					Entry now = old.offset >= copiedEnd ? new Entry(tailStart + old.offset - copiedEnd, old.length)
+							: moved.get(old);
+					if (now != null) {
+						compactedIndex.put(e.getKey(), now);
+					} else {
+						liveBytes -= old.length;
+					}
+				}
+				data.close();
+				Files.move(compactedFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				index = compactedIndex;
+				data = new RandomAccessFile(dataFile, "rw");
+				saveIndex();
+			}
+		} finally {
+			compacted.close();
+		}
+	}
+
+	/**
+	 * Save the index so the cache can be used the next time the program opens
+	 */
+	public synchronized void save() {
+		try {
+			saveIndex();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Save the index and close the data file
+	 */
+	public synchronized void close() {
+		save();
+		compactor.shutdownNow();
+		try {
+			data.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Remove a thumbnail from the index, its bytes are reclaimed by compaction
+	 *
+	 * @param <String> key : the key of the photo
+	 */
+	private void remove(String key) {
+		Entry old = index.remove(key);
+		if (old != null) {
+			liveBytes -= old.length;
+		}
+	}
+
+	/**
+	 * Drop the least recently used thumbnails until the cache is under its cap
+	 */
+	private void evict() {
+		Iterator<Entry> eldest = index.values().iterator();
+		while (liveBytes > maxBytes && eldest.hasNext()) {
+			liveBytes -= eldest.next().length;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Encode a thumbnail as a jpeg
+	 *
+	 * @param <BufferedImage> thumbnail : the thumbnail
+	 * @return <byte[]> the encoded bytes
+	 * @throws IOException
+	 */
+	private static byte[] encode(BufferedImage thumbnail) throws IOException {
+		//jpegs can not have an alpha channel
+		if (thumbnail.getType() != BufferedImage.TYPE_INT_RGB) {
+			BufferedImage rgb = new BufferedImage(thumbnail.getWidth(), thumbnail.getHeight(),
+					BufferedImage.TYPE_INT_RGB);
+			rgb.getGraphics().drawImage(thumbnail, 0, 0, null);
+			thumbnail = rgb;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * 1024);
+		if (!ImageIO.write(thumbnail, "jpg", bytes)) {
+			throw new IOException("No jpeg writer available");
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read in the saved index, an unreadable index leaves the cache empty
+	 */
+	@SuppressWarnings("unchecked")
+	private void loadIndex() {
+		if (!indexFile.exists()) {
+			return;
+		}
+		try {
+			ObjectInputStream indexIn = new ObjectInputStream(new FileInputStream(indexFile));
+			try {
+				LinkedHashMap<String, Entry> saved = (LinkedHashMap<String, Entry>) indexIn.readObject();
+				index.putAll(saved);
+				for (Entry e : index.values()) {
+					liveBytes += e.length;
+				}
+			} finally {
+				indexIn.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			index.clear();
+			liveBytes = 0;
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write the index to a temporary file and move it over the old index
+	 *
+	 * @throws IOException
+	 */
+	private void saveIndex() throws IOException {
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		ObjectOutputStream indexOut = new ObjectOutputStream(new FileOutputStream(tmp));
+		try {
+			indexOut.writeObject(index);
+		} finally {
+			indexOut.close();
+		}
+		Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Where a thumbnail is in the data file
+	 */
+	private static class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final long offset;
+		final int length;
+
+		Entry(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
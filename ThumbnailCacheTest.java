@@ -0,0 +1,219 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.ImageIcon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ThumbnailCache
+ *
+ * @author Ben,Sara
+ */
+public class ThumbnailCacheTest {
+
+	File dataFile;
+	File indexFile;
+	File photoFile1;
+	File photoFile2;
+	BufferedImage thumbnail;
+	ThumbnailCache cache;
+
+	/**
+	 * Sets up the tests by creating two photo files and an empty cache
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		dataFile = new File("testThumbnailCache.dat");
+		indexFile = new File("testThumbnailCache.idx");
+		photoFile1 = new File("cachedPhoto1.jpg");
+		photoFile2 = new File("cachedPhoto2.jpg");
+		photoFile1.createNewFile();
+		photoFile2.createNewFile();
+		thumbnail = new BufferedImage(ThumbnailLoader.THUMBNAIL_SIZE, ThumbnailLoader.THUMBNAIL_SIZE,
+				BufferedImage.TYPE_INT_RGB);
+		cache = new ThumbnailCache(dataFile, indexFile, ThumbnailCache.DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Clears up after the tests by deleting every file that was made
+	 */
+	@After
+	public void tearDown() {
+		cache.close();
+		dataFile.delete();
+		indexFile.delete();
+		photoFile1.delete();
+		photoFile2.delete();
+		cache = null;
+	}
+
+	private static BufferedImage grey(int level) {
+		BufferedImage image = new BufferedImage(ThumbnailLoader.THUMBNAIL_SIZE, ThumbnailLoader.THUMBNAIL_SIZE,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		g.setColor(new Color(level, level, level));
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Tests that a stored thumbnail can be read back, and that a photo that
+	 * was never stored is not found
+	 */
+	@Test
+	public void testPutAndGet() {
+		assertNull(cache.get(photoFile1));
+		cache.put(photoFile1, thumbnail);
+		BufferedImage cached = cache.get(photoFile1);
+		assertNotNull(cached);
+		assertEquals(ThumbnailLoader.THUMBNAIL_SIZE, cached.getWidth());
+		assertNull(cache.get(photoFile2));
+	}
+
+	/**
+	 * Tests that a thumbnail is not used once its photo has been modified
+	 */
+	@Test
+	public void testModifiedPhotoMisses() {
+		cache.put(photoFile1, thumbnail);
+		photoFile1.setLastModified(photoFile1.lastModified() - 10000);
+		assertNull(cache.get(photoFile1));
+	}
+
+	/**
+	 * Tests that the saved index is read in when the cache is opened again
+	 * @throws IOException
+	 */
+	@Test
+	public void testReopen() throws IOException {
+		cache.put(photoFile1, thumbnail);
+		cache.close();
+		cache = new ThumbnailCache(dataFile, indexFile, ThumbnailCache.DEFAULT_MAX_BYTES);
+		assertEquals(1, cache.size());
+		assertNotNull(cache.get(photoFile1));
+	}
+
+	/**
+	 * Tests that the least recently used thumbnail is dropped when the cache
+	 * is over its size cap
+	 * @throws IOException
+	 */
+	@Test
+	public void testEviction() throws IOException {
+		cache.put(photoFile1, thumbnail);
+		long oneThumbnail = cache.getLiveBytes();
+		cache.close();
+		cache = new ThumbnailCache(dataFile, indexFile, oneThumbnail);
+		cache.put(photoFile2, thumbnail);
+		assertEquals(1, cache.size());
+		assertNull(cache.get(photoFile1));
+		assertNotNull(cache.get(photoFile2));
+	}
+
+	/**
+	 * Tests that compacting leaves only the stored thumbnails in the data file
+	 * @throws IOException
+	 */
+	@Test
+	public void testCompact() throws IOException {
+		cache.put(photoFile1, thumbnail);
+		cache.put(photoFile1, thumbnail);
+		cache.put(photoFile2, thumbnail);
+		assertTrue(cache.getFileBytes() > cache.getLiveBytes());
+		cache.compact();
+		assertEquals(cache.getLiveBytes(), cache.getFileBytes());
+		assertNotNull(cache.get(photoFile1));
+		assertNotNull(cache.get(photoFile2));
+	}
+
+	/**
+	 * Tests that thumbnails put while a compaction is copying are kept and
+	 * can still be read once it has swapped in the new file
+	 * @throws Exception
+	 */
+	@Test
+	public void testPutWhileCompacting() throws Exception {
+		//enough thumbnails that copying them takes a while, the photos need not exist
+		for (int i = 0; i < 300; i++) {
+			cache.put(new File("compactedPhoto" + i + ".jpg"), thumbnail);
+		}
+		final AtomicBoolean putting = new AtomicBoolean(true);
+		Thread compactor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (putting.get()) {
+						cache.compact();
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		compactor.start();
+		//each added thumbnail is a different grey, so one read from the wrong place shows
+		for (int i = 0; i < 100; i++) {
+			cache.put(new File("addedPhoto" + i + ".jpg"), grey(2 * i));
+		}
+		putting.set(false);
+		compactor.join();
+		for (int i = 0; i < 100; i++) {
+			BufferedImage cached = cache.get(new File("addedPhoto" + i + ".jpg"));
+			assertNotNull(cached);
+			assertTrue(Math.abs((cached.getRGB(10, 10) & 0xFF) - 2 * i) <= 4);
+		}
+		assertEquals(400, cache.size());
+		cache.compact();
+		assertEquals(cache.getLiveBytes(), cache.getFileBytes());
+	}
+
+	/**
+	 * Tests that a loader whose cache throws tells its listener the image
+	 * failed rather than leaving it to be asked for again
+	 * @throws Exception
+	 */
+	@Test
+	public void testLoaderFailsOnError() throws Exception {
+		ThumbnailCache broken = new ThumbnailCache(dataFile, indexFile, ThumbnailCache.DEFAULT_MAX_BYTES) {
+			@Override
+			public synchronized BufferedImage get(File imageFile) {
+				throw new IllegalStateException("broken cache");
+			}
+		};
+		ThumbnailLoader loader = new ThumbnailLoader(1, broken);
+		final CountDownLatch failed = new CountDownLatch(1);
+		final AtomicReference<File> failedFile = new AtomicReference<File>();
+		loader.load(photoFile1, new ThumbnailLoader.Listener() {
+			@Override
+			public void thumbnailLoaded(File imageFile, ImageIcon thumbnail) {
+			}
+
+			@Override
+			public void thumbnailFailed(File imageFile) {
+				failedFile.set(imageFile);
+				failed.countDown();
+			}
+		});
+		assertTrue(failed.await(10, TimeUnit.SECONDS));
+		assertEquals(photoFile1, failedFile.get());
+		assertEquals(0, loader.getPendingCount());
+		loader.shutdown();
+		broken.close();
+	}
+}
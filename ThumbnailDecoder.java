@@ -0,0 +1,285 @@
+package photo_renamer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes only as much of an image as is needed to make a thumbnail of it.
+ * If a jpeg carries an exif thumbnail that is big enough, that thumbnail is
+ * used and the photo itself is never decoded. Otherwise the image reader is
+ * asked for the centre square of the photo, reading only every n-th pixel,
+ * so a full resolution copy of the photo is never held in memory.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class ThumbnailDecoder {
+	// jpeg markers
+	private static final int START_OF_IMAGE = 0xFFD8;
+	private static final int START_OF_SCAN = 0xFFDA;
+	private static final int APP1 = 0xFFE1;
+	// exif tags in the thumbnail directory giving where the thumbnail is
+	private static final int THUMBNAIL_OFFSET_TAG = 0x0201;
+	private static final int THUMBNAIL_LENGTH_TAG = 0x0202;
+
+	/**
+	 * Decode a square thumbnail of an image
+	 *
+	 * @param <File> imageFile : the image to decode
+	 * @param <int> size : the width and height of the thumbnail
+	 * @return <BufferedImage> the decoded image, at least size pixels on each
+	 *         side where the image allows it, or null if it can not be decoded
+	 * @throws IOException
+	 */
+	public static BufferedImage decode(File imageFile, int size) throws IOException {
+		BufferedImage exifThumbnail = readExifThumbnail(imageFile);
+		//the thumbnail is cropped to its centre square, so its shorter side must be big enough
+		if (exifThumbnail != null && Math.min(exifThumbnail.getWidth(), exifThumbnail.getHeight()) >= size) {
+			return exifThumbnail;
+		}
+
+		ImageInputStream in = ImageIO.createImageInputStream(imageFile);
+		if (in == null) {
+			return null;
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+
+				//use the thumbnail stored in the file if there is a big enough one
+				BufferedImage embedded = readEmbeddedThumbnail(reader, size);
+				if (embedded != null) {
+					return embedded;
+				}
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				Rectangle region = centreSquare(width, height);
+				param.setSourceRegion(region);
+				int period = subsampling(region.width, size);
+				param.setSourceSubsampling(period, period, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a thumbnail the image reader finds in the file whose shorter side
+	 * is at least the thumbnail size. The jpeg reader can not read the
+	 * metadata of a jpeg that starts with exif data rather than JFIF, which
+	 * is how cameras write them, so such a file has no thumbnail here.
+	 *
+	 * @param <ImageReader> reader : the reader, with the file as its input
+	 * @param <int> size : the size of the thumbnail
+	 * @return <BufferedImage> the thumbnail, null if there is not a big enough one
+	 */
+	private static BufferedImage readEmbeddedThumbnail(ImageReader reader, int size) {
+		try {
+			if (reader.readerSupportsThumbnails() && reader.hasThumbnails(0)) {
+				for (int i = 0; i < reader.getNumThumbnails(0); i++) {
+					if (Math.min(reader.getThumbnailWidth(0, i), reader.getThumbnailHeight(0, i)) >= size) {
+						return reader.readThumbnail(0, i);
+					}
+				}
+			}
+		} catch (IOException e) {
+			//decode the image itself
+		}
+		return null;
+	}
+
+	/**
+	 * Get the largest square in the centre of an image
+	 *
+	 * @param <int> width : the width of the image
+	 * @param <int> height : the height of the image
+	 * @return <Rectangle> the centre square
+	 */
+	static Rectangle centreSquare(int width, int height) {
+		int side = Math.min(width, height);
+		return new Rectangle((width - side) / 2, (height - side) / 2, side, side);
+	}
+
+	/**
+	 * Get how many pixels can be skipped for every one read so that the
+	 * decoded image is still at least the thumbnail size
+	 *
+	 * @param <int> side : the number of pixels along the side being read
+	 * @param <int> size : the size of the thumbnail
+	 * @return <int> the subsampling period, 1 if every pixel is needed
+	 */
+	static int subsampling(int side, int size) {
+		return Math.max(1, side / Math.max(1, size));
+	}
+
+	/**
+	 * Read the thumbnail embedded in the exif data of a jpeg. Only the header
+	 * segments of the file are read.
+	 *
+	 * @param <File> imageFile : the jpeg
+	 * @return <BufferedImage> the exif thumbnail, null if there is not one
+	 */
+	static BufferedImage readExifThumbnail(File imageFile) {
+		try {
+			byte[] exif = readExifSegment(imageFile);
+			if (exif == null) {
+				return null;
+			}
+			byte[] thumbnail = findExifThumbnail(exif);
+			if (thumbnail == null) {
+				return null;
+			}
+			return ImageIO.read(new ByteArrayInputStream(thumbnail));
+		} catch (IOException e) {
+			//a broken exif block just means decoding the photo instead
+			return null;
+		}
+	}
+
+	/**
+	 * Find the exif segment of a jpeg, stopping once the image data starts
+	 *
+	 * @param <File> imageFile : the jpeg
+	 * @return <byte[]> the tiff data of the exif segment, null if there is none
+	 * @throws IOException
+	 */
+	private static byte[] readExifSegment(File imageFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(imageFile)));
+		try {
+			if (in.readUnsignedShort() != START_OF_IMAGE) {
+				return null;
+			}
+			while (true) {
+				int marker = in.readUnsignedShort();
+				if ((marker & 0xFF00) != 0xFF00 || marker == START_OF_SCAN) {
+					return null;
+				}
+				int length = in.readUnsignedShort() - 2;
+				if (length < 0) {
+					return null;
+				}
+				if (marker == APP1 && length > 6) {
+					byte[] segment = new byte[length];
+					in.readFully(segment);
+					//the segment starts with "Exif" and two zero bytes
+					if (segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f'
+							&& segment[4] == 0 && segment[5] == 0) {
+						byte[] tiff = new byte[length - 6];
+						System.arraycopy(segment, 6, tiff, 0, tiff.length);
+						return tiff;
+					}
+				} else {
+					skipFully(in, length);
+				}
+			}
+		} catch (EOFException e) {
+			return null;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Get the bytes of the thumbnail from the tiff data of an exif segment.
+	 * The thumbnail is described by the second image directory.
+	 *
+	 * @param <byte[]> tiff : the tiff data
+	 * @return <byte[]> the jpeg bytes of the thumbnail, null if there is none
+	 */
+	static byte[] findExifThumbnail(byte[] tiff) {
+		if (tiff.length < 8) {
+			return null;
+		}
+		boolean littleEndian;
+		if (tiff[0] == 'I' && tiff[1] == 'I') {
+			littleEndian = true;
+		} else if (tiff[0] == 'M' && tiff[1] == 'M') {
+			littleEndian = false;
+		} else {
+			return null;
+		}
+		//skip over the first directory to find the thumbnail directory
+		int firstDirectory = readInt(tiff, 4, littleEndian);
+		if (firstDirectory < 8 || firstDirectory > tiff.length - 2) {
+			return null;
+		}
+		int entries = readShort(tiff, firstDirectory, littleEndian);
+		int next = firstDirectory + 2 + entries * 12;
+		if (next > tiff.length - 4) {
+			return null;
+		}
+		int thumbnailDirectory = readInt(tiff, next, littleEndian);
+		if (thumbnailDirectory < 8 || thumbnailDirectory > tiff.length - 2) {
+			return null;
+		}
+
+		int offset = -1;
+		int length = -1;
+		entries = readShort(tiff, thumbnailDirectory, littleEndian);
+		for (int i = 0; i < entries; i++) {
+			int entry = thumbnailDirectory + 2 + i * 12;
+			if (entry > tiff.length - 12) {
+				return null;
+			}
+			int tag = readShort(tiff, entry, littleEndian);
+			if (tag == THUMBNAIL_OFFSET_TAG) {
+				offset = readInt(tiff, entry + 8, littleEndian);
+			} else if (tag == THUMBNAIL_LENGTH_TAG) {
+				length = readInt(tiff, entry + 8, littleEndian);
+			}
+		}
+		if (offset <= 0 || length <= 0 || offset > tiff.length - length) {
+			return null;
+		}
+		byte[] thumbnail = new byte[length];
+		System.arraycopy(tiff, offset, thumbnail, 0, length);
+		return thumbnail;
+	}
+
+	private static int readShort(byte[] b, int i, boolean littleEndian) {
+		if (littleEndian) {
+			return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+		}
+		return (b[i] & 0xFF) << 8 | (b[i + 1] & 0xFF);
+	}
+
+	private static int readInt(byte[] b, int i, boolean littleEndian) {
+		if (littleEndian) {
+			return readShort(b, i, true) | readShort(b, i + 2, true) << 16;
+		}
+		return readShort(b, i, false) << 16 | readShort(b, i + 2, false);
+	}
+
+	private static void skipFully(DataInputStream in, int n) throws IOException {
+		while (n > 0) {
+			int skipped = (int) in.skip(n);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			n -= skipped;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ThumbnailDecoder
+ *
+ * @author Ben,Sara
+ */
+public class ThumbnailDecoderTest {
+
+	File largeImageFile;
+	File exifImageFile;
+
+	/**
+	 * Sets up the tests by writing a large red jpeg, and a red jpeg that has
+	 * a blue exif thumbnail
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		largeImageFile = new File("largeTestImage.jpg");
+		ImageIO.write(filled(1600, 1200, Color.RED), "jpg", largeImageFile);
+
+		exifImageFile = new File("exifTestImage.jpg");
+		writeWithExifThumbnail(filled(1600, 1200, Color.RED), filled(160, 120, Color.BLUE), exifImageFile);
+	}
+
+	/**
+	 * Clears up after the tests by deleting the images
+	 */
+	@After
+	public void tearDown() {
+		largeImageFile.delete();
+		exifImageFile.delete();
+	}
+
+	/**
+	 * Tests that a large image is decoded at a fraction of its size but still
+	 * at least as big as the thumbnail
+	 * @throws IOException
+	 */
+	@Test
+	public void testDecodeSubsampled() throws IOException {
+		BufferedImage decoded = ThumbnailDecoder.decode(largeImageFile, 150);
+		assertNotNull(decoded);
+		assertTrue(decoded.getWidth() >= 150 && decoded.getHeight() >= 150);
+		assertTrue(decoded.getWidth() < 300 && decoded.getHeight() < 300);
+		assertEquals(decoded.getWidth(), decoded.getHeight());
+	}
+
+	/**
+	 * Tests that the exif thumbnail is used instead of the photo when its
+	 * centre square is big enough
+	 * @throws IOException
+	 */
+	@Test
+	public void testDecodeExifThumbnail() throws IOException {
+		BufferedImage decoded = ThumbnailDecoder.decode(exifImageFile, 120);
+		assertNotNull(decoded);
+		assertEquals(160, decoded.getWidth());
+		Color centre = new Color(decoded.getRGB(80, 60));
+		assertTrue(centre.getBlue() > 200 && centre.getRed() < 50);
+	}
+
+	/**
+	 * Tests that the photo is decoded when the exif thumbnail is only wide
+	 * enough, since its centre square would have to be scaled up
+	 * @throws IOException
+	 */
+	@Test
+	public void testExifThumbnailTooShort() throws IOException {
+		BufferedImage decoded = ThumbnailDecoder.decode(exifImageFile, 150);
+		assertNotNull(decoded);
+		assertTrue(decoded.getWidth() >= 150 && decoded.getHeight() >= 150);
+		Color centre = new Color(decoded.getRGB(decoded.getWidth() / 2, decoded.getHeight() / 2));
+		assertTrue(centre.getRed() > 200 && centre.getBlue() < 50);
+	}
+
+	/**
+	 * Tests that exif data whose offsets or thumbnail length run past its
+	 * end, even far enough to wrap around, has no thumbnail
+	 */
+	@Test
+	public void testMalformedExif() {
+		ByteBuffer tiff = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+		tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(Integer.MAX_VALUE - 1);
+		assertNull(ThumbnailDecoder.findExifThumbnail(tiff.array()));
+
+		//an empty first directory, then a thumbnail directory with an offset and a length
+		tiff.putInt(4, 8).putShort(8, (short) 0).putInt(10, 14);
+		tiff.putShort(14, (short) 2);
+		tiff.putShort(16, (short) 0x0201).putInt(24, 40);
+		tiff.putShort(28, (short) 0x0202).putInt(36, 8);
+		assertEquals(8, ThumbnailDecoder.findExifThumbnail(tiff.array()).length);
+		tiff.putInt(36, 0x7FFFFFF0);
+		assertNull(ThumbnailDecoder.findExifThumbnail(tiff.array()));
+		tiff.putInt(36, 8).putInt(10, Integer.MAX_VALUE - 1);
+		assertNull(ThumbnailDecoder.findExifThumbnail(tiff.array()));
+	}
+
+	/**
+	 * Tests that a file that is not an image can not be decoded
+	 * @throws IOException
+	 */
+	@Test
+	public void testDecodeNonImage() throws IOException {
+		File textFile = new File("notAnImage.jpg");
+		textFile.createNewFile();
+		try {
+			assertNull(ThumbnailDecoder.decode(textFile, 150));
+		} finally {
+			textFile.delete();
+		}
+	}
+
+	/**
+	 * Tests finding the centre square and subsampling period
+	 */
+	@Test
+	public void testCentreSquareAndSubsampling() {
+		assertEquals(new Rectangle(200, 0, 1200, 1200), ThumbnailDecoder.centreSquare(1600, 1200));
+		assertEquals(8, ThumbnailDecoder.subsampling(1200, 150));
+		assertEquals(1, ThumbnailDecoder.subsampling(100, 150));
+	}
+
+	private static BufferedImage filled(int width, int height, Color colour) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		g.setColor(colour);
+		g.fillRect(0, 0, width, height);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Write a jpeg with an exif segment holding a thumbnail, placed right
+	 * after the start of image marker
+	 */
+	private static void writeWithExifThumbnail(BufferedImage image, BufferedImage thumbnail, File file)
+			throws IOException {
+		ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", imageBytes);
+		ByteArrayOutputStream thumbnailBytes = new ByteArrayOutputStream();
+		ImageIO.write(thumbnail, "jpg", thumbnailBytes);
+		byte[] jpeg = imageBytes.toByteArray();
+		byte[] thumb = thumbnailBytes.toByteArray();
+
+		//big endian tiff: header, an empty first directory, then a thumbnail
+		//directory with the offset and length of the thumbnail
+		ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+		tiff.write(new byte[] { 'M', 'M', 0, 42 });
+		writeInt(tiff, 8);
+		writeShort(tiff, 0);
+		writeInt(tiff, 14);
+		writeShort(tiff, 2);
+		int thumbnailOffset = 14 + 2 + 2 * 12 + 4;
+		writeShort(tiff, 0x0201);
+		writeShort(tiff, 4);
+		writeInt(tiff, 1);
+		writeInt(tiff, thumbnailOffset);
+		writeShort(tiff, 0x0202);
+		writeShort(tiff, 4);
+		writeInt(tiff, 1);
+		writeInt(tiff, thumb.length);
+		writeInt(tiff, 0);
+		tiff.write(thumb);
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(jpeg, 0, 2);
+			out.write(new byte[] { (byte) 0xFF, (byte) 0xE1 });
+			ByteArrayOutputStream segment = new ByteArrayOutputStream();
+			segment.write(new byte[] { 'E', 'x', 'i', 'f', 0, 0 });
+			segment.write(tiff.toByteArray());
+			int length = segment.size() + 2;
+			out.write(new byte[] { (byte) (length >> 8), (byte) length });
+			segment.writeTo(out);
+			out.write(jpeg, 2, jpeg.length - 2);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int v) {
+		out.write(v >> 8);
+		out.write(v);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		writeShort(out, v >>> 16);
+		writeShort(out, v & 0xFFFF);
+	}
+}
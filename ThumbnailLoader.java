@@ -0,0 +1,289 @@
+package photo_renamer;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads the thumbnails for the photo grid off of the GUI thread. Images are
+ * decoded and scaled on a fixed pool of worker threads, one per core, and the
+ * finished icon is handed back to a listener on the event thread. All pending
+ * work can be cancelled when a new directory is chosen. If a
+ * <ThumbnailCache> is given, thumbnails are taken from it when they have
+ * been read before and stored in it when they have not.
+ *
+ * @author Ben,Sara
+ *
+ */
+public class ThumbnailLoader {
+	// the width and height of a thumbnail in pixels
+	public static final int THUMBNAIL_SIZE = 150;
+
+	private final ExecutorService workers;
+	private final ThumbnailCache cache;
+	// every load that has been submitted but has not finished yet
+	private final Map<File, Future<?>> pending = new ConcurrentHashMap<File, Future<?>>();
+
+	/**
+	 * Create a thumbnail loader with one worker thread per available core
+	 */
+	public ThumbnailLoader() {
+		this(Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/**
+	 * Create a thumbnail loader with one worker thread per available core
+	 * that keeps its thumbnails in a cache
+	 *
+	 * @param <ThumbnailCache> cache : where thumbnails are stored, can be null
+	 */
+	public ThumbnailLoader(ThumbnailCache cache) {
+		this(Runtime.getRuntime().availableProcessors(), cache);
+	}
+
+	/**
+	 * Create a thumbnail loader with a set number of worker threads
+	 *
+	 * @param <int> poolSize : the number of images decoded at the same time
+	 * @param <ThumbnailCache> cache : where thumbnails are stored, can be null
+	 */
+	public ThumbnailLoader(int poolSize, ThumbnailCache cache) {
+		this.cache = cache;
+		workers = Executors.newFixedThreadPool(Math.max(1, poolSize), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				//daemon threads so a half finished directory never keeps the program open
+				Thread worker = new Thread(r, "thumbnail-" + count.incrementAndGet());
+				worker.setDaemon(true);
+				worker.setPriority(Thread.NORM_PRIORITY - 1);
+				return worker;
+			}
+		});
+	}
+
+	/**
+	 * Queue the thumbnail of an image to be read and handed to a listener on
+	 * the event thread once it is ready, or the listener told on the event
+	 * thread that the image could not be read. An image that is already
+	 * queued is not queued again.
+	 *
+	 * @param <File> imageFile : the image to make a thumbnail of
+	 * @param <Listener> listener : told about the thumbnail when it is ready
+	 */
+	public void load(final File imageFile, final Listener listener) {
+		if (pending.containsKey(imageFile)) {
+			return;
+		}
+		final FutureHolder holder = new FutureHolder();
+		holder.future = workers.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (holder.isCancelled()) {
+						return;
+					}
+					BufferedImage thumbnail = getThumbnail(imageFile);
+					if (holder.isCancelled()) {
+						return;
+					}
+					if (thumbnail == null) {
+						failed(imageFile, listener, holder);
+						return;
+					}
+					final ImageIcon photoIcon = new ImageIcon(thumbnail);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							//the directory may have changed while this was in the queue
+							if (!holder.isCancelled()) {
+								listener.thumbnailLoaded(imageFile, photoIcon);
+							}
+						}
+					});
+				} catch (IOException e) {
+					e.printStackTrace();
+					failed(imageFile, listener, holder);
+				} catch (RuntimeException e) {
+					//a broken image can make the decoders throw anything, and the
+					//future would swallow it so the image would be asked for again
+					e.printStackTrace();
+					failed(imageFile, listener, holder);
+				} catch (OutOfMemoryError e) {
+					e.printStackTrace();
+					failed(imageFile, listener, holder);
+				} finally {
+					pending.remove(imageFile, holder.future);
+				}
+			}
+		});
+		pending.put(imageFile, holder.future);
+		//the task may have finished before it was added to pending
+		if (holder.future.isDone()) {
+			pending.remove(imageFile, holder.future);
+		}
+	}
+
+	/**
+	 * Tell a listener on the event thread that an image could not be read
+	 */
+	private static void failed(final File imageFile, final Listener listener, final FutureHolder holder) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (!holder.isCancelled()) {
+					listener.thumbnailFailed(imageFile);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Cancel the thumbnails of every image that is not in a collection, used
+	 * to drop the images that have been scrolled out of view
+	 *
+	 * @param <Collection> wanted : the images that should keep loading
+	 */
+	public void cancelAllExcept(Collection<File> wanted) {
+		Iterator<Map.Entry<File, Future<?>>> loads = pending.entrySet().iterator();
+		while (loads.hasNext()) {
+			Map.Entry<File, Future<?>> load = loads.next();
+			if (!wanted.contains(load.getKey())) {
+				load.getValue().cancel(false);
+				loads.remove();
+			}
+		}
+	}
+
+	/**
+	 * Cancel every thumbnail that has not been shown yet, called when the
+	 * shown images are thrown away.
+	 */
+	public void cancelAll() {
+		for (Future<?> load : pending.values()) {
+			load.cancel(false);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Get the number of thumbnails still waiting to be shown
+	 *
+	 * @return <int> the number of loads not yet done
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Stop the worker threads, any loads still queued are dropped
+	 */
+	public void shutdown() {
+		cancelAll();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Get the thumbnail of an image, from the cache if it is there, otherwise
+	 * by reading the image and storing the result in the cache
+	 *
+	 * @param <File> imageFile : the image
+	 * @return <BufferedImage> the thumbnail, null if the file can not be decoded
+	 * @throws IOException
+	 */
+	BufferedImage getThumbnail(File imageFile) throws IOException {
+		if (cache != null) {
+			BufferedImage cached = cache.get(imageFile);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		BufferedImage thumbnail = readThumbnail(imageFile);
+		if (thumbnail != null && cache != null) {
+			cache.put(imageFile, thumbnail);
+		}
+		return thumbnail;
+	}
+
+	/**
+	 * Read an image file and scale it down to thumbnail size, decoding only as
+	 * much of the file as the thumbnail needs
+	 *
+	 * @param <File> imageFile : the image to read
+	 * @return <BufferedImage> the scaled image, null if the file can not be decoded
+	 * @throws IOException
+	 */
+	static BufferedImage readThumbnail(File imageFile) throws IOException {
+		BufferedImage photo = ThumbnailDecoder.decode(imageFile, THUMBNAIL_SIZE);
+		if (photo == null) {
+			return null;
+		}
+		return scale(photo);
+	}
+
+	/**
+	 * Scale the centre square of an image to thumbnail size
+	 *
+	 * @param <BufferedImage> photo : the decoded image
+	 * @return <BufferedImage> the image scaled to THUMBNAIL_SIZE
+	 */
+	static BufferedImage scale(BufferedImage photo) {
+		BufferedImage thumbnail = new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.TYPE_INT_RGB);
+		Rectangle square = ThumbnailDecoder.centreSquare(photo.getWidth(), photo.getHeight());
+		Graphics2D g = thumbnail.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(photo, 0, 0, THUMBNAIL_SIZE, THUMBNAIL_SIZE, square.x, square.y,
+				square.x + square.width, square.y + square.height, null);
+		g.dispose();
+		return thumbnail;
+	}
+
+	/**
+	 * Lets a submitted task see its own <Future> so it can tell if it was cancelled
+	 */
+	private static class FutureHolder {
+		volatile Future<?> future;
+
+		boolean isCancelled() {
+			Future<?> f = future;
+			return f != null && f.isCancelled();
+		}
+	}
+
+	/**
+	 * Told when the thumbnail of an image has been loaded
+	 */
+	public interface Listener {
+		/**
+		 * Called on the event thread with the thumbnail of an image
+		 *
+		 * @param <File> imageFile : the image
+		 * @param <ImageIcon> thumbnail : its thumbnail
+		 */
+		void thumbnailLoaded(File imageFile, ImageIcon thumbnail);
+
+		/**
+		 * Called on the event thread when an image could not be read or
+		 * decoded, so it is not asked for again
+		 *
+		 * @param <File> imageFile : the image
+		 */
+		void thumbnailFailed(File imageFile);
+	}
+}
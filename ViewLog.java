@@ -1,51 +1,70 @@
 package photo_renamer;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Read in the location of the Manager log files, and produce a list
- * off all the lines in the file in order for it to be viewed by the user.
+ * Read pages of the <RenameLog> and produce a list of lines in order for
+ * them to be viewed by the user. Only the renames asked for are read, so
+ * the cost of showing the log does not grow with the length of the log.
  * 
  * @author Sara
  *
  */
 public class ViewLog {
-	
+	// the number of renames read at once for the log tab
+	public static final int PAGE_SIZE = 500;
+
 	/**
-	 * Reads through the logger and outputs the previous names and new names for viewing 
-	 * by the user in the GUI.
+	 * Reads a page of the log and outputs the previous names and new names
+	 * for viewing by the user in the GUI.
 	 * 
-	 * @param <File>logFile - the log file to be viewed
-	 * @return <Queue<String>> contains all the relevant logs
+	 * @param <RenameLog> log : the log to be viewed
+	 * @param <long> first : the number of the first rename, from 0
+	 * @param <int> count : the most renames to read
+	 * @return <List<String>> contains the renames in the page, oldest first
 	 */
-	public static Queue<String> getLog(String logFileName) {
-		Queue<String> logToView = new LinkedList<String>();
-		//get all the files in the folder, and if its a manager log file read its
-		//information into the filereader and save the information to be viewed
-		File logFile = new File(logFileName);
-		FileReader logReader = null;
+	public static List<String> getLog(RenameLog log, long first, int count) {
+		List<String> logToView = new ArrayList<String>();
 		try {
-			logReader = new FileReader(logFile);
-		} catch (FileNotFoundException e1) {
-				System.out.println("Cannot find file");
+			for (RenameLog.Entry entry : log.getPage(first, count)) {
+				logToView.add(entry.toString());
+			}
+		} catch (IOException e) {
+			System.out.println("Cannot read the rename log");
 		}
-		BufferedReader br = new BufferedReader(logReader);
-		
-		String s;
+		return logToView;
+	}
+
+	/**
+	 * Reads the most recent renames in the log
+	 * 
+	 * @param <RenameLog> log : the log to be viewed
+	 * @param <int> count : the most renames to read
+	 * @return <List<String>> contains the last renames, oldest first
+	 */
+	public static List<String> getRecentLog(RenameLog log, int count) {
+		return getLog(log, Math.max(0, log.getCount() - count), count);
+	}
+
+	/**
+	 * Reads the renames made between two times
+	 * 
+	 * @param <RenameLog> log : the log to be viewed
+	 * @param <long> from : the earliest time, in milliseconds
+	 * @param <long> to : the time after the last rename, in milliseconds
+	 * @param <int> count : the most renames to read
+	 * @return <List<String>> contains the renames, oldest first
+	 */
+	public static List<String> getLogBetween(RenameLog log, long from, long to, int count) {
 		try {
-			while ((s = br.readLine()) != null){
-				if (s.contains("SEVERE")){
-					logToView.add(s);
-					}
-				}
-			} catch (IOException e) {
-		} 
-	return logToView;
+			long first = log.findTime(from);
+			long end = log.findTime(to);
+			return getLog(log, first, (int) Math.min(count, end - first));
+		} catch (IOException e) {
+			System.out.println("Cannot read the rename log");
+			return new ArrayList<String>();
+		}
 	}
 }